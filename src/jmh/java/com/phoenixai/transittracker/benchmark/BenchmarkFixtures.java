@@ -0,0 +1,168 @@
+package com.phoenixai.transittracker.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.phoenixai.transittracker.model.Destination;
+import com.phoenixai.transittracker.model.Location;
+import com.phoenixai.transittracker.model.Origin;
+import com.phoenixai.transittracker.model.Route;
+import com.phoenixai.transittracker.model.Stop;
+import com.phoenixai.transittracker.services.BusChangeLog;
+import com.phoenixai.transittracker.services.BusIdInterner;
+import com.phoenixai.transittracker.services.BusLocationListener;
+import com.phoenixai.transittracker.services.BusPositionStore;
+import com.phoenixai.transittracker.services.BusUpdateBroadcaster;
+import com.phoenixai.transittracker.services.EtaService;
+import com.phoenixai.transittracker.services.GPSService;
+import com.phoenixai.transittracker.services.GeofenceService;
+import com.phoenixai.transittracker.services.LocationHistoryStore;
+import com.phoenixai.transittracker.services.LocationWal;
+import com.phoenixai.transittracker.services.MapMatchingService;
+import com.phoenixai.transittracker.services.PassengerStore;
+import com.phoenixai.transittracker.services.ProximityAlertService;
+import com.phoenixai.transittracker.services.RouteService;
+import com.phoenixai.transittracker.services.RoutesChangedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.web.client.RestTemplate;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Builds services and data sets for the benchmarks without starting Spring
+ */
+final class BenchmarkFixtures {
+
+    // Fleet is spread over roughly 50 x 50 km around Kingston
+    static final double CENTER_LAT = 18.0;
+    static final double CENTER_LNG = -76.8;
+    static final double SPREAD_DEGREES = 0.45;
+    // Synthetic routes for the production listeners: north-south lines across the fleet area
+    static final int ROUTES = 50;
+    static final int STOPS_PER_ROUTE = 20;
+
+    private BenchmarkFixtures() {
+    }
+
+    static LocationHistoryStore newHistoryStore() {
+        // No directory: the store uses a temporary one of its own, removed on close
+        return new LocationHistoryStore(null, 65536, Duration.ofMinutes(10), Duration.ofHours(1), 16);
+    }
+
+    /**
+     * GPSService with no listeners, isolating the cost of the service itself
+     */
+    static GPSService newGpsService(LocationHistoryStore historyStore) {
+        return new GPSService(new RestTemplate(), historyStore, new BusPositionStore(new BusIdInterner(), 100, 10),
+                new PassengerStore(Duration.ofMinutes(30), 1000),
+                List.of(), new SimpleMeterRegistry(), 0.01, 15, false);
+    }
+
+    /**
+     * GPSService with the listeners the application registers, in their @Order and with
+     * the default configuration (persistence off, no stream clients), and every bus
+     * assigned to one of the synthetic routes
+     */
+    static GPSService newProductionGpsService(LocationHistoryStore historyStore, String[] busIds) {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        // Stands in for the application context: routes changes go to the listeners that rebuild on them
+        List<Object> routeListeners = new CopyOnWriteArrayList<>();
+        RouteService routeService = new RouteService(event -> {
+            if (event instanceof RoutesChangedEvent changed) {
+                for (Object listener : routeListeners) {
+                    if (listener instanceof MapMatchingService mapMatching) {
+                        mapMatching.onRoutesChanged(changed);
+                    } else if (listener instanceof EtaService eta) {
+                        eta.onRoutesChanged(changed);
+                    } else if (listener instanceof GeofenceService geofences) {
+                        geofences.onRoutesChanged(changed);
+                    }
+                }
+            }
+        });
+        BusPositionStore positions = new BusPositionStore(new BusIdInterner(), 100, 10);
+        PassengerStore passengers = new PassengerStore(Duration.ofMinutes(30), 1000);
+
+        MapMatchingService mapMatching = new MapMatchingService(routeService, 200);
+        EtaService eta = new EtaService(routeService, mapMatching, 0.2, 20, Duration.ofMinutes(10));
+        GeofenceService geofences = new GeofenceService(routeService, event -> { }, registry, 40, 100, 15, 500);
+        ProximityAlertService proximity = new ProximityAlertService(routeService, passengers, event -> { },
+                registry, 2000, 10, 500);
+        BusChangeLog changeLog = new BusChangeLog(positions, Duration.ofMinutes(10));
+        BusUpdateBroadcaster broadcaster = new BusUpdateBroadcaster(new ObjectMapper(), positions,
+                new SimpleAsyncTaskExecutor(), 1_800_000, 30);
+        LocationWal wal = new LocationWal(registry, false, Path.of("unused"), Duration.ofMillis(10));
+        routeListeners.addAll(List.of(mapMatching, eta, geofences));
+
+        routeService.publishRoutes(syntheticRoutes());
+        for (int i = 0; i < busIds.length; i++) {
+            routeService.assignBus(busIds[i], "R" + (i % ROUTES));
+        }
+        // Ordered as Spring orders them: @Order values first, unordered beans last
+        List<BusLocationListener> listeners = List.of(mapMatching, eta, geofences, proximity,
+                wal, broadcaster, changeLog);
+        return new GPSService(new RestTemplate(), historyStore, positions, passengers,
+                listeners, registry, 0.01, 15, false);
+    }
+
+    static List<Route> syntheticRoutes() {
+        List<Route> routes = new ArrayList<>(ROUTES);
+        double south = CENTER_LAT - SPREAD_DEGREES / 2;
+        for (int r = 0; r < ROUTES; r++) {
+            double longitude = CENTER_LNG - SPREAD_DEGREES / 2 + SPREAD_DEGREES * (r + 0.5) / ROUTES;
+            Route route = new Route("R" + r,
+                    new Origin("O" + r, "Origin " + r, new Location(south, longitude, 0, 5.0)),
+                    new Destination("D" + r, "Destination " + r,
+                            new Location(south + SPREAD_DEGREES, longitude, 0, 5.0)));
+            ArrayList<Stop> stops = new ArrayList<>(STOPS_PER_ROUTE);
+            for (int s = 0; s < STOPS_PER_ROUTE; s++) {
+                double latitude = south + SPREAD_DEGREES * (s + 1) / (STOPS_PER_ROUTE + 1);
+                stops.add(new Stop("S" + r + "-" + s, "Stop " + r + "-" + s, new Location(latitude, longitude, 0, 5.0)));
+            }
+            route.setStops(stops);
+            routes.add(route);
+        }
+        return routes;
+    }
+
+    static String[] busIds(int count) {
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = String.format("BUS-%06d", i);
+        }
+        return ids;
+    }
+
+    static Location randomLocation(SplittableRandom random) {
+        return new Location(randomLatitude(random), randomLongitude(random), 0, 5.0);
+    }
+
+    static double randomLatitude(SplittableRandom random) {
+        return CENTER_LAT + (random.nextDouble() - 0.5) * SPREAD_DEGREES;
+    }
+
+    static double randomLongitude(SplittableRandom random) {
+        return CENTER_LNG + (random.nextDouble() - 0.5) * SPREAD_DEGREES;
+    }
+
+    static GPSService seededGpsService(LocationHistoryStore historyStore, String[] busIds, long seed) {
+        return seed(newGpsService(historyStore), busIds, seed);
+    }
+
+    static GPSService seededProductionGpsService(LocationHistoryStore historyStore, String[] busIds, long seed) {
+        return seed(newProductionGpsService(historyStore, busIds), busIds, seed);
+    }
+
+    private static GPSService seed(GPSService service, String[] busIds, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        for (String busId : busIds) {
+            service.initializeBus(busId, randomLocation(random));
+        }
+        return service;
+    }
+}
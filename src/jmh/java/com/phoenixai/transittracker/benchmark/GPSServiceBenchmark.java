@@ -0,0 +1,139 @@
+package com.phoenixai.transittracker.benchmark;
+
+import com.phoenixai.transittracker.model.Location;
+import com.phoenixai.transittracker.services.BusPositionStore;
+import com.phoenixai.transittracker.services.GPSService;
+import com.phoenixai.transittracker.services.LocationHistoryStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot paths of GPSService at different fleet sizes, either alone or with the
+ * listeners the application registers (map matching, ETA, geofences, proximity
+ * alerts, WAL, stream and change log)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GPSServiceBenchmark {
+
+    // Number of buses hit by the contended writers
+    private static final int HOT_BUSES = 4;
+
+    @Param({"1000", "10000", "100000"})
+    public int busCount;
+
+    @Param({"none", "production"})
+    public String listeners;
+
+    private LocationHistoryStore historyStore;
+    private GPSService gpsService;
+    private String[] busIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        busIds = BenchmarkFixtures.busIds(busCount);
+        historyStore = BenchmarkFixtures.newHistoryStore();
+        gpsService = "production".equals(listeners)
+                ? BenchmarkFixtures.seededProductionGpsService(historyStore, busIds, 42)
+                : BenchmarkFixtures.seededGpsService(historyStore, busIds, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        historyStore.close();
+    }
+
+    /**
+     * Per-thread source of random fixes so writers do not share a generator
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        SplittableRandom random;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            random = new SplittableRandom(Thread.currentThread().getId());
+        }
+    }
+
+    /**
+     * Radius query centers, spread over the same area as the fleet
+     */
+    @State(Scope.Thread)
+    public static class RadiusQuery {
+        @Param({"1.0", "5.0"})
+        public double radiusKm;
+
+        Location[] centers;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            SplittableRandom random = new SplittableRandom(7);
+            centers = new Location[1024];
+            for (int i = 0; i < centers.length; i++) {
+                centers[i] = BenchmarkFixtures.randomLocation(random);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void updateBusLocation(Writer writer) {
+        String busId = busIds[writer.random.nextInt(busIds.length)];
+        gpsService.updateBusLocation(busId, BenchmarkFixtures.randomLocation(writer.random));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void updateBusLocationPrimitive(Writer writer) {
+        String busId = busIds[writer.random.nextInt(busIds.length)];
+        gpsService.updateBusLocation(busId, BenchmarkFixtures.randomLatitude(writer.random),
+                BenchmarkFixtures.randomLongitude(writer.random), 0, 5.0, BusPositionStore.NO_TIMESTAMP);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void updateBusLocationContended(Writer writer) {
+        String busId = busIds[writer.next++ % HOT_BUSES];
+        gpsService.updateBusLocation(busId, BenchmarkFixtures.randomLocation(writer.random));
+    }
+
+    @Benchmark
+    public Map<String, Location> getBusesWithinRadius(RadiusQuery query) {
+        Location center = query.centers[query.next++ & (query.centers.length - 1)];
+        return gpsService.getBusesWithinRadius(center, query.radiusKm);
+    }
+
+    @Benchmark
+    public Map<String, Location> getAllBusLocations() {
+        return gpsService.getAllBusLocations();
+    }
+
+    @Benchmark
+    public List<Location> getBusLocationHistory(Writer writer) {
+        return gpsService.getBusLocationHistory(busIds[writer.random.nextInt(busIds.length)]);
+    }
+}
@@ -0,0 +1,61 @@
+package com.phoenixai.transittracker.benchmark;
+
+import com.phoenixai.transittracker.model.Location;
+import com.phoenixai.transittracker.model.RadiusFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distance math on Location
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LocationBenchmark {
+
+    private Location[] points;
+    private RadiusFilter filter;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(3);
+        points = new Location[1024];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = BenchmarkFixtures.randomLocation(random);
+        }
+        filter = new Location(BenchmarkFixtures.CENTER_LAT, BenchmarkFixtures.CENTER_LNG).radiusFilter(5.0);
+    }
+
+    @Benchmark
+    public double distanceTo() {
+        int i = next++ & (points.length - 1);
+        return points[i].distanceTo(points[(i + 1) & (points.length - 1)]);
+    }
+
+    @Benchmark
+    public boolean isWithinRadius() {
+        int i = next++ & (points.length - 1);
+        return points[i].isWithinRadius(points[(i + 1) & (points.length - 1)], 5.0);
+    }
+
+    @Benchmark
+    public boolean radiusFilterContains() {
+        return filter.contains(points[next++ & (points.length - 1)]);
+    }
+}
@@ -0,0 +1,289 @@
+package com.phoenixai.transittracker.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP load driver for the /api/map endpoints, for comparing server
+ * configurations such as platform and virtual request threads.
+ * Before measuring, a fleet of buses is loaded through the batch endpoint so
+ * queries and writes see a realistic number of buses. Each client then sends
+ * requests back to back, cycling through the endpoints (including location
+ * updates for random buses of the fleet); after a warm-up, throughput and
+ * latency percentiles are printed per endpoint. This is repeated for every
+ * client count given, and the results are also written as JSON, together
+ * with the driver's processor count and JVM.
+ * <p>
+ * Start the application (on Java 21 with --spring.threads.virtual.enabled=true
+ * for virtual threads), then run
+ * <pre>
+ * ./mvnw -P benchmark -DskipTests test-compile
+ * java -cp target/test-classes com.phoenixai.transittracker.benchmark.MapApiLoadTest \
+ *     [base URL] [clients, comma-separated] [warm-up seconds] [measured seconds] [fleet size] [result file]
+ * </pre>
+ * Defaults are http://localhost:8080, 100,1000 clients, 10 s, 30 s, 10000 buses
+ * and target/load-result.json. Run the driver on a different machine from the
+ * server, or the two compete for the same processors and the figures say more
+ * about that machine than about the server.
+ * <p>
+ * No results are checked in yet. A comparison worth publishing needs two runs
+ * with the same arguments against a multi-core server on Java 21, one with
+ * virtual threads off and one with them on, and both result files kept
+ * together.
+ */
+public final class MapApiLoadTest {
+
+    private static final String BUS_PREFIX = "LOAD-";
+    // Requests prepared per endpoint, each for a random bus of the fleet
+    private static final int PREPARED_REQUESTS = 1024;
+    private static final int SEED_BATCH = 1000;
+
+    private static final List<String> ENDPOINTS = List.of(
+            "GET /api/map/buses",
+            "GET /api/map/buses/{busId}",
+            "GET /api/map/buses/nearby?lat=18.01&lng=-76.79&radius=2",
+            "GET /api/map/buses/viewport?minLat=17.9&minLng=-76.9&maxLat=18.1&maxLng=-76.7&zoom=12",
+            "GET /api/map/stops/nearest?lat=18.0&lng=-76.79&k=5",
+            "GET /api/map/routes",
+            "POST /api/map/buses/{busId}/location");
+
+    private MapApiLoadTest() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int[] clientCounts = Arrays.stream((args.length > 1 ? args[1] : "100,1000").split(","))
+                .mapToInt(count -> Integer.parseInt(count.trim()))
+                .toArray();
+        long warmupNanos = TimeUnit.SECONDS.toNanos(args.length > 2 ? Long.parseLong(args[2]) : 10);
+        long measureNanos = TimeUnit.SECONDS.toNanos(args.length > 3 ? Long.parseLong(args[3]) : 30);
+        int fleetSize = args.length > 4 ? Integer.parseInt(args[4]) : 10_000;
+        Path resultFile = Path.of(args.length > 5 ? args[5] : "target/load-result.json");
+
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        seedFleet(http, baseUrl, fleetSize);
+        HttpRequest[][] requests = prepareRequests(baseUrl, fleetSize);
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"timestamp\":\"").append(Instant.now()).append('"')
+                .append(",\"baseUrl\":\"").append(baseUrl).append('"')
+                .append(",\"driverProcessors\":").append(Runtime.getRuntime().availableProcessors())
+                .append(",\"driverJvm\":\"").append(System.getProperty("java.vm.name")).append(' ')
+                .append(System.getProperty("java.version")).append('"')
+                .append(",\"fleetSize\":").append(fleetSize)
+                .append(",\"warmupSeconds\":").append(TimeUnit.NANOSECONDS.toSeconds(warmupNanos))
+                .append(",\"measuredSeconds\":").append(TimeUnit.NANOSECONDS.toSeconds(measureNanos))
+                .append(",\"runs\":[");
+        for (int run = 0; run < clientCounts.length; run++) {
+            if (run > 0) {
+                json.append(',');
+            }
+            run(http, requests, clientCounts[run], warmupNanos, measureNanos, json);
+        }
+        json.append("]}\n");
+
+        if (resultFile.getParent() != null) {
+            Files.createDirectories(resultFile.getParent());
+        }
+        Files.writeString(resultFile, json);
+        System.out.printf("Results written to %s%n", resultFile.toAbsolutePath());
+    }
+
+    /**
+     * Load the fleet through the batch endpoint, spread over the demo area
+     */
+    private static void seedFleet(HttpClient http, String baseUrl, int fleetSize)
+            throws IOException, InterruptedException {
+        SplittableRandom random = new SplittableRandom(42);
+        URI uri = URI.create(baseUrl + "/api/map/buses/locations");
+        for (int first = 0; first < fleetSize; first += SEED_BATCH) {
+            StringBuilder body = new StringBuilder();
+            for (int bus = first; bus < Math.min(fleetSize, first + SEED_BATCH); bus++) {
+                body.append("{\"busId\":\"").append(busId(bus)).append("\",\"location\":")
+                        .append(locationJson(random)).append("}\n");
+            }
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    .header("Content-Type", "application/x-ndjson")
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                    .timeout(Duration.ofSeconds(30))
+                    .build();
+            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() / 100 != 2) {
+                throw new IllegalStateException("Seeding the fleet failed with " + response.statusCode()
+                        + ": " + response.body());
+            }
+        }
+        System.out.printf("Seeded %d buses%n", fleetSize);
+    }
+
+    private static HttpRequest[][] prepareRequests(String baseUrl, int fleetSize) {
+        SplittableRandom random = new SplittableRandom(7);
+        HttpRequest[][] requests = new HttpRequest[ENDPOINTS.size()][PREPARED_REQUESTS];
+        for (int e = 0; e < ENDPOINTS.size(); e++) {
+            String[] endpoint = ENDPOINTS.get(e).split(" ", 2);
+            for (int i = 0; i < PREPARED_REQUESTS; i++) {
+                String path = endpoint[1].replace("{busId}", busId(random.nextInt(fleetSize)));
+                HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                        .timeout(Duration.ofSeconds(30));
+                if (endpoint[0].equals("POST")) {
+                    builder.header("Content-Type", "application/json")
+                            .POST(HttpRequest.BodyPublishers.ofString(locationJson(random)));
+                }
+                requests[e][i] = builder.build();
+            }
+        }
+        return requests;
+    }
+
+    private static void run(HttpClient http, HttpRequest[][] requests, int clients, long warmupNanos,
+                            long measureNanos, StringBuilder json) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureStart = start + warmupNanos;
+        long end = measureStart + measureNanos;
+        AtomicLong errors = new AtomicLong();
+        Recorder[] recorders = new Recorder[clients];
+        CountDownLatch done = new CountDownLatch(clients);
+        for (int c = 0; c < clients; c++) {
+            Recorder recorder = new Recorder(ENDPOINTS.size());
+            recorders[c] = recorder;
+            int offset = c;
+            Thread client = new Thread(() -> {
+                try {
+                    for (long i = offset; System.nanoTime() < end; i++) {
+                        int endpoint = (int) (i % ENDPOINTS.size());
+                        HttpRequest request = requests[endpoint][(int) (i / ENDPOINTS.size() % PREPARED_REQUESTS)];
+                        long sent = System.nanoTime();
+                        try {
+                            HttpResponse<byte[]> response = http.send(request,
+                                    HttpResponse.BodyHandlers.ofByteArray());
+                            // Updates answer 202 once queued
+                            if (response.statusCode() / 100 != 2) {
+                                errors.incrementAndGet();
+                                continue;
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                        if (sent >= measureStart) {
+                            recorder.record(endpoint, System.nanoTime() - sent);
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "load-client-" + c);
+            client.setDaemon(true);
+            client.start();
+        }
+        done.await();
+
+        double seconds = measureNanos / 1e9;
+        System.out.printf("%d clients, %.0f s measured, %d errors%n", clients, seconds, errors.get());
+        System.out.printf("%-95s %10s %9s %9s %9s %9s%n", "endpoint", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        json.append("{\"clients\":").append(clients).append(",\"errors\":").append(errors.get())
+                .append(",\"endpoints\":[");
+        long[] all = new long[0];
+        for (int e = 0; e < ENDPOINTS.size(); e++) {
+            long[] latencies = merge(recorders, e);
+            all = concat(all, latencies);
+            report(ENDPOINTS.get(e), latencies, seconds, json);
+            json.append(',');
+        }
+        report("all", all, seconds, json);
+        json.append("]}");
+    }
+
+    private static void report(String name, long[] latencies, double seconds, StringBuilder json) {
+        Arrays.sort(latencies);
+        double rate = latencies.length / seconds;
+        double p50 = percentile(latencies, 0.50);
+        double p95 = percentile(latencies, 0.95);
+        double p99 = percentile(latencies, 0.99);
+        double max = percentile(latencies, 1.0);
+        System.out.printf("%-95s %10.0f %9.2f %9.2f %9.2f %9.2f%n", name, rate, p50, p95, p99, max);
+        json.append(String.format(Locale.ROOT,
+                "{\"endpoint\":\"%s\",\"requests\":%d,\"requestsPerSecond\":%.1f,"
+                        + "\"p50Ms\":%s,\"p95Ms\":%s,\"p99Ms\":%s,\"maxMs\":%s}",
+                name, latencies.length, rate, jsonNumber(p50), jsonNumber(p95), jsonNumber(p99), jsonNumber(max)));
+    }
+
+    private static String jsonNumber(double value) {
+        return Double.isNaN(value) ? "null" : String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String busId(int bus) {
+        return String.format("%s%06d", BUS_PREFIX, bus);
+    }
+
+    private static String locationJson(SplittableRandom random) {
+        // Kingston area, as in the demo data; the driver runs without the application on its classpath
+        return String.format(Locale.ROOT, "{\"latitude\":%.6f,\"longitude\":%.6f,\"accuracy\":5.0}",
+                17.9 + random.nextDouble() * 0.2, -76.9 + random.nextDouble() * 0.2);
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static long[] merge(Recorder[] recorders, int endpoint) {
+        int total = 0;
+        for (Recorder recorder : recorders) {
+            total += recorder.counts[endpoint];
+        }
+        long[] merged = new long[total];
+        int n = 0;
+        for (Recorder recorder : recorders) {
+            System.arraycopy(recorder.latencies[endpoint], 0, merged, n, recorder.counts[endpoint]);
+            n += recorder.counts[endpoint];
+        }
+        return merged;
+    }
+
+    private static long[] concat(long[] a, long[] b) {
+        long[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    /**
+     * Latencies in nanoseconds measured by one client, per endpoint
+     */
+    private static final class Recorder {
+        private final long[][] latencies;
+        private final int[] counts;
+
+        Recorder(int endpoints) {
+            latencies = new long[endpoints][64];
+            counts = new int[endpoints];
+        }
+
+        void record(int endpoint, long nanos) {
+            if (counts[endpoint] == latencies[endpoint].length) {
+                latencies[endpoint] = Arrays.copyOf(latencies[endpoint], counts[endpoint] * 2);
+            }
+            latencies[endpoint][counts[endpoint]++] = nanos;
+        }
+    }
+}
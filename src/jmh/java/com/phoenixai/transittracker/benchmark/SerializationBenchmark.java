@@ -0,0 +1,100 @@
+package com.phoenixai.transittracker.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.phoenixai.transittracker.model.Location;
+import com.phoenixai.transittracker.services.BusIdInterner;
+import com.phoenixai.transittracker.services.BusPositionCodec;
+import com.phoenixai.transittracker.services.GPSService;
+import com.phoenixai.transittracker.services.LocationHistoryStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of the MapController response bodies, and the
+ * binary alternative for the bus positions
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"1000", "10000"})
+    public int busCount;
+
+    private ObjectMapper objectMapper;
+    private LocationHistoryStore historyStore;
+    private Map<String, Object> allBusesResponse;
+    private Map<String, Object> historyResponse;
+    private Map<String, Location> buses;
+    private BusPositionCodec busPositionCodec;
+    private int epoch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Same defaults Spring Boot applies to the MVC ObjectMapper
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        String[] busIds = BenchmarkFixtures.busIds(busCount);
+        historyStore = BenchmarkFixtures.newHistoryStore();
+        GPSService gpsService = BenchmarkFixtures.seededGpsService(historyStore, busIds, 11);
+
+        // Shapes built by MapController.getAllBusLocations and getBusLocationHistory
+        buses = gpsService.getAllBusLocations();
+        allBusesResponse = new HashMap<>();
+        allBusesResponse.put("buses", buses);
+        allBusesResponse.put("count", buses.size());
+        allBusesResponse.put("timestamp", System.currentTimeMillis());
+
+        List<Location> history = gpsService.getBusLocationHistory(busIds[0]);
+        historyResponse = new HashMap<>();
+        historyResponse.put("busId", busIds[0]);
+        historyResponse.put("history", history);
+        historyResponse.put("count", history.size());
+
+        BusIdInterner interner = new BusIdInterner();
+        busPositionCodec = new BusPositionCodec(interner);
+        epoch = interner.getEpoch();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        historyStore.close();
+    }
+
+    @Benchmark
+    public byte[] allBusLocations() throws Exception {
+        return objectMapper.writeValueAsBytes(allBusesResponse);
+    }
+
+    /**
+     * Binary encoding of the same positions for a client that already holds the bus ID dictionary
+     */
+    @Benchmark
+    public byte[] allBusLocationsBinary() {
+        return busPositionCodec.encode(buses, List.of(), 1, true, epoch, Integer.MAX_VALUE, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public byte[] busLocationHistory() throws Exception {
+        return objectMapper.writeValueAsBytes(historyResponse);
+    }
+}
@@ -1,12 +1,14 @@
 package com.phoenixai.transittracker.config;
 
 import com.phoenixai.transittracker.services.GPSService;
+import com.phoenixai.transittracker.services.RouteService;
 import com.phoenixai.transittracker.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.boot.CommandLineRunner;
 import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -19,6 +21,9 @@ public class AppConfig implements CommandLineRunner {
     @Autowired
     private GPSService gpsService;
 
+    @Autowired
+    private RouteService routeService;
+
     /**
      * Initialize sample bus data for demonstration
      */
@@ -83,16 +88,24 @@ public class AppConfig implements CommandLineRunner {
         // Add stops to route
         route001.setStops(routeStops);
         
+        // Publish routes once; the API serves them from the route registry
+        routeService.publishRoutes(List.of(route001));
+        
+        // All sample buses follow R001 for demo
+        routeService.assignBus("BUS-001", "R001");
+        routeService.assignBus("BUS-002", "R001");
+        routeService.assignBus("BUS-003", "R001");
+        
         // Initialize BUS-001 with GPS service at starting location
         Location bus1StartLocation = new Location(18.0172, -76.7840, 0, 5.0); // Starting at Half Way Tree
-        gpsService.initializeBus("BUS-001", bus1StartLocation);
+        initializeBusIfUntracked("BUS-001", bus1StartLocation);
         
         // Initialize other buses with basic locations
         Location bus2Location = new Location(18.0287, -76.8059, 0, 5.0); // Red Hills Road
         Location bus3Location = new Location(18.0699, -76.7899, 0, 5.0); // Stony Hill Road Bus Stop
         
-        gpsService.initializeBus("BUS-002", bus2Location);
-        gpsService.initializeBus("BUS-003", bus3Location);
+        initializeBusIfUntracked("BUS-002", bus2Location);
+        initializeBusIfUntracked("BUS-003", bus3Location);
 
         System.out.println("Sample bus data initialized:");
         System.out.println("- BUS-001: Route R001 (Half Way Tree to Downtown Kingston)");
@@ -103,4 +116,13 @@ public class AppConfig implements CommandLineRunner {
         System.out.println("- BUS-002: Basic location tracking");
         System.out.println("- BUS-003: Basic location tracking");
     }
+
+    /**
+     * Seed a bus unless it was restored from persisted state
+     */
+    private void initializeBusIfUntracked(String busId, Location location) {
+        if (gpsService.getBusLocation(busId) == null) {
+            gpsService.initializeBus(busId, location);
+        }
+    }
 }
@@ -1,20 +1,51 @@
 package com.phoenixai.transittracker.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.phoenixai.transittracker.model.BusCluster;
+import com.phoenixai.transittracker.model.BusLocationUpdate;
+import com.phoenixai.transittracker.model.ProximitySubscription;
 import com.phoenixai.transittracker.model.Route;
+import com.phoenixai.transittracker.model.RouteProgress;
 import com.phoenixai.transittracker.model.Stop;
-import com.phoenixai.transittracker.model.Origin;
-import com.phoenixai.transittracker.model.Destination;
+import com.phoenixai.transittracker.model.StopArrival;
 
+import com.phoenixai.transittracker.services.BusChangeLog;
+import com.phoenixai.transittracker.services.BusPositionCodec;
+import com.phoenixai.transittracker.services.BusUpdateIngest;
+import com.phoenixai.transittracker.services.BusUpdateBroadcaster;
+import com.phoenixai.transittracker.services.EtaService;
+import com.phoenixai.transittracker.services.GeofenceService;
 import com.phoenixai.transittracker.services.GPSService;
+import com.phoenixai.transittracker.services.LocationWal;
+import com.phoenixai.transittracker.services.MapMatchingService;
+import com.phoenixai.transittracker.services.ProximityAlertService;
+import com.phoenixai.transittracker.services.RouteService;
+import com.phoenixai.transittracker.services.StopKdTree;
+import com.phoenixai.transittracker.services.StopLocator;
 import com.phoenixai.transittracker.model.Location;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * REST Controller for handling map and GPS related operations
@@ -23,12 +54,57 @@ import java.util.Map;
 @RequestMapping("/api/map")
 public class MapController {
 
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+    private static final int MAX_NEAREST_STOPS = 50;
+
     @Autowired
     private GPSService gpsService;
 
+    @Autowired
+    private BusUpdateIngest busUpdateIngest;
+
+    @Autowired
+    private LocationWal locationWal;
+
+    @Autowired
+    private RouteService routeService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private BusUpdateBroadcaster busUpdateBroadcaster;
+
+    @Autowired
+    private MapMatchingService mapMatchingService;
+
+    @Autowired
+    private EtaService etaService;
+
+    @Autowired
+    private StopLocator stopLocator;
+
+    @Autowired
+    private BusPositionCodec busPositionCodec;
+
+    @Autowired
+    private BusChangeLog busChangeLog;
+
+    @Autowired
+    private GeofenceService geofenceService;
+
+    @Autowired
+    private ProximityAlertService proximityAlertService;
+
+    @Value("${transittracker.stream.interval:1000}")
+    private long streamInterval;
+
+    @Value("${transittracker.clusters.max-individual-buses:200}")
+    private int maxIndividualBuses;
+
     @GetMapping("/routes")
     public ResponseEntity<Map<String, Object>> getRoutes(){
-        List<Route> routes = getSampleRoutes();
+        List<Route> routes = routeService.getAllRoutes();
 
         Map<String, Object> response = new HashMap<>();
         response.put("routes", routes);
@@ -46,7 +122,7 @@ public class MapController {
  */
     @GetMapping("/routes/{routeNo}/stops")
     public ResponseEntity<Map<String, Object>> getRouteStops(@PathVariable String routeNo) {
-        Route route = findRouteByNumber(routeNo);
+        Route route = routeService.getRoute(routeNo);
     
         if (route == null) {
             return ResponseEntity.notFound().build();
@@ -62,25 +138,130 @@ public class MapController {
 
 
     /**
-     * Get all current bus locations
-     * @return JSON response with all bus locations
+     * Get all current bus locations, or only the buses changed since a version.
+     * Responds 304 Not Modified when If-None-Match carries the current ETag.
+     * @param since Version from a previous response; omit to get the full fleet
+     * @return JSON response with bus locations, removed bus IDs and the new version
      */
     @GetMapping("/buses")
-    public ResponseEntity<Map<String, Object>> getAllBusLocations() {
-        Map<String, Location> busLocations = gpsService.getAllBusLocations();
-        
+    public ResponseEntity<Map<String, Object>> getAllBusLocations(
+            @RequestParam(required = false) Long since,
+            WebRequest webRequest) {
+        long version = busChangeLog.getVersion();
+        String etag = busesEtag(version, "json");
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
+
+        BusChangeLog.Delta delta = since != null ? busChangeLog.changesSince(since) : null;
+        Map<String, Location> busLocations = delta != null ? delta.getUpdated() : gpsService.getAllBusLocations();
+
         Map<String, Object> response = new HashMap<>();
         response.put("buses", busLocations);
+        response.put("removed", delta != null ? delta.getRemoved() : List.of());
+        response.put("full", delta == null);
+        response.put("version", delta != null ? delta.getVersion() : version);
         response.put("count", busLocations.size());
         response.put("timestamp", System.currentTimeMillis());
         
+        return ResponseEntity.ok().eTag(etag).body(response);
+    }
+
+    /**
+     * Get bus locations in the compact binary format described in BusPositionCodec;
+     * chosen when the request accepts that media type
+     * @param since Version from a previous response; omit to get the full fleet
+     * @param knownIds Number of bus ID dictionary entries the client already holds
+     * @param epoch Epoch of the client's cached dictionary
+     * @return Encoded bus positions
+     */
+    @GetMapping(value = "/buses", produces = BusPositionCodec.MEDIA_TYPE)
+    public ResponseEntity<byte[]> getAllBusLocationsBinary(
+            @RequestParam(required = false) Long since,
+            @RequestParam(defaultValue = "0") int knownIds,
+            @RequestParam(defaultValue = "0") int epoch,
+            WebRequest webRequest) {
+        long version = busChangeLog.getVersion();
+        String etag = busesEtag(version, "bin");
+        if (webRequest.checkNotModified(etag)) {
+            return null;
+        }
+
+        BusChangeLog.Delta delta = since != null ? busChangeLog.changesSince(since) : null;
+        byte[] body = delta != null
+                ? busPositionCodec.encode(delta.getUpdated(), delta.getRemoved(), delta.getVersion(), false,
+                        epoch, knownIds, System.currentTimeMillis())
+                : busPositionCodec.encode(gpsService.getAllBusLocations(), List.of(), version, true,
+                        epoch, knownIds, System.currentTimeMillis());
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(BusPositionCodec.MEDIA_TYPE))
+                .eTag(etag)
+                .body(body);
+    }
+
+    private static String busesEtag(long version, String representation) {
+        // Weak: the body also carries the server time
+        return "W/\"" + version + "-" + representation + "\"";
+    }
+
+    /**
+     * Get what the map should draw for a viewport: individual buses when zoomed in
+     * or when few buses are in view, otherwise the count and centroid of each grid cell
+     * @param minLat Southern edge of the viewport
+     * @param minLng Western edge; greater than maxLng when the viewport crosses the antimeridian
+     * @param maxLat Northern edge of the viewport
+     * @param maxLng Eastern edge of the viewport
+     * @param zoom Map zoom level
+     * @return JSON response with buses or clusters
+     */
+    @GetMapping("/buses/viewport")
+    public ResponseEntity<Map<String, Object>> getBusesInViewport(
+            @RequestParam double minLat,
+            @RequestParam double minLng,
+            @RequestParam double maxLat,
+            @RequestParam double maxLng,
+            @RequestParam int zoom) {
+        if (minLat > maxLat) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        List<BusCluster> clusters = zoom < gpsService.getClusterMaxZoom()
+                ? gpsService.getBusClusters(minLat, maxLat, minLng, maxLng, zoom)
+                : null;
+        int clusteredCount = clusters != null ? clusters.stream().mapToInt(BusCluster::getCount).sum() : 0;
+        if (clusters == null || clusteredCount <= maxIndividualBuses) {
+            Map<String, Location> buses = gpsService.getBusesInBounds(minLat, maxLat, minLng, maxLng);
+            response.put("mode", "buses");
+            response.put("buses", buses);
+            response.put("count", buses.size());
+        } else {
+            response.put("mode", "clusters");
+            response.put("clusters", clusters);
+            response.put("count", clusteredCount);
+        }
+        response.put("zoom", zoom);
+        response.put("timestamp", System.currentTimeMillis());
+
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Stream bus position changes as Server-Sent Events.
+     * The first "snapshot" event carries every bus; each following "positions"
+     * event carries only the buses that moved or were removed since the last tick.
+     * @return Event stream of bus positions
+     */
+    @GetMapping(value = "/buses/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamBusLocations() {
+        return busUpdateBroadcaster.subscribe(gpsService::getAllBusLocations);
+    }
+
     /**
      * Get location of a specific bus
      * @param busId The bus identifier
-     * @return JSON response with bus location
+     * @return JSON response with bus location, speed and heading
      */
     @GetMapping("/buses/{busId}")
     public ResponseEntity<Map<String, Object>> getBusLocation(@PathVariable String busId) {
@@ -94,6 +275,7 @@ public class MapController {
         response.put("busId", busId);
         response.put("location", location);
         response.put("coordinates", location.getCoordinatesString());
+        response.put("motion", gpsService.getBusMotion(busId));
         
         return ResponseEntity.ok(response);
     }
@@ -126,7 +308,7 @@ public class MapController {
     /**
      * Get location history for a specific bus
      * @param busId The bus identifier
-     * @return JSON response with location history
+     * @return JSON response with location history and current motion
      */
     @GetMapping("/buses/{busId}/history")
     public ResponseEntity<Map<String, Object>> getBusLocationHistory(@PathVariable String busId) {
@@ -136,12 +318,43 @@ public class MapController {
         response.put("busId", busId);
         response.put("history", history);
         response.put("count", history.size());
+        response.put("motion", gpsService.getBusMotion(busId));
+        
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get the general location history within a time range
+     * @param from Inclusive start of the range (ISO date-time, optional)
+     * @param to Exclusive end of the range (ISO date-time, optional)
+     * @param limit Maximum number of locations to return (default: 1000)
+     * @return JSON response with historical locations
+     */
+    @GetMapping("/history")
+    public ResponseEntity<Map<String, Object>> getLocationHistory(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "1000") int limit) {
+        
+        List<Location> history = gpsService.streamLocationHistory(from, to)
+                .limit(Math.max(0, limit))
+                .collect(Collectors.toList());
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("from", from);
+        response.put("to", to);
+        response.put("history", history);
+        response.put("count", history.size());
         
         return ResponseEntity.ok(response);
     }
 
     /**
-     * Update bus location (for GPS devices or simulation)
+     * Update bus location (for GPS devices or simulation).
+     * The fix goes through the ingest stage: 400 if its coordinates are out of range,
+     * 202 once queued, or 429/503 with a Retry-After header when the bus or the
+     * server has too many pending fixes. A queued fix is not yet persisted; a crash
+     * within the coalescing window plus one WAL commit interval loses it.
      * @param busId The bus identifier
      * @param location The new location
      * @return JSON response confirming update
@@ -151,17 +364,125 @@ public class MapController {
             @PathVariable String busId,
             @RequestBody Location location) {
         
-        gpsService.updateBusLocation(busId, location);
+        BusUpdateIngest.Admission admission = busUpdateIngest.offer(busId, location);
         
         Map<String, Object> response = new HashMap<>();
         response.put("busId", busId);
         response.put("location", location);
+        response.put("timestamp", System.currentTimeMillis());
+        if (admission == BusUpdateIngest.Admission.INVALID) {
+            response.put("status", "rejected");
+            response.put("error", "Latitude must be within [-90, 90] and longitude within [-180, 180]");
+            return ResponseEntity.badRequest().body(response);
+        }
+        if (isRefused(admission)) {
+            return refused(admission, response);
+        }
+        if (admission == BusUpdateIngest.Admission.QUEUED) {
+            response.put("status", "queued");
+            return ResponseEntity.accepted().body(response);
+        }
         response.put("status", "updated");
+        
+        return durable(response);
+    }
+
+    /**
+     * Update many bus locations in one request (for GPS gateways).
+     * Accepts a JSON array or newline-delimited JSON of {"busId": ..., "location": {...}}
+     * objects; the body is parsed as a stream and each fix offered to the ingest stage.
+     * Once the server is overloaded the rest of the batch is refused with 503 and a
+     * Retry-After header; fixes refused because their bus has too many pending are
+     * counted in "throttled".
+     * @param body The request body
+     * @return JSON response acknowledging the batch
+     */
+    @PostMapping(value = "/buses/locations", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON})
+    public ResponseEntity<Map<String, Object>> updateBusLocations(InputStream body) throws IOException {
+        ObjectReader reader = objectMapper.readerFor(BusLocationUpdate.class);
+        int received = 0;
+        int accepted = 0;
+        int throttled = 0;
+        boolean overloaded = false;
+        String error = null;
+
+        try (MappingIterator<BusLocationUpdate> updates = reader.readValues(body)) {
+            while (updates.hasNextValue()) {
+                BusLocationUpdate update = updates.nextValue();
+                received++;
+                if (overloaded || update == null) {
+                    continue;
+                }
+                BusUpdateIngest.Admission admission = busUpdateIngest.offer(update.getBusId(), update.getLocation());
+                if (admission == BusUpdateIngest.Admission.OVERLOADED) {
+                    overloaded = true;
+                } else if (admission == BusUpdateIngest.Admission.BUS_LIMIT_REACHED) {
+                    throttled++;
+                } else if (admission != BusUpdateIngest.Admission.INVALID) {
+                    accepted++;
+                }
+            }
+        } catch (JsonProcessingException e) {
+            // Fixes parsed before the malformed entry have already been accepted
+            error = e.getOriginalMessage();
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("received", received);
+        response.put("accepted", accepted);
+        response.put("rejected", received - accepted);
+        response.put("throttled", throttled);
         response.put("timestamp", System.currentTimeMillis());
+        if (overloaded) {
+            return refused(BusUpdateIngest.Admission.OVERLOADED, response);
+        }
+        if (error != null) {
+            response.put("error", error);
+            return ResponseEntity.badRequest().body(response);
+        }
+        if (busUpdateIngest.isEnabled()) {
+            response.put("status", "queued");
+            return ResponseEntity.accepted().body(response);
+        }
+        response.put("status", "updated");
         
+        return durable(response);
+    }
+
+    /**
+     * Answer a change once the WAL has it on disk, or 503 if it cannot be persisted
+     */
+    private ResponseEntity<Map<String, Object>> durable(Map<String, Object> response) {
+        try {
+            locationWal.sync();
+        } catch (UncheckedIOException e) {
+            response.put("status", "not-persisted");
+            response.put("error", "Change applied but could not be persisted");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
+        }
         return ResponseEntity.ok(response);
     }
 
+    private static boolean isRefused(BusUpdateIngest.Admission admission) {
+        return admission == BusUpdateIngest.Admission.BUS_LIMIT_REACHED
+                || admission == BusUpdateIngest.Admission.OVERLOADED;
+    }
+
+    /**
+     * Answer a refused update: 429 when its bus has too many fixes pending, 503 when the server does
+     */
+    private ResponseEntity<Map<String, Object>> refused(BusUpdateIngest.Admission admission,
+                                                        Map<String, Object> response) {
+        boolean busLimit = admission == BusUpdateIngest.Admission.BUS_LIMIT_REACHED;
+        long retryAfter = busUpdateIngest.getRetryAfterSeconds();
+        response.put("status", "refused");
+        response.put("error", busLimit ? "Too many pending updates for this bus" : "Too many pending updates");
+        response.put("retryAfterSeconds", retryAfter);
+        return ResponseEntity.status(busLimit ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter))
+                .body(response);
+    }
+
     /**
      * Initialize a new bus with starting location
      * @param busId The bus identifier
@@ -173,7 +494,10 @@ public class MapController {
             @PathVariable String busId,
             @RequestBody Location location) {
         
-        gpsService.initializeBus(busId, location);
+        if (!GPSService.isValid(busId, location)) {
+            return ResponseEntity.badRequest().build();
+        }
+        busUpdateIngest.initialize(busId, location);
         
         Map<String, Object> response = new HashMap<>();
         response.put("busId", busId);
@@ -181,24 +505,24 @@ public class MapController {
         response.put("status", "initialized");
         response.put("timestamp", System.currentTimeMillis());
         
-        return ResponseEntity.ok(response);
+        return durable(response);
     }
 
     /**
-     * Remove a bus from tracking
+     * Remove a bus from tracking, along with any of its fixes still waiting to be applied
      * @param busId The bus identifier
      * @return JSON response confirming removal
      */
     @DeleteMapping("/buses/{busId}")
     public ResponseEntity<Map<String, Object>> removeBus(@PathVariable String busId) {
-        gpsService.removeBus(busId);
+        busUpdateIngest.remove(busId);
         
         Map<String, Object> response = new HashMap<>();
         response.put("busId", busId);
         response.put("status", "removed");
         response.put("timestamp", System.currentTimeMillis());
         
-        return ResponseEntity.ok(response);
+        return durable(response);
     }
 
     /**
@@ -210,48 +534,15 @@ public class MapController {
         Map<String, Object> config = new HashMap<>();
         config.put("defaultCenter", new Location(40.7128, -74.0060)); // New York City
         config.put("defaultZoom", 12);
-        config.put("updateInterval", 5000); // 5 seconds
-        config.put("maxHistoryPoints", 100);
+        config.put("updateInterval", 5000); // 5 seconds, when polling
+        config.put("streamUrl", "/api/map/buses/stream");
+        config.put("streamInterval", streamInterval);
+        config.put("maxHistoryPoints", gpsService.getHistoryCapacity());
+        config.put("clusterMaxZoom", gpsService.getClusterMaxZoom());
         
         return ResponseEntity.ok(config);
     }
 
-    // Helper methods for route management
-    private List<Route> getSampleRoutes() {
-        List<Route> routes = new ArrayList<>();
-        
-        // Create sample route data (similar to AppConfig)
-        Location halfWayTreeLocation = new Location(18.0172, -76.7840, 0, 5.0);
-        Origin halfWayTreeOrigin = new Origin("HWT-001", "Half Way Tree", halfWayTreeLocation);
-        
-        Location downtownLocation = new Location(17.9714, -76.7932, 0, 5.0);
-        Destination downtownDestination = new Destination("DT-001", "Downtown Kingston", downtownLocation);
-        
-        Route route001 = new Route("R001", halfWayTreeOrigin, downtownDestination);
-        route001.setDistance(8.5);
-        route001.setEstimatedDuration(25);
-        
-        // Add sample stops
-        ArrayList<Stop> routeStops = new ArrayList<>();
-        routeStops.add(new Stop("S001", "Hope Road & Trafalgar Road", new Location(18.0156, -76.7856, 0, 5.0)));
-        routeStops.add(new Stop("S002", "New Kingston", new Location(18.0089, -76.7890, 0, 5.0)));
-        routeStops.add(new Stop("S003", "Cross Roads", new Location(17.9956, -76.7923, 0, 5.0)));
-        routeStops.add(new Stop("S004", "Parade", new Location(17.9789, -76.7945, 0, 5.0)));
-        
-        route001.setStops(routeStops);
-        routes.add(route001);
-        
-        return routes;
-    }
-
-    private Route findRouteByNumber(String routeNo) {
-        List<Route> routes = getSampleRoutes();
-        return routes.stream()
-                .filter(route -> route.getRouteNo().equals(routeNo))
-                .findFirst()
-                .orElse(null);
-    }
-
     /**
      * Get route information for a specific bus
      * @param busId The bus identifier
@@ -259,16 +550,7 @@ public class MapController {
      */
     @GetMapping("/buses/{busId}/route")
     public ResponseEntity<Map<String, Object>> getBusRoute(@PathVariable String busId) {
-        // For now, we'll map buses to routes based on the sample data
-        // In a real application, this would come from a database
-        Map<String, String> busRouteMapping = getBusRouteMapping();
-        String routeNo = busRouteMapping.get(busId);
-        
-        if (routeNo == null) {
-            return ResponseEntity.notFound().build();
-        }
-        
-        Route route = findRouteByNumber(routeNo);
+        Route route = routeService.getRouteForBus(busId);
         if (route == null) {
             return ResponseEntity.notFound().build();
         }
@@ -285,14 +567,289 @@ public class MapController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Get where a bus is along its route, from its latest fix snapped onto the route line
+     * @param busId The bus identifier
+     * @return JSON response with route progress
+     */
+    @GetMapping("/buses/{busId}/progress")
+    public ResponseEntity<Map<String, Object>> getBusProgress(@PathVariable String busId) {
+        RouteProgress progress = mapMatchingService.getProgress(busId);
+        if (progress == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("busId", busId);
+        response.put("progress", progress);
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get the stops whose fence a bus is currently inside
+     * @param busId The bus identifier
+     * @return JSON response with stops
+     */
+    @GetMapping("/buses/{busId}/stops")
+    public ResponseEntity<Map<String, Object>> getBusStops(@PathVariable String busId) {
+        if (gpsService.getBusLocation(busId) == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        List<Stop> stops = geofenceService.getStopsForBus(busId);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("busId", busId);
+        response.put("stops", stops);
+        response.put("count", stops.size());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get predicted arrival times of a bus at the stops ahead of it
+     * @param busId The bus identifier
+     * @return JSON response with arrivals in route order
+     */
+    @GetMapping("/buses/{busId}/eta")
+    public ResponseEntity<Map<String, Object>> getBusEta(@PathVariable String busId) {
+        List<StopArrival> arrivals = etaService.getBusArrivals(busId);
+        if (arrivals == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("busId", busId);
+        response.put("routeNo", routeService.getRouteNoForBus(busId));
+        response.put("arrivals", arrivals);
+        response.put("count", arrivals.size());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get the stops closest to a point, or to a passenger's last known location
+     * @param lat Latitude of the point
+     * @param lng Longitude of the point
+     * @param passengerId Passenger whose location to use when lat/lng are omitted
+     * @param k Number of stops to return (default 5, at most 50); 400 if not positive
+     * @return JSON response with stops, closest first
+     */
+    @GetMapping("/stops/nearest")
+    public ResponseEntity<Map<String, Object>> getNearestStops(
+            @RequestParam(required = false) Double lat,
+            @RequestParam(required = false) Double lng,
+            @RequestParam(required = false) String passengerId,
+            @RequestParam(defaultValue = "5") int k) {
+        if (k <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (lat == null || lng == null) {
+            if (passengerId == null) {
+                return ResponseEntity.badRequest().build();
+            }
+            Location passengerLocation = gpsService.getCurrentUserLocation(passengerId);
+            if (passengerLocation == null) {
+                return ResponseEntity.notFound().build();
+            }
+            lat = passengerLocation.getLatitude();
+            lng = passengerLocation.getLongitude();
+        }
+
+        List<Map<String, Object>> stops = new ArrayList<>();
+        for (StopKdTree.Neighbor neighbor : stopLocator.findNearest(lat, lng, Math.min(k, MAX_NEAREST_STOPS))) {
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("stop", neighbor.getStop());
+            entry.put("distanceKm", neighbor.getDistanceKm());
+            entry.put("routes", routeService.getRoutesForStop(neighbor.getStop().getStopId()).stream()
+                    .map(Route::getRouteNo)
+                    .collect(Collectors.toList()));
+            stops.add(entry);
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("center", new Location(lat, lng));
+        response.put("stops", stops);
+        response.put("count", stops.size());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get the next predicted bus arrivals at a stop
+     * @param stopId The stop identifier
+     * @param limit Maximum number of arrivals to return (default 10)
+     * @return JSON response with arrivals, soonest first
+     */
+    @GetMapping("/stops/{stopId}/arrivals")
+    public ResponseEntity<Map<String, Object>> getStopArrivals(
+            @PathVariable String stopId,
+            @RequestParam(defaultValue = "10") int limit) {
+        Stop stop = routeService.getStop(stopId);
+        if (stop == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        List<StopArrival> arrivals = etaService.getArrivals(stopId, Math.max(0, limit));
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("stop", stop);
+        response.put("arrivals", arrivals);
+        response.put("count", arrivals.size());
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get the buses currently inside the fence around a stop
+     * @param stopId The stop identifier
+     * @return JSON response with bus IDs
+     */
+    @GetMapping("/stops/{stopId}/buses")
+    public ResponseEntity<Map<String, Object>> getBusesAtStop(@PathVariable String stopId) {
+        if (!geofenceService.hasFence(stopId)) {
+            return ResponseEntity.notFound().build();
+        }
+
+        List<String> buses = geofenceService.getBusesAtStop(stopId);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("stopId", stopId);
+        response.put("buses", buses);
+        response.put("count", buses.size());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Update a passenger's location; passengers who send nothing for the idle TTL are forgotten
+     * @param passengerId The passenger identifier
+     * @param location The new location
+     * @return JSON response confirming update
+     */
+    @PostMapping("/passengers/{passengerId}/location")
+    public ResponseEntity<Map<String, Object>> updatePassengerLocation(
+            @PathVariable String passengerId,
+            @RequestBody Location location) {
+        gpsService.updatePassengerLocation(passengerId, location);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("passengerId", passengerId);
+        response.put("location", location);
+        response.put("status", "updated");
+        response.put("timestamp", System.currentTimeMillis());
+
+        return durable(response);
+    }
+
+    /**
+     * Forget a passenger and their subscriptions
+     * @param passengerId The passenger identifier
+     * @return JSON response confirming removal
+     */
+    @DeleteMapping("/passengers/{passengerId}")
+    public ResponseEntity<Map<String, Object>> removePassenger(@PathVariable String passengerId) {
+        if (!gpsService.removePassenger(passengerId)) {
+            return ResponseEntity.notFound().build();
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("passengerId", passengerId);
+        response.put("status", "removed");
+        response.put("timestamp", System.currentTimeMillis());
+
+        return durable(response);
+    }
+
+    /**
+     * Ask to be told when a bus on a route comes within a distance of the passenger.
+     * The subscription fires once, follows the passenger's location, and the
+     * alert is published to in-process listeners and shown on the subscription.
+     * @param passengerId The passenger identifier
+     * @param routeNo The route to watch
+     * @param radiusMeters Distance from the passenger (default 300)
+     * @return JSON response with the new subscription
+     */
+    @PostMapping("/passengers/{passengerId}/subscriptions")
+    public ResponseEntity<Map<String, Object>> subscribeToProximity(
+            @PathVariable String passengerId,
+            @RequestParam String routeNo,
+            @RequestParam(defaultValue = "300") double radiusMeters) {
+        if (routeService.getRoute(routeNo) == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        ProximitySubscription subscription;
+        try {
+            subscription = proximityAlertService.subscribe(passengerId, routeNo, radiusMeters);
+        } catch (IllegalArgumentException e) {
+            response.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        } catch (IllegalStateException e) {
+            response.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        }
+        if (subscription == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        response.put("subscription", subscription);
+        response.put("status", "subscribed");
+        response.put("timestamp", System.currentTimeMillis());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get a passenger's proximity subscriptions, waiting and triggered
+     * @param passengerId The passenger identifier
+     * @return JSON response with subscriptions, oldest first
+     */
+    @GetMapping("/passengers/{passengerId}/subscriptions")
+    public ResponseEntity<Map<String, Object>> getProximitySubscriptions(@PathVariable String passengerId) {
+        List<ProximitySubscription> subscriptions = proximityAlertService.getSubscriptions(passengerId);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("passengerId", passengerId);
+        response.put("subscriptions", subscriptions);
+        response.put("count", subscriptions.size());
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Cancel a proximity subscription
+     * @param passengerId The passenger identifier
+     * @param subscriptionId The subscription identifier
+     * @return JSON response confirming cancellation
+     */
+    @DeleteMapping("/passengers/{passengerId}/subscriptions/{subscriptionId}")
+    public ResponseEntity<Map<String, Object>> cancelProximitySubscription(
+            @PathVariable String passengerId,
+            @PathVariable String subscriptionId) {
+        if (!proximityAlertService.cancel(passengerId, subscriptionId)) {
+            return ResponseEntity.notFound().build();
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("passengerId", passengerId);
+        response.put("subscriptionId", subscriptionId);
+        response.put("status", "cancelled");
+
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * Get all routes with their associated buses
      * @return JSON response with routes and buses
      */
     @GetMapping("/routes/buses")
     public ResponseEntity<Map<String, Object>> getRoutesWithBuses() {
-        List<Route> routes = getSampleRoutes();
-        Map<String, String> busRouteMapping = getBusRouteMapping();
+        List<Route> routes = routeService.getAllRoutes();
+        Map<String, String> busRouteMapping = routeService.getBusRouteMapping();
         
         Map<String, Object> response = new HashMap<>();
         response.put("routes", routes);
@@ -301,16 +858,4 @@ public class MapController {
         
         return ResponseEntity.ok(response);
     }
-
-    /**
-     * Get bus-route mapping for sample data
-     * @return Map of busId to routeNo
-     */
-    private Map<String, String> getBusRouteMapping() {
-        Map<String, String> mapping = new HashMap<>();
-        mapping.put("BUS-001", "R001");
-        mapping.put("BUS-002", "R001"); // BUS-002 also follows R001 for demo
-        mapping.put("BUS-003", "R001"); // BUS-003 also follows R001 for demo
-        return mapping;
-    }
 }
@@ -0,0 +1,57 @@
+package com.phoenixai.transittracker.model;
+
+/**
+ * Buses grouped into one map grid cell, for drawing zoomed-out views
+ */
+public class BusCluster {
+    private double latitude; // centroid of the buses in the cell
+    private double longitude;
+    private int count;
+
+    // Constructors
+    public BusCluster() {
+    }
+
+    public BusCluster(double latitude, double longitude, int count) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.count = count;
+    }
+
+
+    // Accessors
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+
+    // Mutators
+    public void setLatitude(double latitude) {
+        this.latitude = latitude;
+    }
+
+    public void setLongitude(double longitude) {
+        this.longitude = longitude;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    @Override
+    public String toString() {
+        return "BusCluster{" +
+                "latitude=" + latitude +
+                ", longitude=" + longitude +
+                ", count=" + count +
+                '}';
+    }
+}
@@ -0,0 +1,46 @@
+package com.phoenixai.transittracker.model;
+
+/**
+ * A single GPS fix for a bus, as received in a batch ingest request
+ */
+public class BusLocationUpdate {
+    private String busId;
+    private Location location;
+
+    // Constructors
+    public BusLocationUpdate() {
+    }
+
+    public BusLocationUpdate(String busId, Location location) {
+        this.busId = busId;
+        this.location = location;
+    }
+
+
+    // Accessors
+    public String getBusId() {
+        return busId;
+    }
+
+    public Location getLocation() {
+        return location;
+    }
+
+
+    // Mutators
+    public void setBusId(String busId) {
+        this.busId = busId;
+    }
+
+    public void setLocation(Location location) {
+        this.location = location;
+    }
+
+    @Override
+    public String toString() {
+        return "BusLocationUpdate{" +
+                "busId='" + busId + '\'' +
+                ", location=" + location +
+                '}';
+    }
+}
@@ -0,0 +1,70 @@
+package com.phoenixai.transittracker.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Speed, heading and distance travelled of a bus, derived from its consecutive fixes
+ */
+public class BusMotion {
+    private double speedKmh; // between the last two fixes
+    private Double headingDegrees; // clockwise from north; null until the bus has moved
+    private double odometerKm; // since the bus was first tracked by this instance
+    private LocalDateTime timestamp; // of the last fix
+
+    // Constructors
+    public BusMotion() {
+    }
+
+    public BusMotion(double speedKmh, Double headingDegrees, double odometerKm, LocalDateTime timestamp) {
+        this.speedKmh = speedKmh;
+        this.headingDegrees = headingDegrees;
+        this.odometerKm = odometerKm;
+        this.timestamp = timestamp;
+    }
+
+
+    // Accessors
+    public double getSpeedKmh() {
+        return speedKmh;
+    }
+
+    public Double getHeadingDegrees() {
+        return headingDegrees;
+    }
+
+    public double getOdometerKm() {
+        return odometerKm;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+
+    // Mutators
+    public void setSpeedKmh(double speedKmh) {
+        this.speedKmh = speedKmh;
+    }
+
+    public void setHeadingDegrees(Double headingDegrees) {
+        this.headingDegrees = headingDegrees;
+    }
+
+    public void setOdometerKm(double odometerKm) {
+        this.odometerKm = odometerKm;
+    }
+
+    public void setTimestamp(LocalDateTime timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "BusMotion{" +
+                "speedKmh=" + speedKmh +
+                ", headingDegrees=" + headingDegrees +
+                ", odometerKm=" + odometerKm +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
@@ -6,6 +6,8 @@ import java.time.LocalDateTime;
  * Represents a GPS location with latitude, longitude, and timestamp
  */
 public class Location {
+    public static final double EARTH_RADIUS_KM = 6371;
+
     private double latitude;
     private double longitude;
     private double altitude;
@@ -88,30 +90,74 @@ public class Location {
      * @return Distance in kilometers
      */
     public double distanceTo(Location other) {
-        final int R = 6371; // Earth's radius in kilometers
-        
-        double latDistance = Math.toRadians(other.latitude - this.latitude);
-        double lonDistance = Math.toRadians(other.longitude - this.longitude);
+        return haversineKm(this.latitude, this.longitude, other.latitude, other.longitude);
+    }
+
+    /**
+     * Calculate distance between two points using Haversine formula
+     * @param latitude1 Latitude of the first point in degrees
+     * @param longitude1 Longitude of the first point in degrees
+     * @param latitude2 Latitude of the second point in degrees
+     * @param longitude2 Longitude of the second point in degrees
+     * @return Distance in kilometers
+     */
+    public static double haversineKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double latDistance = Math.toRadians(latitude2 - latitude1);
+        double lonDistance = Math.toRadians(longitude2 - longitude1);
         
         double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(this.latitude)) * Math.cos(Math.toRadians(other.latitude))
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
                 * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
         
         double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
         
-        return R * c;
+        return EARTH_RADIUS_KM * c;
+    }
+
+    /**
+     * Calculate the initial bearing of the great circle from one point to another
+     * @param latitude1 Latitude of the first point in degrees
+     * @param longitude1 Longitude of the first point in degrees
+     * @param latitude2 Latitude of the second point in degrees
+     * @param longitude2 Longitude of the second point in degrees
+     * @return Bearing in degrees clockwise from north, in [0, 360)
+     */
+    public static double bearingDegrees(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double lonDistance = Math.toRadians(longitude2 - longitude1);
+
+        double y = Math.sin(lonDistance) * Math.cos(phi2);
+        double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(lonDistance);
+
+        return (Math.toDegrees(Math.atan2(y, x)) + 360) % 360;
     }
 
     /**
-     * Check if this location is within a certain radius of another location
+     * Check if this location is within a certain radius of another location.
+     * Use radiusFilter() instead when testing many points against the same center.
      * @param other Another location
      * @param radiusKm Radius in kilometers
      * @return true if within radius
      */
     public boolean isWithinRadius(Location other, double radiusKm) {
+        // Latitude alone bounds the distance from below, so far-away points skip the trigonometry
+        if (Math.abs(other.latitude - this.latitude) > Math.toDegrees(radiusKm / EARTH_RADIUS_KM)) {
+            return false;
+        }
         return distanceTo(other) <= radiusKm;
     }
 
+    /**
+     * Create a filter for points within a radius of this location.
+     * The filter precomputes everything that depends only on the center.
+     * @param radiusKm Radius in kilometers
+     * @return filter centered on this location
+     */
+    public RadiusFilter radiusFilter(double radiusKm) {
+        return new RadiusFilter(this, radiusKm);
+    }
+
     /**
      * Get coordinates as a string for map APIs
      * @return "lat,lng" format
@@ -0,0 +1,113 @@
+package com.phoenixai.transittracker.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * A passenger's request to be told when a bus on a route comes within a distance of them
+ */
+public class ProximitySubscription {
+    private String subscriptionId;
+    private String passengerId;
+    private String routeNo;
+    private double radiusMeters;
+    private LocalDateTime createdAt;
+    private String triggeredBy; // bus that came within range; null while waiting
+    private Double triggeredDistanceMeters;
+    private LocalDateTime triggeredAt; // time of the bus fix that came within range
+
+    // Constructors
+    public ProximitySubscription() {
+    }
+
+    public ProximitySubscription(String subscriptionId, String passengerId, String routeNo, double radiusMeters,
+                                 LocalDateTime createdAt) {
+        this.subscriptionId = subscriptionId;
+        this.passengerId = passengerId;
+        this.routeNo = routeNo;
+        this.radiusMeters = radiusMeters;
+        this.createdAt = createdAt;
+    }
+
+
+    // Accessors
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    public String getPassengerId() {
+        return passengerId;
+    }
+
+    public String getRouteNo() {
+        return routeNo;
+    }
+
+    public double getRadiusMeters() {
+        return radiusMeters;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getTriggeredBy() {
+        return triggeredBy;
+    }
+
+    public Double getTriggeredDistanceMeters() {
+        return triggeredDistanceMeters;
+    }
+
+    public LocalDateTime getTriggeredAt() {
+        return triggeredAt;
+    }
+
+    public boolean isTriggered() {
+        return triggeredBy != null;
+    }
+
+
+    // Mutators
+    public void setSubscriptionId(String subscriptionId) {
+        this.subscriptionId = subscriptionId;
+    }
+
+    public void setPassengerId(String passengerId) {
+        this.passengerId = passengerId;
+    }
+
+    public void setRouteNo(String routeNo) {
+        this.routeNo = routeNo;
+    }
+
+    public void setRadiusMeters(double radiusMeters) {
+        this.radiusMeters = radiusMeters;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public void setTriggeredBy(String triggeredBy) {
+        this.triggeredBy = triggeredBy;
+    }
+
+    public void setTriggeredDistanceMeters(Double triggeredDistanceMeters) {
+        this.triggeredDistanceMeters = triggeredDistanceMeters;
+    }
+
+    public void setTriggeredAt(LocalDateTime triggeredAt) {
+        this.triggeredAt = triggeredAt;
+    }
+
+    @Override
+    public String toString() {
+        return "ProximitySubscription{" +
+                "subscriptionId='" + subscriptionId + '\'' +
+                ", passengerId='" + passengerId + '\'' +
+                ", routeNo='" + routeNo + '\'' +
+                ", radiusMeters=" + radiusMeters +
+                ", triggeredBy='" + triggeredBy + '\'' +
+                '}';
+    }
+}
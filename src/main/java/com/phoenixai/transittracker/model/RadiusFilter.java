@@ -0,0 +1,163 @@
+package com.phoenixai.transittracker.model;
+
+/**
+ * Tests whether points fall within a radius of a fixed center.
+ * Everything that depends only on the center and radius (bounding box,
+ * cos(latitude), approximation thresholds) is computed once, and each point
+ * goes through up to three stages:
+ * 1. reject points outside the latitude/longitude bounding box of the circle
+ * 2. accept or reject with an equirectangular approximation when the point
+ *    is clearly inside or outside the circle
+ * 3. run the exact Haversine formula only for points near the boundary
+ */
+public final class RadiusFilter {
+
+    // Stage 2 is skipped when its error bound is larger than this fraction of the radius
+    private static final double MAX_APPROXIMATION_ERROR = 0.05;
+
+    private final double centerLatitude;
+    private final double centerLongitude;
+    private final double radiusKm;
+    private final double minLatitude;
+    private final double maxLatitude;
+    private final double longitudeSpan;
+    private final boolean allLongitudes;
+    private final double cosCenterLatitude;
+    private final boolean approximate;
+    private final double innerRadiusSquared;
+    private final double outerRadiusSquared;
+
+    /**
+     * @param center The center location
+     * @param radiusKm The radius in kilometers
+     */
+    public RadiusFilter(Location center, double radiusKm) {
+        this(center.getLatitude(), center.getLongitude(), radiusKm);
+    }
+
+    /**
+     * @param centerLatitude Latitude of the center in degrees
+     * @param centerLongitude Longitude of the center in degrees
+     * @param radiusKm The radius in kilometers
+     */
+    public RadiusFilter(double centerLatitude, double centerLongitude, double radiusKm) {
+        this.centerLatitude = centerLatitude;
+        this.centerLongitude = centerLongitude;
+        this.radiusKm = radiusKm;
+
+        double angularRadius = radiusKm / Location.EARTH_RADIUS_KM;
+        double latitudeSpan = Math.toDegrees(angularRadius);
+        this.minLatitude = centerLatitude - latitudeSpan;
+        this.maxLatitude = centerLatitude + latitudeSpan;
+
+        // Longitude half-width of the smallest box enclosing the circle; the whole
+        // longitude range is needed when the circle reaches a pole
+        double cosLatitude = Math.cos(Math.toRadians(centerLatitude));
+        double ratio = Math.sin(angularRadius) / cosLatitude;
+        this.allLongitudes = minLatitude <= -90 || maxLatitude >= 90 || angularRadius >= Math.PI / 2 || ratio >= 1;
+        this.longitudeSpan = allLongitudes ? 180 : Math.toDegrees(Math.asin(ratio));
+        this.cosCenterLatitude = cosLatitude;
+
+        // Using the center's cos(latitude) for the whole circle misstates east-west
+        // distances by about tan(latitude) times half the latitude span, plus a
+        // curvature term that grows with the square of the angular radius
+        double maxAbsLatitude = Math.max(Math.abs(minLatitude), Math.abs(maxLatitude));
+        double error = allLongitudes ? Double.POSITIVE_INFINITY
+                : 2 * (Math.tan(Math.toRadians(maxAbsLatitude)) * angularRadius / 2 + angularRadius * angularRadius);
+        this.approximate = error < MAX_APPROXIMATION_ERROR;
+        this.innerRadiusSquared = square(radiusKm * (1 - error));
+        this.outerRadiusSquared = square(radiusKm * (1 + error));
+    }
+
+    /**
+     * Check whether a point is within the radius
+     * @param location The point to check
+     * @return true if the great-circle distance to the center is within the radius
+     */
+    public boolean contains(Location location) {
+        return contains(location.getLatitude(), location.getLongitude());
+    }
+
+    /**
+     * Check whether a point is within the radius
+     * @param latitude Latitude of the point in degrees
+     * @param longitude Longitude of the point in degrees
+     * @return true if the great-circle distance to the center is within the radius
+     */
+    public boolean contains(double latitude, double longitude) {
+        // Stage 1: bounding box
+        if (latitude < minLatitude || latitude > maxLatitude) {
+            return false;
+        }
+        double deltaLongitude = normalizeLongitude(longitude - centerLongitude);
+        if (!allLongitudes && Math.abs(deltaLongitude) > longitudeSpan) {
+            return false;
+        }
+
+        // Stage 2: equirectangular approximation, decisive away from the boundary
+        if (approximate) {
+            double x = Math.toRadians(deltaLongitude) * cosCenterLatitude;
+            double y = Math.toRadians(latitude - centerLatitude);
+            double distanceSquared = (x * x + y * y) * Location.EARTH_RADIUS_KM * Location.EARTH_RADIUS_KM;
+            if (distanceSquared <= innerRadiusSquared) {
+                return true;
+            }
+            if (distanceSquared > outerRadiusSquared) {
+                return false;
+            }
+        }
+
+        // Stage 3: exact great-circle distance
+        return Location.haversineKm(centerLatitude, centerLongitude, latitude, longitude) <= radiusKm;
+    }
+
+    // Accessors
+    public double getRadiusKm() {
+        return radiusKm;
+    }
+
+    public double getMinLatitude() {
+        return Math.max(-90, minLatitude);
+    }
+
+    public double getMaxLatitude() {
+        return Math.min(90, maxLatitude);
+    }
+
+    /**
+     * Get the western edge of the bounding box; it is greater than the eastern
+     * edge when the box crosses the antimeridian
+     * @return western longitude in degrees, -180 when all longitudes are covered
+     */
+    public double getMinLongitude() {
+        return allLongitudes ? -180 : normalizeLongitude(centerLongitude - longitudeSpan);
+    }
+
+    /**
+     * Get the eastern edge of the bounding box
+     * @return eastern longitude in degrees, 180 when all longitudes are covered
+     */
+    public double getMaxLongitude() {
+        return allLongitudes ? 180 : normalizeLongitude(centerLongitude + longitudeSpan);
+    }
+
+    /**
+     * Check whether the bounding box covers every longitude (the circle reaches a pole)
+     * @return true if longitude cannot be used to reject points
+     */
+    public boolean coversAllLongitudes() {
+        return allLongitudes;
+    }
+
+    private static double normalizeLongitude(double longitude) {
+        double normalized = (longitude + 180) % 360;
+        if (normalized < 0) {
+            normalized += 360;
+        }
+        return normalized - 180;
+    }
+
+    private static double square(double value) {
+        return value * value;
+    }
+}
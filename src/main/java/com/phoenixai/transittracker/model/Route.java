@@ -20,6 +20,7 @@ public class Route {
 
     // Constructor with basic information
     public Route(String routeNo, Origin origin, Destination destination) {
+        this();
         this.routeNo = routeNo;
         this.origin = origin;
         this.destination = destination;
@@ -0,0 +1,130 @@
+package com.phoenixai.transittracker.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Position of a bus along its route, from snapping a GPS fix onto the route line
+ */
+public class RouteProgress {
+    private String routeNo;
+    private Location snappedLocation;
+    private int segmentIndex;
+    private String fromStopId;
+    private String toStopId;
+    private double distanceAlongKm; // from the route origin to the snapped point
+    private double routeLengthKm;
+    private double offRouteMeters; // between the fix and the snapped point
+    private LocalDateTime timestamp;
+
+    // Constructors
+    public RouteProgress() {
+    }
+
+    public RouteProgress(String routeNo, Location snappedLocation, int segmentIndex, String fromStopId,
+                         String toStopId, double distanceAlongKm, double routeLengthKm, double offRouteMeters,
+                         LocalDateTime timestamp) {
+        this.routeNo = routeNo;
+        this.snappedLocation = snappedLocation;
+        this.segmentIndex = segmentIndex;
+        this.fromStopId = fromStopId;
+        this.toStopId = toStopId;
+        this.distanceAlongKm = distanceAlongKm;
+        this.routeLengthKm = routeLengthKm;
+        this.offRouteMeters = offRouteMeters;
+        this.timestamp = timestamp;
+    }
+
+
+    // Accessors
+    public String getRouteNo() {
+        return routeNo;
+    }
+
+    public Location getSnappedLocation() {
+        return snappedLocation;
+    }
+
+    public int getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    public String getFromStopId() {
+        return fromStopId;
+    }
+
+    public String getToStopId() {
+        return toStopId;
+    }
+
+    public double getDistanceAlongKm() {
+        return distanceAlongKm;
+    }
+
+    public double getRouteLengthKm() {
+        return routeLengthKm;
+    }
+
+    public double getOffRouteMeters() {
+        return offRouteMeters;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Get the share of the route already covered
+     * @return fraction between 0 and 1
+     */
+    public double getFractionComplete() {
+        return routeLengthKm > 0 ? distanceAlongKm / routeLengthKm : 0;
+    }
+
+
+    // Mutators
+    public void setRouteNo(String routeNo) {
+        this.routeNo = routeNo;
+    }
+
+    public void setSnappedLocation(Location snappedLocation) {
+        this.snappedLocation = snappedLocation;
+    }
+
+    public void setSegmentIndex(int segmentIndex) {
+        this.segmentIndex = segmentIndex;
+    }
+
+    public void setFromStopId(String fromStopId) {
+        this.fromStopId = fromStopId;
+    }
+
+    public void setToStopId(String toStopId) {
+        this.toStopId = toStopId;
+    }
+
+    public void setDistanceAlongKm(double distanceAlongKm) {
+        this.distanceAlongKm = distanceAlongKm;
+    }
+
+    public void setRouteLengthKm(double routeLengthKm) {
+        this.routeLengthKm = routeLengthKm;
+    }
+
+    public void setOffRouteMeters(double offRouteMeters) {
+        this.offRouteMeters = offRouteMeters;
+    }
+
+    public void setTimestamp(LocalDateTime timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "RouteProgress{" +
+                "routeNo='" + routeNo + '\'' +
+                ", segmentIndex=" + segmentIndex +
+                ", distanceAlongKm=" + distanceAlongKm +
+                ", offRouteMeters=" + offRouteMeters +
+                '}';
+    }
+}
@@ -0,0 +1,101 @@
+package com.phoenixai.transittracker.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Predicted arrival of a bus at a stop on its route
+ */
+public class StopArrival {
+    private String busId;
+    private String routeNo;
+    private String stopId;
+    private LocalDateTime estimatedArrival;
+    private long secondsAway;
+    private double distanceKm; // along the route, from the bus to the stop
+    private LocalDateTime predictedAt; // time of the fix the prediction is based on
+
+    // Constructors
+    public StopArrival() {
+    }
+
+    public StopArrival(String busId, String routeNo, String stopId, LocalDateTime estimatedArrival,
+                       long secondsAway, double distanceKm, LocalDateTime predictedAt) {
+        this.busId = busId;
+        this.routeNo = routeNo;
+        this.stopId = stopId;
+        this.estimatedArrival = estimatedArrival;
+        this.secondsAway = secondsAway;
+        this.distanceKm = distanceKm;
+        this.predictedAt = predictedAt;
+    }
+
+
+    // Accessors
+    public String getBusId() {
+        return busId;
+    }
+
+    public String getRouteNo() {
+        return routeNo;
+    }
+
+    public String getStopId() {
+        return stopId;
+    }
+
+    public LocalDateTime getEstimatedArrival() {
+        return estimatedArrival;
+    }
+
+    public long getSecondsAway() {
+        return secondsAway;
+    }
+
+    public double getDistanceKm() {
+        return distanceKm;
+    }
+
+    public LocalDateTime getPredictedAt() {
+        return predictedAt;
+    }
+
+
+    // Mutators
+    public void setBusId(String busId) {
+        this.busId = busId;
+    }
+
+    public void setRouteNo(String routeNo) {
+        this.routeNo = routeNo;
+    }
+
+    public void setStopId(String stopId) {
+        this.stopId = stopId;
+    }
+
+    public void setEstimatedArrival(LocalDateTime estimatedArrival) {
+        this.estimatedArrival = estimatedArrival;
+    }
+
+    public void setSecondsAway(long secondsAway) {
+        this.secondsAway = secondsAway;
+    }
+
+    public void setDistanceKm(double distanceKm) {
+        this.distanceKm = distanceKm;
+    }
+
+    public void setPredictedAt(LocalDateTime predictedAt) {
+        this.predictedAt = predictedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "StopArrival{" +
+                "busId='" + busId + '\'' +
+                ", stopId='" + stopId + '\'' +
+                ", estimatedArrival=" + estimatedArrival +
+                ", secondsAway=" + secondsAway +
+                '}';
+    }
+}
@@ -0,0 +1,211 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versions every bus change so clients can fetch only what changed since
+ * their last poll. Each update or removal takes the next value of a global
+ * version and becomes the bus's only entry in a version-ordered change log;
+ * removals stay as tombstones for a retention period. The log records which
+ * buses changed; their positions are read from BusPositionStore when a delta
+ * is requested.
+ * <p>
+ * Recording takes no lock, so changes of different buses never wait for each
+ * other. Versions can be entered out of order, so the published version only
+ * moves past a version once every version below it is in the log, and a
+ * delta never skips a change still being recorded.
+ * Versions start from the current time in microseconds, so they keep growing
+ * across restarts and a client holding a version from an earlier run is sent
+ * the full fleet.
+ */
+@Component
+public class BusChangeLog implements BusLocationListener {
+
+    private final BusPositionStore positions;
+    private final long tombstoneRetentionMillis;
+    // Last version handed out
+    private final AtomicLong allocated;
+    // Every version up to this one is in the log
+    private final AtomicLong published;
+    // Oldest version a delta can start from; raised when tombstones are pruned
+    private volatile long floor;
+    private final ConcurrentSkipListMap<Long, Change> changes = new ConcurrentSkipListMap<>();
+    // Replaced and pruned with single operations on the entry, so pruning never drops a newer change
+    private final Map<String, Change> latestByBus = new ConcurrentHashMap<>();
+
+    public BusChangeLog(BusPositionStore positions,
+                        @Value("${transittracker.changes.tombstone-retention:10m}") Duration tombstoneRetention) {
+        this.positions = positions;
+        this.tombstoneRetentionMillis = tombstoneRetention.toMillis();
+        long start = System.currentTimeMillis() * 1000;
+        this.allocated = new AtomicLong(start);
+        this.published = new AtomicLong(start);
+        this.floor = start;
+    }
+
+    @Override
+    public void onBusLocationUpdated(String busId, double latitude, double longitude, double altitude, double accuracy,
+                                     long timestamp) {
+        record(busId, false);
+    }
+
+    @Override
+    public void onBusRemoved(String busId) {
+        record(busId, true);
+    }
+
+    /**
+     * Get the version of the latest change
+     * @return current version
+     */
+    public long getVersion() {
+        return published.get();
+    }
+
+    /**
+     * Get the buses changed or removed after a version. A bus changed more than
+     * once is reported once, with its latest location; that may be newer than the
+     * returned version, in which case it is reported again by the next delta.
+     * @param since Version the client already has
+     * @return Changes up to the returned version, or null if the client must fetch the full fleet
+     */
+    public Delta changesSince(long since) {
+        long current = published.get();
+        if (since < floor || since > current) {
+            return null;
+        }
+        Map<String, Location> updated = new HashMap<>();
+        // A change superseded while this runs can be seen with its successor; the later one wins
+        Set<String> removed = new LinkedHashSet<>();
+        for (Change change : changes.subMap(since, false, current, true).values()) {
+            if (change.superseded) {
+                continue;
+            }
+            if (change.removed) {
+                updated.remove(change.busId);
+                removed.add(change.busId);
+                continue;
+            }
+            removed.remove(change.busId);
+            Location location = positions.get(change.busId);
+            // A bus removed since the change is reported as removed by a later delta
+            if (location != null) {
+                updated.put(change.busId, location);
+            }
+        }
+        return new Delta(current, updated, new ArrayList<>(removed));
+    }
+
+    /**
+     * Drop tombstones of buses removed longer ago than the retention period
+     */
+    @Scheduled(fixedDelayString = "${transittracker.changes.prune-interval:60000}")
+    public void pruneTombstones() {
+        long cutoff = System.currentTimeMillis() - tombstoneRetentionMillis;
+        long current = published.get();
+        for (Change change : latestByBus.values()) {
+            // Removing by value fails if the bus changed since, so a newer change is never dropped
+            if (change.removed && change.recordedAt < cutoff && change.version <= current
+                    && latestByBus.remove(change.busId, change)) {
+                changes.remove(change.version, change);
+                floor = Math.max(floor, change.version);
+            }
+        }
+        // Superseded changes recorded ahead of the published version are left for this sweep
+        for (Change change : changes.headMap(current, true).values()) {
+            if (change.superseded) {
+                changes.remove(change.version, change);
+            }
+        }
+    }
+
+    private void record(String busId, boolean removed) {
+        Change change = new Change(busId, allocated.incrementAndGet(), removed, System.currentTimeMillis());
+        changes.put(change.version, change);
+        Change previous = latestByBus.put(busId, change);
+        advance();
+        if (previous != null) {
+            previous.superseded = true;
+            // Entries above the published version are how it knows what is recorded, so stay until it passes
+            if (previous.version <= published.get()) {
+                changes.remove(previous.version, previous);
+            }
+        }
+    }
+
+    /**
+     * Move the published version past every version now in the log without a gap below it
+     */
+    private void advance() {
+        while (true) {
+            long current = published.get();
+            if (!changes.containsKey(current + 1)) {
+                return;
+            }
+            published.compareAndSet(current, current + 1);
+        }
+    }
+
+    /**
+     * Latest change of one bus
+     */
+    private static final class Change {
+        private final String busId;
+        private final long version;
+        private final boolean removed;
+        private final long recordedAt;
+        private volatile boolean superseded;
+
+        Change(String busId, long version, boolean removed, long recordedAt) {
+            this.busId = busId;
+            this.version = version;
+            this.removed = removed;
+            this.recordedAt = recordedAt;
+        }
+    }
+
+    /**
+     * Buses changed or removed between two versions
+     */
+    public static final class Delta {
+        private final long version;
+        private final Map<String, Location> updated;
+        private final List<String> removed;
+
+        Delta(long version, Map<String, Location> updated, List<String> removed) {
+            this.version = version;
+            this.updated = updated;
+            this.removed = removed;
+        }
+
+        /**
+         * Get the version the changes run up to
+         * @return version to pass as since on the next request
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        public Map<String, Location> getUpdated() {
+            return updated;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.BusCluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bus counts and coordinate sums per map grid cell, kept for every zoom
+ * level where the map shows clusters instead of individual buses.
+ * Cells follow the Web Mercator tiles the map uses, each an eighth of a tile
+ * wide, so a zoom level's cells are the cells of the next finer level merged
+ * in groups of four. Each bus holds the cell it is counted in at every level,
+ * so a move within a cell only changes that cell's sums, and a move to another
+ * cell looks up the new one in that level's table, keyed by primitive longs.
+ * Cluster queries only read the cells of the queried level inside the viewport.
+ * Coordinates are summed in fixed point so removals cancel additions exactly.
+ * <p>
+ * Updates and removal of one bus must not overlap; GPSService makes them
+ * while holding the bus.
+ */
+public class BusClusterGrid {
+
+    // 8 x 8 cells per 256-pixel tile, about 32 pixels per cell
+    private static final int CELL_ZOOM_OFFSET = 3;
+    private static final double MAX_MERCATOR_LATITUDE = 85.05112878;
+    private static final double FIXED_POINT_SCALE = 1e6;
+
+    private final int levels;
+    private final int finestBits;
+    // Occupied cells per zoom level; a cell leaves its level when its last bus does
+    private final CellTable[] grids;
+    private final Map<String, Placement> placements = new ConcurrentHashMap<>();
+
+    /**
+     * @param levels Number of zoom levels to keep cells for, from zoom 0 up to levels - 1
+     */
+    public BusClusterGrid(int levels) {
+        if (levels < 1 || levels + CELL_ZOOM_OFFSET > 28) {
+            throw new IllegalArgumentException("Cluster levels must be in [1, " + (28 - CELL_ZOOM_OFFSET) + "]: " + levels);
+        }
+        this.levels = levels;
+        this.finestBits = levels - 1 + CELL_ZOOM_OFFSET;
+        this.grids = new CellTable[levels];
+        for (int level = 0; level < levels; level++) {
+            grids[level] = new CellTable();
+        }
+    }
+
+    /**
+     * Count a bus at its new position, moving it out of the cells of its previous one
+     * @param busId The bus identifier
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     */
+    public void update(String busId, double latitude, double longitude) {
+        long latE6 = toFixed(latitude);
+        long lngE6 = toFixed(longitude);
+        Placement placement = placements.get(busId);
+        if (placement == null) {
+            placement = new Placement(levels);
+            placements.put(busId, placement);
+        } else if (placement.latE6 == latE6 && placement.lngE6 == lngE6) {
+            return;
+        }
+        long x = tileX(lngE6);
+        long y = tileY(latE6);
+        for (int level = 0; level < levels; level++) {
+            int shift = levels - 1 - level;
+            long key = cellKey(x >> shift, y >> shift);
+            Cell cell = placement.cells[level];
+            if (cell != null && cell.key == key) {
+                // Still in the same cell; only the centroid moves
+                cell.move(latE6 - placement.latE6, lngE6 - placement.lngE6);
+            } else {
+                if (cell != null) {
+                    leave(grids[level], cell, placement.latE6, placement.lngE6);
+                }
+                placement.cells[level] = enter(grids[level], key, latE6, lngE6);
+            }
+        }
+        placement.latE6 = latE6;
+        placement.lngE6 = lngE6;
+    }
+
+    /**
+     * Stop counting a bus
+     * @param busId The bus identifier
+     */
+    public void remove(String busId) {
+        Placement placement = placements.remove(busId);
+        if (placement == null) {
+            return;
+        }
+        for (int level = 0; level < levels; level++) {
+            Cell cell = placement.cells[level];
+            if (cell != null) {
+                leave(grids[level], cell, placement.latE6, placement.lngE6);
+            }
+        }
+    }
+
+    /**
+     * Get the clusters in a bounding box at a zoom level
+     * @param minLatitude Southern edge in degrees
+     * @param maxLatitude Northern edge in degrees
+     * @param minLongitude Western edge in degrees; greater than the eastern edge when the box crosses the antimeridian
+     * @param maxLongitude Eastern edge in degrees
+     * @param zoom Map zoom level, clamped to the levels kept
+     * @return One cluster per occupied cell intersecting the box
+     */
+    public List<BusCluster> clusters(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude,
+                                     int zoom) {
+        int level = Math.max(0, Math.min(zoom, levels - 1));
+        int shift = levels - 1 - level;
+        CellTable grid = grids[level];
+        long size = 1L << (level + CELL_ZOOM_OFFSET);
+
+        long minY = tileY(toFixed(maxLatitude)) >> shift;
+        long maxY = tileY(toFixed(minLatitude)) >> shift;
+        long minX = tileX(toFixed(minLongitude)) >> shift;
+        long maxX = tileX(toFixed(maxLongitude)) >> shift;
+        // Number of columns, wrapping across the antimeridian
+        long columns = minLongitude <= maxLongitude ? maxX - minX + 1 : size - minX + maxX + 1;
+        columns = Math.min(columns, size);
+
+        List<BusCluster> result = new ArrayList<>();
+        if (columns * (maxY - minY + 1) > grid.size()) {
+            // Viewport covers more cells than are occupied; filter the occupied ones instead
+            for (Cell cell : grid.cells()) {
+                long x = cell.key >>> 32;
+                long y = cell.key & 0xffffffffL;
+                if (y >= minY && y <= maxY && Math.floorMod(x - minX, size) < columns) {
+                    addCluster(cell, result);
+                }
+            }
+            return result;
+        }
+
+        for (long column = 0; column < columns; column++) {
+            long x = (minX + column) % size;
+            for (long y = minY; y <= maxY; y++) {
+                Cell cell = grid.get(cellKey(x, y));
+                if (cell != null) {
+                    addCluster(cell, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of zoom levels that keep clusters
+     * @return level count; zoom levels at or above it show individual buses
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    private static Cell enter(CellTable grid, long key, long latE6, long lngE6) {
+        while (true) {
+            Cell cell = grid.getOrCreate(key);
+            synchronized (cell) {
+                // A cell emptied while this looked it up has left its table; look again
+                if (!cell.retired) {
+                    cell.count++;
+                    cell.latitudeSum += latE6;
+                    cell.longitudeSum += lngE6;
+                    return cell;
+                }
+            }
+        }
+    }
+
+    private static void leave(CellTable grid, Cell cell, long latE6, long lngE6) {
+        synchronized (cell) {
+            cell.count--;
+            cell.latitudeSum -= latE6;
+            cell.longitudeSum -= lngE6;
+            if (cell.count == 0) {
+                cell.retired = true;
+                grid.remove(cell);
+            }
+        }
+    }
+
+    private static void addCluster(Cell cell, List<BusCluster> result) {
+        long count;
+        long latitudeSum;
+        long longitudeSum;
+        synchronized (cell) {
+            count = cell.count;
+            latitudeSum = cell.latitudeSum;
+            longitudeSum = cell.longitudeSum;
+        }
+        if (count > 0) {
+            result.add(new BusCluster(latitudeSum / FIXED_POINT_SCALE / count,
+                    longitudeSum / FIXED_POINT_SCALE / count, (int) count));
+        }
+    }
+
+    private long tileX(long longitudeE6) {
+        double fraction = (longitudeE6 / FIXED_POINT_SCALE + 180) / 360;
+        return clampTile((long) Math.floor(fraction * (1L << finestBits)));
+    }
+
+    private long tileY(long latitudeE6) {
+        double latitude = Math.max(-MAX_MERCATOR_LATITUDE,
+                Math.min(MAX_MERCATOR_LATITUDE, latitudeE6 / FIXED_POINT_SCALE));
+        double radians = Math.toRadians(latitude);
+        double fraction = (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2;
+        return clampTile((long) Math.floor(fraction * (1L << finestBits)));
+    }
+
+    private long clampTile(long tile) {
+        return Math.max(0, Math.min(tile, (1L << finestBits) - 1));
+    }
+
+    private static long cellKey(long x, long y) {
+        return x << 32 | y;
+    }
+
+    private static long toFixed(double degrees) {
+        return Math.round(degrees * FIXED_POINT_SCALE);
+    }
+
+    /**
+     * Bus count and coordinate sums of one cell; changed and read while holding the cell
+     */
+    private static final class Cell {
+        private final long key;
+        private long count;
+        private long latitudeSum;
+        private long longitudeSum;
+        private boolean retired;
+
+        Cell(long key) {
+            this.key = key;
+        }
+
+        synchronized void move(long latitudeDelta, long longitudeDelta) {
+            latitudeSum += latitudeDelta;
+            longitudeSum += longitudeDelta;
+        }
+    }
+
+    /**
+     * Where a bus is counted, with its cell at each level; only touched by updates of that bus
+     */
+    private static final class Placement {
+        private long latE6;
+        private long lngE6;
+        private final Cell[] cells;
+
+        Placement(int levels) {
+            this.cells = new Cell[levels];
+        }
+    }
+
+    /**
+     * Occupied cells of one level in open-addressing tables keyed by the packed
+     * cell coordinates, so lookups neither box keys nor allocate. The table is
+     * split into stripes, each guarded by its own monitor. A stripe's monitor is
+     * never held while taking a cell's, so leave() may remove a cell from its
+     * table while holding the cell.
+     */
+    private static final class CellTable {
+        private static final int STRIPE_BITS = 4;
+
+        private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+
+        CellTable() {
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new Stripe();
+            }
+        }
+
+        Cell get(long key) {
+            long hash = mix(key);
+            return stripe(hash).get(key, hash);
+        }
+
+        Cell getOrCreate(long key) {
+            long hash = mix(key);
+            return stripe(hash).getOrCreate(key, hash);
+        }
+
+        void remove(Cell cell) {
+            long hash = mix(cell.key);
+            stripe(hash).remove(cell, hash);
+        }
+
+        int size() {
+            int size = 0;
+            for (Stripe stripe : stripes) {
+                size += stripe.size();
+            }
+            return size;
+        }
+
+        /**
+         * Copy the occupied cells, so they can be read after the stripes are released
+         */
+        List<Cell> cells() {
+            List<Cell> cells = new ArrayList<>();
+            for (Stripe stripe : stripes) {
+                stripe.copyTo(cells);
+            }
+            return cells;
+        }
+
+        private Stripe stripe(long hash) {
+            return stripes[(int) (hash >>> (64 - STRIPE_BITS))];
+        }
+
+        // MurmurHash3 finalizer; cell keys differ mostly in their low bits of each half
+        private static long mix(long key) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            key ^= key >>> 33;
+            key *= 0xc4ceb9fe1a85ec53L;
+            key ^= key >>> 33;
+            return key;
+        }
+    }
+
+    /**
+     * Linear-probing table of cells, deleting by shifting later entries back so no tombstones build up
+     */
+    private static final class Stripe {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private Cell[] cells = new Cell[INITIAL_CAPACITY];
+        private int size;
+
+        synchronized Cell get(long key, long hash) {
+            int mask = cells.length - 1;
+            for (int i = (int) hash & mask; cells[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return cells[i];
+                }
+            }
+            return null;
+        }
+
+        synchronized Cell getOrCreate(long key, long hash) {
+            int mask = cells.length - 1;
+            int i = (int) hash & mask;
+            for (; cells[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return cells[i];
+                }
+            }
+            Cell cell = new Cell(key);
+            keys[i] = key;
+            cells[i] = cell;
+            if (++size * 2 > cells.length) {
+                grow();
+            }
+            return cell;
+        }
+
+        synchronized void remove(Cell cell, long hash) {
+            int mask = cells.length - 1;
+            int i = (int) hash & mask;
+            while (cells[i] != cell) {
+                if (cells[i] == null) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            cells[i] = null;
+            size--;
+            // Move back entries whose probe sequence passed through the freed slot
+            for (int j = (i + 1) & mask; cells[j] != null; j = (j + 1) & mask) {
+                int home = (int) CellTable.mix(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    cells[i] = cells[j];
+                    cells[j] = null;
+                    i = j;
+                }
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void copyTo(List<Cell> out) {
+            for (Cell cell : cells) {
+                if (cell != null) {
+                    out.add(cell);
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Cell[] oldCells = cells;
+            keys = new long[oldCells.length * 2];
+            cells = new Cell[oldCells.length * 2];
+            int mask = cells.length - 1;
+            for (int j = 0; j < oldCells.length; j++) {
+                if (oldCells[j] != null) {
+                    int i = (int) CellTable.mix(oldKeys[j]) & mask;
+                    while (cells[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    cells[i] = oldCells[j];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.phoenixai.transittracker.services;
+
+import java.util.Arrays;
+
+/**
+ * Fixes of one bus held as primitives in parallel arrays, in the order they
+ * arrived until sorted. Not thread-safe, except for cancelling.
+ */
+final class BusFixes {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+    private double[] altitudes = new double[INITIAL_CAPACITY];
+    private double[] accuracies = new double[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private long[] historyTimes = new long[INITIAL_CAPACITY];
+    private int size;
+    private volatile boolean cancelled;
+
+    /**
+     * @param timestamp Epoch milliseconds of the fix, or BusPositionStore.NO_TIMESTAMP
+     * @param historyTime Epoch milliseconds to record the fix at in history
+     */
+    void add(double latitude, double longitude, double altitude, double accuracy, long timestamp, long historyTime) {
+        if (size == latitudes.length) {
+            int capacity = size * 2;
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            altitudes = Arrays.copyOf(altitudes, capacity);
+            accuracies = Arrays.copyOf(accuracies, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            historyTimes = Arrays.copyOf(historyTimes, capacity);
+        }
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        altitudes[size] = altitude;
+        accuracies[size] = accuracy;
+        timestamps[size] = timestamp;
+        historyTimes[size] = historyTime;
+        size++;
+    }
+
+    /**
+     * Order the fixes by history time, keeping arrival order between equal times.
+     * Fixes usually arrive in order, so this is a single pass.
+     */
+    void sortByTime() {
+        for (int i = 1; i < size; i++) {
+            int j = i;
+            while (j > 0 && historyTimes[j - 1] > historyTimes[j]) {
+                swap(j - 1, j);
+                j--;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Mark the fixes as overtaken by a removal or reset of the bus, so they are not applied
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    double latitude(int index) {
+        return latitudes[index];
+    }
+
+    double longitude(int index) {
+        return longitudes[index];
+    }
+
+    double altitude(int index) {
+        return altitudes[index];
+    }
+
+    double accuracy(int index) {
+        return accuracies[index];
+    }
+
+    long timestamp(int index) {
+        return timestamps[index];
+    }
+
+    long historyTime(int index) {
+        return historyTimes[index];
+    }
+
+    private void swap(int a, int b) {
+        double latitude = latitudes[a];
+        latitudes[a] = latitudes[b];
+        latitudes[b] = latitude;
+        double longitude = longitudes[a];
+        longitudes[a] = longitudes[b];
+        longitudes[b] = longitude;
+        double altitude = altitudes[a];
+        altitudes[a] = altitudes[b];
+        altitudes[b] = altitude;
+        double accuracy = accuracies[a];
+        accuracies[a] = accuracies[b];
+        accuracies[b] = accuracy;
+        long timestamp = timestamps[a];
+        timestamps[a] = timestamps[b];
+        timestamps[b] = timestamp;
+        long historyTime = historyTimes[a];
+        historyTimes[a] = historyTimes[b];
+        historyTimes[b] = historyTime;
+    }
+}
@@ -0,0 +1,102 @@
+package com.phoenixai.transittracker.services;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Assigns each bus ID a small integer, in order of first appearance.
+ * Numbers are never reused or reassigned while the process runs, so clients
+ * can cache the number-to-ID dictionary and only fetch entries added since.
+ * The epoch changes on every restart and tells clients when to drop that cache.
+ */
+@Component
+public class BusIdInterner {
+
+    private final int epoch = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+    private final Map<String, Integer> numbers = new ConcurrentHashMap<>();
+    private final Object appendLock = new Object();
+    // Grown under appendLock; readers only look at indexes below the published size
+    private volatile String[] ids = new String[1024];
+    private volatile int size;
+
+    /**
+     * Get the number of a bus ID, assigning the next free number on first use
+     * @param busId The bus identifier
+     * @return Interned number
+     */
+    public int intern(String busId) {
+        Integer number = numbers.get(busId);
+        if (number != null) {
+            return number;
+        }
+        synchronized (appendLock) {
+            number = numbers.get(busId);
+            if (number != null) {
+                return number;
+            }
+            int next = size;
+            if (next == ids.length) {
+                ids = Arrays.copyOf(ids, next * 2);
+            }
+            ids[next] = busId;
+            // Publish the ID before the number becomes visible through the map
+            size = next + 1;
+            numbers.put(busId, next);
+            return next;
+        }
+    }
+
+    /**
+     * Get the number of a bus ID without assigning one
+     * @param busId The bus identifier
+     * @return Interned number, or -1 if the ID has never been interned
+     */
+    public int find(String busId) {
+        Integer number = numbers.get(busId);
+        return number != null ? number : -1;
+    }
+
+    /**
+     * Get the bus ID with a number
+     * @param number Interned number
+     * @return The bus identifier
+     */
+    public String idOf(int number) {
+        if (number < 0 || number >= size) {
+            throw new IndexOutOfBoundsException("No bus ID with number " + number);
+        }
+        return ids[number];
+    }
+
+    /**
+     * Get the bus IDs with numbers from a starting number up to the current size
+     * @param from First number to include
+     * @return Bus IDs in number order
+     */
+    public List<String> idsFrom(int from) {
+        int end = size;
+        String[] current = ids;
+        return List.of(Arrays.copyOfRange(current, Math.min(Math.max(0, from), end), end));
+    }
+
+    /**
+     * Get the number of interned IDs
+     * @return interned ID count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the value identifying this process's numbering
+     * @return positive epoch, different after every restart
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+}
@@ -0,0 +1,87 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+
+/**
+ * Receives tracking changes from GPSService.
+ * Callbacks run on the updating thread, so implementations must be fast and
+ * must not call back into GPSService. Bus callbacks run once the change is
+ * visible in BusPositionStore, while the bus is still held against other
+ * writers: changes to one bus arrive in the order they were applied, and
+ * callbacks for different buses run concurrently. Bus callbacks must not
+ * block; a listener that has to wait for room does so in {@link #awaitCapacity()}.
+ */
+public interface BusLocationListener {
+
+    /**
+     * Called before a bus change is applied, with nothing held. Listeners that
+     * buffer changes may block here until they have room.
+     */
+    default void awaitCapacity() {
+    }
+
+    /**
+     * Called after a bus position has been stored. The fix is passed as
+     * primitives so updates need not allocate a Location.
+     * @param busId The bus identifier
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param altitude Altitude in meters
+     * @param accuracy Accuracy in meters
+     * @param timestamp Epoch milliseconds of the fix, or BusPositionStore.NO_TIMESTAMP if it carried none
+     */
+    void onBusLocationUpdated(String busId, double latitude, double longitude, double altitude, double accuracy,
+                              long timestamp);
+
+    /**
+     * Called after a fix has been added to a bus's history without becoming its
+     * current position, because a newer fix arrived with it. The newer fix
+     * follows as an update before the bus is released.
+     * @param busId The bus identifier
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param altitude Altitude in meters
+     * @param accuracy Accuracy in meters
+     * @param timestamp Epoch milliseconds of the fix, or BusPositionStore.NO_TIMESTAMP if it carried none
+     */
+    default void onBusHistoryAppended(String busId, double latitude, double longitude, double altitude,
+                                      double accuracy, long timestamp) {
+    }
+
+    /**
+     * Called after a bus has been removed from tracking
+     * @param busId The bus identifier
+     */
+    default void onBusRemoved(String busId) {
+    }
+
+    /**
+     * Called after a bus has been restored from persisted state on startup.
+     * Treated as a location update unless overridden.
+     * @param busId The bus identifier
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param altitude Altitude in meters
+     * @param accuracy Accuracy in meters
+     * @param timestamp Epoch milliseconds of the fix, or BusPositionStore.NO_TIMESTAMP if it carried none
+     */
+    default void onBusRestored(String busId, double latitude, double longitude, double altitude, double accuracy,
+                               long timestamp) {
+        onBusLocationUpdated(busId, latitude, longitude, altitude, accuracy, timestamp);
+    }
+
+    /**
+     * Called after a passenger location has been stored
+     * @param passengerId The passenger identifier
+     * @param location The new location
+     */
+    default void onPassengerLocationUpdated(String passengerId, Location location) {
+    }
+
+    /**
+     * Called after a passenger has been removed, or forgotten after being idle
+     * @param passengerId The passenger identifier
+     */
+    default void onPassengerRemoved(String passengerId) {
+    }
+}
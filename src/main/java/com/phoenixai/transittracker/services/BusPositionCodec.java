@@ -0,0 +1,162 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of bus positions, served as
+ * application/vnd.transittracker.positions for clients that ask for it.
+ * <p>
+ * All integers are unsigned LEB128 varints; signed values are zigzag encoded first.
+ * <pre>
+ * header:     format version (=2), epoch, server time (epoch ms),
+ *             data version (BusChangeLog), flags (bit 0: full fleet rather than changes),
+ *             dictionary start, dictionary count, then count x (UTF-8 length, bytes)
+ * positions:  bus count, then per bus in ascending bus number:
+ *             bus number delta from the previous bus,
+ *             zigzag latitude delta, zigzag longitude delta (micro-degrees, from the previous bus),
+ *             fix age: 0 if unknown, else zigzag(server time - fix time in ms) + 1,
+ *             accuracy in decimeters (0 if unknown)
+ * removed:    removed count, then removed bus numbers, ascending, each as a delta from the previous
+ * </pre>
+ * Bus numbers come from BusIdInterner. The dictionary carries only the IDs
+ * numbered from the client's knownIds onwards, or every ID when the client's
+ * epoch is not the current one.
+ */
+@Component
+public class BusPositionCodec {
+
+    public static final String MEDIA_TYPE = "application/vnd.transittracker.positions";
+    static final int FORMAT_VERSION = 2;
+    static final int FLAG_FULL = 1;
+    private static final double FIXED_POINT_SCALE = 1e6;
+
+    private final BusIdInterner interner;
+
+    public BusPositionCodec(BusIdInterner interner) {
+        this.interner = interner;
+    }
+
+    /**
+     * Encode a set of bus positions
+     * @param buses Bus locations keyed by bus ID
+     * @param removed IDs of buses removed since the client's version
+     * @param version Data version the positions are current to
+     * @param full true if buses is the whole fleet, false if it holds only changes
+     * @param clientEpoch Epoch the client's cached dictionary belongs to, or 0 for none
+     * @param knownIds Number of dictionary entries the client already holds
+     * @param now Server time in epoch milliseconds
+     * @return Encoded positions
+     */
+    public byte[] encode(Map<String, Location> buses, Collection<String> removed, long version, boolean full,
+                         int clientEpoch, int knownIds, long now) {
+        long[] keys = new long[buses.size()];
+        Location[] locations = new Location[buses.size()];
+        int n = 0;
+        for (Map.Entry<String, Location> entry : buses.entrySet()) {
+            // Pack the bus number above the array index so one primitive sort orders both
+            keys[n] = (long) interner.intern(entry.getKey()) << 32 | n;
+            locations[n] = entry.getValue();
+            n++;
+        }
+        Arrays.sort(keys, 0, n);
+        int[] removedNumbers = new int[removed.size()];
+        int r = 0;
+        for (String busId : removed) {
+            removedNumbers[r++] = interner.intern(busId);
+        }
+        Arrays.sort(removedNumbers);
+
+        int dictionaryStart = clientEpoch == interner.getEpoch() ? Math.min(Math.max(0, knownIds), interner.size()) : 0;
+        List<String> dictionary = interner.idsFrom(dictionaryStart);
+
+        Writer out = new Writer(48 + dictionary.size() * 12 + n * 12 + removedNumbers.length * 2);
+        out.varint(FORMAT_VERSION);
+        out.varint(interner.getEpoch());
+        out.varint(now);
+        out.varint(version);
+        out.varint(full ? FLAG_FULL : 0);
+        out.varint(dictionaryStart);
+        out.varint(dictionary.size());
+        for (String busId : dictionary) {
+            byte[] bytes = busId.getBytes(StandardCharsets.UTF_8);
+            out.varint(bytes.length);
+            out.bytes(bytes);
+        }
+
+        out.varint(n);
+        long previousNumber = 0;
+        long previousLatitude = 0;
+        long previousLongitude = 0;
+        for (int i = 0; i < n; i++) {
+            long number = keys[i] >>> 32;
+            Location location = locations[(int) keys[i]];
+            long latitude = Math.round(location.getLatitude() * FIXED_POINT_SCALE);
+            long longitude = Math.round(location.getLongitude() * FIXED_POINT_SCALE);
+            out.varint(number - previousNumber);
+            out.varint(zigzag(latitude - previousLatitude));
+            out.varint(zigzag(longitude - previousLongitude));
+            long fixTime = Timestamps.toEpochMillis(location.getTimestamp(), Long.MIN_VALUE);
+            out.varint(fixTime == Long.MIN_VALUE ? 0 : zigzag(now - fixTime) + 1);
+            out.varint(Math.max(0, Math.round(location.getAccuracy() * 10)));
+            previousNumber = number;
+            previousLatitude = latitude;
+            previousLongitude = longitude;
+        }
+
+        out.varint(removedNumbers.length);
+        previousNumber = 0;
+        for (int number : removedNumbers) {
+            out.varint(number - previousNumber);
+            previousNumber = number;
+        }
+        return out.toByteArray();
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Growable byte buffer with varint output
+     */
+    private static final class Writer {
+        private byte[] buffer;
+        private int position;
+
+        Writer(int initialCapacity) {
+            this.buffer = new byte[initialCapacity];
+        }
+
+        void varint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void bytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        private void ensure(int extra) {
+            if (position + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+            }
+        }
+    }
+}
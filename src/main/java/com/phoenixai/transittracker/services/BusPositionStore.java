@@ -0,0 +1,689 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.BusMotion;
+import com.phoenixai.transittracker.model.Location;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * State of every tracked bus: its current position and motion, kept as
+ * primitives in parallel arrays indexed by the bus number from BusIdInterner,
+ * and its recent history. Speed, heading and distance travelled are updated
+ * from each fix and the one before it, without reading the history. Arrays
+ * are allocated in fixed-size pages that never move, so growing the store
+ * does not copy positions or block writers.
+ * <p>
+ * Only the fixes a TrajectoryCompressor keeps go into history, so a bus that
+ * is stopped or driving straight fills its fixed-capacity history slowly.
+ * <p>
+ * Each slot has an owner flag and a sequence lock. A writer takes ownership
+ * of the slot, moves its version from even to odd, changes the position and
+ * history together, and publishes the next even version. Writers of
+ * different buses never contend, and readers take no lock; they retry if the
+ * version changed while they read, so a reader never sees a position missing
+ * from the history or the state of a bus half removed.
+ * <p>
+ * Callers that keep other per-bus state in step with the store, such as
+ * GPSService's spatial index and listeners, hold the slot with
+ * {@link #lock(String)} while they update it. Readers only wait until the
+ * store's own changes are published with {@link #publish(int)}; the owner
+ * keeps the slot, so later writers of the bus wait, until {@link #unlock(int)}.
+ */
+@Component
+public class BusPositionStore {
+
+    /** Timestamp of a position whose fix carried no time */
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    // Smaller moves are treated as GPS noise for the heading
+    private static final double MIN_HEADING_METERS = 1.0;
+    private static final HistorySink NO_SINK = (timestamp, latitude, longitude, altitude, accuracy) -> { };
+
+    private final BusIdInterner interner;
+    private final int historyCapacity;
+    private final double historyErrorMeters;
+    private final LongAdder historyOffered = new LongAdder();
+    private final LongAdder historyKept = new LongAdder();
+    private final Object growLock = new Object();
+    // Replaced, never modified, when pages are added
+    private volatile Page[] pages = new Page[0];
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param interner Source of the bus numbers that index the arrays
+     * @param historyCapacity Number of fixes kept per bus
+     * @param historyErrorMeters Largest distance a fix left out of history may be from the
+     *                           position predicted from the kept ones; 0 keeps every fix
+     */
+    public BusPositionStore(BusIdInterner interner,
+                            @Value("${transittracker.history.per-bus-capacity:100}") int historyCapacity,
+                            @Value("${transittracker.history.compression.error-meters:10}") double historyErrorMeters) {
+        if (historyCapacity <= 0) {
+            throw new IllegalArgumentException("History capacity must be positive: " + historyCapacity);
+        }
+        if (!(historyErrorMeters >= 0)) {
+            throw new IllegalArgumentException("History error bound must not be negative: " + historyErrorMeters);
+        }
+        this.interner = interner;
+        this.historyCapacity = historyCapacity;
+        this.historyErrorMeters = historyErrorMeters;
+    }
+
+    /**
+     * Receives one position without it being copied into a Location
+     */
+    @FunctionalInterface
+    public interface PositionConsumer {
+        /**
+         * @param busId The bus identifier
+         * @param latitude Latitude in degrees
+         * @param longitude Longitude in degrees
+         * @param altitude Altitude in meters
+         * @param accuracy Accuracy in meters
+         * @param timestamp Epoch milliseconds of the fix, or NO_TIMESTAMP
+         */
+        void accept(String busId, double latitude, double longitude, double altitude, double accuracy, long timestamp);
+    }
+
+    /**
+     * Receives the fixes kept in a bus's history, for copying them to another history
+     */
+    @FunctionalInterface
+    public interface HistorySink {
+        /**
+         * @param timestamp Epoch milliseconds the fix is recorded at
+         * @param latitude Latitude in degrees
+         * @param longitude Longitude in degrees
+         * @param altitude Altitude in meters
+         * @param accuracy Accuracy in meters
+         */
+        void append(long timestamp, double latitude, double longitude, double altitude, double accuracy);
+    }
+
+    /**
+     * Hold a bus's slot for writing until {@link #unlock(int)}. Readers of the
+     * bus wait until {@link #publish(int)}, so until then the holder must not
+     * read the bus back from this store, and should keep the section short.
+     * @param busId The bus identifier
+     * @return The bus number to pass to the write methods and unlock
+     */
+    public int lock(String busId) {
+        int number = interner.intern(busId);
+        pageFor(number).lock(number & PAGE_MASK);
+        return number;
+    }
+
+    /**
+     * Hold a bus's slot for writing if the bus has ever been seen
+     * @param busId The bus identifier
+     * @return The bus number, or -1 if the ID is unknown and nothing was locked
+     */
+    public int lockIfKnown(String busId) {
+        int number = interner.find(busId);
+        if (number >= 0) {
+            pageFor(number).lock(number & PAGE_MASK);
+        }
+        return number;
+    }
+
+    /**
+     * Publish the writes made since {@link #lock(String)} to readers while
+     * keeping the slot, so other writers of the bus still wait. The holder
+     * must not write to the store again before unlocking.
+     * @param number The bus number returned by lock
+     */
+    public void publish(int number) {
+        page(number).publish(number & PAGE_MASK);
+    }
+
+    /**
+     * Publish the writes made since {@link #lock(String)} and release the slot
+     * @param number The bus number returned by lock
+     */
+    public void unlock(int number) {
+        page(number).unlock(number & PAGE_MASK);
+    }
+
+    /**
+     * Set the current position of a locked bus, and append it to the bus's
+     * history unless the trajectory compressor drops it. When a fix is kept
+     * after dropped ones, the last dropped fix is appended before it.
+     * @param number The locked bus number
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param altitude Altitude in meters
+     * @param accuracy Accuracy in meters
+     * @param timestamp Epoch milliseconds of the fix, or NO_TIMESTAMP
+     * @param historyTime Epoch milliseconds to record the fix at in the history
+     * @param sink Also receives every fix appended to the history, oldest first
+     */
+    public void write(int number, double latitude, double longitude, double altitude, double accuracy,
+                      long timestamp, long historyTime, HistorySink sink) {
+        Page page = page(number);
+        int slot = number & PAGE_MASK;
+        record(page, slot, latitude, longitude, altitude, accuracy, historyTime, sink);
+        page.move(slot, latitude, longitude, historyTime);
+        if (!page.set(slot, latitude, longitude, altitude, accuracy, timestamp)) {
+            size.incrementAndGet();
+        }
+    }
+
+    /**
+     * Offer a fix of a locked bus to its history without making it the
+     * current position, for fixes superseded before they were applied. The
+     * caller follows up with {@link #write} of a newer fix before unlocking.
+     * @param number The locked bus number
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param altitude Altitude in meters
+     * @param accuracy Accuracy in meters
+     * @param historyTime Epoch milliseconds to record the fix at in the history
+     * @param sink Also receives every fix appended to the history, oldest first
+     */
+    public void appendHistory(int number, double latitude, double longitude, double altitude, double accuracy,
+                              long historyTime, HistorySink sink) {
+        record(page(number), number & PAGE_MASK, latitude, longitude, altitude, accuracy, historyTime, sink);
+    }
+
+    private void record(Page page, int slot, double latitude, double longitude, double altitude, double accuracy,
+                        long historyTime, HistorySink sink) {
+        LocationRingBuffer history = page.histories[slot];
+        TrajectoryCompressor compressor = page.compressors[slot];
+        if (history == null) {
+            history = new LocationRingBuffer(historyCapacity);
+            page.histories[slot] = history;
+        }
+        if (compressor == null) {
+            compressor = new TrajectoryCompressor(historyErrorMeters);
+            page.compressors[slot] = compressor;
+        }
+        double previousLatitude = compressor.getLastLatitude();
+        double previousLongitude = compressor.getLastLongitude();
+        double previousAltitude = compressor.getLastAltitude();
+        double previousAccuracy = compressor.getLastAccuracy();
+        long previousTime = compressor.getLastTime();
+        int decision = compressor.offer(latitude, longitude, altitude, accuracy, historyTime);
+        if ((decision & TrajectoryCompressor.KEEP_PREVIOUS) != 0) {
+            history.add(previousLatitude, previousLongitude, previousAltitude, previousAccuracy, previousTime);
+            sink.append(previousTime, previousLatitude, previousLongitude, previousAltitude, previousAccuracy);
+            historyKept.increment();
+        }
+        if ((decision & TrajectoryCompressor.KEEP) != 0) {
+            history.add(latitude, longitude, altitude, accuracy, historyTime);
+            sink.append(historyTime, latitude, longitude, altitude, accuracy);
+            historyKept.increment();
+        }
+        historyOffered.increment();
+    }
+
+    /**
+     * Replace the current position and history of a locked bus
+     * @param number The locked bus number
+     * @param location The current position
+     * @param history The history; must have the configured capacity
+     */
+    public void restore(int number, Location location, LocationRingBuffer history) {
+        if (history.getCapacity() != historyCapacity) {
+            throw new IllegalArgumentException("History capacity " + history.getCapacity()
+                    + " does not match the configured " + historyCapacity);
+        }
+        Page page = page(number);
+        int slot = number & PAGE_MASK;
+        long time = Timestamps.toEpochMillis(location.getTimestamp(), System.currentTimeMillis());
+        page.histories[slot] = history;
+        // Motion and compression are not persisted; they restart from the restored fix
+        TrajectoryCompressor compressor = new TrajectoryCompressor(historyErrorMeters);
+        compressor.reset(location.getLatitude(), location.getLongitude(), location.getAltitude(),
+                location.getAccuracy(), time);
+        page.compressors[slot] = compressor;
+        page.resetMotion(slot, time);
+        if (!page.set(slot, location.getLatitude(), location.getLongitude(), location.getAltitude(),
+                location.getAccuracy(), Timestamps.toEpochMillis(location.getTimestamp(), NO_TIMESTAMP))) {
+            size.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forget the position and history of a locked bus
+     * @param number The locked bus number
+     * @return true if the bus had a position
+     */
+    public boolean clear(int number) {
+        Page page = page(number);
+        int slot = number & PAGE_MASK;
+        page.histories[slot] = null;
+        page.compressors[slot] = null;
+        boolean removed = page.clear(slot);
+        if (removed) {
+            size.decrementAndGet();
+        }
+        return removed;
+    }
+
+    /**
+     * Store a fix as the current position of a bus and append it to its history
+     * unless the trajectory compressor drops it
+     * @param busId The bus identifier
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param altitude Altitude in meters
+     * @param accuracy Accuracy in meters
+     * @param timestamp Epoch milliseconds of the fix, or NO_TIMESTAMP
+     * @param historyTime Epoch milliseconds to record the fix at in the history
+     */
+    public void put(String busId, double latitude, double longitude, double altitude, double accuracy, long timestamp,
+                    long historyTime) {
+        int number = lock(busId);
+        try {
+            write(number, latitude, longitude, altitude, accuracy, timestamp, historyTime, NO_SINK);
+        } finally {
+            unlock(number);
+        }
+    }
+
+    /**
+     * Forget the position and history of a bus
+     * @param busId The bus identifier
+     * @return true if the bus had a position
+     */
+    public boolean remove(String busId) {
+        int number = lockIfKnown(busId);
+        if (number < 0) {
+            return false;
+        }
+        try {
+            return clear(number);
+        } finally {
+            unlock(number);
+        }
+    }
+
+    /**
+     * Read the position of a bus
+     * @param busId The bus identifier
+     * @param consumer Receives the position if the bus has one
+     * @return true if the bus has a position
+     */
+    public boolean read(String busId, PositionConsumer consumer) {
+        int number = interner.find(busId);
+        Page page = number >= 0 ? page(number) : null;
+        return page != null && page.read(number & PAGE_MASK, busId, consumer);
+    }
+
+    /**
+     * Get the position of a bus as a Location
+     * @param busId The bus identifier
+     * @return A new Location, or null if the bus has no position
+     */
+    public Location get(String busId) {
+        Location[] result = new Location[1];
+        read(busId, (id, latitude, longitude, altitude, accuracy, timestamp) ->
+                result[0] = toLocation(latitude, longitude, altitude, accuracy, timestamp));
+        return result[0];
+    }
+
+    /**
+     * Get the speed, heading and distance travelled of a bus
+     * @param busId The bus identifier
+     * @return A new BusMotion, or null if the bus has no position
+     */
+    public BusMotion motion(String busId) {
+        int number = interner.find(busId);
+        Page page = number >= 0 ? page(number) : null;
+        return page != null ? page.motion(number & PAGE_MASK) : null;
+    }
+
+    /**
+     * Get the history of a bus, oldest first. The newest fix is the bus's
+     * current position as of the same read, even if compression left it out.
+     * @param busId The bus identifier
+     * @return New list of fixes; empty if the bus has no history
+     */
+    public List<Location> history(String busId) {
+        int number = interner.find(busId);
+        Page page = number >= 0 ? page(number) : null;
+        return page != null ? page.history(number & PAGE_MASK) : new ArrayList<>();
+    }
+
+    /**
+     * Read every stored position, in bus number order
+     * @param consumer Receives each position
+     */
+    public void forEach(PositionConsumer consumer) {
+        Page[] current = pages;
+        int count = interner.size();
+        for (int number = 0; number < count; number++) {
+            Page page = number >> PAGE_BITS < current.length ? current[number >> PAGE_BITS] : null;
+            if (page == null) {
+                // Interned but never stored here, and beyond the pages seen at the start
+                break;
+            }
+            page.read(number & PAGE_MASK, interner.idOf(number), consumer);
+        }
+    }
+
+    /**
+     * Get every stored position as Locations
+     * @return Map of bus IDs to new Locations
+     */
+    public Map<String, Location> toMap() {
+        Map<String, Location> result = new HashMap<>(Math.max(16, (int) (size.get() / 0.75f) + 1));
+        forEach((busId, latitude, longitude, altitude, accuracy, timestamp) ->
+                result.put(busId, toLocation(latitude, longitude, altitude, accuracy, timestamp)));
+        return result;
+    }
+
+    /**
+     * Get the number of buses with a position
+     * @return bus count
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Estimate the heap held by the position arrays and the buses' trajectory compressors
+     * @return approximate size in bytes
+     */
+    public long estimatedBytes() {
+        Page[] current = pages;
+        long compressors = 0;
+        for (Page page : current) {
+            for (TrajectoryCompressor compressor : page.compressors) {
+                if (compressor != null) {
+                    compressors++;
+                }
+            }
+        }
+        // Per slot: seven doubles, two times, a version, history and compressor references,
+        // an owner flag and a presence flag
+        return (long) current.length * PAGE_SIZE * (12 * Long.BYTES + Integer.BYTES + 1)
+                + compressors * TrajectoryCompressor.ESTIMATED_BYTES;
+    }
+
+    /**
+     * Count the fixes held in history across all buses
+     * @return history entry count
+     */
+    public long historyEntries() {
+        long entries = 0;
+        for (Page page : pages) {
+            for (LocationRingBuffer history : page.histories) {
+                if (history != null) {
+                    entries += history.size();
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Estimate the heap held by the history buffers
+     * @return approximate size in bytes
+     */
+    public long historyBytes() {
+        long bytes = 0;
+        for (Page page : pages) {
+            for (LocationRingBuffer history : page.histories) {
+                if (history != null) {
+                    bytes += history.estimatedBytes();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the maximum number of fixes kept per bus
+     * @return per-bus history capacity
+     */
+    public int getHistoryCapacity() {
+        return historyCapacity;
+    }
+
+    /**
+     * Get the error bound of history compression
+     * @return meters; 0 when every fix is kept
+     */
+    public double getHistoryErrorMeters() {
+        return historyErrorMeters;
+    }
+
+    /**
+     * Get how many fixes were received for each one kept in history
+     * @return compression ratio, 1 when nothing has been dropped
+     */
+    public double historyCompressionRatio() {
+        long kept = historyKept.sum();
+        return kept == 0 ? 1 : (double) historyOffered.sum() / kept;
+    }
+
+    /**
+     * Convert a stored position to a Location
+     */
+    public static Location toLocation(double latitude, double longitude, double altitude, double accuracy,
+                                      long timestamp) {
+        Location location = new Location(latitude, longitude, altitude, accuracy);
+        if (timestamp != NO_TIMESTAMP) {
+            location.setTimestamp(Timestamps.toLocalDateTime(timestamp));
+        }
+        return location;
+    }
+
+    private Page page(int number) {
+        Page[] current = pages;
+        int index = number >> PAGE_BITS;
+        return index < current.length ? current[index] : null;
+    }
+
+    private Page pageFor(int number) {
+        Page page = page(number);
+        if (page != null) {
+            return page;
+        }
+        synchronized (growLock) {
+            Page[] current = pages;
+            int index = number >> PAGE_BITS;
+            if (index >= current.length) {
+                Page[] grown = Arrays.copyOf(current, index + 1);
+                for (int i = current.length; i < grown.length; i++) {
+                    grown[i] = new Page();
+                }
+                pages = grown;
+                current = grown;
+            }
+            return current[index];
+        }
+    }
+
+    /**
+     * State of PAGE_SIZE consecutive bus numbers
+     */
+    private static final class Page {
+        private final double[] latitudes = new double[PAGE_SIZE];
+        private final double[] longitudes = new double[PAGE_SIZE];
+        private final double[] altitudes = new double[PAGE_SIZE];
+        private final double[] accuracies = new double[PAGE_SIZE];
+        private final long[] timestamps = new long[PAGE_SIZE];
+        private final boolean[] present = new boolean[PAGE_SIZE];
+        // Meters per second between the last two fixes, degrees from north (NaN until moved), meters
+        private final double[] speeds = new double[PAGE_SIZE];
+        private final double[] headings = new double[PAGE_SIZE];
+        private final double[] odometers = new double[PAGE_SIZE];
+        // Epoch milliseconds of the fix the motion was last updated from
+        private final long[] motionTimes = new long[PAGE_SIZE];
+        // Only replaced or changed while the slot is locked
+        private final LocationRingBuffer[] histories = new LocationRingBuffer[PAGE_SIZE];
+        // Also remember the newest fix, which history shows even if it was dropped
+        private final TrajectoryCompressor[] compressors = new TrajectoryCompressor[PAGE_SIZE];
+        // Even when the slot is stable, odd while its owner changes it
+        private final AtomicLongArray versions = new AtomicLongArray(PAGE_SIZE);
+        // 1 while a writer owns the slot; only the owner changes the version
+        private final AtomicIntegerArray owners = new AtomicIntegerArray(PAGE_SIZE);
+
+        /**
+         * Set the position of a locked slot
+         * @return whether the slot held a position before
+         */
+        boolean set(int slot, double latitude, double longitude, double altitude, double accuracy, long timestamp) {
+            boolean previous = present[slot];
+            latitudes[slot] = latitude;
+            longitudes[slot] = longitude;
+            altitudes[slot] = altitude;
+            accuracies[slot] = accuracy;
+            timestamps[slot] = timestamp;
+            present[slot] = true;
+            return previous;
+        }
+
+        /**
+         * Update the motion of a locked slot from its current position to a new fix
+         */
+        void move(int slot, double latitude, double longitude, long time) {
+            if (!present[slot]) {
+                resetMotion(slot, time);
+                return;
+            }
+            long elapsed = time - motionTimes[slot];
+            if (elapsed <= 0) {
+                // Not newer than the last fix, so there is no interval to measure
+                return;
+            }
+            double meters = Location.haversineKm(latitudes[slot], longitudes[slot], latitude, longitude) * 1000;
+            odometers[slot] += meters;
+            speeds[slot] = meters * 1000 / elapsed;
+            if (meters >= MIN_HEADING_METERS) {
+                headings[slot] = Location.bearingDegrees(latitudes[slot], longitudes[slot], latitude, longitude);
+            }
+            motionTimes[slot] = time;
+        }
+
+        void resetMotion(int slot, long time) {
+            speeds[slot] = 0;
+            headings[slot] = Double.NaN;
+            odometers[slot] = 0;
+            motionTimes[slot] = time;
+        }
+
+        /**
+         * Clear the position of a locked slot
+         * @return whether the slot held a position before
+         */
+        boolean clear(int slot) {
+            boolean previous = present[slot];
+            present[slot] = false;
+            return previous;
+        }
+
+        boolean read(int slot, String busId, PositionConsumer consumer) {
+            for (int spins = 0; ; spins++) {
+                long version = versions.get(slot);
+                if ((version & 1) == 0) {
+                    boolean presence = present[slot];
+                    double latitude = latitudes[slot];
+                    double longitude = longitudes[slot];
+                    double altitude = altitudes[slot];
+                    double accuracy = accuracies[slot];
+                    long timestamp = timestamps[slot];
+                    VarHandle.acquireFence();
+                    if (versions.get(slot) == version) {
+                        if (presence) {
+                            consumer.accept(busId, latitude, longitude, altitude, accuracy, timestamp);
+                        }
+                        return presence;
+                    }
+                }
+                backOff(spins);
+            }
+        }
+
+        BusMotion motion(int slot) {
+            for (int spins = 0; ; spins++) {
+                long version = versions.get(slot);
+                if ((version & 1) == 0) {
+                    boolean presence = present[slot];
+                    double speed = speeds[slot];
+                    double heading = headings[slot];
+                    double odometer = odometers[slot];
+                    long time = motionTimes[slot];
+                    VarHandle.acquireFence();
+                    if (versions.get(slot) == version) {
+                        return presence ? new BusMotion(speed * 3.6, Double.isNaN(heading) ? null : heading,
+                                odometer / 1000, Timestamps.toLocalDateTime(time)) : null;
+                    }
+                }
+                backOff(spins);
+            }
+        }
+
+        List<Location> history(int slot) {
+            for (int spins = 0; ; spins++) {
+                long version = versions.get(slot);
+                if ((version & 1) == 0) {
+                    LocationRingBuffer history = histories[slot];
+                    List<Location> fixes = history != null ? history.snapshot() : new ArrayList<>();
+                    TrajectoryCompressor compressor = compressors[slot];
+                    if (present[slot] && compressor != null && !compressor.isLastKept()) {
+                        Location newest = new Location(compressor.getLastLatitude(), compressor.getLastLongitude(),
+                                compressor.getLastAltitude(), compressor.getLastAccuracy());
+                        newest.setTimestamp(Timestamps.toLocalDateTime(compressor.getLastTime()));
+                        fixes.add(newest);
+                    }
+                    VarHandle.acquireFence();
+                    if (versions.get(slot) == version) {
+                        return fixes;
+                    }
+                }
+                backOff(spins);
+            }
+        }
+
+        void lock(int slot) {
+            for (int spins = 0; !owners.compareAndSet(slot, 0, 1); spins++) {
+                backOff(spins);
+            }
+            // Only the owner changes the version, so plain increments are safe
+            versions.set(slot, versions.get(slot) + 1);
+            VarHandle.storeStoreFence();
+        }
+
+        void publish(int slot) {
+            long version = versions.get(slot);
+            if ((version & 1) != 0) {
+                versions.set(slot, version + 1);
+            }
+        }
+
+        void unlock(int slot) {
+            publish(slot);
+            owners.set(slot, 0);
+        }
+
+        private static void backOff(int spins) {
+            if (spins < 100) {
+                Thread.onSpinWait();
+            } else if (spins < 1000) {
+                Thread.yield();
+            } else {
+                // The owner may be descheduled, or a writer waiting for one blocked in a listener
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            }
+        }
+    }
+}
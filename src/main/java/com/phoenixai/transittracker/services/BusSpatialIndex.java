@@ -0,0 +1,159 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.RadiusFilter;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Uniform latitude/longitude grid over tracked buses.
+ * Radius queries only visit the cells that can contain a match; callers
+ * still do the exact distance check on the returned candidates.
+ */
+public class BusSpatialIndex {
+
+    private final double cellSizeDegrees;
+    private final long lngCellCount;
+    private final Map<Long, Set<String>> cells = new ConcurrentHashMap<>();
+    private final Map<String, Long> busCells = new ConcurrentHashMap<>();
+
+    /**
+     * @param cellSizeDegrees Edge length of a grid cell in degrees
+     */
+    public BusSpatialIndex(double cellSizeDegrees) {
+        if (!(cellSizeDegrees > 0) || cellSizeDegrees > 180) {
+            throw new IllegalArgumentException("Cell size must be in (0, 180] degrees: " + cellSizeDegrees);
+        }
+        this.cellSizeDegrees = cellSizeDegrees;
+        this.lngCellCount = (long) Math.ceil(360 / cellSizeDegrees);
+    }
+
+    /**
+     * Place a bus in the cell covering its new position, moving it out of its previous cell
+     * @param busId The bus identifier
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     */
+    public void update(String busId, double latitude, double longitude) {
+        long newCell = cellKey(latIndex(latitude), lngIndex(longitude));
+        // compute() serializes updates per bus so a bus never ends up in two cells
+        busCells.compute(busId, (id, oldCell) -> {
+            if (oldCell != null && oldCell == newCell) {
+                return oldCell;
+            }
+            if (oldCell != null) {
+                removeFromCell(oldCell, id);
+            }
+            cells.compute(newCell, (k, members) -> {
+                Set<String> cell = members != null ? members : ConcurrentHashMap.newKeySet();
+                cell.add(id);
+                return cell;
+            });
+            return newCell;
+        });
+    }
+
+    /**
+     * Remove a bus from the index
+     * @param busId The bus identifier
+     */
+    public void remove(String busId) {
+        busCells.computeIfPresent(busId, (id, oldCell) -> {
+            removeFromCell(oldCell, id);
+            return null;
+        });
+    }
+
+    /**
+     * Visit every bus whose cell intersects the bounding box of a radius query
+     * @param filter The radius query
+     * @param consumer Receives candidate bus IDs; a bus moving during the query may be visited twice
+     */
+    public void forEachCandidate(RadiusFilter filter, Consumer<String> consumer) {
+        forEachCandidate(filter.getMinLatitude(), filter.getMaxLatitude(),
+                filter.getMinLongitude(), filter.getMaxLongitude(), consumer);
+    }
+
+    /**
+     * Visit every bus whose cell intersects a bounding box
+     * @param minLatitude Southern edge in degrees
+     * @param maxLatitude Northern edge in degrees
+     * @param minLongitude Western edge in degrees; greater than the eastern edge when the box crosses the antimeridian
+     * @param maxLongitude Eastern edge in degrees
+     * @param consumer Receives candidate bus IDs; a bus moving during the query may be visited twice
+     */
+    public void forEachCandidate(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude,
+                                 Consumer<String> consumer) {
+        long minLatIndex = latIndex(minLatitude);
+        long maxLatIndex = latIndex(maxLatitude);
+        double lngWidth = maxLongitude - minLongitude;
+        if (lngWidth < 0) {
+            lngWidth += 360;
+        }
+        long minLngIndex;
+        long lngCells;
+        if (lngWidth >= 360 - cellSizeDegrees) {
+            minLngIndex = 0;
+            lngCells = lngCellCount;
+        } else {
+            minLngIndex = lngIndex(minLongitude);
+            lngCells = Math.floorMod(lngIndex(maxLongitude) - minLngIndex, lngCellCount) + 1;
+        }
+
+        long candidateCells = (maxLatIndex - minLatIndex + 1) * lngCells;
+        if (candidateCells > cells.size()) {
+            // Query box is larger than the occupied part of the grid; walk occupied cells instead
+            for (Map.Entry<Long, Set<String>> entry : cells.entrySet()) {
+                long key = entry.getKey();
+                long latIdx = key / lngCellCount;
+                long lngOffset = Math.floorMod(key % lngCellCount - minLngIndex, lngCellCount);
+                if (latIdx >= minLatIndex && latIdx <= maxLatIndex && lngOffset < lngCells) {
+                    entry.getValue().forEach(consumer);
+                }
+            }
+            return;
+        }
+
+        for (long latIdx = minLatIndex; latIdx <= maxLatIndex; latIdx++) {
+            for (long i = 0; i < lngCells; i++) {
+                Set<String> cell = cells.get(cellKey(latIdx, (minLngIndex + i) % lngCellCount));
+                if (cell != null) {
+                    cell.forEach(consumer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of buses in the index
+     * @return indexed bus count
+     */
+    public int size() {
+        return busCells.size();
+    }
+
+    private void removeFromCell(long cellKey, String busId) {
+        cells.computeIfPresent(cellKey, (k, members) -> {
+            members.remove(busId);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    private long latIndex(double latitude) {
+        return (long) Math.floor((Math.max(-90, Math.min(90, latitude)) + 90) / cellSizeDegrees);
+    }
+
+    private long lngIndex(double longitude) {
+        double offset = (longitude + 180) % 360;
+        if (offset < 0) {
+            offset += 360;
+        }
+        return Math.min((long) Math.floor(offset / cellSizeDegrees), lngCellCount - 1);
+    }
+
+    private long cellKey(long latIndex, long lngIndex) {
+        return latIndex * lngCellCount + lngIndex;
+    }
+}
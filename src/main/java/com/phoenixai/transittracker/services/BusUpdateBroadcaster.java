@@ -0,0 +1,263 @@
+package com.phoenixai.transittracker.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.phoenixai.transittracker.model.Location;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Queue;
+import java.util.function.Supplier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pushes bus position changes to map clients over Server-Sent Events.
+ * The buses updated between ticks are collected, and each tick reads their
+ * newest positions from BusPositionStore and serializes them once for all clients.
+ * A tick only queues the payload for each client and returns, so the scheduler
+ * thread it shares with other scheduled work never waits on a client. Each
+ * client's events are sent in order by one task at a time on the application
+ * task executor, which uses virtual threads when spring.threads.virtual.enabled=true,
+ * so a slow client does not hold up the others. A client that falls more than
+ * the configured number of events behind is disconnected; it gets a fresh
+ * snapshot when it reconnects.
+ */
+@Component
+public class BusUpdateBroadcaster implements BusLocationListener {
+
+    static final String SNAPSHOT_EVENT = "snapshot";
+    static final String POSITIONS_EVENT = "positions";
+
+    private final ObjectMapper objectMapper;
+    private final BusPositionStore positions;
+    private final AsyncTaskExecutor sendExecutor;
+    private final long emitterTimeoutMillis;
+    private final int maxQueuedEvents;
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    // Clients between taking their snapshot and being added to emitters; changes are recorded meanwhile
+    private final AtomicInteger subscribing = new AtomicInteger();
+    private final Set<String> pendingUpdates = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingRemovals = ConcurrentHashMap.newKeySet();
+    // Held while queueing events, so every client gets them in the same order as its snapshot
+    private final ReentrantLock sendLock = new ReentrantLock();
+
+    public BusUpdateBroadcaster(ObjectMapper objectMapper,
+                                BusPositionStore positions,
+                                @Qualifier("applicationTaskExecutor") AsyncTaskExecutor sendExecutor,
+                                @Value("${transittracker.stream.emitter-timeout:1800000}") long emitterTimeoutMillis,
+                                @Value("${transittracker.stream.max-queued-events:30}") int maxQueuedEvents) {
+        if (maxQueuedEvents <= 0) {
+            throw new IllegalArgumentException("Invalid stream configuration: max queued events=" + maxQueuedEvents);
+        }
+        this.objectMapper = objectMapper;
+        this.positions = positions;
+        this.sendExecutor = sendExecutor;
+        this.emitterTimeoutMillis = emitterTimeoutMillis;
+        this.maxQueuedEvents = maxQueuedEvents;
+    }
+
+    @Override
+    public void onBusLocationUpdated(String busId, double latitude, double longitude, double altitude, double accuracy,
+                                     long timestamp) {
+        if (isWatched()) {
+            pendingRemovals.remove(busId);
+            pendingUpdates.add(busId);
+        }
+    }
+
+    @Override
+    public void onBusRemoved(String busId) {
+        if (isWatched()) {
+            pendingUpdates.remove(busId);
+            pendingRemovals.add(busId);
+        }
+    }
+
+    private boolean isWatched() {
+        return !clients.isEmpty() || subscribing.get() > 0;
+    }
+
+    /**
+     * Register a new client and send it the full fleet as its first event.
+     * Changes are recorded from before the snapshot is taken, so one made while
+     * it is being read reaches the client in the next tick rather than being lost.
+     * @param snapshot Reads the current bus locations
+     * @return Emitter streaming position events to the client
+     */
+    public SseEmitter subscribe(Supplier<Map<String, Location>> snapshot) {
+        SseEmitter emitter = createEmitter();
+        Client client = new Client(emitter);
+        emitter.onCompletion(() -> clients.remove(client));
+        emitter.onTimeout(() -> clients.remove(client));
+        emitter.onError(e -> clients.remove(client));
+
+        subscribing.incrementAndGet();
+        try {
+            Map<String, Location> buses = snapshot.get();
+            Map<String, Object> event = new HashMap<>();
+            event.put("buses", buses);
+            event.put("count", buses.size());
+            event.put("timestamp", System.currentTimeMillis());
+
+            // Hold the send lock so no delta is queued for this client ahead of its snapshot
+            String payload = toJson(event);
+            sendLock.lock();
+            try {
+                clients.add(client);
+                client.enqueue(SNAPSHOT_EVENT, payload);
+            } finally {
+                sendLock.unlock();
+            }
+        } finally {
+            subscribing.decrementAndGet();
+        }
+        return emitter;
+    }
+
+    /**
+     * Queue the positions changed since the last tick for every client; returns without sending
+     */
+    @Scheduled(fixedRateString = "${transittracker.stream.interval:1000}")
+    public void flush() {
+        // With no clients yet, keep the changes for a client that is still subscribing
+        if (clients.isEmpty() || pendingUpdates.isEmpty() && pendingRemovals.isEmpty()) {
+            return;
+        }
+
+        // Ticks may overlap on a virtual-thread scheduler; draining under the lock keeps them in order
+        sendLock.lock();
+        try {
+            String payload = drainPending();
+            for (Client client : clients) {
+                client.enqueue(POSITIONS_EVENT, payload);
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Create the emitter of a new client
+     */
+    SseEmitter createEmitter() {
+        return new SseEmitter(emitterTimeoutMillis);
+    }
+
+    private String drainPending() {
+        Map<String, Location> changed = new HashMap<>();
+        for (String busId : pendingUpdates) {
+            if (pendingUpdates.remove(busId)) {
+                Location location = positions.get(busId);
+                if (location != null) {
+                    changed.put(busId, location);
+                }
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (String busId : pendingRemovals) {
+            if (pendingRemovals.remove(busId)) {
+                removed.add(busId);
+            }
+        }
+
+        Map<String, Object> event = new HashMap<>();
+        event.put("buses", changed);
+        event.put("removed", removed);
+        event.put("count", changed.size());
+        event.put("timestamp", System.currentTimeMillis());
+        return toJson(event);
+    }
+
+    /**
+     * Get the number of connected clients
+     * @return subscriber count
+     */
+    public int getSubscriberCount() {
+        return clients.size();
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * One connected client and the events queued for it. At most one task sends
+     * a client's events at a time, so they arrive in the order they were queued.
+     */
+    private final class Client {
+        private final SseEmitter emitter;
+        private final Queue<String[]> events = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Client(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        void enqueue(String eventName, String payload) {
+            if (closed.get()) {
+                return;
+            }
+            if (queued.incrementAndGet() > maxQueuedEvents) {
+                // Not reading; skipping events would leave its map wrong, so let it reconnect for a snapshot
+                close(new IOException("Client fell more than " + maxQueuedEvents + " events behind"));
+                return;
+            }
+            events.add(new String[] {eventName, payload});
+            if (sending.compareAndSet(false, true)) {
+                sendExecutor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                String[] event;
+                while (!closed.get() && (event = events.poll()) != null) {
+                    queued.decrementAndGet();
+                    try {
+                        emitter.send(SseEmitter.event().name(event[0]).data(event[1]));
+                    } catch (IOException | IllegalStateException e) {
+                        close(e);
+                    }
+                }
+                sending.set(false);
+                // An event queued after the last poll but before the flag was cleared found it still set
+                if (closed.get() || events.isEmpty() || !sending.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        private void close(Exception cause) {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            events.clear();
+            // The emitter's completion callback may not have run yet
+            clients.remove(this);
+            // Completing waits for a send in progress, so it is never done on the ticking thread
+            sendExecutor.execute(() -> emitter.completeWithError(cause));
+        }
+    }
+}
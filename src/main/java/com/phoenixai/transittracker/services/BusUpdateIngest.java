@@ -0,0 +1,372 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ingest stage between the location endpoints and GPSService. Fixes for a
+ * bus that arrive within the coalescing window of its first pending fix are
+ * applied together: all of them go to history, but only the newest becomes
+ * the current position and reaches listeners, so a device replaying a burst
+ * of queued fixes costs one update rather than one per fix.
+ * <p>
+ * The number of pending fixes is bounded overall and per bus. Beyond the
+ * bounds fixes are refused rather than queued, so callers can back off
+ * instead of latency growing without limit. Buses are spread over the
+ * workers by ID, one per available processor unless configured, so the
+ * fixes of one bus are applied in order while buses are applied in parallel.
+ * Removing or initializing a bus goes through here too, discarding the fixes
+ * it has pending so they cannot bring it back or overwrite the reset.
+ * Fixes are applied directly when transittracker.ingest.enabled=false.
+ * A queued fix is not persisted until it is applied and the WAL commits it,
+ * so a crash can lose up to one coalescing window plus one commit interval.
+ */
+@Service
+// Starts after persisted state is restored, and drains before the final snapshot
+@DependsOn("trackingStateStore")
+public class BusUpdateIngest {
+
+    private static final Logger log = LoggerFactory.getLogger(BusUpdateIngest.class);
+
+    /**
+     * Outcome of offering a fix
+     */
+    public enum Admission {
+        /** Applied before returning; the stage is disabled */
+        APPLIED,
+        /** Queued, and applied within the coalescing window */
+        QUEUED,
+        /** Refused because the bus already has the maximum number of pending fixes */
+        BUS_LIMIT_REACHED,
+        /** Refused because the queue is full or shutting down */
+        OVERLOADED,
+        /** Refused because the bus ID is blank or the coordinates are out of range */
+        INVALID
+    }
+
+    private final GPSService gpsService;
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int queueCapacity;
+    private final int maxPendingPerBus;
+    private final Duration retryAfter;
+    private final Worker[] workers;
+    // busId -> fixes waiting for their window to close
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    // busId -> fixes taken by a worker and being applied
+    private final Map<String, Pending> applying = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    // Offers between their stopping check and queueing; shutdown waits for them before draining
+    private final AtomicInteger offering = new AtomicInteger();
+    private final Counter coalesced;
+    private final Counter droppedOverloaded;
+    private final Counter droppedBusLimit;
+    private final Counter droppedInvalid;
+    private final Counter droppedCancelled;
+    private volatile boolean stopping;
+
+    public BusUpdateIngest(GPSService gpsService,
+                           MeterRegistry meterRegistry,
+                           @Value("${transittracker.ingest.enabled:true}") boolean enabled,
+                           @Value("${transittracker.ingest.coalesce-window:100ms}") Duration window,
+                           @Value("${transittracker.ingest.queue-capacity:100000}") int queueCapacity,
+                           @Value("${transittracker.ingest.max-pending-per-bus:200}") int maxPendingPerBus,
+                           @Value("${transittracker.ingest.workers:0}") int workerThreads,
+                           @Value("${transittracker.ingest.retry-after:1s}") Duration retryAfter) {
+        int workerCount = workerThreads > 0 ? workerThreads : Runtime.getRuntime().availableProcessors();
+        if (window.isNegative() || queueCapacity <= 0 || maxPendingPerBus <= 0 || workerThreads < 0) {
+            throw new IllegalArgumentException("Invalid ingest configuration: window=" + window
+                    + ", queue capacity=" + queueCapacity + ", max pending per bus=" + maxPendingPerBus
+                    + ", workers=" + workerThreads);
+        }
+        this.gpsService = gpsService;
+        this.enabled = enabled;
+        this.windowNanos = window.toNanos();
+        this.queueCapacity = queueCapacity;
+        this.maxPendingPerBus = maxPendingPerBus;
+        this.retryAfter = retryAfter;
+        this.workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker();
+        }
+        this.coalesced = Counter.builder("transittracker.ingest.coalesced")
+                .description("Fixes sent to history only, superseded by a newer fix of the same bus")
+                .register(meterRegistry);
+        this.droppedOverloaded = dropped(meterRegistry, "overloaded");
+        this.droppedBusLimit = dropped(meterRegistry, "bus-limit");
+        this.droppedInvalid = dropped(meterRegistry, "invalid");
+        this.droppedCancelled = dropped(meterRegistry, "cancelled");
+        Gauge.builder("transittracker.ingest.pending", queued, AtomicInteger::get)
+                .description("Fixes waiting to be applied")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < workers.length; i++) {
+            Thread thread = new Thread(workers[i], "bus-ingest-" + i);
+            thread.setDaemon(true);
+            workers[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    private static Counter dropped(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("transittracker.ingest.dropped")
+                .description("Fixes refused, or discarded before they were applied, by the ingest stage")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Offer a bus fix
+     * @param busId The bus identifier
+     * @param location The fix
+     * @return Whether the fix was taken
+     */
+    public Admission offer(String busId, Location location) {
+        if (!GPSService.isValid(busId, location)) {
+            droppedInvalid.increment();
+            return Admission.INVALID;
+        }
+        long timestamp = Timestamps.toEpochMillis(location.getTimestamp(), BusPositionStore.NO_TIMESTAMP);
+        if (!enabled) {
+            gpsService.updateBusLocation(busId, location.getLatitude(), location.getLongitude(),
+                    location.getAltitude(), location.getAccuracy(), timestamp);
+            return Admission.APPLIED;
+        }
+        // Counted before checking stopping, so shutdown either sees this offer or it sees the flag
+        offering.incrementAndGet();
+        try {
+            if (stopping) {
+                droppedOverloaded.increment();
+                return Admission.OVERLOADED;
+            }
+            return enqueue(busId, location, timestamp);
+        } finally {
+            offering.decrementAndGet();
+        }
+    }
+
+    private Admission enqueue(String busId, Location location, long timestamp) {
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            droppedOverloaded.increment();
+            return Admission.OVERLOADED;
+        }
+        // Fixes without a time of their own are recorded in history at the time they arrived
+        long historyTime = timestamp != BusPositionStore.NO_TIMESTAMP ? timestamp : System.currentTimeMillis();
+        while (true) {
+            Pending bus = pending.get(busId);
+            if (bus == null) {
+                Pending created = new Pending(busId, System.nanoTime() + windowNanos);
+                created.fixes.add(location.getLatitude(), location.getLongitude(), location.getAltitude(),
+                        location.getAccuracy(), timestamp, historyTime);
+                if (pending.putIfAbsent(busId, created) == null) {
+                    worker(busId).ready.add(created);
+                    return Admission.QUEUED;
+                }
+                continue;
+            }
+            synchronized (bus) {
+                if (bus.taken) {
+                    // Being applied; it leaves the map right after
+                    Thread.onSpinWait();
+                    continue;
+                }
+                if (bus.fixes.size() >= maxPendingPerBus) {
+                    queued.decrementAndGet();
+                    droppedBusLimit.increment();
+                    return Admission.BUS_LIMIT_REACHED;
+                }
+                bus.fixes.add(location.getLatitude(), location.getLongitude(), location.getAltitude(),
+                        location.getAccuracy(), timestamp, historyTime);
+                return Admission.QUEUED;
+            }
+        }
+    }
+
+    /**
+     * Remove a bus from tracking, discarding the fixes it has pending
+     * @param busId The bus identifier
+     */
+    public void remove(String busId) {
+        discardPending(busId);
+        gpsService.removeBus(busId);
+    }
+
+    /**
+     * Initialize a bus with a starting location, discarding the fixes it has pending
+     * @param busId The bus identifier
+     * @param location The starting location
+     */
+    public void initialize(String busId, Location location) {
+        discardPending(busId);
+        gpsService.initializeBus(busId, location);
+    }
+
+    /**
+     * Get how long a refused caller should wait before retrying
+     * @return whole seconds, at least 1
+     */
+    public long getRetryAfterSeconds() {
+        return Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Stop taking fixes and apply the ones pending
+     */
+    @PreDestroy
+    public void shutdown() {
+        stopping = true;
+        // Offers that got past the check before it was set finish queueing, so the drain below sees them
+        while (offering.get() > 0) {
+            Thread.onSpinWait();
+        }
+        for (Worker worker : workers) {
+            if (worker.thread != null) {
+                // Wake a worker waiting out a window
+                LockSupport.unpark(worker.thread);
+            }
+        }
+        for (Worker worker : workers) {
+            Thread thread = worker.thread;
+            if (thread == null) {
+                continue;
+            }
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // Buses queued as the worker exited
+            Pending bus;
+            while ((bus = worker.ready.poll()) != null) {
+                apply(bus);
+            }
+        }
+    }
+
+    private Worker worker(String busId) {
+        return workers[Math.floorMod(busId.hashCode(), workers.length)];
+    }
+
+    /**
+     * Cancel the fixes of a bus that are waiting or being applied. GPSService
+     * checks for cancellation while holding the bus, so fixes already being
+     * applied either land before the caller's change to the bus or not at all.
+     */
+    private void discardPending(String busId) {
+        Pending waiting = pending.get(busId);
+        if (waiting != null) {
+            synchronized (waiting) {
+                waiting.taken = true;
+                waiting.fixes.cancel();
+            }
+            // Fixes offered from here on start a new entry; the worker still accounts for this one
+            pending.remove(busId, waiting);
+        }
+        Pending taken = applying.get(busId);
+        if (taken != null) {
+            taken.fixes.cancel();
+        }
+    }
+
+    private void apply(Pending bus) {
+        synchronized (bus) {
+            bus.taken = true;
+        }
+        // Listed as applying before it leaves pending, so discardPending always finds it
+        applying.put(bus.busId, bus);
+        pending.remove(bus.busId, bus);
+        BusFixes fixes = bus.fixes;
+        queued.addAndGet(-fixes.size());
+        try {
+            fixes.sortByTime();
+            if (gpsService.updateBusLocations(bus.busId, fixes)) {
+                coalesced.increment(fixes.size() - 1);
+            } else {
+                droppedCancelled.increment(fixes.size());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to apply {} fixes for bus {}", fixes.size(), bus.busId, e);
+        } finally {
+            applying.remove(bus.busId, bus);
+        }
+    }
+
+    /**
+     * Fixes of one bus waiting for its window to close
+     */
+    private static final class Pending {
+        private final String busId;
+        private final long dueNanos;
+        // Guarded by this until taken, then owned by the worker
+        private final BusFixes fixes = new BusFixes();
+        private boolean taken;
+
+        Pending(String busId, long dueNanos) {
+            this.busId = busId;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    /**
+     * Applies the buses queued to it once their window closes. Buses are
+     * queued when their first fix arrives, so they fall due in queue order.
+     */
+    private final class Worker implements Runnable {
+        private final BlockingQueue<Pending> ready = new LinkedBlockingQueue<>();
+        private volatile Thread thread;
+
+        @Override
+        public void run() {
+            while (true) {
+                Pending bus;
+                try {
+                    bus = ready.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (bus == null) {
+                    if (stopping) {
+                        return;
+                    }
+                    continue;
+                }
+                // On shutdown, apply what is left without waiting out the windows
+                long wait;
+                while (!stopping && (wait = bus.dueNanos - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                apply(bus);
+            }
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Route;
+import com.phoenixai.transittracker.model.RouteProgress;
+import com.phoenixai.transittracker.model.StopArrival;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Predicts when each bus reaches the stops ahead of it on its route.
+ * Travel time per route segment (stop to stop) is a moving average updated
+ * whenever a bus is seen passing a stop, seeded from Route.estimatedDuration.
+ * Every fix recomputes that bus's predictions for its downstream stops and
+ * posts them to a per-stop arrivals table, so arrival queries only read the
+ * maintained state. Runs after MapMatchingService, whose progress it uses.
+ */
+@Service
+@Order(10)
+public class EtaService implements BusLocationListener {
+
+    // Moving backwards further than this along the route starts a new trip; less is GPS noise
+    private static final double REVERSAL_TOLERANCE_KM = 0.2;
+    // Segment samples implying a faster speed come from GPS jumps and are ignored
+    private static final double MAX_PLAUSIBLE_SPEED_KMH = 120;
+
+    private final RouteService routeService;
+    private final MapMatchingService mapMatchingService;
+    private final double smoothing;
+    private final double defaultSpeedKmh;
+    private final long maxPredictionAgeMillis;
+
+    private final Map<String, SegmentStats> routeStats = new ConcurrentHashMap<>();
+    private final Map<String, BusTrip> trips = new ConcurrentHashMap<>();
+    // stopId -> busId -> prediction
+    private final Map<String, Map<String, Prediction>> stopArrivals = new ConcurrentHashMap<>();
+
+    public EtaService(RouteService routeService,
+                      MapMatchingService mapMatchingService,
+                      @Value("${transittracker.eta.smoothing:0.2}") double smoothing,
+                      @Value("${transittracker.eta.default-speed-kmh:20}") double defaultSpeedKmh,
+                      @Value("${transittracker.eta.max-prediction-age:10m}") Duration maxPredictionAge) {
+        if (smoothing <= 0 || smoothing > 1 || defaultSpeedKmh <= 0) {
+            throw new IllegalArgumentException("Invalid ETA configuration: smoothing=" + smoothing
+                    + ", defaultSpeedKmh=" + defaultSpeedKmh);
+        }
+        this.routeService = routeService;
+        this.mapMatchingService = mapMatchingService;
+        this.smoothing = smoothing;
+        this.defaultSpeedKmh = defaultSpeedKmh;
+        this.maxPredictionAgeMillis = maxPredictionAge.toMillis();
+    }
+
+    /**
+     * Drop travel-time statistics of routes that no longer exist
+     * @param event The registry change
+     */
+    @EventListener
+    public void onRoutesChanged(RoutesChangedEvent event) {
+        Set<String> routeNos = event.getRoutes().stream().map(Route::getRouteNo).collect(Collectors.toSet());
+        routeStats.keySet().retainAll(routeNos);
+    }
+
+    @Override
+    public void onBusLocationUpdated(String busId, double latitude, double longitude, double altitude, double accuracy,
+                                     long timestamp) {
+        RouteProgress progress = mapMatchingService.getProgress(busId);
+        RouteGeometry geometry = progress != null ? mapMatchingService.getGeometry(progress.getRouteNo()) : null;
+        if (geometry == null) {
+            onBusRemoved(busId);
+            return;
+        }
+
+        SegmentStats stats = statsFor(geometry);
+        BusTrip trip = trips.computeIfAbsent(busId, BusTrip::new);
+        synchronized (trip) {
+            trip.advance(stats, progress.getDistanceAlongKm(),
+                    Timestamps.toEpochMillis(progress.getTimestamp(), System.currentTimeMillis()));
+        }
+    }
+
+    @Override
+    public void onBusRemoved(String busId) {
+        BusTrip trip = trips.remove(busId);
+        if (trip != null) {
+            synchronized (trip) {
+                trip.post(List.of());
+            }
+        }
+    }
+
+    /**
+     * Get the next predicted arrivals at a stop, soonest first
+     * @param stopId The stop identifier
+     * @param limit Maximum number of arrivals to return
+     * @return Predicted arrivals, empty if no bus is heading to the stop
+     */
+    public List<StopArrival> getArrivals(String stopId, int limit) {
+        Map<String, Prediction> arrivals = stopArrivals.get(stopId);
+        if (arrivals == null) {
+            return List.of();
+        }
+        long now = System.currentTimeMillis();
+        return arrivals.values().stream()
+                .filter(prediction -> isCurrent(prediction, now))
+                .sorted(Comparator.comparingLong(prediction -> prediction.etaMillis))
+                .limit(limit)
+                .map(prediction -> prediction.toStopArrival(now))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Get the predicted arrivals of a bus at every stop ahead of it, in route order
+     * @param busId The bus identifier
+     * @return Predicted arrivals, or null if the bus has no fix on a known route
+     */
+    public List<StopArrival> getBusArrivals(String busId) {
+        BusTrip trip = trips.get(busId);
+        if (trip == null) {
+            return null;
+        }
+        List<Prediction> predictions;
+        synchronized (trip) {
+            predictions = trip.predictions;
+        }
+        long now = System.currentTimeMillis();
+        return predictions.stream()
+                .filter(prediction -> isCurrent(prediction, now))
+                .map(prediction -> prediction.toStopArrival(now))
+                .collect(Collectors.toList());
+    }
+
+    private boolean isCurrent(Prediction prediction, long now) {
+        return now - prediction.predictedAtMillis <= maxPredictionAgeMillis;
+    }
+
+    private SegmentStats statsFor(RouteGeometry geometry) {
+        SegmentStats current = routeStats.get(geometry.getRouteNo());
+        if (current != null && current.geometry == geometry) {
+            return current;
+        }
+        return routeStats.compute(geometry.getRouteNo(), (routeNo, existing) -> {
+            if (existing != null && existing.geometry == geometry) {
+                return existing;
+            }
+            if (existing != null && existing.hasSameStops(geometry)) {
+                return existing.rebind(geometry);
+            }
+            return new SegmentStats(geometry, initialSecondsPerKm(routeService.getRoute(routeNo), geometry));
+        });
+    }
+
+    private double initialSecondsPerKm(Route route, RouteGeometry geometry) {
+        if (route != null && route.getEstimatedDuration() > 0 && geometry.getLengthKm() > 0) {
+            return route.getEstimatedDuration() * 60.0 / geometry.getLengthKm();
+        }
+        return 3600 / defaultSpeedKmh;
+    }
+
+    private Map<String, Prediction> arrivalsAt(String stopId) {
+        return stopArrivals.computeIfAbsent(stopId, k -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Moving-average travel time of each segment of one route
+     */
+    private final class SegmentStats {
+        private final RouteGeometry geometry;
+        private final double[] seconds;
+
+        SegmentStats(RouteGeometry geometry, double secondsPerKm) {
+            this.geometry = geometry;
+            this.seconds = new double[geometry.segmentCount()];
+            for (int i = 0; i < seconds.length; i++) {
+                seconds[i] = segmentLengthKm(i) * secondsPerKm;
+            }
+        }
+
+        private SegmentStats(RouteGeometry geometry, double[] seconds) {
+            this.geometry = geometry;
+            this.seconds = seconds;
+        }
+
+        boolean hasSameStops(RouteGeometry other) {
+            if (other.getStopCount() != geometry.getStopCount()) {
+                return false;
+            }
+            for (int i = 0; i < geometry.getStopCount(); i++) {
+                if (!geometry.getStopId(i).equals(other.getStopId(i))
+                        || Math.abs(geometry.getStopDistanceKm(i) - other.getStopDistanceKm(i)) > 0.001) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        synchronized SegmentStats rebind(RouteGeometry other) {
+            return new SegmentStats(other, seconds.clone());
+        }
+
+        synchronized void record(int segment, double observedSeconds) {
+            double lengthKm = segmentLengthKm(segment);
+            if (observedSeconds <= 0 || lengthKm / observedSeconds * 3600 > MAX_PLAUSIBLE_SPEED_KMH) {
+                return;
+            }
+            seconds[segment] += smoothing * (observedSeconds - seconds[segment]);
+        }
+
+        /**
+         * Predict arrival times at the stops from firstStop onwards for a bus at a distance along the route
+         */
+        synchronized long[] predict(double distanceKm, int firstStop, long now) {
+            long[] etas = new long[geometry.getStopCount() - firstStop];
+            if (etas.length == 0) {
+                return etas;
+            }
+            int segment = firstStop - 1;
+            double lengthKm = segmentLengthKm(segment);
+            double remaining = lengthKm > 0 ? (geometry.getStopDistanceKm(firstStop) - distanceKm) / lengthKm : 0;
+            double elapsed = seconds[segment] * Math.max(0, Math.min(1, remaining));
+            etas[0] = now + (long) (elapsed * 1000);
+            for (int i = 1; i < etas.length; i++) {
+                elapsed += seconds[segment + i];
+                etas[i] = now + (long) (elapsed * 1000);
+            }
+            return etas;
+        }
+
+        private double segmentLengthKm(int segment) {
+            return geometry.getStopDistanceKm(segment + 1) - geometry.getStopDistanceKm(segment);
+        }
+    }
+
+    /**
+     * Progress of one bus through its current trip; guarded by its own monitor
+     */
+    private final class BusTrip {
+        private final String busId;
+        private SegmentStats stats;
+        private double lastDistanceKm;
+        private long lastMillis;
+        private int lastStopIndex = -1;
+        private long lastStopMillis;
+        private List<Prediction> predictions = List.of();
+
+        BusTrip(String busId) {
+            this.busId = busId;
+        }
+
+        void advance(SegmentStats current, double distanceKm, long now) {
+            RouteGeometry geometry = current.geometry;
+            boolean sameRoute = stats != null && stats.geometry.getRouteNo().equals(geometry.getRouteNo())
+                    && (stats == current || current.hasSameStops(stats.geometry));
+            if (!sameRoute || distanceKm < lastDistanceKm - REVERSAL_TOLERANCE_KM) {
+                // New route or a new run of the same route
+                lastStopIndex = -1;
+                lastDistanceKm = distanceKm;
+                lastMillis = now;
+            } else if (distanceKm > lastDistanceKm && now > lastMillis) {
+                recordPassedStops(current, distanceKm, now);
+                lastDistanceKm = distanceKm;
+                lastMillis = now;
+            }
+            stats = current;
+            if (distanceKm <= 0) {
+                // Waiting at the origin; the first segment is timed from departure
+                lastStopIndex = 0;
+                lastStopMillis = now;
+            }
+
+            int firstStop = geometry.segmentAt(distanceKm) + 1;
+            while (firstStop < geometry.getStopCount() && geometry.getStopDistanceKm(firstStop) <= distanceKm) {
+                firstStop++;
+            }
+            long[] etas = current.predict(distanceKm, firstStop, now);
+            List<Prediction> next = new ArrayList<>(etas.length);
+            for (int i = 0; i < etas.length; i++) {
+                int stopIndex = firstStop + i;
+                next.add(new Prediction(busId, geometry.getRouteNo(), geometry.getStopId(stopIndex), etas[i],
+                        geometry.getStopDistanceKm(stopIndex) - distanceKm, now));
+            }
+            post(next);
+        }
+
+        /**
+         * Time each stop passed between the previous fix and this one, interpolating
+         * the passing time, and feed completed segments into the route statistics
+         */
+        private void recordPassedStops(SegmentStats current, double distanceKm, long now) {
+            RouteGeometry geometry = current.geometry;
+            for (int stop = geometry.segmentAt(lastDistanceKm) + 1;
+                 stop < geometry.getStopCount() && geometry.getStopDistanceKm(stop) <= distanceKm; stop++) {
+                double stopDistanceKm = geometry.getStopDistanceKm(stop);
+                if (stopDistanceKm <= lastDistanceKm) {
+                    continue;
+                }
+                long passedAt = lastMillis + (long) ((now - lastMillis)
+                        * (stopDistanceKm - lastDistanceKm) / (distanceKm - lastDistanceKm));
+                if (lastStopIndex == stop - 1) {
+                    current.record(stop - 1, (passedAt - lastStopMillis) / 1000.0);
+                }
+                lastStopIndex = stop;
+                lastStopMillis = passedAt;
+            }
+        }
+
+        /**
+         * Replace this bus's entries in the per-stop arrivals table
+         */
+        void post(List<Prediction> next) {
+            Set<String> posted = new HashSet<>();
+            List<Prediction> kept = new ArrayList<>(next.size());
+            for (Prediction prediction : next) {
+                // A stop visited twice on a loop route gets its first visit
+                if (posted.add(prediction.stopId)) {
+                    arrivalsAt(prediction.stopId).put(busId, prediction);
+                    kept.add(prediction);
+                }
+            }
+            for (Prediction old : predictions) {
+                if (!posted.contains(old.stopId)) {
+                    Map<String, Prediction> arrivals = stopArrivals.get(old.stopId);
+                    if (arrivals != null) {
+                        arrivals.remove(busId, old);
+                    }
+                }
+            }
+            predictions = List.copyOf(kept);
+        }
+    }
+
+    /**
+     * Predicted arrival of one bus at one stop, kept in epoch milliseconds
+     */
+    private static final class Prediction {
+        private final String busId;
+        private final String routeNo;
+        private final String stopId;
+        private final long etaMillis;
+        private final double distanceKm;
+        private final long predictedAtMillis;
+
+        Prediction(String busId, String routeNo, String stopId, long etaMillis, double distanceKm,
+                   long predictedAtMillis) {
+            this.busId = busId;
+            this.routeNo = routeNo;
+            this.stopId = stopId;
+            this.etaMillis = etaMillis;
+            this.distanceKm = distanceKm;
+            this.predictedAtMillis = predictedAtMillis;
+        }
+
+        StopArrival toStopArrival(long now) {
+            return new StopArrival(busId, routeNo, stopId, Timestamps.toLocalDateTime(etaMillis),
+                    Math.max(0, (etaMillis - now) / 1000), distanceKm, Timestamps.toLocalDateTime(predictedAtMillis));
+        }
+    }
+}
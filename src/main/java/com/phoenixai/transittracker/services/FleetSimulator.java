@@ -0,0 +1,233 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load-generation mode that drives a large simulated fleet through GPSService.
+ * Buses are split into shards that move in parallel on a fork-join pool, each
+ * shard with its own SplittableRandom and primitive position arrays. Every
+ * tick's duration is logged and recorded as transittracker.simulation.tick
+ * with mode=load. Disabled unless transittracker.simulation.load.enabled=true.
+ */
+@Component
+public class FleetSimulator {
+
+    private static final Logger log = LoggerFactory.getLogger(FleetSimulator.class);
+    private static final double METERS_PER_DEGREE = Location.EARTH_RADIUS_KM * 1000 * Math.PI / 180;
+
+    private final GPSService gpsService;
+    private final boolean enabled;
+    private final int busCount;
+    private final long tickMillis;
+    private final int shardCount;
+    private final long seed;
+    private final double centerLatitude;
+    private final double centerLongitude;
+    private final double spreadDegrees;
+    private final double speedMetersPerSecond;
+    private final Timer tickTimer;
+
+    private ForkJoinPool pool;
+    private ScheduledExecutorService ticker;
+    private List<Shard> shards = List.of();
+    private long lastTickNanos;
+
+    public FleetSimulator(GPSService gpsService,
+                          MeterRegistry meterRegistry,
+                          @Value("${transittracker.simulation.load.enabled:false}") boolean enabled,
+                          @Value("${transittracker.simulation.load.bus-count:10000}") int busCount,
+                          @Value("${transittracker.simulation.load.tick-interval:1s}") Duration tickInterval,
+                          @Value("${transittracker.simulation.load.shards:0}") int shards,
+                          @Value("${transittracker.simulation.load.seed:42}") long seed,
+                          @Value("${transittracker.simulation.load.center-latitude:18.0}") double centerLatitude,
+                          @Value("${transittracker.simulation.load.center-longitude:-76.8}") double centerLongitude,
+                          @Value("${transittracker.simulation.load.spread-degrees:0.5}") double spreadDegrees,
+                          @Value("${transittracker.simulation.load.speed-mps:10}") double speedMetersPerSecond) {
+        this.gpsService = gpsService;
+        this.enabled = enabled;
+        this.busCount = busCount;
+        this.tickMillis = tickInterval.toMillis();
+        this.shardCount = shards > 0 ? shards : Runtime.getRuntime().availableProcessors();
+        this.seed = seed;
+        this.centerLatitude = centerLatitude;
+        this.centerLongitude = centerLongitude;
+        this.spreadDegrees = spreadDegrees;
+        this.speedMetersPerSecond = speedMetersPerSecond;
+        this.tickTimer = Timer.builder("transittracker.simulation.tick")
+                .description("Duration of one GPS simulation tick")
+                .tag("mode", "load")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * Seed the simulated fleet and start ticking once the application is ready
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        pool = new ForkJoinPool(shardCount);
+        SplittableRandom root = new SplittableRandom(seed);
+        List<Shard> created = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            int from = (int) ((long) busCount * i / shardCount);
+            int to = (int) ((long) busCount * (i + 1) / shardCount);
+            created.add(new Shard(from, to, root.split()));
+        }
+        shards = created;
+        runShards(Shard::seed);
+
+        log.info("Load simulation started: {} buses in {} shards, tick every {} ms", busCount, shardCount, tickMillis);
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fleet-simulator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lastTickNanos = System.nanoTime();
+        // Fixed rate never overlaps ticks; an overrunning tick delays the next one
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Move every simulated bus once and report how long it took
+     */
+    void tick() {
+        long start = System.nanoTime();
+        double elapsedSeconds = (start - lastTickNanos) / 1e9;
+        lastTickNanos = start;
+
+        runShards(shard -> shard.move(elapsedSeconds));
+
+        long duration = System.nanoTime() - start;
+        tickTimer.record(duration, TimeUnit.NANOSECONDS);
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(duration);
+        if (durationMillis > tickMillis) {
+            log.warn("Simulation tick overran: {} buses in {} ms (interval {} ms)", busCount, durationMillis, tickMillis);
+        } else {
+            log.debug("Simulation tick: {} buses in {} ms", busCount, durationMillis);
+        }
+    }
+
+    /**
+     * Check whether load simulation is running
+     * @return true if the simulator is ticking
+     */
+    public boolean isRunning() {
+        return ticker != null && !ticker.isShutdown();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    private void runShards(ShardTask task) {
+        List<Callable<Void>> calls = new ArrayList<>(shards.size());
+        for (Shard shard : shards) {
+            calls.add(() -> {
+                task.run(shard);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> result : pool.invokeAll(calls)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Simulation shard failed", e.getCause());
+        }
+    }
+
+    static String busId(int index) {
+        return String.format("SIM-%06d", index);
+    }
+
+    @FunctionalInterface
+    private interface ShardTask {
+        void run(Shard shard);
+    }
+
+    /**
+     * A contiguous range of simulated buses owned by one worker at a time
+     */
+    private final class Shard {
+        private final String[] busIds;
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private final double[] headings;
+        private final SplittableRandom random;
+
+        Shard(int from, int to, SplittableRandom random) {
+            int size = to - from;
+            this.busIds = new String[size];
+            this.latitudes = new double[size];
+            this.longitudes = new double[size];
+            this.headings = new double[size];
+            this.random = random;
+            for (int i = 0; i < size; i++) {
+                busIds[i] = busId(from + i);
+            }
+        }
+
+        void seed() {
+            for (int i = 0; i < busIds.length; i++) {
+                latitudes[i] = centerLatitude + (random.nextDouble() - 0.5) * spreadDegrees;
+                longitudes[i] = centerLongitude + (random.nextDouble() - 0.5) * spreadDegrees;
+                headings[i] = random.nextDouble() * 2 * Math.PI;
+                gpsService.initializeBus(busIds[i], new Location(latitudes[i], longitudes[i], 0, 5.0));
+            }
+        }
+
+        void move(double elapsedSeconds) {
+            double step = speedMetersPerSecond * elapsedSeconds / METERS_PER_DEGREE;
+            double cosLatitude = Math.cos(Math.toRadians(centerLatitude));
+            double half = spreadDegrees / 2;
+            for (int i = 0; i < busIds.length; i++) {
+                // Drift the heading a little and turn back when leaving the simulated area
+                double heading = headings[i] + (random.nextDouble() - 0.5) * 0.5;
+                double latitude = latitudes[i] + step * Math.cos(heading);
+                double longitude = longitudes[i] + step * Math.sin(heading) / cosLatitude;
+                if (Math.abs(latitude - centerLatitude) > half || Math.abs(longitude - centerLongitude) > half) {
+                    heading += Math.PI;
+                    latitude = latitudes[i];
+                    longitude = longitudes[i];
+                }
+                headings[i] = heading;
+                latitudes[i] = latitude;
+                longitudes[i] = longitude;
+                gpsService.updateBusLocation(busIds[i], latitude, longitude, 0, 5.0, BusPositionStore.NO_TIMESTAMP);
+            }
+        }
+    }
+}
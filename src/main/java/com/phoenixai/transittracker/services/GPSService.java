@@ -1,13 +1,23 @@
 package com.phoenixai.transittracker.services;
 
+import com.phoenixai.transittracker.model.BusCluster;
+import com.phoenixai.transittracker.model.BusMotion;
+import com.phoenixai.transittracker.model.BusLocationUpdate;
 import com.phoenixai.transittracker.model.Location;
+import com.phoenixai.transittracker.model.RadiusFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 
+import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 /**
  * Service for handling GPS location tracking and management
@@ -16,16 +26,85 @@ import java.util.concurrent.CopyOnWriteArrayList;
 public class GPSService {
     
     private final RestTemplate restTemplate;
-    private final Map<String, Location> passengerLocation = new ConcurrentHashMap<>();
-    private final Map<String, Location> busLocations = new ConcurrentHashMap<>();
-    private final List<Location> locationHistory = new CopyOnWriteArrayList<>();
-    private final Map<String, List<Location>> busLocationHistory = new ConcurrentHashMap<>();
+    private final PassengerStore passengers;
+    private final BusPositionStore busPositions;
+    private final LocationHistoryStore locationHistory;
+    // Resolved once so updates do not allocate a method reference
+    private final BusPositionStore.HistorySink generalHistory;
+    private final BusSpatialIndex busIndex;
+    private final BusClusterGrid busClusters;
+    private final List<BusLocationListener> listeners;
+    private final Timer updateTimer;
+    private final Timer simulationTickTimer;
+    private final Counter expiredPassengers;
+    private final boolean demoSimulationEnabled;
     
     // Mock GPS data for demonstration (in real app, this would come from GPS devices)
     private final Random random = new Random();
     
-    public GPSService(RestTemplate restTemplate) {
+    public GPSService(RestTemplate restTemplate,
+                      LocationHistoryStore locationHistory,
+                      BusPositionStore busPositions,
+                      PassengerStore passengers,
+                      List<BusLocationListener> listeners,
+                      MeterRegistry meterRegistry,
+                      @Value("${transittracker.spatial-index.cell-size-degrees:0.01}") double indexCellSizeDegrees,
+                      @Value("${transittracker.clusters.levels:15}") int clusterLevels,
+                      @Value("${transittracker.simulation.demo.enabled:true}") boolean demoSimulationEnabled) {
         this.restTemplate = restTemplate;
+        this.locationHistory = locationHistory;
+        this.generalHistory = locationHistory::append;
+        this.busPositions = busPositions;
+        this.passengers = passengers;
+        this.listeners = listeners;
+        this.busIndex = new BusSpatialIndex(indexCellSizeDegrees);
+        this.busClusters = new BusClusterGrid(clusterLevels);
+        this.demoSimulationEnabled = demoSimulationEnabled;
+
+        // Timers are resolved once so recording on the update path does not allocate
+        this.updateTimer = Timer.builder("transittracker.gps.updates")
+                .description("Latency of bus location updates; the count gives the ingest rate")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.simulationTickTimer = Timer.builder("transittracker.simulation.tick")
+                .description("Duration of one GPS simulation tick")
+                .tag("mode", "demo")
+                .register(meterRegistry);
+        this.expiredPassengers = Counter.builder("transittracker.passengers.expired")
+                .description("Passengers forgotten after their idle TTL")
+                .register(meterRegistry);
+
+        Gauge.builder("transittracker.buses.tracked", busPositions, BusPositionStore::size)
+                .description("Number of buses being tracked")
+                .register(meterRegistry);
+        Gauge.builder("transittracker.positions.bytes", busPositions, BusPositionStore::estimatedBytes)
+                .description("Estimated bytes held by the current bus positions")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("transittracker.passengers.tracked", passengers, PassengerStore::size)
+                .description("Number of passengers with a known location")
+                .register(meterRegistry);
+        Gauge.builder("transittracker.history.entries", busPositions, BusPositionStore::historyEntries)
+                .description("Locations retained in history")
+                .tag("store", "per-bus")
+                .register(meterRegistry);
+        Gauge.builder("transittracker.history.entries", locationHistory, LocationHistoryStore::size)
+                .description("Locations retained in history")
+                .tag("store", "global")
+                .register(meterRegistry);
+        Gauge.builder("transittracker.history.compression.ratio", busPositions, BusPositionStore::historyCompressionRatio)
+                .description("Fixes received per fix kept in history")
+                .register(meterRegistry);
+        Gauge.builder("transittracker.history.bytes", busPositions, BusPositionStore::historyBytes)
+                .description("Estimated bytes held by location history")
+                .tag("store", "per-bus")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("transittracker.history.bytes", locationHistory, LocationHistoryStore::mappedBytes)
+                .description("Estimated bytes held by location history")
+                .tag("store", "global")
+                .baseUnit("bytes")
+                .register(meterRegistry);
     }
 
 
@@ -35,7 +114,7 @@ public class GPSService {
      * @return Current user location, or null if unavailable
      */
     public Location getCurrentUserLocation(String passengerId) {
-        return passengerLocation.get(passengerId);
+        return passengers.get(passengerId);
     }
 
 
@@ -46,7 +125,16 @@ public class GPSService {
      * @return Current location or null if not found
      */
     public Location getBusLocation(String busId) {
-        return busLocations.get(busId);
+        return busPositions.get(busId);
+    }
+
+    /**
+     * Get the speed, heading and distance travelled of a bus, kept up to date by location updates
+     * @param busId The bus identifier
+     * @return Current motion or null if not found
+     */
+    public BusMotion getBusMotion(String busId) {
+        return busPositions.motion(busId);
     }
 
     /**
@@ -55,46 +143,153 @@ public class GPSService {
      * @param location The new location
      */
     public void updateBusLocation(String busId, Location location) {
-        // Store current location
-        busLocations.put(busId, location);
-        
-        // Add to history
-        busLocationHistory.computeIfAbsent(busId, k -> new ArrayList<>()).add(location);
-        
-        // Keep only last 100 locations per bus to manage memory
-        List<Location> history = busLocationHistory.get(busId);
-        if (history.size() > 100) {
-            history.remove(0);
+        updateBusLocation(busId, location.getLatitude(), location.getLongitude(), location.getAltitude(),
+                location.getAccuracy(), Timestamps.toEpochMillis(location.getTimestamp(), BusPositionStore.NO_TIMESTAMP));
+    }
+
+    /**
+     * Update bus location from primitives, without allocating a Location
+     * @param busId The bus identifier
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param altitude Altitude in meters
+     * @param accuracy Accuracy in meters
+     * @param timestamp Epoch milliseconds of the fix, or BusPositionStore.NO_TIMESTAMP if unknown
+     */
+    public void updateBusLocation(String busId, double latitude, double longitude, double altitude, double accuracy,
+                                  long timestamp) {
+        long start = System.nanoTime();
+        storeBusLocation(busId, latitude, longitude, altitude, accuracy, timestamp);
+        updateTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Apply fixes of one bus that arrived together, sorted oldest first.
+     * Every fix is offered to history; only the newest becomes the current
+     * position and reaches listeners as an update.
+     * @param busId The bus identifier
+     * @param fixes At least one fix
+     * @return false if the fixes were cancelled before the bus was taken, and nothing was applied
+     */
+    boolean updateBusLocations(String busId, BusFixes fixes) {
+        long start = System.nanoTime();
+        int newest = fixes.size() - 1;
+        awaitListenerCapacity();
+        int number = busPositions.lock(busId);
+        try {
+            // Checked while holding the bus, so a removal either comes first or waits for these
+            if (fixes.isCancelled()) {
+                return false;
+            }
+            for (int i = 0; i < newest; i++) {
+                busPositions.appendHistory(number, fixes.latitude(i), fixes.longitude(i), fixes.altitude(i),
+                        fixes.accuracy(i), fixes.historyTime(i), generalHistory);
+            }
+            double latitude = fixes.latitude(newest);
+            double longitude = fixes.longitude(newest);
+            busPositions.write(number, latitude, longitude, fixes.altitude(newest), fixes.accuracy(newest),
+                    fixes.timestamp(newest), fixes.historyTime(newest), generalHistory);
+            busPositions.publish(number);
+
+            busIndex.update(busId, latitude, longitude);
+            busClusters.update(busId, latitude, longitude);
+            for (int i = 0; i < newest; i++) {
+                for (BusLocationListener listener : listeners) {
+                    listener.onBusHistoryAppended(busId, fixes.latitude(i), fixes.longitude(i), fixes.altitude(i),
+                            fixes.accuracy(i), fixes.timestamp(i));
+                }
+            }
+            for (BusLocationListener listener : listeners) {
+                listener.onBusLocationUpdated(busId, latitude, longitude, fixes.altitude(newest),
+                        fixes.accuracy(newest), fixes.timestamp(newest));
+            }
+        } finally {
+            busPositions.unlock(number);
         }
-        
-        // Add to general location history
-        locationHistory.add(location);
+        updateTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return true;
+    }
+
+    private void storeBusLocation(String busId, double latitude, double longitude, double altitude, double accuracy,
+                                  long timestamp) {
+        // Fixes without a time of their own are recorded in history at the time they arrived
+        long historyTime = timestamp != BusPositionStore.NO_TIMESTAMP ? timestamp : System.currentTimeMillis();
+
+        // Everything kept per bus changes while the bus is held, so updates and removal of
+        // the same bus are applied, and reach listeners, one at a time and in order
+        awaitListenerCapacity();
+        int number = busPositions.lock(busId);
+        try {
+            // Current location and history; the history drops the oldest fix once it is full.
+            // Fixes the trajectory compressor keeps also go to the general location history
+            busPositions.write(number, latitude, longitude, altitude, accuracy, timestamp, historyTime, generalHistory);
+            // Readers see the fix from here on; listeners run without holding them up
+            busPositions.publish(number);
+
+            busIndex.update(busId, latitude, longitude);
+            busClusters.update(busId, latitude, longitude);
+            for (BusLocationListener listener : listeners) {
+                listener.onBusLocationUpdated(busId, latitude, longitude, altitude, accuracy, timestamp);
+            }
+        } finally {
+            busPositions.unlock(number);
+        }
+    }
+
+    private void awaitListenerCapacity() {
+        for (BusLocationListener listener : listeners) {
+            listener.awaitCapacity();
+        }
+    }
+
+    /**
+     * Check that an update names a bus and has coordinates in range
+     * @param update The update
+     * @return true if the update can be applied
+     */
+    public static boolean isValid(BusLocationUpdate update) {
+        return update != null && isValid(update.getBusId(), update.getLocation());
+    }
+
+    /**
+     * Check that a fix names a bus and has coordinates in range
+     * @param busId The bus identifier
+     * @param location The fix
+     * @return true if the fix can be applied
+     */
+    public static boolean isValid(String busId, Location location) {
+        if (busId == null || busId.isBlank()) {
+            return false;
+        }
+        return location != null
+                && location.getLatitude() >= -90 && location.getLatitude() <= 90
+                && location.getLongitude() >= -180 && location.getLongitude() <= 180;
     }
 
     /**
      * Simulate GPS updates for buses (for demonstration purposes)
-     * This would be replaced with actual GPS device integration
+     * This would be replaced with actual GPS device integration.
+     * Turn off with transittracker.simulation.demo.enabled=false when the
+     * load simulator (FleetSimulator) is driving the fleet.
      */
     @Scheduled(fixedRate = 5000) // Update every 5 seconds
     public void simulateGPSUpdates() {
-        // Simulate movement for buses
-        for (String busId : busLocations.keySet()) {
-            Location currentLocation = busLocations.get(busId);
-            if (currentLocation != null) {
-                // Simulate small random movement
-                double latOffset = (random.nextDouble() - 0.5) * 0.001; // ~100m variation
-                double lngOffset = (random.nextDouble() - 0.5) * 0.001;
-                
-                Location newLocation = new Location(
-                    currentLocation.getLatitude() + latOffset,
-                    currentLocation.getLongitude() + lngOffset,
-                    currentLocation.getAltitude(),
-                    currentLocation.getAccuracy()
-                );
-                
-                updateBusLocation(busId, newLocation);
-            }
+        if (!demoSimulationEnabled) {
+            return;
         }
+        long start = System.nanoTime();
+        
+        // Simulate movement for buses
+        busPositions.forEach((busId, latitude, longitude, altitude, accuracy, timestamp) -> {
+            // Simulate small random movement
+            double latOffset = (random.nextDouble() - 0.5) * 0.001; // ~100m variation
+            double lngOffset = (random.nextDouble() - 0.5) * 0.001;
+            
+            updateBusLocation(busId, latitude + latOffset, longitude + lngOffset, altitude, accuracy,
+                    BusPositionStore.NO_TIMESTAMP);
+        });
+        
+        simulationTickTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
     }
 
     /**
@@ -103,7 +298,61 @@ public class GPSService {
      * @param location starting location
      */
     public void initializePassenger(String passengerId, Location location) {
-        passengerLocation.put(passengerId, location);
+        updatePassengerLocation(passengerId, location);
+    }
+
+    /**
+     * Update a passenger's location; this also restarts their idle TTL
+     * @param passengerId Passenger identifier
+     * @param location The new location
+     */
+    public void updatePassengerLocation(String passengerId, Location location) {
+        awaitListenerCapacity();
+        passengers.put(passengerId, location, System.currentTimeMillis());
+        for (BusLocationListener listener : listeners) {
+            listener.onPassengerLocationUpdated(passengerId, location);
+        }
+    }
+
+    /**
+     * Restore a passenger location recovered from persisted state.
+     * The passenger's idle TTL starts over from now.
+     * @param passengerId Passenger identifier
+     * @param location The recovered location
+     */
+    public void restorePassenger(String passengerId, Location location) {
+        passengers.put(passengerId, location, System.currentTimeMillis());
+    }
+
+    /**
+     * Forget a passenger and their subscriptions
+     * @param passengerId Passenger identifier
+     * @return true if the passenger was known
+     */
+    public boolean removePassenger(String passengerId) {
+        if (!passengers.remove(passengerId)) {
+            return false;
+        }
+        notifyPassengerRemoved(passengerId);
+        return true;
+    }
+
+    /**
+     * Forget passengers that have sent nothing for the idle TTL
+     */
+    @Scheduled(fixedDelayString = "${transittracker.passengers.expiry-tick:1000}")
+    public void expireIdlePassengers() {
+        for (String passengerId : passengers.expire(System.currentTimeMillis())) {
+            expiredPassengers.increment();
+            notifyPassengerRemoved(passengerId);
+        }
+    }
+
+    private void notifyPassengerRemoved(String passengerId) {
+        awaitListenerCapacity();
+        for (BusLocationListener listener : listeners) {
+            listener.onPassengerRemoved(passengerId);
+        }
     }
 
     /**
@@ -112,9 +361,32 @@ public class GPSService {
      * @param location The starting location
      */
     public void initializeBus(String busId, Location location) {
-        busLocations.put(busId, location);
-        busLocationHistory.computeIfAbsent(busId, k -> new ArrayList<>()).add(location);
-        locationHistory.add(location);
+        storeBusLocation(busId, location.getLatitude(), location.getLongitude(), location.getAltitude(),
+                location.getAccuracy(), Timestamps.toEpochMillis(location.getTimestamp(), BusPositionStore.NO_TIMESTAMP));
+    }
+
+    /**
+     * Restore a bus recovered from persisted state, replacing any state it already has
+     * @param busId The bus identifier
+     * @param location The recovered current location
+     * @param history The recovered history; must have the configured per-bus capacity
+     */
+    public void restoreBus(String busId, Location location, LocationRingBuffer history) {
+        long timestamp = Timestamps.toEpochMillis(location.getTimestamp(), BusPositionStore.NO_TIMESTAMP);
+        awaitListenerCapacity();
+        int number = busPositions.lock(busId);
+        try {
+            busPositions.restore(number, location, history);
+            busPositions.publish(number);
+            busIndex.update(busId, location.getLatitude(), location.getLongitude());
+            busClusters.update(busId, location.getLatitude(), location.getLongitude());
+            for (BusLocationListener listener : listeners) {
+                listener.onBusRestored(busId, location.getLatitude(), location.getLongitude(), location.getAltitude(),
+                        location.getAccuracy(), timestamp);
+            }
+        } finally {
+            busPositions.unlock(number);
+        }
     }
 
     /**
@@ -122,16 +394,42 @@ public class GPSService {
      * @return Map of bus IDs to their current locations
      */
     public Map<String, Location> getAllBusLocations() {
-        return new HashMap<>(busLocations);
+        return busPositions.toMap();
     }
 
     /**
      * Get location history for a specific bus
      * @param busId The bus identifier
-     * @return List of historical locations
+     * @return List of historical locations, ending with the current location
      */
     public List<Location> getBusLocationHistory(String busId) {
-        return busLocationHistory.getOrDefault(busId, new ArrayList<>());
+        return busPositions.history(busId);
+    }
+
+    /**
+     * Stream the general location history within a time range, oldest segment first
+     * @param from Inclusive start of the range, or null for no lower bound
+     * @param to Exclusive end of the range, or null for no upper bound
+     * @return Stream of historical locations
+     */
+    public Stream<Location> streamLocationHistory(LocalDateTime from, LocalDateTime to) {
+        return locationHistory.stream(from, to);
+    }
+
+    /**
+     * Get the maximum number of historical locations kept per bus
+     * @return per-bus history capacity
+     */
+    public int getHistoryCapacity() {
+        return busPositions.getHistoryCapacity();
+    }
+
+    /**
+     * Get the error bound of history compression
+     * @return meters; 0 when every fix is kept
+     */
+    public double getHistoryErrorMeters() {
+        return busPositions.getHistoryErrorMeters();
     }
 
     /**
@@ -142,22 +440,88 @@ public class GPSService {
      */
     public Map<String, Location> getBusesWithinRadius(Location centerLocation, double radiusKm) {
         Map<String, Location> nearbyBuses = new HashMap<>();
+        RadiusFilter filter = centerLocation.radiusFilter(radiusKm);
         
-        for (Map.Entry<String, Location> entry : busLocations.entrySet()) {
-            if (entry.getValue().isWithinRadius(centerLocation, radiusKm)) {
-                nearbyBuses.put(entry.getKey(), entry.getValue());
-            }
-        }
+        // Only buses in grid cells overlapping the radius get the distance check
+        busIndex.forEachCandidate(filter, candidate -> busPositions.read(candidate,
+                (busId, latitude, longitude, altitude, accuracy, timestamp) -> {
+                    if (filter.contains(latitude, longitude)) {
+                        nearbyBuses.put(busId, BusPositionStore.toLocation(latitude, longitude, altitude, accuracy, timestamp));
+                    }
+                }));
         
         return nearbyBuses;
     }
 
+    /**
+     * Get buses inside a bounding box
+     * @param minLatitude Southern edge in degrees
+     * @param maxLatitude Northern edge in degrees
+     * @param minLongitude Western edge in degrees; greater than the eastern edge when the box crosses the antimeridian
+     * @param maxLongitude Eastern edge in degrees
+     * @return Map of bus IDs to their locations inside the box
+     */
+    public Map<String, Location> getBusesInBounds(double minLatitude, double maxLatitude,
+                                                  double minLongitude, double maxLongitude) {
+        Map<String, Location> buses = new HashMap<>();
+        boolean wraps = minLongitude > maxLongitude;
+        busIndex.forEachCandidate(minLatitude, maxLatitude, minLongitude, maxLongitude, candidate -> busPositions.read(candidate,
+                (busId, latitude, longitude, altitude, accuracy, timestamp) -> {
+                    if (latitude < minLatitude || latitude > maxLatitude) {
+                        return;
+                    }
+                    boolean inside = wraps
+                            ? longitude >= minLongitude || longitude <= maxLongitude
+                            : longitude >= minLongitude && longitude <= maxLongitude;
+                    if (inside) {
+                        buses.put(busId, BusPositionStore.toLocation(latitude, longitude, altitude, accuracy, timestamp));
+                    }
+                }));
+        return buses;
+    }
+
+    /**
+     * Get bus clusters inside a bounding box, from the grid kept up to date by location updates
+     * @param minLatitude Southern edge in degrees
+     * @param maxLatitude Northern edge in degrees
+     * @param minLongitude Western edge in degrees; greater than the eastern edge when the box crosses the antimeridian
+     * @param maxLongitude Eastern edge in degrees
+     * @param zoom Map zoom level
+     * @return Count and centroid of each occupied grid cell in the box
+     */
+    public List<BusCluster> getBusClusters(double minLatitude, double maxLatitude,
+                                           double minLongitude, double maxLongitude, int zoom) {
+        return busClusters.clusters(minLatitude, maxLatitude, minLongitude, maxLongitude, zoom);
+    }
+
+    /**
+     * Get the first zoom level at which buses are shown individually rather than clustered
+     * @return zoom level
+     */
+    public int getClusterMaxZoom() {
+        return busClusters.getLevels();
+    }
+
     /**
      * Remove a bus from tracking
      * @param busId The bus identifier to remove
      */
     public void removeBus(String busId) {
-        busLocations.remove(busId);
-        busLocationHistory.remove(busId);
+        awaitListenerCapacity();
+        int number = busPositions.lockIfKnown(busId);
+        if (number < 0) {
+            return;
+        }
+        try {
+            busPositions.clear(number);
+            busPositions.publish(number);
+            busIndex.remove(busId);
+            busClusters.remove(busId);
+            for (BusLocationListener listener : listeners) {
+                listener.onBusRemoved(busId);
+            }
+        } finally {
+            busPositions.unlock(number);
+        }
     }
 }
@@ -0,0 +1,74 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.StopType;
+
+import java.time.LocalDateTime;
+
+/**
+ * Published by GeofenceService when a bus enters or leaves the fence around a stop
+ */
+public class GeofenceEvent {
+
+    /**
+     * Direction of the crossing
+     */
+    public enum Type {
+        ARRIVAL,
+        DEPARTURE
+    }
+
+    private final Type type;
+    private final String busId;
+    private final String stopId;
+    private final String stopName;
+    private final StopType stopType;
+    private final LocalDateTime timestamp;
+
+    public GeofenceEvent(Type type, String busId, String stopId, String stopName, StopType stopType,
+                         LocalDateTime timestamp) {
+        this.type = type;
+        this.busId = busId;
+        this.stopId = stopId;
+        this.stopName = stopName;
+        this.stopType = stopType;
+        this.timestamp = timestamp;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getBusId() {
+        return busId;
+    }
+
+    public String getStopId() {
+        return stopId;
+    }
+
+    public String getStopName() {
+        return stopName;
+    }
+
+    public StopType getStopType() {
+        return stopType;
+    }
+
+    /**
+     * Get the time of the fix that crossed the fence
+     * @return fix time, or the time it was received if it carried none
+     */
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "GeofenceEvent{" +
+                "type=" + type +
+                ", busId='" + busId + '\'' +
+                ", stopId='" + stopId + '\'' +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
@@ -0,0 +1,151 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import com.phoenixai.transittracker.model.Route;
+import com.phoenixai.transittracker.model.Stop;
+import com.phoenixai.transittracker.model.StopType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Circular fences around every stop, origin and destination of a set of
+ * routes, bucketed in a uniform latitude/longitude grid. Each fence is listed
+ * in every cell its bounding box touches, so the fences that can contain a
+ * point are the ones listed in the point's cell. Distances use an
+ * equirectangular projection around each fence, which is exact to well under
+ * a meter at fence sizes. Instances are immutable and safe to share between threads.
+ */
+final class GeofenceIndex {
+
+    private static final double METERS_PER_DEGREE = Location.EARTH_RADIUS_KM * 1000 * Math.PI / 180;
+    private static final int[] NO_FENCES = new int[0];
+
+    private final Fence[] fences;
+    private final Map<String, Fence> byStopId;
+    private final double cellDegrees;
+    private final Map<Long, int[]> grid;
+
+    /**
+     * @param routes Routes whose stops get fences; a stop shared by several routes gets one
+     * @param stopRadiusMeters Radius of regular stop fences
+     * @param terminalRadiusMeters Radius of origin and destination fences
+     * @param cellSizeMeters Edge length of the grid cells, north to south
+     */
+    GeofenceIndex(Collection<Route> routes, double stopRadiusMeters, double terminalRadiusMeters,
+                  double cellSizeMeters) {
+        Map<String, Fence> fencesById = new LinkedHashMap<>();
+        for (Route route : routes) {
+            for (Stop stop : route.getAllStopsInOrder()) {
+                if (stop.getStopId() == null || stop.getLocation() == null || fencesById.containsKey(stop.getStopId())) {
+                    continue;
+                }
+                double radius = stop.getStopType() == StopType.REGULAR ? stopRadiusMeters : terminalRadiusMeters;
+                fencesById.put(stop.getStopId(), new Fence(fencesById.size(), stop, radius));
+            }
+        }
+        this.fences = fencesById.values().toArray(new Fence[0]);
+        this.byStopId = Map.copyOf(fencesById);
+        this.cellDegrees = cellSizeMeters / METERS_PER_DEGREE;
+
+        Map<Long, List<Integer>> cells = new HashMap<>();
+        for (Fence fence : fences) {
+            double latitudeSpan = fence.radiusMeters / METERS_PER_DEGREE;
+            double longitudeSpan = fence.radiusMeters / fence.metersPerDegreeLongitude;
+            long x0 = cell(fence.longitude - longitudeSpan);
+            long x1 = cell(fence.longitude + longitudeSpan);
+            long y0 = cell(fence.latitude - latitudeSpan);
+            long y1 = cell(fence.latitude + latitudeSpan);
+            for (long x = x0; x <= x1; x++) {
+                for (long y = y0; y <= y1; y++) {
+                    cells.computeIfAbsent(cellKey(x, y), k -> new ArrayList<>()).add(fence.index);
+                }
+            }
+        }
+        Map<Long, int[]> built = new HashMap<>();
+        for (Map.Entry<Long, List<Integer>> entry : cells.entrySet()) {
+            built.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        this.grid = built;
+    }
+
+    /**
+     * Get the fences that may contain a point
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @return Fence numbers for {@link #fence(int)}; do not modify
+     */
+    int[] candidates(double latitude, double longitude) {
+        int[] candidates = grid.get(cellKey(cell(longitude), cell(latitude)));
+        return candidates != null ? candidates : NO_FENCES;
+    }
+
+    Fence fence(int index) {
+        return fences[index];
+    }
+
+    /**
+     * Get the fence of a stop
+     * @param stopId The stop identifier
+     * @return The fence, or null if the stop has none
+     */
+    Fence fence(String stopId) {
+        return byStopId.get(stopId);
+    }
+
+    int size() {
+        return fences.length;
+    }
+
+    private long cell(double degrees) {
+        return (long) Math.floor(degrees / cellDegrees);
+    }
+
+    private static long cellKey(long x, long y) {
+        return x << 32 ^ (y & 0xffffffffL);
+    }
+
+    /**
+     * Fence around one stop
+     */
+    static final class Fence {
+        private final int index;
+        private final Stop stop;
+        private final double latitude;
+        private final double longitude;
+        private final double metersPerDegreeLongitude;
+        private final double radiusMeters;
+
+        Fence(int index, Stop stop, double radiusMeters) {
+            this.index = index;
+            this.stop = stop;
+            this.latitude = stop.getLocation().getLatitude();
+            this.longitude = stop.getLocation().getLongitude();
+            this.metersPerDegreeLongitude = METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(latitude)), 1e-6);
+            this.radiusMeters = radiusMeters;
+        }
+
+        Stop getStop() {
+            return stop;
+        }
+
+        double getRadiusMeters() {
+            return radiusMeters;
+        }
+
+        /**
+         * Check whether a point is within a distance of the fence's edge
+         * @param margin Meters added to the radius; 0 tests the fence itself
+         */
+        boolean contains(double pointLatitude, double pointLongitude, double margin) {
+            double dx = (pointLongitude - longitude) * metersPerDegreeLongitude;
+            double dy = (pointLatitude - latitude) * METERS_PER_DEGREE;
+            double reach = radiusMeters + margin;
+            return dx * dx + dy * dy <= reach * reach;
+        }
+    }
+}
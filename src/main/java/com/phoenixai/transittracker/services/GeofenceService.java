@@ -0,0 +1,235 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Stop;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Detects buses arriving at and departing from stops, origins and destinations.
+ * Every stop has a circular fence; each fix is tested only against the fences
+ * in its grid cell, and the fences a bus is inside are remembered so an
+ * arrival or departure is reported once per crossing. A bus leaves a fence
+ * only once it is the exit margin beyond its edge, so GPS jitter at the edge
+ * does not produce repeated events.
+ * <p>
+ * Crossings are published as {@link GeofenceEvent}s on a dedicated thread, in
+ * the order they were detected; subscribe with an {@code @EventListener}.
+ * Buses restored on startup resume their fence state without events, and
+ * removed buses are forgotten without a departure.
+ */
+@Service
+@Order(20)
+public class GeofenceService implements BusLocationListener {
+
+    private static final Logger log = LoggerFactory.getLogger(GeofenceService.class);
+    private static final GeofenceIndex.Fence[] OUTSIDE = new GeofenceIndex.Fence[0];
+
+    private final ApplicationEventPublisher eventPublisher;
+    private final double stopRadiusMeters;
+    private final double terminalRadiusMeters;
+    private final double exitMarginMeters;
+    private final double cellSizeMeters;
+    // Replaced wholesale when routes change
+    private volatile GeofenceIndex index;
+    // busId -> fences the bus is inside; only changed by callbacks for that bus, which never overlap
+    private final Map<String, GeofenceIndex.Fence[]> busFences = new ConcurrentHashMap<>();
+    // stopId -> buses inside its fence
+    private final Map<String, Set<String>> stopBuses = new ConcurrentHashMap<>();
+    private final Counter arrivals;
+    private final Counter departures;
+    private final ExecutorService publisher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "geofence-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public GeofenceService(RouteService routeService,
+                           ApplicationEventPublisher eventPublisher,
+                           MeterRegistry meterRegistry,
+                           @Value("${transittracker.geofence.stop-radius-meters:40}") double stopRadiusMeters,
+                           @Value("${transittracker.geofence.terminal-radius-meters:100}") double terminalRadiusMeters,
+                           @Value("${transittracker.geofence.exit-margin-meters:15}") double exitMarginMeters,
+                           @Value("${transittracker.geofence.cell-size-meters:500}") double cellSizeMeters) {
+        if (stopRadiusMeters <= 0 || terminalRadiusMeters <= 0 || exitMarginMeters < 0 || cellSizeMeters <= 0) {
+            throw new IllegalArgumentException("Invalid geofence configuration: stop radius=" + stopRadiusMeters
+                    + ", terminal radius=" + terminalRadiusMeters + ", exit margin=" + exitMarginMeters
+                    + ", cell size=" + cellSizeMeters);
+        }
+        this.eventPublisher = eventPublisher;
+        this.stopRadiusMeters = stopRadiusMeters;
+        this.terminalRadiusMeters = terminalRadiusMeters;
+        this.exitMarginMeters = exitMarginMeters;
+        this.cellSizeMeters = cellSizeMeters;
+        this.index = new GeofenceIndex(routeService.getAllRoutes(), stopRadiusMeters, terminalRadiusMeters,
+                cellSizeMeters);
+        this.arrivals = Counter.builder("transittracker.geofence.events")
+                .description("Buses crossing a stop fence")
+                .tag("type", "arrival")
+                .register(meterRegistry);
+        this.departures = Counter.builder("transittracker.geofence.events")
+                .description("Buses crossing a stop fence")
+                .tag("type", "departure")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Rebuild the fences after the route registry changes. Buses inside a
+     * fence that no longer exists leave it without a departure on their next fix.
+     * @param event The registry change
+     */
+    @EventListener
+    public void onRoutesChanged(RoutesChangedEvent event) {
+        GeofenceIndex rebuilt = new GeofenceIndex(event.getRoutes(), stopRadiusMeters, terminalRadiusMeters,
+                cellSizeMeters);
+        index = rebuilt;
+        stopBuses.keySet().removeIf(stopId -> rebuilt.fence(stopId) == null);
+        log.debug("Geofences rebuilt for route version {}: {} fences", event.getVersion(), rebuilt.size());
+    }
+
+    @Override
+    public void onBusLocationUpdated(String busId, double latitude, double longitude, double altitude, double accuracy,
+                                     long timestamp) {
+        update(busId, latitude, longitude, timestamp, true);
+    }
+
+    @Override
+    public void onBusRestored(String busId, double latitude, double longitude, double altitude, double accuracy,
+                              long timestamp) {
+        update(busId, latitude, longitude, timestamp, false);
+    }
+
+    @Override
+    public void onBusRemoved(String busId) {
+        GeofenceIndex.Fence[] previous = busFences.remove(busId);
+        if (previous != null) {
+            for (GeofenceIndex.Fence fence : previous) {
+                leave(fence, busId);
+            }
+        }
+    }
+
+    /**
+     * Get the stops whose fence a bus is inside
+     * @param busId The bus identifier
+     * @return Stops, possibly empty
+     */
+    public List<Stop> getStopsForBus(String busId) {
+        GeofenceIndex.Fence[] fences = busFences.getOrDefault(busId, OUTSIDE);
+        List<Stop> stops = new ArrayList<>(fences.length);
+        for (GeofenceIndex.Fence fence : fences) {
+            stops.add(fence.getStop());
+        }
+        return stops;
+    }
+
+    /**
+     * Get the buses inside the fence of a stop
+     * @param stopId The stop identifier
+     * @return Bus IDs, possibly empty
+     */
+    public List<String> getBusesAtStop(String stopId) {
+        Set<String> buses = stopBuses.get(stopId);
+        return buses != null ? new ArrayList<>(buses) : new ArrayList<>();
+    }
+
+    /**
+     * Check whether a stop has a fence
+     * @param stopId The stop identifier
+     * @return true if the stop is on a known route and has a location
+     */
+    public boolean hasFence(String stopId) {
+        return index.fence(stopId) != null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        publisher.shutdownNow();
+    }
+
+    private void update(String busId, double latitude, double longitude, long timestamp, boolean notify) {
+        GeofenceIndex fences = index;
+        GeofenceIndex.Fence[] previous = busFences.getOrDefault(busId, OUTSIDE);
+        int[] candidates = fences.candidates(latitude, longitude);
+        if (previous.length == 0 && candidates.length == 0) {
+            return;
+        }
+
+        List<GeofenceIndex.Fence> inside = new ArrayList<>(previous.length + 1);
+        boolean changed = false;
+        for (GeofenceIndex.Fence fence : previous) {
+            GeofenceIndex.Fence current = fences.fence(fence.getStop().getStopId());
+            if (current == null) {
+                // The stop is gone from the routes
+                leave(fence, busId);
+                changed = true;
+            } else if (current.contains(latitude, longitude, exitMarginMeters)) {
+                inside.add(current);
+                changed |= current != fence;
+            } else {
+                leave(fence, busId);
+                changed = true;
+                if (notify) {
+                    publish(GeofenceEvent.Type.DEPARTURE, busId, current, timestamp);
+                }
+            }
+        }
+        for (int candidate : candidates) {
+            GeofenceIndex.Fence fence = fences.fence(candidate);
+            if (!inside.contains(fence) && fence.contains(latitude, longitude, 0)) {
+                inside.add(fence);
+                stopBuses.computeIfAbsent(fence.getStop().getStopId(), k -> ConcurrentHashMap.newKeySet()).add(busId);
+                changed = true;
+                if (notify) {
+                    publish(GeofenceEvent.Type.ARRIVAL, busId, fence, timestamp);
+                }
+            }
+        }
+
+        if (inside.isEmpty()) {
+            busFences.remove(busId);
+        } else if (changed) {
+            busFences.put(busId, inside.toArray(OUTSIDE));
+        }
+    }
+
+    private void leave(GeofenceIndex.Fence fence, String busId) {
+        Set<String> buses = stopBuses.get(fence.getStop().getStopId());
+        if (buses != null) {
+            buses.remove(busId);
+        }
+    }
+
+    private void publish(GeofenceEvent.Type type, String busId, GeofenceIndex.Fence fence, long timestamp) {
+        (type == GeofenceEvent.Type.ARRIVAL ? arrivals : departures).increment();
+        Stop stop = fence.getStop();
+        LocalDateTime time = timestamp != BusPositionStore.NO_TIMESTAMP
+                ? Timestamps.toLocalDateTime(timestamp)
+                : LocalDateTime.now();
+        GeofenceEvent event = new GeofenceEvent(type, busId, stop.getStopId(), stop.getStopName(), stop.getStopType(),
+                time);
+        publisher.execute(() -> {
+            try {
+                eventPublisher.publishEvent(event);
+            } catch (RuntimeException e) {
+                log.warn("Geofence subscriber failed for {}", event, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,475 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Append-only, time-segmented store for the global location history.
+ * Each segment is a fixed-size memory-mapped file of primitive records, so
+ * history lives in the page cache rather than on the JVM heap. A new segment
+ * is started when the current one is full or spans more than the configured
+ * duration, and segments older than the retention limit are deleted. Both
+ * are measured in server time, so fixes with skewed or replayed timestamps
+ * cannot hold a segment open or keep it past retention.
+ * <p>
+ * Without transittracker.history.directory each instance gets a fresh
+ * temporary directory, removed on shutdown. A configured directory is locked
+ * while the instance runs, so a second instance fails to start rather than
+ * sharing it; segments left there by a previous run are removed on startup.
+ * <p>
+ * Appends take no lock: a writer claims the next record of the newest
+ * segment with an atomic counter, writes it and marks it written, and readers
+ * skip records that are claimed but not yet written. Only starting and
+ * dropping segments is serialized.
+ * <p>
+ * A dropped segment is retired: it leaves the segment list, so no new writer
+ * or stream reaches it, and writers and streams already using it hold it until
+ * they finish. The last of them unmaps it and deletes its file, so disk and
+ * address space come back without waiting for the buffer to be collected.
+ */
+@Component
+public class LocationHistoryStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LocationHistoryStore.class);
+
+    // timestamp, latitude, longitude, altitude, accuracy
+    static final int RECORD_BYTES = Long.BYTES + 4 * Double.BYTES;
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String LOCK_FILE = "history.lock";
+    // Unsafe.invokeCleaner, to unmap dropped segments; null when the JDK does not offer it
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.info("History segments are unmapped by the garbage collector: {}", e.toString());
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final Path directory;
+    // True when the directory was created for this instance and is removed with it
+    private final boolean temporary;
+    private final FileChannel lockChannel;
+    private final FileLock directoryLock;
+    private final int segmentRecords;
+    private final long segmentDurationMillis;
+    private final long retentionMillis;
+    private final int maxSegments;
+
+    private final Object segmentLock = new Object();
+    private long nextSegmentId;
+    // Replaced wholesale when a segment is added or dropped; oldest first
+    private volatile List<Segment> segments = List.of();
+
+    public LocationHistoryStore(
+            @Value("${transittracker.history.directory:#{null}}") Path directory,
+            @Value("${transittracker.history.segment-records:65536}") int segmentRecords,
+            @Value("${transittracker.history.segment-duration:10m}") Duration segmentDuration,
+            @Value("${transittracker.history.retention:24h}") Duration retention,
+            @Value("${transittracker.history.max-segments:288}") int maxSegments) {
+        if (segmentRecords <= 0 || segmentRecords > Integer.MAX_VALUE / RECORD_BYTES || maxSegments <= 0
+                || segmentDuration.toMillis() <= 0 || retention.toMillis() <= 0) {
+            throw new IllegalArgumentException("Invalid history segment configuration: records="
+                    + segmentRecords + ", maxSegments=" + maxSegments + ", segmentDuration=" + segmentDuration
+                    + ", retention=" + retention);
+        }
+        this.segmentRecords = segmentRecords;
+        this.segmentDurationMillis = segmentDuration.toMillis();
+        this.retentionMillis = retention.toMillis();
+        this.maxSegments = maxSegments;
+        try {
+            this.temporary = directory == null;
+            this.directory = temporary ? Files.createTempDirectory("transittracker-history") : directory;
+            Files.createDirectories(this.directory);
+            lockChannel = FileChannel.open(this.directory.resolve(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            directoryLock = tryLock(lockChannel);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot prepare history directory " + directory, e);
+        }
+        if (directoryLock == null) {
+            closeQuietly(lockChannel);
+            throw new IllegalStateException("History directory " + directory + " is in use by another instance");
+        }
+        deleteStaleSegments();
+    }
+
+    /**
+     * Append a fix to the history
+     * @param location The fix to record
+     * @param receivedAt Epoch milliseconds to record when the fix carries no timestamp
+     */
+    public void append(Location location, long receivedAt) {
+        append(Timestamps.toEpochMillis(location.getTimestamp(), receivedAt), location.getLatitude(),
+                location.getLongitude(), location.getAltitude(), location.getAccuracy());
+    }
+
+    /**
+     * Append a fix to the history
+     * @param timestamp Epoch milliseconds of the fix
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param altitude Altitude in meters
+     * @param accuracy Accuracy in meters
+     */
+    public void append(long timestamp, double latitude, double longitude, double altitude, double accuracy) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            List<Segment> current = segments;
+            Segment active = current.isEmpty() ? null : current.get(current.size() - 1);
+            // A segment retired since the list was read cannot be held; roll() then finds its successor
+            if (active != null && now - active.openedAt < segmentDurationMillis && active.acquire()) {
+                try {
+                    if (active.append(timestamp, latitude, longitude, altitude, accuracy)) {
+                        return;
+                    }
+                } finally {
+                    active.release();
+                }
+            }
+            roll(active, now);
+        }
+    }
+
+    /**
+     * Stream the stored fixes whose timestamp falls within a time range, in append order.
+     * Records are decoded lazily as the stream is consumed; each segment is held while it is
+     * read, so a segment dropped meanwhile stays mapped until the stream moves past it.
+     * @param from Inclusive lower bound, or null for no lower bound
+     * @param to Exclusive upper bound, or null for no upper bound
+     * @return Stream of historical locations
+     */
+    public Stream<Location> stream(LocalDateTime from, LocalDateTime to) {
+        long fromMillis = Timestamps.toEpochMillis(from, Long.MIN_VALUE);
+        long toMillis = Timestamps.toEpochMillis(to, Long.MAX_VALUE);
+        return segments.stream()
+                .filter(segment -> segment.overlaps(fromMillis, toMillis))
+                .flatMap(segment -> segment.stream(fromMillis, toMillis));
+    }
+
+    /**
+     * Get the number of fixes currently retained
+     * @return retained record count
+     */
+    public long size() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.count();
+        }
+        return total;
+    }
+
+    /**
+     * Get the number of bytes mapped for retained segments
+     * @return mapped segment bytes
+     */
+    public long mappedBytes() {
+        return (long) segments.size() * segmentRecords * RECORD_BYTES;
+    }
+
+    /**
+     * Drop segments that have aged past the retention limit even when no new fixes arrive
+     */
+    @Scheduled(fixedDelayString = "${transittracker.history.trim-interval:60000}")
+    public void trim() {
+        synchronized (segmentLock) {
+            dropExpired(System.currentTimeMillis());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        synchronized (segmentLock) {
+            for (Segment segment : segments) {
+                segment.retire();
+            }
+            segments = List.of();
+            if (!lockChannel.isOpen()) {
+                return;
+            }
+            try {
+                directoryLock.release();
+            } catch (IOException e) {
+                log.warn("Failed to release lock on {}", directory, e);
+            }
+            closeQuietly(lockChannel);
+            if (temporary) {
+                try {
+                    Files.deleteIfExists(directory.resolve(LOCK_FILE));
+                    Files.deleteIfExists(directory);
+                } catch (IOException e) {
+                    log.warn("Could not delete history directory {}", directory, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Start a new segment unless another writer already replaced the one found full
+     * @param full The newest segment when the append failed, or null if there was none
+     * @param now Server time of the append that did not fit
+     */
+    private void roll(Segment full, long now) {
+        synchronized (segmentLock) {
+            List<Segment> current = segments;
+            Segment newest = current.isEmpty() ? null : current.get(current.size() - 1);
+            if (newest != full) {
+                return;
+            }
+            Segment segment = new Segment(directory.resolve(SEGMENT_PREFIX + nextSegmentId++ + SEGMENT_SUFFIX),
+                    segmentRecords, now);
+            List<Segment> next = new ArrayList<>(current);
+            next.add(segment);
+            segments = next;
+            dropExpired(now);
+        }
+    }
+
+    private void dropExpired(long now) {
+        List<Segment> current = segments;
+        int drop = Math.max(0, current.size() - maxSegments);
+        // A segment stopped receiving fixes when its successor was opened, so it has expired
+        // once that is older than the retention; the newest segment is never dropped
+        while (drop < current.size() - 1 && current.get(drop + 1).openedAt < now - retentionMillis) {
+            drop++;
+        }
+        if (drop == 0) {
+            return;
+        }
+        List<Segment> dropped = current.subList(0, drop);
+        segments = new ArrayList<>(current.subList(drop, current.size()));
+        for (Segment segment : dropped) {
+            segment.retire();
+        }
+    }
+
+    /**
+     * Remove the segments of a previous run; only called with the directory locked
+     */
+    private void deleteStaleSegments() {
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory,
+                path -> isSegmentName(path.getFileName().toString()))) {
+            for (Path path : stale) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException("Cannot prepare history directory " + directory, e);
+        }
+    }
+
+    private static boolean isSegmentName(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)
+                || name.length() == SEGMENT_PREFIX.length() + SEGMENT_SUFFIX.length()) {
+            return false;
+        }
+        for (int i = SEGMENT_PREFIX.length(); i < name.length() - SEGMENT_SUFFIX.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lock the directory, or return null if another instance holds it, in this JVM or another
+     */
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Could not close history directory lock", e);
+        }
+    }
+
+    /**
+     * Release a mapping now rather than when its buffer is collected. Uses the JDK's
+     * Unsafe.invokeCleaner; where that is unavailable the mapping is left to the collector.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Could not unmap history segment; it is released when collected", e);
+        }
+    }
+
+    /**
+     * One memory-mapped file of fixed-size records
+     */
+    private static final class Segment {
+        private static final VarHandle WRITTEN = MethodHandles.arrayElementVarHandle(long[].class);
+
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        // Server time the segment was started
+        private final long openedAt;
+        // Records claimed by writers; may run past the capacity when the segment is full
+        private final AtomicInteger claimed = new AtomicInteger();
+        // One bit per record, set once the record is fully written
+        private final long[] written;
+        private final AtomicLong minTimestamp = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong lastTimestamp = new AtomicLong(Long.MIN_VALUE);
+        // One for the store until the segment is retired, plus one per writer or stream using it;
+        // the mapping is released when it reaches zero and can then no longer be acquired
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Segment(Path path, int records, long openedAt) {
+            this.path = path;
+            this.capacity = records;
+            this.written = new long[(records + 63) >>> 6];
+            this.openedAt = openedAt;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) records * RECORD_BYTES);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot create history segment " + path, e);
+            }
+        }
+
+        /**
+         * Hold the mapping for a write or a read
+         * @return false if the segment has been retired and released
+         */
+        boolean acquire() {
+            while (true) {
+                int current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                unmap(buffer);
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    log.warn("Could not delete history segment {}", path, e);
+                }
+            }
+        }
+
+        /**
+         * Give up the store's hold; only called once, after the segment has left the segment list
+         */
+        void retire() {
+            release();
+        }
+
+        /**
+         * Only called while holding the segment
+         * @return false if the segment is full
+         */
+        boolean append(long timestamp, double latitude, double longitude, double altitude, double accuracy) {
+            int index = claimed.getAndIncrement();
+            if (index >= capacity) {
+                return false;
+            }
+            int offset = index * RECORD_BYTES;
+            buffer.putLong(offset, timestamp);
+            buffer.putDouble(offset + 8, latitude);
+            buffer.putDouble(offset + 16, longitude);
+            buffer.putDouble(offset + 24, altitude);
+            buffer.putDouble(offset + 32, accuracy);
+            if (timestamp < minTimestamp.get()) {
+                minTimestamp.accumulateAndGet(timestamp, Math::min);
+            }
+            if (timestamp > lastTimestamp.get()) {
+                lastTimestamp.accumulateAndGet(timestamp, Math::max);
+            }
+            // Publishes the record written above
+            WRITTEN.getAndBitwiseOrRelease(written, index >>> 6, 1L << index);
+            return true;
+        }
+
+        int count() {
+            return Math.min(claimed.get(), capacity);
+        }
+
+        boolean overlaps(long from, long to) {
+            return count() > 0 && minTimestamp.get() < to && lastTimestamp.get() >= from;
+        }
+
+        Stream<Location> stream(long from, long to) {
+            if (!acquire()) {
+                return Stream.empty();
+            }
+            // flatMap() closes each segment's stream once it has been read
+            return IntStream.range(0, count())
+                    .filter(i -> {
+                        if (((long) WRITTEN.getAcquire(written, i >>> 6) & 1L << i) == 0) {
+                            return false;
+                        }
+                        long timestamp = buffer.getLong(i * RECORD_BYTES);
+                        return timestamp >= from && timestamp < to;
+                    })
+                    .mapToObj(this::read)
+                    .onClose(this::release);
+        }
+
+        private Location read(int index) {
+            int offset = index * RECORD_BYTES;
+            Location location = new Location(buffer.getDouble(offset + 8), buffer.getDouble(offset + 16),
+                    buffer.getDouble(offset + 24), buffer.getDouble(offset + 32));
+            location.setTimestamp(Timestamps.toLocalDateTime(buffer.getLong(offset)));
+            return location;
+        }
+    }
+}
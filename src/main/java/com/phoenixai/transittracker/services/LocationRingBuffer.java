@@ -0,0 +1,146 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-capacity, preallocated history of fixes for a single bus.
+ * Fixes are kept as primitives in parallel arrays and the oldest fix is
+ * overwritten once the buffer is full. Writers claim a sequence number
+ * atomically and publish each slot through a per-slot stamp, so neither
+ * writers nor readers take a lock; readers skip slots that are mid-write.
+ */
+public class LocationRingBuffer {
+
+    private final int capacity;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] altitudes;
+    private final double[] accuracies;
+    private final long[] timestamps;
+
+    // Per-slot stamp: 2 * seq + 1 while fix seq is being written, 2 * seq + 2 once it is readable
+    private final AtomicLongArray stamps;
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    /**
+     * @param capacity Maximum number of fixes retained
+     */
+    public LocationRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.latitudes = new double[capacity];
+        this.longitudes = new double[capacity];
+        this.altitudes = new double[capacity];
+        this.accuracies = new double[capacity];
+        this.timestamps = new long[capacity];
+        this.stamps = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * Append a fix, overwriting the oldest one when the buffer is full
+     * @param location The fix to record
+     * @param receivedAt Epoch milliseconds to record when the fix carries no timestamp
+     */
+    public void add(Location location, long receivedAt) {
+        add(location.getLatitude(), location.getLongitude(), location.getAltitude(), location.getAccuracy(),
+                Timestamps.toEpochMillis(location.getTimestamp(), receivedAt));
+    }
+
+    /**
+     * Append a fix, overwriting the oldest one when the buffer is full
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param altitude Altitude in meters
+     * @param accuracy Accuracy in meters
+     * @param timestamp Epoch milliseconds of the fix
+     */
+    public void add(double latitude, double longitude, double altitude, double accuracy, long timestamp) {
+        long seq = nextSequence.getAndIncrement();
+        int slot = (int) (seq % capacity);
+
+        // A writer a full lap behind may still own this slot; wait for it to publish
+        long previous = seq < capacity ? 0 : 2 * (seq - capacity) + 2;
+        for (int spins = 0; stamps.get(slot) != previous; spins++) {
+            if (spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+
+        stamps.set(slot, 2 * seq + 1);
+        VarHandle.storeStoreFence();
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        altitudes[slot] = altitude;
+        accuracies[slot] = accuracy;
+        timestamps[slot] = timestamp;
+        stamps.set(slot, 2 * seq + 2);
+    }
+
+    /**
+     * Get the retained fixes, oldest first. Fixes that are being overwritten
+     * while the snapshot is taken are skipped rather than waited for.
+     * @return Ordered snapshot of the buffer
+     */
+    public List<Location> snapshot() {
+        long end = nextSequence.get();
+        long start = Math.max(0, end - capacity);
+        List<Location> result = new ArrayList<>((int) (end - start));
+
+        for (long seq = start; seq < end; seq++) {
+            int slot = (int) (seq % capacity);
+            long stamp = stamps.get(slot);
+            if (stamp != 2 * seq + 2) {
+                continue;
+            }
+            double latitude = latitudes[slot];
+            double longitude = longitudes[slot];
+            double altitude = altitudes[slot];
+            double accuracy = accuracies[slot];
+            long timestamp = timestamps[slot];
+            VarHandle.acquireFence();
+            if (stamps.get(slot) != stamp) {
+                continue;
+            }
+
+            Location location = new Location(latitude, longitude, altitude, accuracy);
+            location.setTimestamp(Timestamps.toLocalDateTime(timestamp));
+            result.add(location);
+        }
+        return result;
+    }
+
+    /**
+     * Get the number of fixes currently retained
+     * @return retained fix count
+     */
+    public int size() {
+        return (int) Math.min(nextSequence.get(), capacity);
+    }
+
+    /**
+     * Estimate the heap held by this buffer; it is fixed at construction
+     * @return approximate size in bytes
+     */
+    public long estimatedBytes() {
+        // Five primitive arrays and the stamp array, each with a 16-byte header, plus this object
+        return 6L * (16 + 8L * capacity) + 64;
+    }
+
+    /**
+     * Get the maximum number of fixes retained
+     * @return buffer capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
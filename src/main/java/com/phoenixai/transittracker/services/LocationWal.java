@@ -0,0 +1,634 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log of every bus and passenger change.
+ * Listeners only copy the record into an in-memory batch; a writer thread
+ * writes the batch and fsyncs it, so one fsync commits every record
+ * appended since the previous one. Appends never wait on the disk. A caller
+ * that acknowledges a change waits for its commit with {@link #sync()},
+ * about one commit interval plus an fsync; until then the change is lost
+ * if the process crashes. Once the batch reaches its size limit, updates
+ * wait in {@link #awaitCapacity()} before they take any bus, until the
+ * writer has taken the batch.
+ * <p>
+ * A failed write leaves the segment unusable, so the log stops: later
+ * appends are dropped, sync() throws and the health check reports DOWN
+ * until the server is restarted and recovers from the files.
+ * <p>
+ * The log is split into numbered segment files. Each snapshot taken by
+ * TrackingStateStore starts a new segment, after which the older ones are
+ * deleted. Records are framed as
+ * <pre>
+ * payload length (int), CRC32 of payload (int), payload:
+ *   type (byte), server time (epoch ms, long), ID length (short), ID (UTF-8),
+ *   for updates: latitude, longitude, altitude, accuracy (doubles),
+ *                fix time (epoch ms, long; Long.MIN_VALUE if none)
+ * </pre>
+ * so a record torn by a crash is detected and ends the replay.
+ * The directory is owned by a single instance and locked while it runs.
+ * Disabled unless transittracker.persistence.enabled=true.
+ */
+@Component
+public class LocationWal implements BusLocationListener, HealthIndicator {
+
+    private static final Logger log = LoggerFactory.getLogger(LocationWal.class);
+
+    static final byte BUS_UPDATED = 1;
+    static final byte BUS_REMOVED = 2;
+    static final byte PASSENGER_UPDATED = 3;
+    static final byte PASSENGER_REMOVED = 4;
+    static final byte BUS_HISTORY_APPENDED = 5;
+    static final long NO_TIMESTAMP = BusPositionStore.NO_TIMESTAMP;
+
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int MAX_ID_BYTES = 0xFFFF;
+    private static final int MAX_RECORD_BYTES = 1 + Long.BYTES + Short.BYTES + MAX_ID_BYTES + 4 * Double.BYTES + Long.BYTES;
+    private static final int INITIAL_BATCH_BYTES = 64 * 1024;
+    // Updates wait for the writer once this much is waiting to be written
+    private static final int MAX_BATCH_BYTES = 8 * 1024 * 1024;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long commitIntervalNanos;
+    private final Timer syncTimer;
+    private final Counter writtenBytes;
+    private FileChannel lockChannel;
+    private FileLock directoryLock;
+
+    // A ReentrantLock rather than a monitor so waiting appenders do not pin virtual threads
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchReady = lock.newCondition();
+    private final Condition batchTaken = lock.newCondition();
+    private final Condition batchCommitted = lock.newCondition();
+    // Guarded by lock
+    private ByteBuffer batch = ByteBuffer.allocate(INITIAL_BATCH_BYTES);
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BATCH_BYTES);
+    private final CRC32 crc = new CRC32();
+    private CompletableFuture<Long> rotation;
+    private boolean closed;
+    // Records appended and records on disk, counted from startup
+    private long appended;
+    private long committed;
+    // Set by the writer when a write fails; the log stays stopped
+    private IOException failure;
+    // Set under lock once the batch reaches MAX_BATCH_BYTES, cleared when the writer takes it
+    private volatile boolean full;
+    // Owned by the writer thread once started
+    private long activeSegment = -1;
+    private FileChannel channel;
+    private Thread writer;
+
+    public LocationWal(MeterRegistry meterRegistry,
+                       @Value("${transittracker.persistence.enabled:false}") boolean enabled,
+                       @Value("${transittracker.persistence.directory:${java.io.tmpdir}/transittracker/state}") Path directory,
+                       @Value("${transittracker.persistence.commit-interval:10ms}") Duration commitInterval) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.commitIntervalNanos = commitInterval.toNanos();
+        this.syncTimer = Timer.builder("transittracker.persistence.wal.sync")
+                .description("Duration of one WAL group commit; the count gives the fsync rate")
+                .register(meterRegistry);
+        this.writtenBytes = Counter.builder("transittracker.persistence.wal.bytes")
+                .description("Bytes written to the WAL")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        if (enabled) {
+            lockDirectory();
+        }
+    }
+
+    @Override
+    public void awaitCapacity() {
+        if (!full) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (full && !closed && failure == null) {
+                batchReady.signal();
+                batchTaken.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the WAL writer", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onBusLocationUpdated(String busId, double latitude, double longitude, double altitude, double accuracy,
+                                     long timestamp) {
+        append(BUS_UPDATED, busId, true, latitude, longitude, altitude, accuracy, timestamp);
+    }
+
+    @Override
+    public void onBusHistoryAppended(String busId, double latitude, double longitude, double altitude,
+                                     double accuracy, long timestamp) {
+        append(BUS_HISTORY_APPENDED, busId, true, latitude, longitude, altitude, accuracy, timestamp);
+    }
+
+    @Override
+    public void onBusRemoved(String busId) {
+        append(BUS_REMOVED, busId, false, 0, 0, 0, 0, NO_TIMESTAMP);
+    }
+
+    @Override
+    public void onBusRestored(String busId, double latitude, double longitude, double altitude, double accuracy,
+                              long timestamp) {
+        // Restored state is already on disk
+    }
+
+    @Override
+    public void onPassengerLocationUpdated(String passengerId, Location location) {
+        append(PASSENGER_UPDATED, passengerId, true, location.getLatitude(), location.getLongitude(),
+                location.getAltitude(), location.getAccuracy(),
+                Timestamps.toEpochMillis(location.getTimestamp(), NO_TIMESTAMP));
+    }
+
+    @Override
+    public void onPassengerRemoved(String passengerId) {
+        append(PASSENGER_REMOVED, passengerId, false, 0, 0, 0, 0, NO_TIMESTAMP);
+    }
+
+    /**
+     * Check whether persistence is turned on
+     * @return true if changes are logged
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Wait until every record appended so far is on disk. Returns at once
+     * when persistence is off.
+     * @throws UncheckedIOException if the log failed to write, so the records may never be
+     */
+    public void sync() {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            long target = appended;
+            while (committed < target && failure == null && !(closed && writer == null)) {
+                batchReady.signal();
+                batchCommitted.await();
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("WAL stopped after a failed write", failure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the WAL writer", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Health health() {
+        if (!enabled) {
+            return Health.up().withDetail("enabled", false).build();
+        }
+        lock.lock();
+        try {
+            if (failure != null) {
+                return Health.down(failure).withDetail("directory", directory.toString()).build();
+            }
+            return Health.up()
+                    .withDetail("directory", directory.toString())
+                    .withDetail("segment", activeSegment)
+                    .withDetail("pendingRecords", appended - committed)
+                    .build();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the directory holding the log and snapshots
+     * @return state directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the numbers of the segment files in the directory
+     * @return segment numbers, ascending
+     */
+    public List<Long> segments() {
+        List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected file in state directory: {}", path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list WAL segments in " + directory, e);
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Get the path of a segment file
+     * @param segment Segment number
+     * @return segment path
+     */
+    public Path segmentPath(long segment) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Start writing to a new segment. Records appended before this are kept
+     * in memory and written to it.
+     * @param segment Number of the first segment to write, above every existing one
+     */
+    public void open(long segment) {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (writer != null) {
+                throw new IllegalStateException("WAL already open at segment " + activeSegment);
+            }
+            try {
+                channel = openSegment(segment);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open WAL segment " + segment, e);
+            }
+            activeSegment = segment;
+            writer = new Thread(this::runWriter, "wal-writer");
+            writer.setDaemon(true);
+            writer.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Commit everything appended so far and continue in a new segment
+     * @return Number of the new segment; every earlier record is in a lower-numbered one
+     */
+    public long rotate() {
+        CompletableFuture<Long> result;
+        lock.lock();
+        try {
+            if (writer == null || closed) {
+                throw new IllegalStateException("WAL is not open");
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("WAL stopped after a failed write", failure);
+            }
+            if (rotation == null) {
+                rotation = new CompletableFuture<>();
+                batchReady.signal();
+            }
+            result = rotation;
+        } finally {
+            lock.unlock();
+        }
+        return result.join();
+    }
+
+    /**
+     * Commit everything appended so far and stop the writer
+     */
+    @PreDestroy
+    public void close() {
+        Thread running;
+        lock.lock();
+        try {
+            closed = true;
+            running = writer;
+            batchReady.signal();
+            batchTaken.signalAll();
+            batchCommitted.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (running != null) {
+            try {
+                running.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            if (directoryLock != null) {
+                directoryLock.release();
+                lockChannel.close();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to release lock on {}", directory, e);
+        }
+    }
+
+    /**
+     * Apply the records of a segment to a state image, stopping at the first torn or corrupt record
+     * @param segment Segment file
+     * @param state State to apply the records to
+     * @return Number of records applied
+     */
+    static long replay(Path segment, TrackingSnapshot state) throws IOException {
+        long records = 0;
+        CRC32 crc = new CRC32();
+        byte[] payload = new byte[MAX_RECORD_BYTES];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), 1 << 16))) {
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_BYTES) {
+                        log.warn("Invalid record length {} in {} after {} records", length, segment, records);
+                        return records;
+                    }
+                    in.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    return records;
+                }
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    log.warn("Checksum mismatch in {} after {} records", segment, records);
+                    return records;
+                }
+                apply(ByteBuffer.wrap(payload, 0, length), state);
+                records++;
+            }
+        }
+    }
+
+    private static void apply(ByteBuffer record, TrackingSnapshot state) {
+        byte type = record.get();
+        long recordedAt = record.getLong();
+        byte[] idBytes = new byte[Short.toUnsignedInt(record.getShort())];
+        record.get(idBytes);
+        String id = new String(idBytes, StandardCharsets.UTF_8);
+        if (type == BUS_REMOVED) {
+            state.removeBus(id);
+            return;
+        }
+        if (type == PASSENGER_REMOVED) {
+            state.removePassenger(id);
+            return;
+        }
+        double latitude = record.getDouble();
+        double longitude = record.getDouble();
+        double altitude = record.getDouble();
+        double accuracy = record.getDouble();
+        long fixTime = record.getLong();
+        if (type == BUS_UPDATED) {
+            state.updateBus(id, latitude, longitude, altitude, accuracy, fixTime, recordedAt);
+        } else if (type == BUS_HISTORY_APPENDED) {
+            state.appendBusHistory(id, latitude, longitude, altitude, accuracy, fixTime, recordedAt);
+        } else if (type == PASSENGER_UPDATED) {
+            state.updatePassenger(id, latitude, longitude, altitude, accuracy, fixTime);
+        }
+    }
+
+    private void append(byte type, String id, boolean hasPosition, double latitude, double longitude,
+                        double altitude, double accuracy, long timestamp) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        if (idBytes.length > MAX_ID_BYTES) {
+            log.warn("Not logging change for an ID of {} bytes", idBytes.length);
+            return;
+        }
+        int length = 1 + Long.BYTES + Short.BYTES + idBytes.length
+                + (hasPosition ? 4 * Double.BYTES + Long.BYTES : 0);
+
+        lock.lock();
+        try {
+            if (closed || failure != null) {
+                return;
+            }
+            ensureCapacity(HEADER_BYTES + length);
+            ByteBuffer out = batch;
+            if (out.position() == 0) {
+                batchReady.signal();
+            }
+            int start = out.position();
+            out.position(start + HEADER_BYTES);
+            out.put(type);
+            out.putLong(now);
+            out.putShort((short) idBytes.length);
+            out.put(idBytes);
+            if (hasPosition) {
+                out.putDouble(latitude);
+                out.putDouble(longitude);
+                out.putDouble(altitude);
+                out.putDouble(accuracy);
+                out.putLong(timestamp);
+            }
+            crc.reset();
+            crc.update(out.array(), start + HEADER_BYTES, length);
+            out.putInt(start, length);
+            out.putInt(start + Integer.BYTES, (int) crc.getValue());
+            appended++;
+            if (out.position() >= MAX_BATCH_BYTES) {
+                full = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Make room in the batch. Called with lock held; appends may run past
+     * MAX_BATCH_BYTES by the updates already holding a bus when it filled.
+     */
+    private void ensureCapacity(int bytes) {
+        if (batch.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(batch.capacity() * 2, batch.position() + bytes));
+            batch.flip();
+            grown.put(batch);
+            batch = grown;
+        }
+    }
+
+    private void runWriter() {
+        long lastCommit = System.nanoTime();
+        while (true) {
+            ByteBuffer pending;
+            CompletableFuture<Long> rotating;
+            boolean stopping;
+            boolean failed;
+            long through;
+            lock.lock();
+            try {
+                while (batch.position() == 0 && rotation == null && !closed) {
+                    try {
+                        batchReady.await();
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+                // Swap batches so appenders continue while this one is written
+                pending = batch;
+                batch = spare.clear();
+                spare = null;
+                rotating = rotation;
+                rotation = null;
+                stopping = closed;
+                failed = failure != null;
+                through = appended;
+                full = false;
+                batchTaken.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = failed ? null : commit(pending.flip());
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                    failed = true;
+                } else if (!failed) {
+                    committed = through;
+                }
+                batchCommitted.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (failed && rotating != null) {
+                // Only this thread sets the failure, so it can read it without the lock
+                rotating.completeExceptionally(failure);
+            } else if (rotating != null) {
+                try {
+                    channel.close();
+                    channel = openSegment(activeSegment + 1);
+                    activeSegment++;
+                    rotating.complete(activeSegment);
+                } catch (IOException e) {
+                    log.error("Failed to start WAL segment {}; logging stops until restart", activeSegment + 1, e);
+                    lock.lock();
+                    try {
+                        failure = e;
+                        batchCommitted.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                    rotating.completeExceptionally(e);
+                }
+            }
+            lock.lock();
+            try {
+                spare = pending.clear();
+            } finally {
+                lock.unlock();
+            }
+            if (stopping) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close WAL segment {}", activeSegment, e);
+                }
+                return;
+            }
+
+            // Let records gather so the next fsync commits them together
+            long wait = commitIntervalNanos - (System.nanoTime() - lastCommit);
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            lastCommit = System.nanoTime();
+        }
+    }
+
+    /**
+     * Write and fsync a batch
+     * @return the failure, or null once the batch is on disk
+     */
+    private IOException commit(ByteBuffer pending) {
+        if (!pending.hasRemaining()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        int bytes = pending.remaining();
+        try {
+            while (pending.hasRemaining()) {
+                channel.write(pending);
+            }
+            channel.force(false);
+            writtenBytes.increment(bytes);
+            return null;
+        } catch (IOException e) {
+            log.error("Failed to write {} bytes to WAL segment {}; logging stops until restart", bytes, activeSegment, e);
+            return e;
+        } finally {
+            syncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private FileChannel openSegment(long segment) throws IOException {
+        FileChannel opened = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        TrackingSnapshot.syncDirectory(directory);
+        return opened;
+    }
+
+    private void lockDirectory() {
+        try {
+            Files.createDirectories(directory);
+            lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            directoryLock = lockChannel.tryLock();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to lock state directory " + directory, e);
+        }
+        if (directoryLock == null) {
+            throw new IllegalStateException("State directory " + directory + " is in use by another instance");
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Route;
+import com.phoenixai.transittracker.model.RouteProgress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Snaps each bus fix onto the line of the route the bus is assigned to.
+ * Route geometry is precomputed whenever the route registry changes, so a
+ * snap only looks at the route segments near the fix. Runs ahead of other
+ * listeners so they can read the bus's latest progress.
+ */
+@Service
+@Order(0)
+public class MapMatchingService implements BusLocationListener {
+
+    private static final Logger log = LoggerFactory.getLogger(MapMatchingService.class);
+
+    private final RouteService routeService;
+    private final double cellSizeMeters;
+    // Replaced wholesale when routes change
+    private volatile Map<String, RouteGeometry> geometries;
+    private final Map<String, RouteProgress> busProgress = new ConcurrentHashMap<>();
+
+    public MapMatchingService(RouteService routeService,
+                              @Value("${transittracker.map-matching.cell-size-meters:200}") double cellSizeMeters) {
+        if (cellSizeMeters <= 0) {
+            throw new IllegalArgumentException("Map matching cell size must be positive: " + cellSizeMeters);
+        }
+        this.routeService = routeService;
+        this.cellSizeMeters = cellSizeMeters;
+        this.geometries = buildGeometries(routeService.getAllRoutes());
+    }
+
+    /**
+     * Rebuild route geometry after the route registry changes
+     * @param event The registry change
+     */
+    @EventListener
+    public void onRoutesChanged(RoutesChangedEvent event) {
+        geometries = buildGeometries(event.getRoutes());
+        busProgress.values().removeIf(progress -> !geometries.containsKey(progress.getRouteNo()));
+    }
+
+    @Override
+    public void onBusLocationUpdated(String busId, double latitude, double longitude, double altitude, double accuracy,
+                                     long timestamp) {
+        String routeNo = routeService.getRouteNoForBus(busId);
+        RouteGeometry geometry = routeNo != null ? geometries.get(routeNo) : null;
+        if (geometry == null) {
+            busProgress.remove(busId);
+            return;
+        }
+        LocalDateTime fixTime = timestamp != BusPositionStore.NO_TIMESTAMP
+                ? Timestamps.toLocalDateTime(timestamp)
+                : LocalDateTime.now();
+        busProgress.put(busId, geometry.snap(latitude, longitude, fixTime));
+    }
+
+    @Override
+    public void onBusRemoved(String busId) {
+        busProgress.remove(busId);
+    }
+
+    /**
+     * Get the latest position of a bus along its route
+     * @param busId The bus identifier
+     * @return Route progress, or null if the bus has no fix on a known route
+     */
+    public RouteProgress getProgress(String busId) {
+        return busProgress.get(busId);
+    }
+
+    /**
+     * Get the precomputed geometry of a route
+     * @param routeNo The route number
+     * @return Route geometry, or null if the route is unknown or has no located stops
+     */
+    public RouteGeometry getGeometry(String routeNo) {
+        return geometries.get(routeNo);
+    }
+
+    private Map<String, RouteGeometry> buildGeometries(Collection<Route> routes) {
+        Map<String, RouteGeometry> built = new HashMap<>();
+        for (Route route : routes) {
+            try {
+                built.put(route.getRouteNo(), new RouteGeometry(route, cellSizeMeters));
+            } catch (IllegalArgumentException e) {
+                log.warn("Skipping map matching for route {}: {}", route.getRouteNo(), e.getMessage());
+            }
+        }
+        return Map.copyOf(built);
+    }
+}
@@ -0,0 +1,134 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Last known location of every passenger, forgotten once the passenger has
+ * sent nothing for the idle TTL. Each passenger is filed in a TimerWheel at
+ * its expiry; updates only record the time they were seen, and a passenger
+ * that fires while still active is filed again at its new expiry. Expiring
+ * therefore costs time in the number of passengers due, not the number stored.
+ */
+@Component
+public class PassengerStore {
+
+    private final Map<String, Entry> passengers = new ConcurrentHashMap<>();
+    private final long idleTtlMillis;
+    private final TimerWheel<Entry> expiries;
+
+    /**
+     * @param idleTtl How long a passenger is kept after its last update
+     * @param tickMillis Resolution of expiry in milliseconds; passengers are forgotten up to
+     *                   about this much after their TTL
+     */
+    public PassengerStore(@Value("${transittracker.passengers.idle-ttl:30m}") Duration idleTtl,
+                          @Value("${transittracker.passengers.expiry-tick:1000}") long tickMillis) {
+        if (idleTtl.isNegative() || idleTtl.isZero() || tickMillis <= 0) {
+            throw new IllegalArgumentException("Invalid passenger expiry: idle TTL=" + idleTtl + ", tick=" + tickMillis);
+        }
+        this.idleTtlMillis = idleTtl.toMillis();
+        // One revolution covers the TTL, so an active passenger is refiled at most once per TTL
+        int slots = (int) Math.min(1 << 16, idleTtlMillis / tickMillis + 1);
+        this.expiries = new TimerWheel<>(tickMillis, slots, System.currentTimeMillis());
+    }
+
+    /**
+     * Store a passenger's location and restart its idle TTL
+     * @param passengerId The passenger identifier
+     * @param location The location
+     * @param now Epoch milliseconds of the update
+     */
+    public void put(String passengerId, Location location, long now) {
+        Entry[] created = new Entry[1];
+        // Updated within the map entry, so an expiry either sees the update or the update starts a new entry
+        passengers.compute(passengerId, (id, entry) -> {
+            if (entry == null) {
+                return created[0] = new Entry(passengerId, location, now);
+            }
+            entry.location = location;
+            entry.lastSeen = now;
+            return entry;
+        });
+        if (created[0] != null) {
+            expiries.schedule(created[0], now + idleTtlMillis);
+        }
+    }
+
+    /**
+     * Get a passenger's last known location
+     * @param passengerId The passenger identifier
+     * @return The location, or null if the passenger is unknown or expired
+     */
+    public Location get(String passengerId) {
+        Entry entry = passengers.get(passengerId);
+        return entry != null ? entry.location : null;
+    }
+
+    /**
+     * Forget a passenger
+     * @param passengerId The passenger identifier
+     * @return true if the passenger was known
+     */
+    public boolean remove(String passengerId) {
+        // Its wheel entry fires later and is ignored
+        return passengers.remove(passengerId) != null;
+    }
+
+    /**
+     * Forget the passengers idle for longer than the TTL
+     * @param now Epoch milliseconds
+     * @return IDs of the passengers forgotten
+     */
+    public List<String> expire(long now) {
+        List<String> expired = new ArrayList<>();
+        for (Entry entry : expiries.advance(now)) {
+            long[] deadline = {Long.MIN_VALUE};
+            // Checked and removed within the map entry, so an update cannot land in between
+            Entry remaining = passengers.computeIfPresent(entry.passengerId, (id, current) -> {
+                if (current != entry) {
+                    return current;
+                }
+                deadline[0] = entry.lastSeen + idleTtlMillis;
+                return deadline[0] > now ? entry : null;
+            });
+            if (deadline[0] == Long.MIN_VALUE) {
+                // Removed, and possibly added again with an entry of its own
+                continue;
+            }
+            if (remaining == entry) {
+                expiries.schedule(entry, deadline[0]);
+            } else {
+                expired.add(entry.passengerId);
+            }
+        }
+        return expired;
+    }
+
+    public int size() {
+        return passengers.size();
+    }
+
+    public long getIdleTtlMillis() {
+        return idleTtlMillis;
+    }
+
+    private static final class Entry {
+        private final String passengerId;
+        private volatile Location location;
+        private volatile long lastSeen;
+
+        Entry(String passengerId, Location location, long lastSeen) {
+            this.passengerId = passengerId;
+            this.location = location;
+            this.lastSeen = lastSeen;
+        }
+    }
+}
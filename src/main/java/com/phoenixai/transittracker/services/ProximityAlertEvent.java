@@ -0,0 +1,64 @@
+package com.phoenixai.transittracker.services;
+
+import java.time.LocalDateTime;
+
+/**
+ * Published by ProximityAlertService when a bus on a subscribed route comes within range of a passenger
+ */
+public class ProximityAlertEvent {
+
+    private final String subscriptionId;
+    private final String passengerId;
+    private final String routeNo;
+    private final String busId;
+    private final double distanceMeters;
+    private final LocalDateTime timestamp;
+
+    public ProximityAlertEvent(String subscriptionId, String passengerId, String routeNo, String busId,
+                               double distanceMeters, LocalDateTime timestamp) {
+        this.subscriptionId = subscriptionId;
+        this.passengerId = passengerId;
+        this.routeNo = routeNo;
+        this.busId = busId;
+        this.distanceMeters = distanceMeters;
+        this.timestamp = timestamp;
+    }
+
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    public String getPassengerId() {
+        return passengerId;
+    }
+
+    public String getRouteNo() {
+        return routeNo;
+    }
+
+    public String getBusId() {
+        return busId;
+    }
+
+    public double getDistanceMeters() {
+        return distanceMeters;
+    }
+
+    /**
+     * Get the time of the bus fix that came within range
+     * @return fix time, or the time it was received if it carried none
+     */
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "ProximityAlertEvent{" +
+                "subscriptionId='" + subscriptionId + '\'' +
+                ", passengerId='" + passengerId + '\'' +
+                ", busId='" + busId + '\'' +
+                ", distanceMeters=" + distanceMeters +
+                '}';
+    }
+}
@@ -0,0 +1,407 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import com.phoenixai.transittracker.model.ProximitySubscription;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells passengers when a bus on a route they chose comes within a distance
+ * of them. Waiting subscriptions are bucketed per route in a uniform
+ * latitude/longitude grid, each listed in every cell its circle's bounding
+ * box touches, so a bus update only tests the subscriptions on its own route
+ * in its own cell, however many passengers and buses there are. A
+ * subscription fires once and then stays listed for its passenger as
+ * triggered; it follows the passenger as their location changes.
+ * <p>
+ * Alerts are published as {@link ProximityAlertEvent}s on a dedicated thread;
+ * subscribe with an {@code @EventListener}. Subscriptions are not persisted
+ * and are dropped with their passenger.
+ */
+@Service
+@Order(30)
+public class ProximityAlertService implements BusLocationListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ProximityAlertService.class);
+    private static final double METERS_PER_DEGREE = Location.EARTH_RADIUS_KM * 1000 * Math.PI / 180;
+    private static final Watch[] NO_WATCHES = new Watch[0];
+
+    private final RouteService routeService;
+    private final PassengerStore passengers;
+    private final ApplicationEventPublisher eventPublisher;
+    private final double maxRadiusMeters;
+    private final int maxSubscriptionsPerPassenger;
+    private final double cellDegrees;
+    // routeNo -> cell -> waiting subscriptions; arrays are replaced, never modified
+    private final Map<String, Map<Long, Watch[]>> index = new ConcurrentHashMap<>();
+    // passengerId -> subscriptions, oldest first; the list is also the lock for that passenger's changes
+    private final Map<String, List<Watch>> byPassenger = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong nextId = new AtomicLong();
+    private final Counter alerts;
+    private final ExecutorService publisher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "proximity-alerts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ProximityAlertService(RouteService routeService,
+                                 PassengerStore passengers,
+                                 ApplicationEventPublisher eventPublisher,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${transittracker.proximity.max-radius-meters:2000}") double maxRadiusMeters,
+                                 @Value("${transittracker.proximity.max-subscriptions-per-passenger:10}") int maxSubscriptionsPerPassenger,
+                                 @Value("${transittracker.proximity.cell-size-meters:500}") double cellSizeMeters) {
+        if (maxRadiusMeters <= 0 || maxSubscriptionsPerPassenger <= 0 || cellSizeMeters <= 0) {
+            throw new IllegalArgumentException("Invalid proximity configuration: max radius=" + maxRadiusMeters
+                    + ", max subscriptions=" + maxSubscriptionsPerPassenger + ", cell size=" + cellSizeMeters);
+        }
+        this.routeService = routeService;
+        this.passengers = passengers;
+        this.eventPublisher = eventPublisher;
+        this.maxRadiusMeters = maxRadiusMeters;
+        this.maxSubscriptionsPerPassenger = maxSubscriptionsPerPassenger;
+        this.cellDegrees = cellSizeMeters / METERS_PER_DEGREE;
+        this.alerts = Counter.builder("transittracker.proximity.alerts")
+                .description("Buses coming within range of a subscribed passenger")
+                .register(meterRegistry);
+        Gauge.builder("transittracker.proximity.subscriptions", waiting, AtomicInteger::get)
+                .description("Proximity subscriptions waiting for a bus")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Ask to be told when a bus on a route comes within a distance of a passenger
+     * @param passengerId The passenger identifier
+     * @param routeNo The route to watch
+     * @param radiusMeters Distance from the passenger's location
+     * @return The new subscription, or null if the passenger has no known location
+     * @throws IllegalArgumentException if the radius is not positive or above the configured maximum
+     * @throws IllegalStateException if the passenger already has the maximum number of waiting subscriptions
+     */
+    public ProximitySubscription subscribe(String passengerId, String routeNo, double radiusMeters) {
+        if (!(radiusMeters > 0 && radiusMeters <= maxRadiusMeters)) {
+            throw new IllegalArgumentException("Radius must be between 0 and " + maxRadiusMeters + " meters: "
+                    + radiusMeters);
+        }
+        Location location = passengers.get(passengerId);
+        if (location == null) {
+            return null;
+        }
+        Watch watch = new Watch("PS-" + nextId.incrementAndGet(), passengerId, routeNo, radiusMeters);
+        List<Watch> watches = byPassenger.computeIfAbsent(passengerId, id -> new ArrayList<>());
+        synchronized (watches) {
+            if (byPassenger.get(passengerId) != watches) {
+                // The passenger was dropped meanwhile
+                return null;
+            }
+            if (watches.size() >= maxSubscriptionsPerPassenger && !dropOldestTriggered(watches)) {
+                throw new IllegalStateException("Passenger " + passengerId + " already has "
+                        + maxSubscriptionsPerPassenger + " waiting subscriptions");
+            }
+            watches.add(watch);
+            watch.area = area(location, radiusMeters);
+            addToIndex(watch);
+            waiting.incrementAndGet();
+        }
+        // The passenger may have expired before the watch was listed, and so not dropped it
+        if (passengers.get(passengerId) == null) {
+            onPassengerRemoved(passengerId);
+            return null;
+        }
+        return watch.toSubscription();
+    }
+
+    /**
+     * Get a passenger's subscriptions, waiting and triggered
+     * @param passengerId The passenger identifier
+     * @return Subscriptions, oldest first; possibly empty
+     */
+    public List<ProximitySubscription> getSubscriptions(String passengerId) {
+        List<Watch> watches = byPassenger.get(passengerId);
+        List<ProximitySubscription> subscriptions = new ArrayList<>();
+        if (watches != null) {
+            synchronized (watches) {
+                for (Watch watch : watches) {
+                    subscriptions.add(watch.toSubscription());
+                }
+            }
+        }
+        return subscriptions;
+    }
+
+    /**
+     * Cancel a subscription
+     * @param passengerId The passenger identifier
+     * @param subscriptionId The subscription identifier
+     * @return true if the passenger had the subscription
+     */
+    public boolean cancel(String passengerId, String subscriptionId) {
+        List<Watch> watches = byPassenger.get(passengerId);
+        if (watches == null) {
+            return false;
+        }
+        synchronized (watches) {
+            for (int i = 0; i < watches.size(); i++) {
+                Watch watch = watches.get(i);
+                if (watch.subscriptionId.equals(subscriptionId)) {
+                    watches.remove(i);
+                    retire(watch);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onBusLocationUpdated(String busId, double latitude, double longitude, double altitude, double accuracy,
+                                     long timestamp) {
+        if (waiting.get() == 0) {
+            return;
+        }
+        String routeNo = routeService.getRouteNoForBus(busId);
+        Map<Long, Watch[]> cells = routeNo != null ? index.get(routeNo) : null;
+        if (cells == null) {
+            return;
+        }
+        Watch[] watches = cells.get(cellKey(cell(longitude), cell(latitude)));
+        if (watches == null) {
+            return;
+        }
+        for (Watch watch : watches) {
+            double distance = watch.area.distanceMeters(latitude, longitude);
+            if (distance <= watch.radiusMeters && watch.done.compareAndSet(false, true)) {
+                trigger(watch, busId, distance, timestamp);
+            }
+        }
+    }
+
+    @Override
+    public void onPassengerLocationUpdated(String passengerId, Location location) {
+        List<Watch> watches = byPassenger.get(passengerId);
+        if (watches == null) {
+            return;
+        }
+        synchronized (watches) {
+            // Read back so concurrent updates settle on the stored location
+            Location current = passengers.get(passengerId);
+            if (current == null) {
+                return;
+            }
+            for (Watch watch : watches) {
+                if (!watch.done.get()) {
+                    removeFromIndex(watch);
+                    watch.area = area(current, watch.radiusMeters);
+                    addToIndex(watch);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onPassengerRemoved(String passengerId) {
+        List<Watch> watches = byPassenger.remove(passengerId);
+        if (watches == null) {
+            return;
+        }
+        synchronized (watches) {
+            for (Watch watch : watches) {
+                retire(watch);
+            }
+            watches.clear();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        publisher.shutdownNow();
+    }
+
+    private void trigger(Watch watch, String busId, double distance, long timestamp) {
+        waiting.decrementAndGet();
+        alerts.increment();
+        LocalDateTime time = timestamp != BusPositionStore.NO_TIMESTAMP
+                ? Timestamps.toLocalDateTime(timestamp)
+                : LocalDateTime.now();
+        List<Watch> watches = byPassenger.get(watch.passengerId);
+        Object lock = watches != null ? watches : watch;
+        synchronized (lock) {
+            watch.triggeredBy = busId;
+            watch.triggeredDistanceMeters = distance;
+            watch.triggeredAt = time;
+            removeFromIndex(watch);
+        }
+        ProximityAlertEvent event = new ProximityAlertEvent(watch.subscriptionId, watch.passengerId, watch.routeNo,
+                busId, distance, time);
+        publisher.execute(() -> {
+            try {
+                eventPublisher.publishEvent(event);
+            } catch (RuntimeException e) {
+                log.warn("Proximity subscriber failed for {}", event, e);
+            }
+        });
+    }
+
+    /**
+     * Stop a subscription from firing; the caller holds the passenger's lock
+     */
+    private void retire(Watch watch) {
+        if (watch.done.compareAndSet(false, true)) {
+            waiting.decrementAndGet();
+            removeFromIndex(watch);
+        }
+    }
+
+    private boolean dropOldestTriggered(List<Watch> watches) {
+        for (int i = 0; i < watches.size(); i++) {
+            if (watches.get(i).triggeredBy != null) {
+                watches.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Area area(Location location, double radiusMeters) {
+        double latitude = location.getLatitude();
+        double longitude = location.getLongitude();
+        double metersPerDegreeLongitude = METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(latitude)), 1e-6);
+        double latitudeSpan = radiusMeters / METERS_PER_DEGREE;
+        double longitudeSpan = radiusMeters / metersPerDegreeLongitude;
+        long x0 = cell(longitude - longitudeSpan);
+        long x1 = cell(longitude + longitudeSpan);
+        long y0 = cell(latitude - latitudeSpan);
+        long y1 = cell(latitude + latitudeSpan);
+        long[] cells = new long[(int) ((x1 - x0 + 1) * (y1 - y0 + 1))];
+        int i = 0;
+        for (long x = x0; x <= x1; x++) {
+            for (long y = y0; y <= y1; y++) {
+                cells[i++] = cellKey(x, y);
+            }
+        }
+        return new Area(latitude, longitude, metersPerDegreeLongitude, cells);
+    }
+
+    private void addToIndex(Watch watch) {
+        Map<Long, Watch[]> cells = index.computeIfAbsent(watch.routeNo, k -> new ConcurrentHashMap<>());
+        for (long cell : watch.area.cells) {
+            cells.compute(cell, (k, current) -> {
+                Watch[] watches = current != null ? current : NO_WATCHES;
+                Watch[] grown = Arrays.copyOf(watches, watches.length + 1);
+                grown[watches.length] = watch;
+                return grown;
+            });
+        }
+    }
+
+    private void removeFromIndex(Watch watch) {
+        Map<Long, Watch[]> cells = index.get(watch.routeNo);
+        if (cells == null) {
+            return;
+        }
+        for (long cell : watch.area.cells) {
+            cells.computeIfPresent(cell, (k, current) -> {
+                for (int i = 0; i < current.length; i++) {
+                    if (current[i] == watch) {
+                        if (current.length == 1) {
+                            return null;
+                        }
+                        Watch[] shrunk = new Watch[current.length - 1];
+                        System.arraycopy(current, 0, shrunk, 0, i);
+                        System.arraycopy(current, i + 1, shrunk, i, current.length - i - 1);
+                        return shrunk;
+                    }
+                }
+                return current;
+            });
+        }
+    }
+
+    private long cell(double degrees) {
+        return (long) Math.floor(degrees / cellDegrees);
+    }
+
+    private static long cellKey(long x, long y) {
+        return x << 32 ^ (y & 0xffffffffL);
+    }
+
+    /**
+     * Circle watched by a subscription and the grid cells it touches
+     */
+    private static final class Area {
+        private final double latitude;
+        private final double longitude;
+        private final double metersPerDegreeLongitude;
+        private final long[] cells;
+
+        Area(double latitude, double longitude, double metersPerDegreeLongitude, long[] cells) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.metersPerDegreeLongitude = metersPerDegreeLongitude;
+            this.cells = cells;
+        }
+
+        double distanceMeters(double pointLatitude, double pointLongitude) {
+            double dx = (pointLongitude - longitude) * metersPerDegreeLongitude;
+            double dy = (pointLatitude - latitude) * METERS_PER_DEGREE;
+            return Math.sqrt(dx * dx + dy * dy);
+        }
+    }
+
+    /**
+     * Live state of one subscription
+     */
+    private static final class Watch {
+        private final String subscriptionId;
+        private final String passengerId;
+        private final String routeNo;
+        private final double radiusMeters;
+        private final LocalDateTime createdAt = LocalDateTime.now();
+        // Set once, by whichever of trigger, cancel or passenger removal comes first
+        private final AtomicBoolean done = new AtomicBoolean();
+        // Replaced under the passenger's lock when the passenger moves
+        private volatile Area area;
+        private volatile String triggeredBy;
+        private double triggeredDistanceMeters;
+        private LocalDateTime triggeredAt;
+
+        Watch(String subscriptionId, String passengerId, String routeNo, double radiusMeters) {
+            this.subscriptionId = subscriptionId;
+            this.passengerId = passengerId;
+            this.routeNo = routeNo;
+            this.radiusMeters = radiusMeters;
+        }
+
+        ProximitySubscription toSubscription() {
+            ProximitySubscription subscription = new ProximitySubscription(subscriptionId, passengerId, routeNo,
+                    radiusMeters, createdAt);
+            if (triggeredBy != null) {
+                subscription.setTriggeredBy(triggeredBy);
+                subscription.setTriggeredDistanceMeters(triggeredDistanceMeters);
+                subscription.setTriggeredAt(triggeredAt);
+            }
+            return subscription;
+        }
+    }
+}
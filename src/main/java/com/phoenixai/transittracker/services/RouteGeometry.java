@@ -0,0 +1,291 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import com.phoenixai.transittracker.model.Route;
+import com.phoenixai.transittracker.model.RouteProgress;
+import com.phoenixai.transittracker.model.Stop;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precomputed polyline of a route through its stops, in order, used to snap
+ * GPS fixes onto the route. Points are projected once onto a local plane in
+ * meters, with longitudes taken relative to the route's origin so a route
+ * crossing the antimeridian stays in one piece. Cumulative distances are stored per vertex so a distance along the
+ * route maps to its segment by binary search, and a uniform grid over the
+ * segments limits each snap to the few segments near the fix.
+ * Instances are immutable and safe to share between threads.
+ */
+public class RouteGeometry {
+
+    private static final double METERS_PER_DEGREE = Location.EARTH_RADIUS_KM * 1000 * Math.PI / 180;
+    // Keeps the grid small for very long routes
+    private static final int MAX_CELLS_PER_ROUTE = 1 << 16;
+
+    private final String routeNo;
+    private final String[] stopIds;
+    private final double originLatitude;
+    private final double originLongitude;
+    private final double metersPerDegreeLongitude;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] cumulativeMeters;
+    private final double cellSize;
+    private final long minCellX;
+    private final long minCellY;
+    private final long maxCellX;
+    private final long maxCellY;
+    private final Map<Long, int[]> segmentGrid;
+
+    /**
+     * @param route The route; its stops in order form the polyline
+     * @param cellSizeMeters Preferred edge length of the segment grid cells
+     */
+    public RouteGeometry(Route route, double cellSizeMeters) {
+        List<Stop> stops = new ArrayList<>();
+        for (Stop stop : route.getAllStopsInOrder()) {
+            if (stop.getLocation() != null) {
+                stops.add(stop);
+            }
+        }
+        if (stops.isEmpty()) {
+            throw new IllegalArgumentException("Route " + route.getRouteNo() + " has no stop locations");
+        }
+
+        this.routeNo = route.getRouteNo();
+        int n = stops.size();
+        this.stopIds = new String[n];
+        this.xs = new double[n];
+        this.ys = new double[n];
+        this.cumulativeMeters = new double[n];
+
+        double meanLatitude = 0;
+        for (Stop stop : stops) {
+            meanLatitude += stop.getLocation().getLatitude() / n;
+        }
+        this.originLatitude = stops.get(0).getLocation().getLatitude();
+        this.originLongitude = stops.get(0).getLocation().getLongitude();
+        this.metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(meanLatitude));
+
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            Location location = stops.get(i).getLocation();
+            stopIds[i] = stops.get(i).getStopId();
+            xs[i] = projectX(location.getLongitude());
+            ys[i] = projectY(location.getLatitude());
+            if (i > 0) {
+                cumulativeMeters[i] = cumulativeMeters[i - 1] + Math.hypot(xs[i] - xs[i - 1], ys[i] - ys[i - 1]);
+            }
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+
+        double area = Math.max(1, (maxX - minX) * (maxY - minY));
+        this.cellSize = Math.max(cellSizeMeters, Math.sqrt(area / MAX_CELLS_PER_ROUTE));
+        this.minCellX = cell(minX);
+        this.minCellY = cell(minY);
+        this.maxCellX = cell(maxX);
+        this.maxCellY = cell(maxY);
+        this.segmentGrid = buildSegmentGrid();
+    }
+
+    /**
+     * Project a fix onto the nearest point of the route line
+     * @param latitude Latitude of the fix
+     * @param longitude Longitude of the fix
+     * @param timestamp Time of the fix
+     * @return Progress along the route
+     */
+    public RouteProgress snap(double latitude, double longitude, LocalDateTime timestamp) {
+        double x = projectX(longitude);
+        double y = projectY(latitude);
+
+        int bestSegment = 0;
+        double bestT = 0;
+        double bestDistanceSquared = Double.MAX_VALUE;
+
+        if (segmentCount() > 0) {
+            long cx = cell(x);
+            long cy = cell(y);
+            // Walk rings of cells outwards, starting at the first ring that reaches the route's
+            // cells and visiting only cells inside them; cells in ring r are at least (r - 1)
+            // cells away from the fix
+            long firstRing = Math.max(Math.max(minCellX - cx, cx - maxCellX), Math.max(minCellY - cy, cy - maxCellY));
+            long maxRing = Math.max(Math.max(Math.abs(cx - minCellX), Math.abs(cx - maxCellX)),
+                    Math.max(Math.abs(cy - minCellY), Math.abs(cy - maxCellY)));
+            for (long ring = Math.max(0, firstRing); ring <= maxRing; ring++) {
+                double ringDistance = Math.max(0, ring - 1) * cellSize;
+                if (ringDistance * ringDistance > bestDistanceSquared) {
+                    break;
+                }
+                for (long gx = Math.max(cx - ring, minCellX); gx <= Math.min(cx + ring, maxCellX); gx++) {
+                    // Edge columns of the ring are walked in full, other columns only at the top and bottom
+                    boolean edge = Math.abs(gx - cx) == ring;
+                    long step = edge || ring == 0 ? 1 : 2 * ring;
+                    long lastY = edge ? Math.min(cy + ring, maxCellY) : cy + ring;
+                    for (long gy = edge ? Math.max(cy - ring, minCellY) : cy - ring; gy <= lastY; gy += step) {
+                        if (gy < minCellY || gy > maxCellY) {
+                            continue;
+                        }
+                        int[] segments = segmentGrid.get(cellKey(gx, gy));
+                        if (segments == null) {
+                            continue;
+                        }
+                        for (int segment : segments) {
+                            double t = projectOntoSegment(segment, x, y);
+                            double px = xs[segment] + t * (xs[segment + 1] - xs[segment]);
+                            double py = ys[segment] + t * (ys[segment + 1] - ys[segment]);
+                            double distanceSquared = (px - x) * (px - x) + (py - y) * (py - y);
+                            if (distanceSquared < bestDistanceSquared) {
+                                bestDistanceSquared = distanceSquared;
+                                bestSegment = segment;
+                                bestT = t;
+                            }
+                        }
+                    }
+                }
+            }
+        } else {
+            bestDistanceSquared = (xs[0] - x) * (xs[0] - x) + (ys[0] - y) * (ys[0] - y);
+        }
+
+        int toIndex = Math.min(bestSegment + 1, stopIds.length - 1);
+        double along = cumulativeMeters[bestSegment] + bestT * (cumulativeMeters[toIndex] - cumulativeMeters[bestSegment]);
+        double px = xs[bestSegment] + bestT * (xs[toIndex] - xs[bestSegment]);
+        double py = ys[bestSegment] + bestT * (ys[toIndex] - ys[bestSegment]);
+
+        return new RouteProgress(routeNo, new Location(unprojectY(py), unprojectX(px)), bestSegment,
+                stopIds[bestSegment], stopIds[toIndex], along / 1000, getLengthKm(),
+                Math.sqrt(bestDistanceSquared), timestamp);
+    }
+
+    /**
+     * Find the segment containing a distance along the route
+     * @param distanceKm Distance from the origin in kilometers
+     * @return Segment index, clamped to the route
+     */
+    public int segmentAt(double distanceKm) {
+        if (segmentCount() == 0) {
+            return 0;
+        }
+        int index = Arrays.binarySearch(cumulativeMeters, distanceKm * 1000);
+        int segment = index >= 0 ? index : -index - 2;
+        return Math.max(0, Math.min(segment, segmentCount() - 1));
+    }
+
+    /**
+     * Get the point at a distance along the route
+     * @param distanceKm Distance from the origin in kilometers
+     * @return Location on the route line
+     */
+    public Location locationAt(double distanceKm) {
+        if (segmentCount() == 0) {
+            return new Location(unprojectY(ys[0]), unprojectX(xs[0]));
+        }
+        int segment = segmentAt(distanceKm);
+        double length = cumulativeMeters[segment + 1] - cumulativeMeters[segment];
+        double t = length > 0 ? (distanceKm * 1000 - cumulativeMeters[segment]) / length : 0;
+        t = Math.max(0, Math.min(1, t));
+        return new Location(unprojectY(ys[segment] + t * (ys[segment + 1] - ys[segment])),
+                unprojectX(xs[segment] + t * (xs[segment + 1] - xs[segment])));
+    }
+
+    /**
+     * Get the distance from the origin to a stop, by its position in the route
+     * @param stopIndex Position along the route, from 0 to getStopCount() - 1
+     * @return Distance in kilometers
+     */
+    public double getStopDistanceKm(int stopIndex) {
+        return cumulativeMeters[stopIndex] / 1000;
+    }
+
+    /**
+     * Get the stop ID at a position in the route
+     * @param stopIndex Position along the route, from 0 to getStopCount() - 1
+     * @return The stop identifier
+     */
+    public String getStopId(int stopIndex) {
+        return stopIds[stopIndex];
+    }
+
+    public String getRouteNo() {
+        return routeNo;
+    }
+
+    public int getStopCount() {
+        return stopIds.length;
+    }
+
+    public int segmentCount() {
+        return stopIds.length - 1;
+    }
+
+    public double getLengthKm() {
+        return cumulativeMeters[cumulativeMeters.length - 1] / 1000;
+    }
+
+    private Map<Long, int[]> buildSegmentGrid() {
+        Map<Long, List<Integer>> cells = new HashMap<>();
+        for (int segment = 0; segment < segmentCount(); segment++) {
+            long x0 = cell(Math.min(xs[segment], xs[segment + 1]));
+            long x1 = cell(Math.max(xs[segment], xs[segment + 1]));
+            long y0 = cell(Math.min(ys[segment], ys[segment + 1]));
+            long y1 = cell(Math.max(ys[segment], ys[segment + 1]));
+            for (long gx = x0; gx <= x1; gx++) {
+                for (long gy = y0; gy <= y1; gy++) {
+                    cells.computeIfAbsent(cellKey(gx, gy), k -> new ArrayList<>()).add(segment);
+                }
+            }
+        }
+        Map<Long, int[]> grid = new HashMap<>();
+        cells.forEach((key, segments) -> grid.put(key, segments.stream().mapToInt(Integer::intValue).toArray()));
+        return grid;
+    }
+
+    private double projectOntoSegment(int segment, double x, double y) {
+        double dx = xs[segment + 1] - xs[segment];
+        double dy = ys[segment + 1] - ys[segment];
+        double lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0) {
+            return 0;
+        }
+        double t = ((x - xs[segment]) * dx + (y - ys[segment]) * dy) / lengthSquared;
+        return Math.max(0, Math.min(1, t));
+    }
+
+    private double projectX(double longitude) {
+        return wrapLongitude(longitude - originLongitude) * metersPerDegreeLongitude;
+    }
+
+    private double projectY(double latitude) {
+        return (latitude - originLatitude) * METERS_PER_DEGREE;
+    }
+
+    private double unprojectX(double x) {
+        return wrapLongitude(originLongitude + x / metersPerDegreeLongitude);
+    }
+
+    private double unprojectY(double y) {
+        return originLatitude + y / METERS_PER_DEGREE;
+    }
+
+    // Into [-180, 180)
+    private static double wrapLongitude(double degrees) {
+        return degrees - 360 * Math.floor((degrees + 180) / 360);
+    }
+
+    private long cell(double meters) {
+        return (long) Math.floor(meters / cellSize);
+    }
+
+    private static long cellKey(long gx, long gy) {
+        return (gx << 32) ^ (gy & 0xffffffffL);
+    }
+}
@@ -1,5 +1,208 @@
 package com.phoenixai.transittracker.services;
 
+import com.phoenixai.transittracker.model.Route;
+import com.phoenixai.transittracker.model.Stop;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * In-memory registry of routes, indexed by route number, stop ID and stop-to-routes.
+ * Readers see an immutable snapshot without locking; every change builds a
+ * new snapshot and swaps it in atomically (copy-on-publish), then announces
+ * it with a RoutesChangedEvent. Routes handed to the registry must not be mutated
+ * afterwards; publish a new Route object instead.
+ */
+@Service
 public class RouteService {
-    
+
+    private final ApplicationEventPublisher eventPublisher;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private final Map<String, String> busRoutes = new ConcurrentHashMap<>();
+
+    public RouteService(ApplicationEventPublisher eventPublisher) {
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * Replace every route in the registry
+     * @param routes The new set of routes
+     */
+    public void publishRoutes(Collection<Route> routes) {
+        List<Route> copy = new ArrayList<>(routes);
+        update(current -> copy);
+    }
+
+    /**
+     * Add a route, or replace the route with the same route number
+     * @param route The route to publish
+     */
+    public void publishRoute(Route route) {
+        update(current -> {
+            List<Route> next = new ArrayList<>(current);
+            next.removeIf(existing -> existing.getRouteNo().equals(route.getRouteNo()));
+            next.add(route);
+            return next;
+        });
+    }
+
+    /**
+     * Remove a route from the registry
+     * @param routeNo The route number
+     */
+    public void removeRoute(String routeNo) {
+        update(current -> {
+            List<Route> next = new ArrayList<>(current);
+            next.removeIf(existing -> existing.getRouteNo().equals(routeNo));
+            return next;
+        });
+    }
+
+    /**
+     * Get all routes
+     * @return unmodifiable list of routes in publish order
+     */
+    public List<Route> getAllRoutes() {
+        return snapshot.routes;
+    }
+
+    /**
+     * Find a route by its number
+     * @param routeNo The route number
+     * @return The route, or null if not found
+     */
+    public Route getRoute(String routeNo) {
+        return snapshot.routesByNumber.get(routeNo);
+    }
+
+    /**
+     * Find a stop by its ID, including route origins and destinations
+     * @param stopId The stop identifier
+     * @return The stop, or null if not found
+     */
+    public Stop getStop(String stopId) {
+        return snapshot.stopsById.get(stopId);
+    }
+
+    /**
+     * Get every route that serves a stop
+     * @param stopId The stop identifier
+     * @return unmodifiable list of routes, empty if none
+     */
+    public List<Route> getRoutesForStop(String stopId) {
+        return snapshot.routesByStopId.getOrDefault(stopId, List.of());
+    }
+
+    /**
+     * Get the registry version; it increases every time routes are published
+     * @return registry version
+     */
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    /**
+     * Assign a bus to a route
+     * @param busId The bus identifier
+     * @param routeNo The route number
+     */
+    public void assignBus(String busId, String routeNo) {
+        busRoutes.put(busId, routeNo);
+    }
+
+    /**
+     * Remove a bus from its route
+     * @param busId The bus identifier
+     */
+    public void unassignBus(String busId) {
+        busRoutes.remove(busId);
+    }
+
+    /**
+     * Get the route number a bus is assigned to
+     * @param busId The bus identifier
+     * @return The route number, or null if unassigned
+     */
+    public String getRouteNoForBus(String busId) {
+        return busRoutes.get(busId);
+    }
+
+    /**
+     * Get the route a bus is assigned to
+     * @param busId The bus identifier
+     * @return The route, or null if the bus is unassigned or its route is unknown
+     */
+    public Route getRouteForBus(String busId) {
+        String routeNo = busRoutes.get(busId);
+        return routeNo != null ? getRoute(routeNo) : null;
+    }
+
+    /**
+     * Get all bus-to-route assignments
+     * @return Map of bus IDs to route numbers
+     */
+    public Map<String, String> getBusRouteMapping() {
+        return new HashMap<>(busRoutes);
+    }
+
+    // Writers are serialized so change events are published in version order
+    private synchronized void update(UnaryOperator<List<Route>> change) {
+        Snapshot next = Snapshot.build(change.apply(snapshot.routes), snapshot.version + 1);
+        snapshot = next;
+        eventPublisher.publishEvent(new RoutesChangedEvent(next.routes, next.version));
+    }
+
+    /**
+     * Immutable view of the registry and its indexes
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = build(List.of(), 0);
+
+        final List<Route> routes;
+        final Map<String, Route> routesByNumber;
+        final Map<String, Stop> stopsById;
+        final Map<String, List<Route>> routesByStopId;
+        final long version;
+
+        private Snapshot(List<Route> routes, Map<String, Route> routesByNumber, Map<String, Stop> stopsById,
+                         Map<String, List<Route>> routesByStopId, long version) {
+            this.routes = routes;
+            this.routesByNumber = routesByNumber;
+            this.stopsById = stopsById;
+            this.routesByStopId = routesByStopId;
+            this.version = version;
+        }
+
+        static Snapshot build(List<Route> routes, long version) {
+            Map<String, Route> byNumber = new LinkedHashMap<>();
+            for (Route route : routes) {
+                byNumber.put(route.getRouteNo(), route);
+            }
+
+            Map<String, Stop> stopsById = new HashMap<>();
+            Map<String, List<Route>> routesByStopId = new HashMap<>();
+            for (Route route : byNumber.values()) {
+                for (Stop stop : route.getAllStopsInOrder()) {
+                    stopsById.putIfAbsent(stop.getStopId(), stop);
+                    List<Route> serving = routesByStopId.computeIfAbsent(stop.getStopId(), k -> new ArrayList<>());
+                    if (!serving.contains(route)) {
+                        serving.add(route);
+                    }
+                }
+            }
+            routesByStopId.replaceAll((stopId, serving) -> Collections.unmodifiableList(serving));
+
+            return new Snapshot(List.copyOf(byNumber.values()), Collections.unmodifiableMap(byNumber),
+                    Collections.unmodifiableMap(stopsById), Collections.unmodifiableMap(routesByStopId), version);
+        }
+    }
 }
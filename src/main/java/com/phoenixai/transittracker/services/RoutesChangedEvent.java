@@ -0,0 +1,34 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Route;
+
+import java.util.List;
+
+/**
+ * Published by RouteService after a new set of routes has been made visible
+ */
+public class RoutesChangedEvent {
+    private final List<Route> routes;
+    private final long version;
+
+    public RoutesChangedEvent(List<Route> routes, long version) {
+        this.routes = routes;
+        this.version = version;
+    }
+
+    /**
+     * Get every route in the registry after the change
+     * @return unmodifiable list of routes
+     */
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Get the registry version that produced this event
+     * @return registry version, increasing with every publish
+     */
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,308 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import com.phoenixai.transittracker.model.Stop;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Static KD-tree of stop positions for k-nearest-neighbour queries.
+ * Stops are placed on the unit sphere as x/y/z points, where straight-line
+ * (chord) distance orders points exactly like great-circle distance, so the
+ * tree needs no special handling near the poles or the antimeridian.
+ * The tree is stored implicitly in arrays: the node of a range [lo, hi) is
+ * its middle element, with the left and right halves as children.
+ * Instances are immutable and safe to share between threads.
+ */
+public class StopKdTree {
+
+    private final Stop[] stops;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+    private final byte[] axes;
+
+    private StopKdTree(Stop[] stops, double[] xs, double[] ys, double[] zs, byte[] axes) {
+        this.stops = stops;
+        this.xs = xs;
+        this.ys = ys;
+        this.zs = zs;
+        this.axes = axes;
+    }
+
+    /**
+     * Build a tree over the stops that have a location
+     * @param stops The stops to index
+     * @return The tree
+     */
+    public static StopKdTree build(Collection<? extends Stop> stops) {
+        List<Stop> located = new ArrayList<>(stops.size());
+        for (Stop stop : stops) {
+            if (stop.getLocation() != null) {
+                located.add(stop);
+            }
+        }
+        int n = located.size();
+        Stop[] ordered = located.toArray(new Stop[0]);
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        double[] zs = new double[n];
+        for (int i = 0; i < n; i++) {
+            Location location = ordered[i].getLocation();
+            double latitude = Math.toRadians(location.getLatitude());
+            double longitude = Math.toRadians(location.getLongitude());
+            xs[i] = Math.cos(latitude) * Math.cos(longitude);
+            ys[i] = Math.cos(latitude) * Math.sin(longitude);
+            zs[i] = Math.sin(latitude);
+        }
+        StopKdTree tree = new StopKdTree(ordered, xs, ys, zs, new byte[n]);
+        tree.buildRange(0, n);
+        return tree;
+    }
+
+    /**
+     * Find the stops closest to a point
+     * @param latitude Latitude of the point
+     * @param longitude Longitude of the point
+     * @param k Maximum number of stops to return
+     * @return Nearest stops, closest first
+     */
+    public List<Neighbor> nearest(double latitude, double longitude, int k) {
+        int limit = Math.min(k, stops.length);
+        if (limit <= 0) {
+            return List.of();
+        }
+        double lat = Math.toRadians(latitude);
+        double lng = Math.toRadians(longitude);
+        Candidates candidates = new Candidates(limit);
+        search(0, stops.length, Math.cos(lat) * Math.cos(lng), Math.cos(lat) * Math.sin(lng), Math.sin(lat),
+                candidates);
+
+        // The heap yields the farthest candidate first
+        Neighbor[] result = new Neighbor[candidates.size];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = candidates.pop();
+        }
+        return List.of(result);
+    }
+
+    /**
+     * Get the number of indexed stops
+     * @return stop count
+     */
+    public int size() {
+        return stops.length;
+    }
+
+    private void search(int lo, int hi, double x, double y, double z, Candidates candidates) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dx = xs[mid] - x;
+        double dy = ys[mid] - y;
+        double dz = zs[mid] - z;
+        candidates.offer(dx * dx + dy * dy + dz * dz, mid);
+
+        // Negative when the query point lies on the left (lower) side of the splitting plane
+        double split = -coordinate(mid, axes[mid], x, y, z);
+        boolean leftFirst = split <= 0;
+        if (leftFirst) {
+            search(lo, mid, x, y, z, candidates);
+            if (split * split < candidates.worst()) {
+                search(mid + 1, hi, x, y, z, candidates);
+            }
+        } else {
+            search(mid + 1, hi, x, y, z, candidates);
+            if (split * split < candidates.worst()) {
+                search(lo, mid, x, y, z, candidates);
+            }
+        }
+    }
+
+    private double coordinate(int node, int axis, double x, double y, double z) {
+        switch (axis) {
+            case 0:
+                return xs[node] - x;
+            case 1:
+                return ys[node] - y;
+            default:
+                return zs[node] - z;
+        }
+    }
+
+    private void buildRange(int lo, int hi) {
+        if (hi - lo <= 0) {
+            return;
+        }
+        int axis = widestAxis(lo, hi);
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+        axes[mid] = (byte) axis;
+        buildRange(lo, mid);
+        buildRange(mid + 1, hi);
+    }
+
+    private int widestAxis(int lo, int hi) {
+        double[] spreads = {spread(xs, lo, hi), spread(ys, lo, hi), spread(zs, lo, hi)};
+        int axis = 0;
+        for (int i = 1; i < 3; i++) {
+            if (spreads[i] > spreads[axis]) {
+                axis = i;
+            }
+        }
+        return axis;
+    }
+
+    private static double spread(double[] values, int lo, int hi) {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (int i = lo; i < hi; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        return max - min;
+    }
+
+    /**
+     * Quickselect: reorder [left, right] so position k holds the element it would
+     * hold when sorted along the axis, with smaller elements before it
+     */
+    private void select(int left, int right, int k, int axis) {
+        double[] values = axis == 0 ? xs : axis == 1 ? ys : zs;
+        while (left < right) {
+            double pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        Stop stop = stops[i];
+        stops[i] = stops[j];
+        stops[j] = stop;
+        swap(xs, i, j);
+        swap(ys, i, j);
+        swap(zs, i, j);
+    }
+
+    private static void swap(double[] values, int i, int j) {
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    /**
+     * A stop found by a nearest-neighbour query
+     */
+    public static final class Neighbor {
+        private final Stop stop;
+        private final double distanceKm;
+
+        Neighbor(Stop stop, double distanceKm) {
+            this.stop = stop;
+            this.distanceKm = distanceKm;
+        }
+
+        public Stop getStop() {
+            return stop;
+        }
+
+        /**
+         * Get the great-circle distance from the query point
+         * @return distance in kilometers
+         */
+        public double getDistanceKm() {
+            return distanceKm;
+        }
+    }
+
+    /**
+     * Bounded max-heap of the closest nodes seen so far, keyed by squared chord length
+     */
+    private final class Candidates {
+        private final double[] distances;
+        private final int[] nodes;
+        private int size;
+
+        Candidates(int capacity) {
+            this.distances = new double[capacity];
+            this.nodes = new int[capacity];
+        }
+
+        double worst() {
+            return size < distances.length ? Double.POSITIVE_INFINITY : distances[0];
+        }
+
+        void offer(double distance, int node) {
+            if (size < distances.length) {
+                int i = size++;
+                // Sift up
+                while (i > 0 && distances[(i - 1) / 2] < distance) {
+                    distances[i] = distances[(i - 1) / 2];
+                    nodes[i] = nodes[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                distances[i] = distance;
+                nodes[i] = node;
+            } else if (distance < distances[0]) {
+                siftDown(distance, node);
+            }
+        }
+
+        /**
+         * Remove and return the farthest candidate
+         */
+        Neighbor pop() {
+            double chord = Math.sqrt(distances[0]);
+            Neighbor farthest = new Neighbor(stops[nodes[0]],
+                    2 * Math.asin(Math.min(1, chord / 2)) * Location.EARTH_RADIUS_KM);
+            size--;
+            if (size > 0) {
+                siftDown(distances[size], nodes[size]);
+            }
+            return farthest;
+        }
+
+        private void siftDown(double distance, int node) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && distances[child + 1] > distances[child]) {
+                    child++;
+                }
+                if (distances[child] <= distance) {
+                    break;
+                }
+                distances[i] = distances[child];
+                nodes[i] = nodes[child];
+                i = child;
+            }
+            distances[i] = distance;
+            nodes[i] = node;
+        }
+    }
+}
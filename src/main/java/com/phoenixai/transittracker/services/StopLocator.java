@@ -0,0 +1,110 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Route;
+import com.phoenixai.transittracker.model.Stop;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Answers nearest-stop queries from a KD-tree over every stop, origin and
+ * destination in the route registry. When routes change, a new tree is built
+ * on a background thread and swapped in atomically; queries keep using the
+ * previous tree until then. Builds for superseded route versions are skipped.
+ */
+@Service
+public class StopLocator {
+
+    private static final Logger log = LoggerFactory.getLogger(StopLocator.class);
+
+    private final AtomicReference<IndexedTree> tree;
+    private final AtomicLong latestVersion;
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "stop-index-builder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StopLocator(RouteService routeService) {
+        long version = routeService.getVersion();
+        this.tree = new AtomicReference<>(new IndexedTree(build(routeService.getAllRoutes()), version));
+        this.latestVersion = new AtomicLong(version);
+    }
+
+    /**
+     * Schedule a rebuild of the tree for the new set of routes
+     * @param event The registry change
+     */
+    @EventListener
+    public void onRoutesChanged(RoutesChangedEvent event) {
+        long version = event.getVersion();
+        latestVersion.accumulateAndGet(version, Math::max);
+        builder.execute(() -> {
+            if (version < latestVersion.get()) {
+                return;
+            }
+            StopKdTree built = build(event.getRoutes());
+            IndexedTree published = tree.updateAndGet(current ->
+                    current.version > version ? current : new IndexedTree(built, version));
+            if (published.tree == built) {
+                log.debug("Stop index rebuilt for route version {}: {} stops", version, built.size());
+            }
+        });
+    }
+
+    /**
+     * Find the stops closest to a point
+     * @param latitude Latitude of the point
+     * @param longitude Longitude of the point
+     * @param k Maximum number of stops to return
+     * @return Nearest stops with their distance, closest first
+     */
+    public List<StopKdTree.Neighbor> findNearest(double latitude, double longitude, int k) {
+        return tree.get().tree.nearest(latitude, longitude, k);
+    }
+
+    /**
+     * Get the route version the current tree was built from
+     * @return route registry version
+     */
+    public long getIndexedVersion() {
+        return tree.get().version;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        builder.shutdownNow();
+    }
+
+    private static StopKdTree build(Collection<Route> routes) {
+        // A stop shared by several routes is indexed once
+        Map<String, Stop> stops = new LinkedHashMap<>();
+        for (Route route : routes) {
+            for (Stop stop : route.getAllStopsInOrder()) {
+                stops.putIfAbsent(stop.getStopId(), stop);
+            }
+        }
+        return StopKdTree.build(stops.values());
+    }
+
+    private static final class IndexedTree {
+        private final StopKdTree tree;
+        private final long version;
+
+        IndexedTree(StopKdTree tree, long version) {
+            this.tree = tree;
+            this.version = version;
+        }
+    }
+}
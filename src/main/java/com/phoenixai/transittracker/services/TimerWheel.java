@@ -0,0 +1,91 @@
+package com.phoenixai.transittracker.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel of values with deadlines. Values are filed in the slot
+ * of their deadline's tick, so advancing the wheel only visits the slots of
+ * the ticks that passed and the values filed there, however many are filed.
+ * Deadlines more than one revolution ahead stay filed until their own
+ * revolution comes round. Values are not deduplicated; one scheduled twice
+ * fires twice. Thread-safe.
+ * @param <T> Type of the values filed
+ */
+final class TimerWheel<T> {
+
+    private final long tickMillis;
+    private final int mask;
+    // Guarded by this
+    private final List<List<Entry<T>>> slots;
+    private long currentTick;
+
+    /**
+     * @param tickMillis Resolution of deadlines in milliseconds
+     * @param minimumSlots Number of slots, rounded up to a power of two
+     * @param now Epoch milliseconds the wheel starts at
+     */
+    TimerWheel(long tickMillis, int minimumSlots, long now) {
+        if (tickMillis <= 0 || minimumSlots <= 0) {
+            throw new IllegalArgumentException("Invalid timer wheel: tick=" + tickMillis + ", slots=" + minimumSlots);
+        }
+        int slotCount = Integer.highestOneBit(Math.max(1, minimumSlots - 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.mask = slotCount - 1;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.currentTick = now / tickMillis;
+    }
+
+    /**
+     * File a value to fire once its deadline has passed
+     * @param value The value
+     * @param deadline Epoch milliseconds; past deadlines fire on the next advance
+     */
+    synchronized void schedule(T value, long deadline) {
+        // Never behind the tick being filled, so a late value is not skipped for a revolution
+        long tick = Math.max(deadline / tickMillis + 1, currentTick + 1);
+        slots.get((int) (tick & mask)).add(new Entry<>(value, tick));
+    }
+
+    /**
+     * Advance to a time and take the values whose deadline has passed
+     * @param now Epoch milliseconds
+     * @return Values due
+     */
+    List<T> advance(long now) {
+        List<T> due = new ArrayList<>();
+        synchronized (this) {
+            long target = now / tickMillis;
+            // After a long pause one revolution visits every slot
+            long last = Math.min(target, currentTick + mask + 1);
+            for (long tick = currentTick + 1; tick <= last; tick++) {
+                List<Entry<T>> slot = slots.get((int) (tick & mask));
+                int kept = 0;
+                for (int i = 0; i < slot.size(); i++) {
+                    Entry<T> entry = slot.get(i);
+                    if (entry.tick <= target) {
+                        due.add(entry.value);
+                    } else {
+                        slot.set(kept++, entry);
+                    }
+                }
+                slot.subList(kept, slot.size()).clear();
+            }
+            currentTick = Math.max(currentTick, target);
+        }
+        return due;
+    }
+
+    private static final class Entry<T> {
+        private final T value;
+        private final long tick;
+
+        Entry(T value, long tick) {
+            this.value = value;
+            this.tick = tick;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.phoenixai.transittracker.services;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Conversions between the LocalDateTime timestamps carried by Location
+ * and the epoch milliseconds kept by the primitive stores
+ */
+final class Timestamps {
+
+    private Timestamps() {
+    }
+
+    /**
+     * Convert a local timestamp to epoch milliseconds in the system time zone
+     * @param timestamp The timestamp, may be null
+     * @param fallback Value to return when the timestamp is null
+     * @return Epoch milliseconds
+     */
+    static long toEpochMillis(LocalDateTime timestamp, long fallback) {
+        if (timestamp == null) {
+            return fallback;
+        }
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Convert epoch milliseconds to a local timestamp in the system time zone
+     * @param epochMillis Epoch milliseconds
+     * @return Local timestamp
+     */
+    static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,383 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Image of the tracking state held by GPSService: each bus's current
+ * location and history, and each passenger's location. Built by loading a
+ * snapshot file and applying WAL records on top, then either restored into
+ * GPSService or written out as the next snapshot. Fixes are kept as
+ * primitives, and history goes through the same trajectory compression as
+ * live updates. Not thread-safe; each image is used by one thread.
+ * <p>
+ * Snapshot files are
+ * <pre>
+ * magic, format version (ints), next WAL segment, creation time (longs),
+ * bus count, then per bus: ID (modified UTF-8), current fix, history count, history fixes oldest first,
+ * passenger count, then per passenger: ID, fix,
+ * CRC32 of everything before it (long)
+ * </pre>
+ * where a fix is latitude, longitude, altitude, accuracy (doubles) and time
+ * (epoch ms, long). Current fixes use Long.MIN_VALUE for no time.
+ */
+final class TrackingSnapshot {
+
+    private static final int MAGIC = 0x54545354; // "TTST"
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final int historyCapacity;
+    private final double historyErrorMeters;
+    private long nextSegment;
+    private final Map<String, BusState> buses = new HashMap<>();
+    private final Map<String, Fix> passengers = new HashMap<>();
+
+    /**
+     * @param historyCapacity Number of fixes kept per bus
+     * @param historyErrorMeters Error bound of history compression; 0 keeps every fix
+     * @param nextSegment First WAL segment not included in this image
+     */
+    TrackingSnapshot(int historyCapacity, double historyErrorMeters, long nextSegment) {
+        this.historyCapacity = historyCapacity;
+        this.historyErrorMeters = historyErrorMeters;
+        this.nextSegment = nextSegment;
+    }
+
+    /**
+     * Get the first WAL segment whose records are not included
+     * @return segment number
+     */
+    long getNextSegment() {
+        return nextSegment;
+    }
+
+    int getBusCount() {
+        return buses.size();
+    }
+
+    int getPassengerCount() {
+        return passengers.size();
+    }
+
+    /**
+     * Record that the records of every segment below a number have been applied
+     * @param segment First WAL segment not included
+     */
+    void setNextSegment(long segment) {
+        this.nextSegment = segment;
+    }
+
+    void updateBus(String busId, double latitude, double longitude, double altitude, double accuracy,
+                   long fixTime, long recordedAt) {
+        BusState bus = buses.computeIfAbsent(busId, id -> new BusState(historyCapacity, historyErrorMeters));
+        bus.record(latitude, longitude, altitude, accuracy, fixTime != LocationWal.NO_TIMESTAMP ? fixTime : recordedAt);
+        bus.current = new Fix(latitude, longitude, altitude, accuracy, fixTime);
+    }
+
+    /**
+     * Apply a fix that went to a bus's history without becoming its current position
+     */
+    void appendBusHistory(String busId, double latitude, double longitude, double altitude, double accuracy,
+                          long fixTime, long recordedAt) {
+        BusState bus = buses.get(busId);
+        if (bus == null) {
+            // The bus's first fixes arrived together; its current fix follows
+            bus = new BusState(historyCapacity, historyErrorMeters);
+            bus.current = new Fix(latitude, longitude, altitude, accuracy, fixTime);
+            buses.put(busId, bus);
+        }
+        bus.record(latitude, longitude, altitude, accuracy, fixTime != LocationWal.NO_TIMESTAMP ? fixTime : recordedAt);
+    }
+
+    void removeBus(String busId) {
+        buses.remove(busId);
+    }
+
+    void updatePassenger(String passengerId, double latitude, double longitude, double altitude, double accuracy,
+                         long fixTime) {
+        passengers.put(passengerId, new Fix(latitude, longitude, altitude, accuracy, fixTime));
+    }
+
+    void removePassenger(String passengerId) {
+        passengers.remove(passengerId);
+    }
+
+    /**
+     * Replace GPSService's state for every bus and passenger in this image
+     * @param gpsService Service to restore into
+     */
+    void restoreInto(GPSService gpsService) {
+        for (Map.Entry<String, BusState> entry : buses.entrySet()) {
+            BusState bus = entry.getValue();
+            bus.keepCurrent();
+            LocationRingBuffer history = new LocationRingBuffer(gpsService.getHistoryCapacity());
+            for (int i = 0; i < bus.size; i++) {
+                int slot = bus.slot(i);
+                history.add(bus.latitudes[slot], bus.longitudes[slot], bus.altitudes[slot], bus.accuracies[slot],
+                        bus.timestamps[slot]);
+            }
+            gpsService.restoreBus(entry.getKey(), bus.current.toLocation(), history);
+        }
+        for (Map.Entry<String, Fix> entry : passengers.entrySet()) {
+            gpsService.restorePassenger(entry.getKey(), entry.getValue().toLocation());
+        }
+    }
+
+    /**
+     * Write this image to a snapshot file, replacing it atomically once the data is on disk
+     * @param file Snapshot path
+     */
+    void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream stream = new FileOutputStream(temporary.toFile())) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new CheckedOutputStream(stream, crc), BUFFER_BYTES));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(nextSegment);
+            out.writeLong(System.currentTimeMillis());
+
+            out.writeInt(buses.size());
+            for (Map.Entry<String, BusState> entry : buses.entrySet()) {
+                BusState bus = entry.getValue();
+                bus.keepCurrent();
+                out.writeUTF(entry.getKey());
+                bus.current.write(out);
+                out.writeInt(bus.size);
+                for (int i = 0; i < bus.size; i++) {
+                    int slot = bus.slot(i);
+                    out.writeDouble(bus.latitudes[slot]);
+                    out.writeDouble(bus.longitudes[slot]);
+                    out.writeDouble(bus.altitudes[slot]);
+                    out.writeDouble(bus.accuracies[slot]);
+                    out.writeLong(bus.timestamps[slot]);
+                }
+            }
+            out.writeInt(passengers.size());
+            for (Map.Entry<String, Fix> entry : passengers.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+            out.flush();
+            // The checksum itself is written past the checked stream
+            new DataOutputStream(stream).writeLong(crc.getValue());
+            stream.getChannel().force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(file.getParent());
+    }
+
+    /**
+     * Load a snapshot file
+     * @param file Snapshot path
+     * @param historyCapacity Number of fixes to keep per bus; older ones in the file are dropped
+     * @param historyErrorMeters Error bound of history compression for fixes applied later
+     * @return The image
+     * @throws IOException if the file cannot be read or fails its checksum
+     */
+    static TrackingSnapshot read(Path file, int historyCapacity, double historyErrorMeters) throws IOException {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), BUFFER_BYTES), crc))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a tracking snapshot: " + file);
+            }
+            TrackingSnapshot snapshot = new TrackingSnapshot(historyCapacity, historyErrorMeters, in.readLong());
+            in.readLong();
+
+            int busCount = in.readInt();
+            for (int b = 0; b < busCount; b++) {
+                String busId = in.readUTF();
+                BusState bus = new BusState(historyCapacity, historyErrorMeters);
+                bus.current = Fix.read(in);
+                int fixes = in.readInt();
+                for (int i = 0; i < fixes; i++) {
+                    bus.add(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readLong());
+                }
+                bus.resume();
+                snapshot.buses.put(busId, bus);
+            }
+            int passengerCount = in.readInt();
+            for (int p = 0; p < passengerCount; p++) {
+                snapshot.passengers.put(in.readUTF(), Fix.read(in));
+            }
+
+            long expected = crc.getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("Checksum mismatch in snapshot " + file);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Make file creations, renames and deletions in a directory durable
+     * @param directory The directory
+     */
+    static void syncDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms cannot open or sync directories; metadata then relies on the OS
+            if (Files.notExists(directory)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * One location with its time
+     */
+    private static final class Fix {
+        private final double latitude;
+        private final double longitude;
+        private final double altitude;
+        private final double accuracy;
+        private final long timestamp;
+
+        Fix(double latitude, double longitude, double altitude, double accuracy, long timestamp) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.altitude = altitude;
+            this.accuracy = accuracy;
+            this.timestamp = timestamp;
+        }
+
+        Location toLocation() {
+            Location location = new Location(latitude, longitude, altitude, accuracy);
+            if (timestamp != LocationWal.NO_TIMESTAMP) {
+                location.setTimestamp(Timestamps.toLocalDateTime(timestamp));
+            }
+            return location;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeDouble(latitude);
+            out.writeDouble(longitude);
+            out.writeDouble(altitude);
+            out.writeDouble(accuracy);
+            out.writeLong(timestamp);
+        }
+
+        static Fix read(DataInputStream in) throws IOException {
+            return new Fix(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readLong());
+        }
+    }
+
+    /**
+     * Current fix and history of one bus. History arrays grow up to the
+     * capacity and then wrap, overwriting the oldest fix.
+     */
+    private static final class BusState {
+        private final int capacity;
+        // Also remembers the newest fix, which may be missing from history
+        private final TrajectoryCompressor compressor;
+        private Fix current;
+        private double[] latitudes = new double[0];
+        private double[] longitudes = new double[0];
+        private double[] altitudes = new double[0];
+        private double[] accuracies = new double[0];
+        private long[] timestamps = new long[0];
+        private int start;
+        private int size;
+
+        BusState(int capacity, double errorMeters) {
+            this.capacity = capacity;
+            this.compressor = new TrajectoryCompressor(errorMeters);
+        }
+
+        /**
+         * Offer a fix to history through the trajectory compressor
+         */
+        void record(double latitude, double longitude, double altitude, double accuracy, long historyTime) {
+            double previousLatitude = compressor.getLastLatitude();
+            double previousLongitude = compressor.getLastLongitude();
+            double previousAltitude = compressor.getLastAltitude();
+            double previousAccuracy = compressor.getLastAccuracy();
+            long previousTime = compressor.getLastTime();
+            int decision = compressor.offer(latitude, longitude, altitude, accuracy, historyTime);
+            if ((decision & TrajectoryCompressor.KEEP_PREVIOUS) != 0) {
+                add(previousLatitude, previousLongitude, previousAltitude, previousAccuracy, previousTime);
+            }
+            if ((decision & TrajectoryCompressor.KEEP) != 0) {
+                add(latitude, longitude, altitude, accuracy, historyTime);
+            }
+        }
+
+        /**
+         * Make sure history ends with the newest fix, as GPSService shows it
+         */
+        void keepCurrent() {
+            if (!compressor.isLastKept()) {
+                add(compressor.getLastLatitude(), compressor.getLastLongitude(), compressor.getLastAltitude(),
+                        compressor.getLastAccuracy(), compressor.getLastTime());
+                resume();
+            }
+        }
+
+        /**
+         * Restart compression from the newest fix in history, or the current fix if there is none
+         */
+        void resume() {
+            if (size > 0) {
+                int newest = slot(size - 1);
+                compressor.reset(latitudes[newest], longitudes[newest], altitudes[newest], accuracies[newest],
+                        timestamps[newest]);
+            } else {
+                compressor.reset(current.latitude, current.longitude, current.altitude, current.accuracy,
+                        current.timestamp != LocationWal.NO_TIMESTAMP ? current.timestamp : System.currentTimeMillis());
+            }
+        }
+
+        void add(double latitude, double longitude, double altitude, double accuracy, long timestamp) {
+            int slot;
+            if (size < capacity) {
+                if (size == latitudes.length) {
+                    grow();
+                }
+                slot = size++;
+            } else {
+                slot = start;
+                start = (start + 1) % capacity;
+            }
+            latitudes[slot] = latitude;
+            longitudes[slot] = longitude;
+            altitudes[slot] = altitude;
+            accuracies[slot] = accuracy;
+            timestamps[slot] = timestamp;
+        }
+
+        int slot(int index) {
+            return (start + index) % latitudes.length;
+        }
+
+        private void grow() {
+            // Only called before the history wraps, so start is still 0
+            int length = Math.min(capacity, Math.max(8, latitudes.length * 2));
+            latitudes = Arrays.copyOf(latitudes, length);
+            longitudes = Arrays.copyOf(longitudes, length);
+            altitudes = Arrays.copyOf(altitudes, length);
+            accuracies = Arrays.copyOf(accuracies, length);
+            timestamps = Arrays.copyOf(timestamps, length);
+        }
+    }
+}
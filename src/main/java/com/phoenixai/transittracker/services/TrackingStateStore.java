@@ -0,0 +1,205 @@
+package com.phoenixai.transittracker.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restores GPSService's tracking state on startup and keeps the WAL short.
+ * Startup loads the latest snapshot, replays the WAL segments written since,
+ * restores the result into GPSService and opens a new segment. Periodically,
+ * and once more on shutdown, a background thread starts a new WAL segment,
+ * applies the finished segments to the latest snapshot and writes the result
+ * as the next snapshot, then deletes the files it replaces. Snapshots are
+ * built from the files alone, so they never race with live updates.
+ * Disabled unless transittracker.persistence.enabled=true.
+ */
+@Service
+public class TrackingStateStore {
+
+    private static final Logger log = LoggerFactory.getLogger(TrackingStateStore.class);
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+
+    private final GPSService gpsService;
+    private final LocationWal wal;
+    private final long snapshotIntervalMillis;
+    private final Timer snapshotTimer;
+    private final Object snapshotLock = new Object();
+    private ScheduledExecutorService snapshotter;
+
+    public TrackingStateStore(GPSService gpsService,
+                              LocationWal wal,
+                              MeterRegistry meterRegistry,
+                              @Value("${transittracker.persistence.snapshot-interval:5m}") Duration snapshotInterval) {
+        this.gpsService = gpsService;
+        this.wal = wal;
+        this.snapshotIntervalMillis = snapshotInterval.toMillis();
+        this.snapshotTimer = Timer.builder("transittracker.persistence.snapshot")
+                .description("Duration of folding the WAL into a new snapshot")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Restore the persisted state into GPSService and start logging changes
+     */
+    @PostConstruct
+    public void recover() {
+        if (!wal.isEnabled()) {
+            return;
+        }
+        long start = System.nanoTime();
+        TrackingSnapshot state;
+        long records;
+        try {
+            state = latestSnapshot();
+            records = replay(state, Long.MAX_VALUE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to recover tracking state from " + wal.getDirectory(), e);
+        }
+        state.restoreInto(gpsService);
+
+        List<Long> segments = wal.segments();
+        long next = segments.isEmpty() ? state.getNextSegment()
+                : Math.max(state.getNextSegment(), segments.get(segments.size() - 1) + 1);
+        wal.open(next);
+        log.info("Restored {} buses and {} passengers ({} WAL records) from {} in {} ms",
+                state.getBusCount(), state.getPassengerCount(), records, wal.getDirectory(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "state-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotter.scheduleWithFixedDelay(this::snapshotQuietly, snapshotIntervalMillis, snapshotIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Fold every WAL record written so far into a new snapshot and delete the files it replaces
+     * @throws IOException if the snapshot cannot be written; the previous files are then kept
+     */
+    public void snapshot() throws IOException {
+        if (!wal.isEnabled()) {
+            return;
+        }
+        synchronized (snapshotLock) {
+            long start = System.nanoTime();
+            long next = wal.rotate();
+            TrackingSnapshot state = latestSnapshot();
+            long records = replay(state, next);
+            state.setNextSegment(next);
+            state.write(snapshotPath(next));
+            deleteBefore(next);
+            long elapsed = System.nanoTime() - start;
+            snapshotTimer.record(elapsed, TimeUnit.NANOSECONDS);
+            log.debug("Snapshot {} written with {} buses ({} WAL records folded) in {} ms", next,
+                    state.getBusCount(), records, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (snapshotter == null) {
+            return;
+        }
+        snapshotter.shutdownNow();
+        // Leave a fresh snapshot so the next start replays little
+        snapshotQuietly();
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to write tracking snapshot to {}", wal.getDirectory(), e);
+        }
+    }
+
+    /**
+     * Load the newest readable snapshot, or an empty image if there is none
+     */
+    private TrackingSnapshot latestSnapshot() throws IOException {
+        List<Long> snapshots = snapshots();
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            Path file = snapshotPath(snapshots.get(i));
+            try {
+                return TrackingSnapshot.read(file, gpsService.getHistoryCapacity(), gpsService.getHistoryErrorMeters());
+            } catch (IOException e) {
+                log.warn("Skipping unreadable snapshot {}", file, e);
+            }
+        }
+        return new TrackingSnapshot(gpsService.getHistoryCapacity(), gpsService.getHistoryErrorMeters(), 0);
+    }
+
+    /**
+     * Apply the WAL segments from the image's next segment up to, not including, an end segment
+     * @return Number of records applied
+     */
+    private long replay(TrackingSnapshot state, long endSegment) throws IOException {
+        long records = 0;
+        for (long segment : wal.segments()) {
+            if (segment >= state.getNextSegment() && segment < endSegment) {
+                records += LocationWal.replay(wal.segmentPath(segment), state);
+                state.setNextSegment(segment + 1);
+            }
+        }
+        return records;
+    }
+
+    private void deleteBefore(long segment) throws IOException {
+        for (long snapshot : snapshots()) {
+            if (snapshot < segment) {
+                Files.deleteIfExists(snapshotPath(snapshot));
+            }
+        }
+        for (long walSegment : wal.segments()) {
+            if (walSegment < segment) {
+                Files.deleteIfExists(wal.segmentPath(walSegment));
+            }
+        }
+        TrackingSnapshot.syncDirectory(wal.getDirectory());
+    }
+
+    private List<Long> snapshots() throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(wal.getDirectory(),
+                SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    ids.add(Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(),
+                            name.length() - SNAPSHOT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected file in state directory: {}", path);
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private Path snapshotPath(long segment) {
+        return wal.getDirectory().resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, segment, SNAPSHOT_SUFFIX));
+    }
+}
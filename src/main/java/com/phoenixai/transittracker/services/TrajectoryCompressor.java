@@ -0,0 +1,150 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+
+/**
+ * Online dead-reckoning filter deciding which fixes of one bus are worth
+ * keeping in history. From each kept fix, the bus is predicted to carry on at
+ * the velocity it had arriving there; a new fix is kept only when it is more
+ * than the error bound away from that prediction, so a stopped bus or one
+ * driving straight at steady speed keeps almost nothing. The fix before it is
+ * kept as well, so turns keep their corner and every dropped fix lies within
+ * about twice the bound of the line between the kept ones. Costs O(1) per fix.
+ * Not thread-safe; callers serialize the fixes of a bus.
+ */
+final class TrajectoryCompressor {
+
+    /** Keep the fix just offered */
+    static final int KEEP = 1;
+    /** Keep the fix offered before it, which was dropped at the time */
+    static final int KEEP_PREVIOUS = 2;
+
+    /** Approximate heap held by one compressor: object header, ten doubles, two longs and two flags */
+    static final int ESTIMATED_BYTES = 120;
+
+    private static final double METERS_PER_DEGREE = Location.EARTH_RADIUS_KM * 1000 * Math.PI / 180;
+
+    private final double errorMeters;
+    private boolean anchored;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private long anchorTime;
+    private double metersPerDegreeLongitude;
+    // Velocity at the anchor in meters per second
+    private double eastSpeed;
+    private double northSpeed;
+    private double lastLatitude;
+    private double lastLongitude;
+    private double lastAltitude;
+    private double lastAccuracy;
+    private long lastTime;
+    private boolean lastKept = true;
+
+    /**
+     * @param errorMeters Largest distance a dropped fix may be from the predicted position; 0 keeps every fix
+     */
+    TrajectoryCompressor(double errorMeters) {
+        this.errorMeters = errorMeters;
+    }
+
+    /**
+     * Decide whether to keep the next fix
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param altitude Altitude in meters
+     * @param accuracy Accuracy in meters
+     * @param time Epoch milliseconds of the fix
+     * @return 0 to drop the fix, otherwise KEEP and possibly KEEP_PREVIOUS; the previous
+     *         fix, as returned by the getters before this call, is stored first
+     */
+    int offer(double latitude, double longitude, double altitude, double accuracy, long time) {
+        int decision = 0;
+        if (!anchored || errorMeters <= 0) {
+            decision = KEEP;
+        } else if (deviation(latitude, longitude, time) > errorMeters) {
+            decision = lastKept ? KEEP : KEEP | KEEP_PREVIOUS;
+        }
+        if (decision != 0) {
+            double elapsed = anchored ? (time - lastTime) / 1000.0 : 0;
+            anchor(latitude, longitude, time);
+            if (elapsed > 0) {
+                eastSpeed = (longitude - lastLongitude) * metersPerDegreeLongitude / elapsed;
+                northSpeed = (latitude - lastLatitude) * METERS_PER_DEGREE / elapsed;
+            }
+        }
+        remember(latitude, longitude, altitude, accuracy, time);
+        lastKept = decision != 0;
+        return decision;
+    }
+
+    /**
+     * Start over from a fix known to be stored, with the bus at rest
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param altitude Altitude in meters
+     * @param accuracy Accuracy in meters
+     * @param time Epoch milliseconds of the fix
+     */
+    void reset(double latitude, double longitude, double altitude, double accuracy, long time) {
+        anchor(latitude, longitude, time);
+        remember(latitude, longitude, altitude, accuracy, time);
+        lastKept = true;
+    }
+
+    /**
+     * Check whether the last fix offered was kept
+     * @return true if it was kept, or nothing has been offered since a reset
+     */
+    boolean isLastKept() {
+        return lastKept;
+    }
+
+    double getLastLatitude() {
+        return lastLatitude;
+    }
+
+    double getLastLongitude() {
+        return lastLongitude;
+    }
+
+    double getLastAltitude() {
+        return lastAltitude;
+    }
+
+    double getLastAccuracy() {
+        return lastAccuracy;
+    }
+
+    /**
+     * Get the time of the last fix offered
+     * @return epoch milliseconds
+     */
+    long getLastTime() {
+        return lastTime;
+    }
+
+    private void remember(double latitude, double longitude, double altitude, double accuracy, long time) {
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastAltitude = altitude;
+        lastAccuracy = accuracy;
+        lastTime = time;
+    }
+
+    private void anchor(double latitude, double longitude, long time) {
+        anchored = true;
+        anchorLatitude = latitude;
+        anchorLongitude = longitude;
+        anchorTime = time;
+        metersPerDegreeLongitude = METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(latitude)), 1e-6);
+        eastSpeed = 0;
+        northSpeed = 0;
+    }
+
+    private double deviation(double latitude, double longitude, long time) {
+        double elapsed = (time - anchorTime) / 1000.0;
+        double east = (longitude - anchorLongitude) * metersPerDegreeLongitude - eastSpeed * elapsed;
+        double north = (latitude - anchorLatitude) * METERS_PER_DEGREE - northSpeed * elapsed;
+        return Math.sqrt(east * east + north * north);
+    }
+}
@@ -1,3 +1,6 @@
+// Compact binary encoding of /buses, negotiated through the Accept header
+const BUS_POSITIONS_MEDIA_TYPE = 'application/vnd.transittracker.positions';
+
 class TransitTracker {
     constructor() {
         this.map = null;
@@ -6,11 +9,17 @@ class TransitTracker {
         this.userLocationMarker = null;
         this.isTracking = false;
         this.updateInterval = null;
+        this.eventSource = null; // Server-Sent Events stream of bus positions
         this.apiBase = '/api/map';
         this.routeLayers = new Map(); // Store route polylines
         this.routeStopMarkers = new Map(); // Store route stop markers
         this.currentRouteBusId = null; // Track which bus route is currently shown
         this.routeHideTimeout = null; // Timeout for hiding route
+        this.busIdDictionary = []; // Bus IDs by number, cached across binary position responses
+        this.busIdEpoch = 0; // Server numbering the dictionary belongs to
+        this.busVersion = null; // Version of the last bus positions applied, for delta polls
+        this.clusterLayer = null; // Cluster markers drawn instead of buses when zoomed out
+        this.clusterMaxZoom = 15; // Zoom from which buses are always drawn individually (from /config)
         
         this.initMap();
         this.bindEvents();
@@ -31,6 +40,15 @@ class TransitTracker {
         this.map.on('click', (e) => {
             this.onMapClick(e.latlng);
         });
+        
+        this.clusterLayer = L.layerGroup().addTo(this.map);
+        
+        // Clusters depend on what is in view; refresh them when the view changes
+        this.map.on('moveend', () => {
+            if (!this.eventSource && (this.isClustering() || this.clusterLayer.getLayers().length > 0)) {
+                this.updateBusLocations();
+            }
+        });
     }
     
     bindEvents() {
@@ -54,6 +72,10 @@ class TransitTracker {
     async loadInitialData() {
         try {
             this.updateStatus('Loading initial data...', 'info');
+            const config = await (await fetch(`${this.apiBase}/config`)).json();
+            if (config.clusterMaxZoom !== undefined) {
+                this.clusterMaxZoom = config.clusterMaxZoom;
+            }
             await this.updateBusLocations();
             this.updateStatus('Data loaded successfully', 'success');
         } catch (error) {
@@ -78,9 +100,15 @@ class TransitTracker {
     startTracking() {
         this.isTracking = true;
         const interval = parseInt(document.getElementById('updateInterval').value);
-        this.updateInterval = setInterval(() => {
-            this.updateBusLocations();
-        }, interval);
+        
+        // An interval of 0 means live updates pushed by the server
+        if (interval === 0 && window.EventSource) {
+            this.startStreaming();
+        } else {
+            this.updateInterval = setInterval(() => {
+                this.updateBusLocations();
+            }, interval || 5000);
+        }
         this.updateStatus('Tracking started', 'success');
     }
     
@@ -90,9 +118,38 @@ class TransitTracker {
             clearInterval(this.updateInterval);
             this.updateInterval = null;
         }
+        if (this.eventSource) {
+            this.eventSource.close();
+            this.eventSource = null;
+        }
         this.updateStatus('Tracking stopped', 'info');
     }
     
+    /**
+     * Subscribe to pushed bus positions. The server sends the whole fleet once,
+     * then only the buses that changed since its previous tick.
+     */
+    startStreaming() {
+        this.eventSource = new EventSource(`${this.apiBase}/buses/stream`);
+        
+        this.eventSource.addEventListener('snapshot', (e) => {
+            const data = JSON.parse(e.data);
+            this.updateBusMarkers(data.buses);
+            this.updateStatus(`Tracking ${data.count} buses (live)`, 'success');
+        });
+        
+        this.eventSource.addEventListener('positions', (e) => {
+            const data = JSON.parse(e.data);
+            this.applyBusChanges(data.buses, data.removed);
+            this.updateStatus(`Tracking ${this.busMarkers.size} buses (live)`, 'success');
+        });
+        
+        // EventSource reconnects on its own and receives a fresh snapshot
+        this.eventSource.onerror = () => {
+            this.updateStatus('Live updates interrupted, reconnecting...', 'error');
+        };
+    }
+    
     setUpdateInterval(interval) {
         if (this.isTracking) {
             this.stopTracking();
@@ -100,20 +157,179 @@ class TransitTracker {
         }
     }
     
+    isClustering() {
+        return this.map.getZoom() < this.clusterMaxZoom;
+    }
+    
     async updateBusLocations() {
+        if (this.isClustering()) {
+            return this.updateViewport();
+        }
+        if (this.clusterLayer.getLayers().length > 0) {
+            // Leaving clustered view: start again from the full fleet
+            this.clusterLayer.clearLayers();
+            this.busVersion = null;
+        }
         try {
-            const response = await fetch(`${this.apiBase}/buses`);
-            const data = await response.json();
+            let params = `knownIds=${this.busIdDictionary.length}&epoch=${this.busIdEpoch}`;
+            if (this.busVersion !== null) {
+                params += `&since=${this.busVersion}`;
+            }
+            const response = await fetch(`${this.apiBase}/buses?${params}`, {
+                headers: { 'Accept': `${BUS_POSITIONS_MEDIA_TYPE}, application/json;q=0.5` }
+            });
+            const contentType = response.headers.get('Content-Type') || '';
+            const data = contentType.startsWith(BUS_POSITIONS_MEDIA_TYPE)
+                ? this.decodeBusPositions(await response.arrayBuffer())
+                : await response.json();
             
             if (data.buses) {
+                // Only changed and removed buses come back after the first poll
+                if (data.full) {
+                    this.updateBusMarkers(data.buses);
+                } else {
+                    this.applyBusChanges(data.buses, data.removed);
+                }
+                this.busVersion = data.version;
+                this.updateStatus(`Tracking ${this.busMarkers.size} buses`, 'success');
+            }
+        } catch (error) {
+            this.updateStatus('Error updating locations: ' + error.message, 'error');
+        }
+    }
+    
+    /**
+     * Zoomed out: fetch only what is in view. The server sends clusters, or the
+     * buses themselves when only a few are in view.
+     */
+    async updateViewport() {
+        try {
+            const bounds = this.map.getBounds();
+            let west = bounds.getWest();
+            let east = bounds.getEast();
+            if (east - west >= 360) {
+                west = -180;
+                east = 180;
+            } else {
+                // The map repeats the world horizontally; bring both edges into [-180, 180)
+                west = ((west + 180) % 360 + 360) % 360 - 180;
+                east = ((east + 180) % 360 + 360) % 360 - 180;
+            }
+            const south = Math.max(-90, bounds.getSouth());
+            const north = Math.min(90, bounds.getNorth());
+            const response = await fetch(`${this.apiBase}/buses/viewport?minLat=${south}&minLng=${west}` +
+                `&maxLat=${north}&maxLng=${east}&zoom=${this.map.getZoom()}`);
+            const data = await response.json();
+            
+            // Viewport results replace everything drawn; the next full poll starts from scratch
+            this.busVersion = null;
+            this.clusterLayer.clearLayers();
+            if (data.mode === 'clusters') {
+                this.busMarkers.forEach(marker => this.map.removeLayer(marker));
+                this.busMarkers.clear();
+                data.clusters.forEach(cluster => this.addClusterMarker(cluster));
+            } else {
                 this.updateBusMarkers(data.buses);
-                this.updateStatus(`Tracking ${data.count} buses`, 'success');
             }
+            this.updateStatus(`${data.count} buses in view`, 'success');
         } catch (error) {
             this.updateStatus('Error updating locations: ' + error.message, 'error');
         }
     }
     
+    addClusterMarker(cluster) {
+        const size = Math.round(28 + 6 * Math.log10(cluster.count));
+        const marker = L.marker([cluster.latitude, cluster.longitude], {
+            icon: L.divIcon({
+                className: 'bus-cluster',
+                html: `<span>${cluster.count}</span>`,
+                iconSize: [size, size]
+            })
+        });
+        // Zoom in on the cluster to see its buses
+        marker.on('click', () => {
+            this.map.setView([cluster.latitude, cluster.longitude], this.map.getZoom() + 2);
+        });
+        marker.addTo(this.clusterLayer);
+    }
+    
+    /**
+     * Decode the compact binary bus positions (see BusPositionCodec on the server)
+     * into the same shape as the JSON response
+     * @param {ArrayBuffer} buffer - Response body
+     * @returns {Object} buses keyed by bus ID, removed bus IDs, version, full flag, count and timestamp
+     */
+    decodeBusPositions(buffer) {
+        const bytes = new Uint8Array(buffer);
+        let offset = 0;
+        // Varints can exceed 32 bits (timestamps), so accumulate with arithmetic, not bit shifts
+        const varint = () => {
+            let value = 0;
+            let scale = 1;
+            let b;
+            do {
+                b = bytes[offset++];
+                value += (b & 0x7f) * scale;
+                scale *= 128;
+            } while (b & 0x80);
+            return value;
+        };
+        const zigzag = () => this.zigzagDecode(varint());
+        
+        const version = varint();
+        if (version !== 2) {
+            throw new Error('Unsupported bus position format ' + version);
+        }
+        const epoch = varint();
+        const serverTime = varint();
+        const dataVersion = varint();
+        const full = (varint() & 1) === 1;
+        if (epoch !== this.busIdEpoch) {
+            this.busIdDictionary = [];
+            this.busIdEpoch = epoch;
+        }
+        const dictionaryStart = varint();
+        const dictionaryCount = varint();
+        const textDecoder = new TextDecoder();
+        for (let i = 0; i < dictionaryCount; i++) {
+            const length = varint();
+            this.busIdDictionary[dictionaryStart + i] = textDecoder.decode(bytes.subarray(offset, offset + length));
+            offset += length;
+        }
+        
+        const count = varint();
+        const buses = {};
+        let number = 0;
+        let latitude = 0;
+        let longitude = 0;
+        for (let i = 0; i < count; i++) {
+            number += varint();
+            latitude += zigzag();
+            longitude += zigzag();
+            const age = varint();
+            const accuracy = varint();
+            buses[this.busIdDictionary[number]] = {
+                latitude: latitude / 1e6,
+                longitude: longitude / 1e6,
+                timestamp: age === 0 ? null : serverTime - this.zigzagDecode(age - 1),
+                accuracy: accuracy / 10
+            };
+        }
+        
+        const removedCount = varint();
+        const removed = [];
+        number = 0;
+        for (let i = 0; i < removedCount; i++) {
+            number += varint();
+            removed.push(this.busIdDictionary[number]);
+        }
+        return { buses, removed, version: dataVersion, full, count, timestamp: serverTime };
+    }
+    
+    zigzagDecode(value) {
+        return value % 2 === 0 ? value / 2 : -(value + 1) / 2;
+    }
+    
     updateBusMarkers(buses) {
         // Clear existing bus markers
         this.busMarkers.forEach(marker => this.map.removeLayer(marker));
@@ -121,42 +337,73 @@ class TransitTracker {
         
         // Add new bus markers
         Object.entries(buses).forEach(([busId, location]) => {
-            const marker = L.circleMarker([location.latitude, location.longitude], {
-                radius: 8,
-                fillColor: '#667eea',
-                color: '#fff',
-                weight: 2,
-                opacity: 1,
-                fillOpacity: 0.8
-            });
-            
-            // Add popup with bus information
-            const popupContent = `
-                <div class="bus-popup">
-                    <h3>Bus ${busId}</h3>
-                    <p><strong>Location:</strong> ${location.latitude.toFixed(6)}, ${location.longitude.toFixed(6)}</p>
-                    <p><strong>Last Update:</strong> ${new Date(location.timestamp).toLocaleString()}</p>
-                    <p><strong>Accuracy:</strong> ${location.accuracy ? location.accuracy.toFixed(1) + 'm' : 'N/A'}</p>
-                    <p><strong>Route:</strong> <span id="route-info-${busId}">Loading...</span></p>
-                </div>
-            `;
-            
-            marker.bindPopup(popupContent);
-            
-            // Add hover events for route display
-            marker.on('mouseover', () => {
-                this.showBusRoute(busId);
-            });
-            
-            marker.on('mouseout', () => {
-                this.hideBusRoute(busId);
-            });
-            
-            marker.addTo(this.map);
-            this.busMarkers.set(busId, marker);
+            this.addBusMarker(busId, location);
         });
     }
     
+    /**
+     * Move, add or remove only the markers of buses that changed
+     * @param {Object} buses - Changed bus locations keyed by bus ID
+     * @param {string[]} removed - IDs of buses no longer tracked
+     */
+    applyBusChanges(buses, removed) {
+        Object.entries(buses || {}).forEach(([busId, location]) => {
+            const marker = this.busMarkers.get(busId);
+            if (marker) {
+                marker.setLatLng([location.latitude, location.longitude]);
+                marker.setPopupContent(this.busPopupContent(busId, location));
+            } else {
+                this.addBusMarker(busId, location);
+            }
+        });
+        
+        (removed || []).forEach(busId => {
+            const marker = this.busMarkers.get(busId);
+            if (marker) {
+                this.map.removeLayer(marker);
+                this.busMarkers.delete(busId);
+            }
+        });
+    }
+    
+    addBusMarker(busId, location) {
+        const marker = L.circleMarker([location.latitude, location.longitude], {
+            radius: 8,
+            fillColor: '#667eea',
+            color: '#fff',
+            weight: 2,
+            opacity: 1,
+            fillOpacity: 0.8
+        });
+        
+        // Add popup with bus information
+        marker.bindPopup(this.busPopupContent(busId, location));
+        
+        // Add hover events for route display
+        marker.on('mouseover', () => {
+            this.showBusRoute(busId);
+        });
+        
+        marker.on('mouseout', () => {
+            this.hideBusRoute(busId);
+        });
+        
+        marker.addTo(this.map);
+        this.busMarkers.set(busId, marker);
+    }
+    
+    busPopupContent(busId, location) {
+        return `
+            <div class="bus-popup">
+                <h3>Bus ${busId}</h3>
+                <p><strong>Location:</strong> ${location.latitude.toFixed(6)}, ${location.longitude.toFixed(6)}</p>
+                <p><strong>Last Update:</strong> ${new Date(location.timestamp).toLocaleString()}</p>
+                <p><strong>Accuracy:</strong> ${location.accuracy ? location.accuracy.toFixed(1) + 'm' : 'N/A'}</p>
+                <p><strong>Route:</strong> <span id="route-info-${busId}">Loading...</span></p>
+            </div>
+        `;
+    }
+    
     onMapClick(latlng) {
         const radius = parseInt(document.getElementById('radius').value);
         this.findNearbyBuses(latlng.lat, latlng.lng, radius);
@@ -0,0 +1,84 @@
+package com.phoenixai.transittracker.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.phoenixai.transittracker.services.BusIdInterner;
+import com.phoenixai.transittracker.services.BusPositionStore;
+import com.phoenixai.transittracker.services.BusUpdateIngest;
+import com.phoenixai.transittracker.services.GPSService;
+import com.phoenixai.transittracker.services.LocationHistoryStore;
+import com.phoenixai.transittracker.services.PassengerStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class MapControllerTests {
+
+	private static final String FIX = "{\"latitude\": 18.0, \"longitude\": -76.8}";
+
+	private LocationHistoryStore history;
+	private BusUpdateIngest ingest;
+	private MockMvc mvc;
+
+	@BeforeEach
+	void setUp() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		history = new LocationHistoryStore(null, 1024, Duration.ofMinutes(10), Duration.ofHours(1), 4);
+		GPSService gps = new GPSService(new RestTemplate(), history, new BusPositionStore(new BusIdInterner(), 16, 0),
+				new PassengerStore(Duration.ofMinutes(30), 100), List.of(), registry, 0.01, 15, false);
+		// Room for two fixes, at most one per bus, held for the whole test
+		ingest = new BusUpdateIngest(gps, registry, true, Duration.ofMinutes(1), 2, 1, 1, Duration.ofMillis(2_500));
+		ingest.start();
+		MapController controller = new MapController();
+		ReflectionTestUtils.setField(controller, "busUpdateIngest", ingest);
+		ReflectionTestUtils.setField(controller, "objectMapper", new ObjectMapper());
+		mvc = MockMvcBuilders.standaloneSetup(controller).build();
+	}
+
+	@AfterEach
+	void tearDown() {
+		ingest.shutdown();
+		history.close();
+	}
+
+	@Test
+	void refusedUpdatesCarryRetryAfter() throws Exception {
+		mvc.perform(post("/api/map/buses/BUS-A/location").contentType(MediaType.APPLICATION_JSON).content(FIX))
+				.andExpect(status().isAccepted())
+				.andExpect(header().doesNotExist(HttpHeaders.RETRY_AFTER));
+
+		// The bus already has its fix pending
+		mvc.perform(post("/api/map/buses/BUS-A/location").contentType(MediaType.APPLICATION_JSON).content(FIX))
+				.andExpect(status().isTooManyRequests())
+				.andExpect(header().string(HttpHeaders.RETRY_AFTER, "3"))
+				.andExpect(jsonPath("$.retryAfterSeconds").value(3));
+
+		mvc.perform(post("/api/map/buses/BUS-B/location").contentType(MediaType.APPLICATION_JSON).content(FIX))
+				.andExpect(status().isAccepted());
+
+		// The queue is full
+		mvc.perform(post("/api/map/buses/BUS-C/location").contentType(MediaType.APPLICATION_JSON).content(FIX))
+				.andExpect(status().isServiceUnavailable())
+				.andExpect(header().string(HttpHeaders.RETRY_AFTER, "3"));
+		mvc.perform(post("/api/map/buses/locations").contentType("application/x-ndjson")
+						.content("{\"busId\": \"BUS-D\", \"location\": " + FIX + "}\n"))
+				.andExpect(status().isServiceUnavailable())
+				.andExpect(header().string(HttpHeaders.RETRY_AFTER, "3"))
+				.andExpect(jsonPath("$.received").value(1))
+				.andExpect(jsonPath("$.accepted").value(0));
+	}
+}
@@ -0,0 +1,178 @@
+package com.phoenixai.transittracker.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BusChangeLogTests {
+
+	private static final int WRITERS = 4;
+	private static final int CHANGES_PER_WRITER = 5_000;
+
+	@Test
+	void concurrentChangesAreNeverSkippedByDeltas() throws Exception {
+		BusPositionStore positions = new BusPositionStore(new BusIdInterner(), 4, 0);
+		BusChangeLog log = new BusChangeLog(positions, Duration.ofMinutes(10));
+		long start = log.getVersion();
+		CountDownLatch ready = new CountDownLatch(1);
+		AtomicBoolean writing = new AtomicBoolean(true);
+		ExecutorService pool = Executors.newFixedThreadPool(WRITERS + 1);
+		try {
+			List<Future<?>> writers = new ArrayList<>();
+			for (int w = 0; w < WRITERS; w++) {
+				int writer = w;
+				// Every change is of a new bus, so none is superseded and each must reach a delta
+				writers.add(pool.submit(() -> {
+					ready.await();
+					for (int i = 0; i < CHANGES_PER_WRITER; i++) {
+						String busId = "W" + writer + "-" + i;
+						if (i % 2 == 0) {
+							positions.put(busId, 18, -76.8, 0, 5, i, i);
+							log.onBusLocationUpdated(busId, 18, -76.8, 0, 5, i);
+						} else {
+							log.onBusRemoved(busId);
+						}
+					}
+					return null;
+				}));
+			}
+			// A client polling while versions are handed out and entered out of order
+			Future<Set<String>> poller = pool.submit(() -> {
+				Set<String> seen = new HashSet<>();
+				long since = start;
+				ready.await();
+				while (writing.get()) {
+					since = poll(log, since, seen);
+				}
+				poll(log, since, seen);
+				return seen;
+			});
+			ready.countDown();
+			for (Future<?> writer : writers) {
+				writer.get(1, TimeUnit.MINUTES);
+			}
+			writing.set(false);
+
+			assertThat(log.getVersion()).isEqualTo(start + WRITERS * CHANGES_PER_WRITER);
+			assertThat(poller.get(1, TimeUnit.MINUTES)).hasSize(WRITERS * CHANGES_PER_WRITER);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void deltasReportOnlyTheLatestChangeOfEachBus() {
+		BusPositionStore positions = new BusPositionStore(new BusIdInterner(), 4, 0);
+		BusChangeLog log = new BusChangeLog(positions, Duration.ofMinutes(10));
+		long start = log.getVersion();
+
+		update(log, positions, "BUS-A", 18.0);
+		update(log, positions, "BUS-A", 18.1);
+		update(log, positions, "BUS-B", 18.2);
+		long middle = log.getVersion();
+		update(log, positions, "BUS-A", 18.3);
+		positions.remove("BUS-B");
+		log.onBusRemoved("BUS-B");
+		log.onBusRemoved("BUS-C");
+		update(log, positions, "BUS-C", 18.4);
+
+		BusChangeLog.Delta all = log.changesSince(start);
+		assertThat(all.getVersion()).isEqualTo(start + 7);
+		assertThat(all.getUpdated()).containsOnlyKeys("BUS-A", "BUS-C");
+		assertThat(all.getUpdated().get("BUS-A").getLatitude()).isEqualTo(18.3);
+		assertThat(all.getRemoved()).containsExactly("BUS-B");
+
+		BusChangeLog.Delta recent = log.changesSince(middle);
+		assertThat(recent.getUpdated()).containsOnlyKeys("BUS-A", "BUS-C");
+		assertThat(recent.getRemoved()).containsExactly("BUS-B");
+
+		// Pruning drops superseded entries without changing what deltas report
+		log.pruneTombstones();
+		assertThat(log.changesSince(start).getUpdated()).containsOnlyKeys("BUS-A", "BUS-C");
+		assertThat(log.changesSince(log.getVersion()).getUpdated()).isEmpty();
+		assertThat(log.changesSince(log.getVersion() + 1)).isNull();
+	}
+
+	@Test
+	void pruningTombstonesSendsOlderClientsTheFullFleet() throws Exception {
+		BusPositionStore positions = new BusPositionStore(new BusIdInterner(), 4, 0);
+		BusChangeLog log = new BusChangeLog(positions, Duration.ofMillis(1));
+		long start = log.getVersion();
+		update(log, positions, "BUS-A", 18.0);
+		update(log, positions, "BUS-B", 18.1);
+		long beforeRemoval = log.getVersion();
+		positions.remove("BUS-A");
+		log.onBusRemoved("BUS-A");
+		long afterRemoval = log.getVersion();
+
+		// Within the retention period the tombstone stays
+		Thread.sleep(20);
+		assertThat(log.changesSince(start).getRemoved()).containsExactly("BUS-A");
+		log.pruneTombstones();
+
+		// A client that could have missed the removal must fetch everything
+		assertThat(log.changesSince(start)).isNull();
+		assertThat(log.changesSince(beforeRemoval)).isNull();
+		BusChangeLog.Delta current = log.changesSince(afterRemoval);
+		assertThat(current.getUpdated()).isEmpty();
+		assertThat(current.getRemoved()).isEmpty();
+
+		// Live buses are not pruned
+		update(log, positions, "BUS-B", 18.2);
+		Thread.sleep(20);
+		log.pruneTombstones();
+		assertThat(log.changesSince(afterRemoval).getUpdated()).containsOnlyKeys("BUS-B");
+	}
+
+	@Test
+	void busesComeBackAfterTheirTombstoneIsPruned() throws Exception {
+		BusPositionStore positions = new BusPositionStore(new BusIdInterner(), 4, 0);
+		BusChangeLog log = new BusChangeLog(positions, Duration.ofMillis(1));
+		update(log, positions, "BUS-A", 18.0);
+		positions.remove("BUS-A");
+		log.onBusRemoved("BUS-A");
+		Thread.sleep(20);
+		log.pruneTombstones();
+		long pruned = log.getVersion();
+
+		update(log, positions, "BUS-A", 18.5);
+		assertThat(log.changesSince(pruned).getUpdated()).containsOnlyKeys("BUS-A");
+
+		// The new change is the bus's latest again, so a later removal supersedes it and is pruned in turn
+		long returned = log.getVersion();
+		positions.remove("BUS-A");
+		log.onBusRemoved("BUS-A");
+		BusChangeLog.Delta removal = log.changesSince(pruned);
+		assertThat(removal.getUpdated()).isEmpty();
+		assertThat(removal.getRemoved()).containsExactly("BUS-A");
+		Thread.sleep(20);
+		log.pruneTombstones();
+		assertThat(log.changesSince(returned)).isNull();
+		assertThat(log.changesSince(log.getVersion()).getRemoved()).isEmpty();
+	}
+
+	private static long poll(BusChangeLog log, long since, Set<String> seen) {
+		BusChangeLog.Delta delta = log.changesSince(since);
+		assertThat(delta).isNotNull();
+		seen.addAll(delta.getUpdated().keySet());
+		seen.addAll(delta.getRemoved());
+		return delta.getVersion();
+	}
+
+	private static void update(BusChangeLog log, BusPositionStore positions, String busId, double latitude) {
+		positions.put(busId, latitude, -76.8, 0, 5, 1_000L, 1_000L);
+		log.onBusLocationUpdated(busId, latitude, -76.8, 0, 5, 1_000L);
+	}
+}
@@ -0,0 +1,143 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.BusCluster;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class BusClusterGridTests {
+
+	private static final int LEVELS = 15;
+	private static final int BUSES = 2_000;
+
+	@Test
+	void incrementalLevelsMatchClustersRebuiltFromPositions() {
+		BusClusterGrid grid = new BusClusterGrid(LEVELS);
+		Map<String, double[]> positions = new HashMap<>();
+		Random random = new Random(7);
+		for (int i = 0; i < 20_000; i++) {
+			String busId = "BUS-" + random.nextInt(BUSES);
+			if (random.nextInt(20) == 0) {
+				grid.remove(busId);
+				positions.remove(busId);
+				continue;
+			}
+			double[] previous = positions.get(busId);
+			// Mostly small moves, which stay within the finer cells, with some jumps across the map
+			double[] position = previous != null && random.nextInt(4) != 0
+					? microdegrees(previous[0] + random.nextGaussian() * 0.001, previous[1] + random.nextGaussian() * 0.001)
+					: randomPosition(random);
+			grid.update(busId, position[0], position[1]);
+			positions.put(busId, position);
+		}
+
+		for (int zoom = 0; zoom < LEVELS; zoom++) {
+			assertSameClusters(grid.clusters(-90, 90, -180, 180, zoom), expected(positions, zoom, -90, 90, -180, 180));
+			for (int query = 0; query < 20; query++) {
+				double[] corner = randomPosition(random);
+				double height = random.nextDouble() * 20;
+				double width = random.nextDouble() * 40;
+				double minLongitude = corner[1];
+				// Boxes running past 180 degrees wrap across the antimeridian
+				double maxLongitude = minLongitude + width > 180 ? minLongitude + width - 360 : minLongitude + width;
+				double minLatitude = Math.max(-85, corner[0] - height);
+				assertSameClusters(grid.clusters(minLatitude, corner[0], minLongitude, maxLongitude, zoom),
+						expected(positions, zoom, minLatitude, corner[0], minLongitude, maxLongitude));
+			}
+		}
+	}
+
+	@Test
+	void removingEveryBusEmptiesEveryLevel() {
+		BusClusterGrid grid = new BusClusterGrid(LEVELS);
+		Random random = new Random(11);
+		for (int i = 0; i < BUSES; i++) {
+			double[] position = randomPosition(random);
+			grid.update("BUS-" + i, position[0], position[1]);
+		}
+		for (int i = 0; i < BUSES; i++) {
+			grid.remove("BUS-" + i);
+		}
+
+		for (int zoom = 0; zoom < LEVELS; zoom++) {
+			assertThat(grid.clusters(-90, 90, -180, 180, zoom)).isEmpty();
+		}
+	}
+
+	private static double[] randomPosition(Random random) {
+		// A third of the buses near the antimeridian, where cell columns wrap
+		double longitude = random.nextInt(3) == 0 ? 179.5 + random.nextDouble() - (random.nextBoolean() ? 0 : 359)
+				: random.nextDouble() * 360 - 180;
+		return microdegrees(random.nextDouble() * 160 - 80, Math.max(-180, Math.min(179.999, longitude)));
+	}
+
+	// The grid works in microdegrees; positions already on that grid fall in the same cells here
+	private static double[] microdegrees(double latitude, double longitude) {
+		return new double[] {Math.round(latitude * 1e6) / 1e6, Math.round(longitude * 1e6) / 1e6};
+	}
+
+	/**
+	 * Group the buses inside the box by their cell at the zoom level, computing each cell from scratch
+	 */
+	private static List<BusCluster> expected(Map<String, double[]> positions, int zoom, double minLatitude,
+											 double maxLatitude, double minLongitude, double maxLongitude) {
+		int bits = zoom + 3;
+		long size = 1L << bits;
+		long minY = tileY(maxLatitude, bits);
+		long maxY = tileY(minLatitude, bits);
+		long minX = tileX(minLongitude, bits);
+		long maxX = tileX(maxLongitude, bits);
+		long columns = Math.min(size, minLongitude <= maxLongitude ? maxX - minX + 1 : size - minX + maxX + 1);
+
+		Map<Long, double[]> sums = new HashMap<>();
+		for (double[] position : positions.values()) {
+			long x = tileX(position[1], bits);
+			long y = tileY(position[0], bits);
+			if (y >= minY && y <= maxY && Math.floorMod(x - minX, size) < columns) {
+				double[] sum = sums.computeIfAbsent(x << 32 | y, key -> new double[3]);
+				sum[0] += position[0];
+				sum[1] += position[1];
+				sum[2]++;
+			}
+		}
+		List<BusCluster> clusters = new ArrayList<>();
+		for (double[] sum : sums.values()) {
+			clusters.add(new BusCluster(sum[0] / sum[2], sum[1] / sum[2], (int) sum[2]));
+		}
+		return clusters;
+	}
+
+	private static long tileX(double longitude, int bits) {
+		long tile = (long) Math.floor((longitude + 180) / 360 * (1L << bits));
+		return Math.max(0, Math.min(tile, (1L << bits) - 1));
+	}
+
+	private static long tileY(double latitude, int bits) {
+		double radians = Math.toRadians(Math.max(-85.05112878, Math.min(85.05112878, latitude)));
+		double fraction = (1 - Math.log(Math.tan(radians) + 1 / Math.cos(radians)) / Math.PI) / 2;
+		long tile = (long) Math.floor(fraction * (1L << bits));
+		return Math.max(0, Math.min(tile, (1L << bits) - 1));
+	}
+
+	private static void assertSameClusters(List<BusCluster> actual, List<BusCluster> expected) {
+		Comparator<BusCluster> order = Comparator.comparingDouble(BusCluster::getLatitude)
+				.thenComparingDouble(BusCluster::getLongitude);
+		actual.sort(order);
+		expected.sort(order);
+		assertThat(actual).hasSameSizeAs(expected);
+		for (int i = 0; i < actual.size(); i++) {
+			assertThat(actual.get(i).getCount()).isEqualTo(expected.get(i).getCount());
+			// The grid sums in microdegrees
+			assertThat(actual.get(i).getLatitude()).isCloseTo(expected.get(i).getLatitude(), offset(1e-6));
+			assertThat(actual.get(i).getLongitude()).isCloseTo(expected.get(i).getLongitude(), offset(1e-6));
+		}
+	}
+}
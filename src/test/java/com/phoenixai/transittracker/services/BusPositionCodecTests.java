@@ -0,0 +1,209 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BusPositionCodecTests {
+
+	private static final long NOW = 1_700_000_000_000L;
+
+	@Test
+	void fullFleetRoundTripsForANewClient() {
+		BusIdInterner interner = new BusIdInterner();
+		BusPositionCodec codec = new BusPositionCodec(interner);
+		Map<String, Location> buses = new LinkedHashMap<>();
+		// Fixed ages either side of the server time, an unknown time, and coordinates of both signs
+		buses.put("BUS-B", location(18.012345, -76.798765, 4.2, NOW - 1_500));
+		buses.put("BUS-A", location(-33.868820, 151.209296, 12.0, NOW));
+		buses.put("BUS-C", location(64.146582, -21.942635, 0, Long.MIN_VALUE));
+		buses.put("BUS-D", location(-89.999999, 179.999999, 0.04, NOW + 250));
+		interner.intern("BUS-GONE");
+
+		Decoded decoded = decode(codec.encode(buses, List.of("BUS-GONE"), 42, true, 0, 0, NOW), List.of());
+
+		assertThat(decoded.epoch).isEqualTo(interner.getEpoch());
+		assertThat(decoded.serverTime).isEqualTo(NOW);
+		assertThat(decoded.version).isEqualTo(42);
+		assertThat(decoded.full).isTrue();
+		assertThat(decoded.dictionaryStart).isZero();
+		assertThat(decoded.dictionary).containsExactly("BUS-GONE", "BUS-B", "BUS-A", "BUS-C", "BUS-D");
+		assertPositions(decoded, buses);
+		assertThat(decoded.removed).containsExactly("BUS-GONE");
+	}
+
+	@Test
+	void dictionaryStartsAtTheIdsTheClientKnows() {
+		BusIdInterner interner = new BusIdInterner();
+		BusPositionCodec codec = new BusPositionCodec(interner);
+		Map<String, Location> first = new LinkedHashMap<>();
+		for (int i = 0; i < 5; i++) {
+			first.put("BUS-" + i, location(18 + i * 0.01, -76.8, 5, NOW - i));
+		}
+		Decoded initial = decode(codec.encode(first, List.of(), 1, true, 0, 0, NOW), List.of());
+		assertThat(initial.dictionary).hasSize(5);
+
+		// Two buses appear and one goes; the client sends its epoch and how many IDs it holds
+		Map<String, Location> changes = new LinkedHashMap<>();
+		changes.put("BUS-6", location(18.2, -76.7, 5, NOW));
+		changes.put("BUS-1", location(18.3, -76.6, 5, NOW));
+		changes.put("BUS-5", location(18.4, -76.5, 5, NOW));
+		Decoded delta = decode(codec.encode(changes, List.of("BUS-3"), 2, false, initial.epoch,
+				initial.dictionary.size(), NOW), initial.dictionary);
+
+		assertThat(delta.full).isFalse();
+		assertThat(delta.dictionaryStart).isEqualTo(5);
+		assertThat(delta.dictionary.subList(5, delta.dictionary.size())).containsExactly("BUS-6", "BUS-5");
+		assertPositions(delta, changes);
+		assertThat(delta.removed).containsExactly("BUS-3");
+
+		// A client of an earlier run, or claiming more IDs than exist, is sent what it needs
+		Decoded stale = decode(codec.encode(changes, List.of(), 2, false, initial.epoch + 1, 5, NOW), List.of());
+		assertThat(stale.dictionaryStart).isZero();
+		assertThat(stale.dictionary).hasSize(7);
+		Decoded ahead = decode(codec.encode(changes, List.of(), 2, false, initial.epoch, 99, NOW), delta.dictionary);
+		assertThat(ahead.dictionaryStart).isEqualTo(7);
+		assertPositions(ahead, changes);
+	}
+
+	@Test
+	void multiByteVarintsRoundTrip() {
+		BusIdInterner interner = new BusIdInterner();
+		BusPositionCodec codec = new BusPositionCodec(interner);
+		Random random = new Random(23);
+		Map<String, Location> buses = new HashMap<>();
+		List<String> removed = new ArrayList<>();
+		// Sparse bus numbers, coordinate jumps across the globe and ages of weeks, in either direction
+		for (int i = 0; i < 3_000; i++) {
+			String busId = "BÜS-" + i;
+			interner.intern(busId);
+			if (i % 7 == 0) {
+				buses.put(busId, location(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180,
+						random.nextDouble() * 100, NOW + random.nextLong() % 2_000_000_000L));
+			} else if (i % 301 == 0) {
+				removed.add(busId);
+			}
+		}
+
+		Decoded decoded = decode(codec.encode(buses, removed, Long.MAX_VALUE, true, 0, 0, NOW), List.of());
+
+		assertThat(decoded.version).isEqualTo(Long.MAX_VALUE);
+		assertThat(decoded.dictionary).hasSize(3_000);
+		assertPositions(decoded, buses);
+		assertThat(decoded.removed).containsExactlyInAnyOrderElementsOf(removed);
+	}
+
+	private static void assertPositions(Decoded decoded, Map<String, Location> expected) {
+		assertThat(decoded.positions.keySet()).containsExactlyInAnyOrderElementsOf(expected.keySet());
+		expected.forEach((busId, location) -> {
+			long[] position = decoded.positions.get(busId);
+			assertThat(position[0]).isEqualTo(Math.round(location.getLatitude() * 1e6));
+			assertThat(position[1]).isEqualTo(Math.round(location.getLongitude() * 1e6));
+			assertThat(position[2]).isEqualTo(Timestamps.toEpochMillis(location.getTimestamp(), Long.MIN_VALUE));
+			assertThat(position[3]).isEqualTo(Math.round(location.getAccuracy() * 10));
+		});
+	}
+
+	private static Location location(double latitude, double longitude, double accuracy, long timestamp) {
+		Location location = new Location(latitude, longitude, 0, accuracy);
+		if (timestamp != Long.MIN_VALUE) {
+			location.setTimestamp(Timestamps.toLocalDateTime(timestamp));
+		}
+		return location;
+	}
+
+	/**
+	 * Decode as a client would, extending the dictionary it already holds
+	 */
+	private static Decoded decode(byte[] bytes, List<String> knownIds) {
+		Reader in = new Reader(bytes);
+		Decoded decoded = new Decoded();
+		assertThat(in.varint()).isEqualTo(BusPositionCodec.FORMAT_VERSION);
+		decoded.epoch = (int) in.varint();
+		decoded.serverTime = in.varint();
+		decoded.version = in.varint();
+		decoded.full = (in.varint() & BusPositionCodec.FLAG_FULL) != 0;
+		decoded.dictionaryStart = (int) in.varint();
+		decoded.dictionary = new ArrayList<>(knownIds.subList(0, Math.min(decoded.dictionaryStart, knownIds.size())));
+		assertThat(decoded.dictionary).hasSize(decoded.dictionaryStart);
+		long entries = in.varint();
+		for (int i = 0; i < entries; i++) {
+			decoded.dictionary.add(in.utf8((int) in.varint()));
+		}
+
+		long count = in.varint();
+		long number = 0;
+		long latitude = 0;
+		long longitude = 0;
+		for (int i = 0; i < count; i++) {
+			number += in.varint();
+			latitude += unzigzag(in.varint());
+			longitude += unzigzag(in.varint());
+			long age = in.varint();
+			long timestamp = age == 0 ? Long.MIN_VALUE : decoded.serverTime - unzigzag(age - 1);
+			long accuracy = in.varint();
+			decoded.positions.put(decoded.dictionary.get((int) number),
+					new long[] {latitude, longitude, timestamp, accuracy});
+		}
+
+		long removed = in.varint();
+		number = 0;
+		for (int i = 0; i < removed; i++) {
+			number += in.varint();
+			decoded.removed.add(decoded.dictionary.get((int) number));
+		}
+		assertThat(in.position).isEqualTo(bytes.length);
+		return decoded;
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static final class Decoded {
+		private int epoch;
+		private long serverTime;
+		private long version;
+		private boolean full;
+		private int dictionaryStart;
+		private List<String> dictionary;
+		// busId -> latitude and longitude in micro-degrees, fix time or Long.MIN_VALUE, accuracy in decimeters
+		private final Map<String, long[]> positions = new HashMap<>();
+		private final List<String> removed = new ArrayList<>();
+	}
+
+	private static final class Reader {
+		private final byte[] bytes;
+		private int position;
+
+		Reader(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		long varint() {
+			long value = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = bytes[position++];
+				value |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+		}
+
+		String utf8(int length) {
+			String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return value;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BusPositionStoreTests {
+
+	private static final String[] BUSES = {"BUS-A", "BUS-B", "BUS-C"};
+	private static final int WRITES_PER_WRITER = 20_000;
+
+	@Test
+	void concurrentReadersNeverSeeTornPositions() throws Exception {
+		BusPositionStore store = new BusPositionStore(new BusIdInterner(), 16, 0);
+		AtomicBoolean writing = new AtomicBoolean(true);
+		ExecutorService pool = Executors.newFixedThreadPool(6);
+		try {
+			List<Future<?>> writers = new ArrayList<>();
+			for (int w = 0; w < 3; w++) {
+				int writer = w;
+				// Every writer writes every bus, so writers of the same bus contend for its slot
+				writers.add(pool.submit(() -> {
+					for (int i = 0; i < WRITES_PER_WRITER; i++) {
+						int sequence = writer * WRITES_PER_WRITER + i;
+						String busId = BUSES[i % BUSES.length];
+						if (i % 97 == 0) {
+							store.remove(busId);
+						} else {
+							store.put(busId, latitudeOf(sequence), -latitudeOf(sequence), sequence, sequence + 0.5,
+									sequence * 1000L, sequence * 1000L);
+						}
+					}
+				}));
+			}
+			List<Future<Integer>> readers = new ArrayList<>();
+			for (int r = 0; r < 3; r++) {
+				readers.add(pool.submit(() -> {
+					int reads = 0;
+					while (writing.get() || reads == 0) {
+						for (String busId : BUSES) {
+							store.read(busId, (id, latitude, longitude, altitude, accuracy, timestamp) ->
+									assertConsistent(latitude, longitude, altitude, accuracy, timestamp));
+							store.forEach((id, latitude, longitude, altitude, accuracy, timestamp) ->
+									assertConsistent(latitude, longitude, altitude, accuracy, timestamp));
+							reads++;
+						}
+					}
+					return reads;
+				}));
+			}
+			for (Future<?> writer : writers) {
+				writer.get(1, TimeUnit.MINUTES);
+			}
+			writing.set(false);
+			for (Future<Integer> reader : readers) {
+				assertThat(reader.get(1, TimeUnit.MINUTES)).isPositive();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void readersWaitUntilTheWriterPublishes() throws Exception {
+		BusPositionStore store = new BusPositionStore(new BusIdInterner(), 16, 0);
+		store.put("BUS-A", 18.0, -76.8, 0, 5, 1_000L, 1_000L);
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			int number = store.lock("BUS-A");
+			Future<Location> read;
+			try {
+				store.write(number, 18.5, -76.5, 10, 3, 2_000L, 2_000L, (t, lat, lng, alt, acc) -> { });
+				read = pool.submit(() -> store.get("BUS-A"));
+				// The slot is being written, so the reader must neither see the old position nor a partial one
+				Thread.sleep(200);
+				assertThat(read).isNotDone();
+				store.publish(number);
+				Location location = read.get(1, TimeUnit.MINUTES);
+				assertThat(location.getLatitude()).isEqualTo(18.5);
+				assertThat(location.getAltitude()).isEqualTo(10);
+			} finally {
+				store.unlock(number);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void writersOfOneBusAreSerialized() throws Exception {
+		BusPositionStore store = new BusPositionStore(new BusIdInterner(), 16, 0);
+		int[] counter = new int[1];
+		int threads = 4;
+		int increments = 50_000;
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> writers = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				writers.add(pool.submit(() -> {
+					start.await();
+					for (int i = 0; i < increments; i++) {
+						int number = store.lock("BUS-A");
+						try {
+							counter[0]++;
+						} finally {
+							store.unlock(number);
+						}
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> writer : writers) {
+				writer.get(1, TimeUnit.MINUTES);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		assertThat(counter[0]).isEqualTo(threads * increments);
+	}
+
+	@Test
+	void restoreRejectsHistoryOfAnotherCapacity() {
+		BusPositionStore store = new BusPositionStore(new BusIdInterner(), 16, 0);
+		store.put("BUS-A", 18.0, -76.8, 0, 5, 1_000L, 1_000L);
+
+		LocationRingBuffer history = new LocationRingBuffer(8);
+		history.add(18.1, -76.7, 0, 5, 2_000L);
+		Location location = new Location(18.1, -76.7, 0, 5);
+		int number = store.lock("BUS-A");
+		try {
+			assertThatThrownBy(() -> store.restore(number, location, history))
+					.isInstanceOf(IllegalArgumentException.class)
+					.hasMessageContaining("8")
+					.hasMessageContaining("16");
+		} finally {
+			store.unlock(number);
+		}
+
+		// The bus keeps its position and history, and the slot is usable again
+		assertThat(store.get("BUS-A").getLatitude()).isEqualTo(18.0);
+		assertThat(store.history("BUS-A")).hasSize(1);
+		store.put("BUS-A", 18.2, -76.6, 0, 5, 3_000L, 3_000L);
+		assertThat(store.get("BUS-A").getLatitude()).isEqualTo(18.2);
+	}
+
+	@Test
+	void restoreReplacesPositionAndHistory() {
+		BusPositionStore store = new BusPositionStore(new BusIdInterner(), 16, 0);
+		store.put("BUS-A", 18.0, -76.8, 0, 5, 1_000L, 1_000L);
+
+		LocationRingBuffer history = new LocationRingBuffer(16);
+		history.add(18.1, -76.7, 0, 5, 2_000L);
+		history.add(18.2, -76.6, 0, 5, 3_000L);
+		Location location = new Location(18.2, -76.6, 0, 5);
+		location.setTimestamp(LocalDateTime.of(2026, 1, 1, 12, 0));
+		int number = store.lock("BUS-A");
+		try {
+			store.restore(number, location, history);
+		} finally {
+			store.unlock(number);
+		}
+
+		assertThat(store.size()).isEqualTo(1);
+		assertThat(store.get("BUS-A").getLatitude()).isEqualTo(18.2);
+		assertThat(store.get("BUS-A").getTimestamp()).isEqualTo(location.getTimestamp());
+		assertThat(store.history("BUS-A")).extracting(Location::getLatitude).containsExactly(18.1, 18.2);
+	}
+
+	private static double latitudeOf(int sequence) {
+		return (sequence % 9000) / 100.0;
+	}
+
+	// Every field of a position was written from the same sequence number
+	private static void assertConsistent(double latitude, double longitude, double altitude, double accuracy,
+			long timestamp) {
+		int sequence = (int) altitude;
+		assertThat(latitude).isEqualTo(latitudeOf(sequence));
+		assertThat(longitude).isEqualTo(-latitudeOf(sequence));
+		assertThat(accuracy).isEqualTo(sequence + 0.5);
+		assertThat(timestamp).isEqualTo(sequence * 1000L);
+	}
+}
@@ -0,0 +1,214 @@
+package com.phoenixai.transittracker.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.phoenixai.transittracker.model.Location;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class BusUpdateBroadcasterTests {
+
+	private static final int MAX_QUEUED_EVENTS = 5;
+
+	private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+	private final BusPositionStore positions = new BusPositionStore(new BusIdInterner(), 4, 0);
+	private final ExecutorService pool = Executors.newCachedThreadPool();
+	private final List<TestEmitter> emitters = new ArrayList<>();
+	private volatile CountDownLatch nextGate = new CountDownLatch(0);
+	private final BusUpdateBroadcaster broadcaster = new BusUpdateBroadcaster(objectMapper, positions,
+			new TaskExecutorAdapter(pool), 60_000, MAX_QUEUED_EVENTS) {
+		@Override
+		SseEmitter createEmitter() {
+			TestEmitter emitter = new TestEmitter(nextGate);
+			emitters.add(emitter);
+			return emitter;
+		}
+	};
+
+	@AfterEach
+	void stop() {
+		for (TestEmitter emitter : emitters) {
+			emitter.gate.countDown();
+		}
+		pool.shutdownNow();
+	}
+
+	@Test
+	void changesMadeDuringTheSnapshotReachTheNewClient() throws Exception {
+		update("BUS-A", 18.0);
+		TestEmitter emitter = subscribe(() -> {
+			Map<String, Location> buses = positions.toMap();
+			// Moves after its position was read for the snapshot
+			update("BUS-A", 18.5);
+			update("BUS-B", 18.6);
+			return buses;
+		});
+
+		JsonNode snapshot = emitter.next(BusUpdateBroadcaster.SNAPSHOT_EVENT);
+		assertThat(snapshot.get("buses").get("BUS-A").get("latitude").asDouble()).isEqualTo(18.0);
+		assertThat(snapshot.get("buses").has("BUS-B")).isFalse();
+
+		broadcaster.flush();
+		JsonNode delta = emitter.next(BusUpdateBroadcaster.POSITIONS_EVENT);
+		assertThat(delta.get("buses").get("BUS-A").get("latitude").asDouble()).isEqualTo(18.5);
+		assertThat(delta.get("buses").get("BUS-B").get("latitude").asDouble()).isEqualTo(18.6);
+	}
+
+	@Test
+	void eachClientReceivesEventsInOrder() throws Exception {
+		List<TestEmitter> clients = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			clients.add(subscribe(positions::toMap));
+		}
+		// Queued faster than they are sent, a few at a time
+		for (int tick = 0; tick < 40; tick++) {
+			update("BUS-" + tick, 18.0);
+			broadcaster.flush();
+			if (tick % 4 == 3) {
+				for (TestEmitter client : clients) {
+					client.awaitSent(tick + 2);
+				}
+			}
+		}
+
+		for (TestEmitter client : clients) {
+			assertThat(client.next(BusUpdateBroadcaster.SNAPSHOT_EVENT).get("count").asInt()).isZero();
+			for (int tick = 0; tick < 40; tick++) {
+				JsonNode delta = client.next(BusUpdateBroadcaster.POSITIONS_EVENT);
+				assertThat(delta.get("buses").fieldNames()).toIterable().containsExactly("BUS-" + tick);
+			}
+		}
+		assertThat(broadcaster.getSubscriberCount()).isEqualTo(3);
+	}
+
+	@Test
+	void aClientTooFarBehindIsClosedWhileOthersKeepReceiving() throws Exception {
+		TestEmitter reading = subscribe(positions::toMap);
+		nextGate = new CountDownLatch(1);
+		TestEmitter stuck = subscribe(positions::toMap);
+		nextGate = new CountDownLatch(0);
+		reading.next(BusUpdateBroadcaster.SNAPSHOT_EVENT);
+
+		for (int tick = 0; tick < 3 * MAX_QUEUED_EVENTS; tick++) {
+			update("BUS-" + tick, 18.0);
+			broadcaster.flush();
+			reading.next(BusUpdateBroadcaster.POSITIONS_EVENT);
+		}
+
+		assertThat(broadcaster.getSubscriberCount()).isEqualTo(1);
+		// Completing waits for the send in progress; once that ends nothing else is sent to it
+		stuck.gate.countDown();
+		assertThat(stuck.completed.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(stuck.error).isInstanceOf(IOException.class);
+		assertThat(stuck.next(BusUpdateBroadcaster.SNAPSHOT_EVENT)).isNotNull();
+		assertThat(stuck.sent.poll(100, TimeUnit.MILLISECONDS)).isNull();
+		assertThat(reading.completed.getCount()).isEqualTo(1);
+	}
+
+	@Test
+	void flushDoesNotWaitForABlockedClient() {
+		nextGate = new CountDownLatch(1);
+		TestEmitter stuck = subscribe(positions::toMap);
+
+		// Overflowing and closing the client must not wait for its blocked send either
+		assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+			for (int tick = 0; tick < 3 * MAX_QUEUED_EVENTS; tick++) {
+				update("BUS-" + tick, 18.0);
+				broadcaster.flush();
+			}
+		});
+		assertThat(broadcaster.getSubscriberCount()).isZero();
+		assertThat(stuck.completed.getCount()).isEqualTo(1);
+	}
+
+	private TestEmitter subscribe(Supplier<Map<String, Location>> snapshot) {
+		broadcaster.subscribe(snapshot);
+		return emitters.get(emitters.size() - 1);
+	}
+
+	private void update(String busId, double latitude) {
+		positions.put(busId, latitude, -76.8, 0, 5, 1_000L, 1_000L);
+		broadcaster.onBusLocationUpdated(busId, latitude, -76.8, 0, 5, 1_000L);
+	}
+
+	/**
+	 * Records what is sent and can hold a send, as a client that stops reading would.
+	 * Sending and completing take the emitter's write lock, as they do when connected.
+	 */
+	private final class TestEmitter extends SseEmitter {
+		final CountDownLatch gate;
+		final BlockingQueue<String> sent = new LinkedBlockingQueue<>();
+		final CountDownLatch completed = new CountDownLatch(1);
+		volatile Throwable error;
+		private int sendCount;
+
+		TestEmitter(CountDownLatch gate) {
+			this.gate = gate;
+		}
+
+		@Override
+		public void send(SseEventBuilder builder) throws IOException {
+			writeLock.lock();
+			try {
+				gate.await();
+				StringBuilder text = new StringBuilder();
+				for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+					text.append(part.getData());
+				}
+				sent.add(text.toString());
+				synchronized (this) {
+					sendCount++;
+					notifyAll();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} finally {
+				writeLock.unlock();
+			}
+		}
+
+		@Override
+		public void completeWithError(Throwable ex) {
+			super.completeWithError(ex);
+			error = ex;
+			completed.countDown();
+		}
+
+		synchronized void awaitSent(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 10_000;
+			while (sendCount < count && System.currentTimeMillis() < deadline) {
+				wait(100);
+			}
+		}
+
+		/**
+		 * Take the next event sent and check its name
+		 */
+		JsonNode next(String eventName) throws Exception {
+			String text = sent.poll(10, TimeUnit.SECONDS);
+			assertThat(text).startsWith("event:" + eventName + "\ndata:");
+			return objectMapper.readTree(text.substring(text.indexOf("data:") + 5).trim());
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BusUpdateIngestTests {
+
+	private static final long T0 = 1_700_000_000_000L;
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final LocationHistoryStore history = new LocationHistoryStore(null, 1024, Duration.ofMinutes(10),
+			Duration.ofHours(1), 4);
+	private final Recorder recorder = new Recorder();
+	private final GPSService gps = new GPSService(new RestTemplate(), history,
+			new BusPositionStore(new BusIdInterner(), 64, 0), new PassengerStore(Duration.ofMinutes(30), 100),
+			List.of(recorder), registry, 0.01, 15, false);
+	private final List<BusUpdateIngest> stages = new ArrayList<>();
+
+	@AfterEach
+	void stop() {
+		for (BusUpdateIngest stage : stages) {
+			stage.shutdown();
+		}
+		history.close();
+	}
+
+	@Test
+	void fixesWithinTheWindowBecomeOneUpdate() throws Exception {
+		BusUpdateIngest ingest = start(Duration.ofMillis(200), 100, 100);
+		// A device replaying a burst out of order
+		long[] offsets = {5_000, 1_000, 3_000, 2_000, 4_000};
+		for (long offset : offsets) {
+			assertThat(ingest.offer("BUS-A", fix(18 + offset / 1e6, T0 + offset)))
+					.isEqualTo(BusUpdateIngest.Admission.QUEUED);
+		}
+
+		await(() -> pending() == 0 && !recorder.updates.isEmpty());
+		assertThat(recorder.updates).containsExactly(T0 + 5_000);
+		assertThat(recorder.appended).containsExactly(T0 + 1_000, T0 + 2_000, T0 + 3_000, T0 + 4_000);
+		assertThat(gps.getBusLocationHistory("BUS-A")).extracting(location ->
+				Timestamps.toEpochMillis(location.getTimestamp(), 0))
+				.containsExactly(T0 + 1_000, T0 + 2_000, T0 + 3_000, T0 + 4_000, T0 + 5_000);
+		assertThat(gps.getBusLocation("BUS-A").getLatitude()).isEqualTo(18 + 5_000 / 1e6);
+		assertThat(registry.get("transittracker.ingest.coalesced").counter().count()).isEqualTo(4);
+	}
+
+	@Test
+	void fixesBeyondTheBoundsAreRefused() {
+		BusUpdateIngest ingest = start(Duration.ofSeconds(30), 3, 2);
+
+		assertThat(ingest.offer("BUS-A", fix(18.1, T0))).isEqualTo(BusUpdateIngest.Admission.QUEUED);
+		assertThat(ingest.offer("BUS-A", fix(18.2, T0 + 1))).isEqualTo(BusUpdateIngest.Admission.QUEUED);
+		assertThat(ingest.offer("BUS-A", fix(18.3, T0 + 2))).isEqualTo(BusUpdateIngest.Admission.BUS_LIMIT_REACHED);
+		assertThat(ingest.offer("BUS-B", fix(18.4, T0))).isEqualTo(BusUpdateIngest.Admission.QUEUED);
+		assertThat(ingest.offer("BUS-C", fix(18.5, T0))).isEqualTo(BusUpdateIngest.Admission.OVERLOADED);
+		assertThat(ingest.offer("BUS-A", fix(91, T0))).isEqualTo(BusUpdateIngest.Admission.INVALID);
+		assertThat(pending()).isEqualTo(3);
+
+		// Refused fixes never took a place, so the queue empties once the taken ones are applied
+		ingest.shutdown();
+		assertThat(pending()).isZero();
+		assertThat(gps.getAllBusLocations()).containsOnlyKeys("BUS-A", "BUS-B");
+		assertThat(gps.getBusLocation("BUS-A").getLatitude()).isEqualTo(18.2);
+		assertThat(ingest.offer("BUS-C", fix(18.5, T0))).isEqualTo(BusUpdateIngest.Admission.OVERLOADED);
+		assertThat(dropped("bus-limit")).isEqualTo(1);
+		assertThat(dropped("overloaded")).isEqualTo(2);
+		assertThat(dropped("invalid")).isEqualTo(1);
+	}
+
+	@Test
+	void removeAndInitializeDiscardWaitingFixes() {
+		BusUpdateIngest ingest = start(Duration.ofSeconds(30), 100, 100);
+		ingest.initialize("BUS-A", fix(18.0, T0));
+		ingest.offer("BUS-A", fix(18.1, T0 + 1));
+		ingest.remove("BUS-A");
+		ingest.offer("BUS-B", fix(18.2, T0 + 1));
+		ingest.initialize("BUS-B", fix(17.0, T0));
+
+		ingest.shutdown();
+		assertThat(gps.getAllBusLocations()).containsOnlyKeys("BUS-B");
+		assertThat(gps.getBusLocation("BUS-B").getLatitude()).isEqualTo(17.0);
+		assertThat(pending()).isZero();
+		assertThat(dropped("cancelled")).isEqualTo(2);
+	}
+
+	@Test
+	void removeAndInitializeCancelFixesBeingApplied() throws Exception {
+		BusUpdateIngest ingest = start(Duration.ZERO, 100, 100);
+		ingest.initialize("BUS-A", fix(18.0, T0));
+		ingest.initialize("BUS-B", fix(18.0, T0));
+
+		// The worker has taken the fixes and waits before taking the bus
+		recorder.blockIngest();
+		ingest.offer("BUS-A", fix(18.1, T0 + 1));
+		assertThat(recorder.entered.await(10, TimeUnit.SECONDS)).isTrue();
+		ingest.remove("BUS-A");
+		recorder.resume();
+		await(() -> pending() == 0 && dropped("cancelled") == 1);
+		assertThat(gps.getBusLocation("BUS-A")).isNull();
+
+		recorder.blockIngest();
+		ingest.offer("BUS-B", fix(18.1, T0 + 1));
+		assertThat(recorder.entered.await(10, TimeUnit.SECONDS)).isTrue();
+		ingest.initialize("BUS-B", fix(17.0, T0 + 2));
+		recorder.resume();
+		await(() -> pending() == 0 && dropped("cancelled") == 2);
+		assertThat(gps.getBusLocation("BUS-B").getLatitude()).isEqualTo(17.0);
+	}
+
+	@Test
+	void shutdownAppliesEveryFixItAccepted() throws Exception {
+		int offerers = 4;
+		BusUpdateIngest ingest = start(Duration.ofSeconds(30), 1_000_000, 1_000_000);
+		ExecutorService pool = Executors.newFixedThreadPool(offerers);
+		try {
+			List<Future<Double>> accepted = new ArrayList<>();
+			CountDownLatch offering = new CountDownLatch(offerers);
+			for (int o = 0; o < offerers; o++) {
+				String busId = "BUS-" + o;
+				// Offers until refused; returns the last fix accepted
+				accepted.add(pool.submit(() -> {
+					double last = Double.NaN;
+					offering.countDown();
+					for (int i = 0; ; i++) {
+						double latitude = i % 90_000 / 1_000.0;
+						if (ingest.offer(busId, fix(latitude, T0 + i)) != BusUpdateIngest.Admission.QUEUED) {
+							return last;
+						}
+						last = latitude;
+					}
+				}));
+			}
+			offering.await();
+			Thread.sleep(20);
+			ingest.shutdown();
+
+			assertThat(pending()).isZero();
+			for (int o = 0; o < offerers; o++) {
+				double last = accepted.get(o).get(1, TimeUnit.MINUTES);
+				assertThat(gps.getBusLocation("BUS-" + o).getLatitude()).as("BUS-" + o).isEqualTo(last);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private BusUpdateIngest start(Duration window, int queueCapacity, int maxPendingPerBus) {
+		BusUpdateIngest ingest = new BusUpdateIngest(gps, registry, true, window, queueCapacity, maxPendingPerBus, 2,
+				Duration.ofSeconds(2));
+		stages.add(ingest);
+		ingest.start();
+		return ingest;
+	}
+
+	private double pending() {
+		return registry.get("transittracker.ingest.pending").gauge().value();
+	}
+
+	private double dropped(String reason) {
+		return registry.get("transittracker.ingest.dropped").tag("reason", reason).counter().count();
+	}
+
+	private static Location fix(double latitude, long timestamp) {
+		Location location = new Location(latitude, -76.8, 0, 5);
+		location.setTimestamp(Timestamps.toLocalDateTime(timestamp));
+		return location;
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	/**
+	 * Records the fix times listeners see, and can hold an ingest worker before it takes its bus
+	 */
+	private static final class Recorder implements BusLocationListener {
+		final List<Long> updates = new CopyOnWriteArrayList<>();
+		final List<Long> appended = new CopyOnWriteArrayList<>();
+		volatile CountDownLatch entered = new CountDownLatch(0);
+		private volatile CountDownLatch released = new CountDownLatch(0);
+
+		void blockIngest() {
+			entered = new CountDownLatch(1);
+			released = new CountDownLatch(1);
+		}
+
+		void resume() {
+			released.countDown();
+		}
+
+		@Override
+		public void awaitCapacity() {
+			if (Thread.currentThread().getName().startsWith("bus-ingest-") && entered.getCount() > 0) {
+				entered.countDown();
+				try {
+					released.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		@Override
+		public void onBusLocationUpdated(String busId, double latitude, double longitude, double altitude,
+										 double accuracy, long timestamp) {
+			if (Thread.currentThread().getName().startsWith("bus-ingest-")) {
+				updates.add(timestamp);
+			}
+		}
+
+		@Override
+		public void onBusHistoryAppended(String busId, double latitude, double longitude, double altitude,
+										 double accuracy, long timestamp) {
+			appended.add(timestamp);
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LocationHistoryStoreTests {
+
+	private static final long T0 = 1_700_000_000_000L;
+
+	@TempDir
+	Path directory;
+
+	private final List<LocationHistoryStore> stores = new ArrayList<>();
+
+	@AfterEach
+	void closeStores() {
+		for (LocationHistoryStore store : stores) {
+			store.close();
+		}
+	}
+
+	@Test
+	void segmentsRollWhenFull() throws IOException {
+		LocationHistoryStore store = open(4, Duration.ofHours(1), Duration.ofDays(1), 100);
+		for (int i = 0; i < 10; i++) {
+			append(store, i);
+		}
+
+		assertThat(segmentFiles()).hasSize(3);
+		assertThat(store.mappedBytes()).isEqualTo(3L * 4 * LocationHistoryStore.RECORD_BYTES);
+		assertThat(store.size()).isEqualTo(10);
+		assertThat(latitudes(store.stream(null, null))).containsExactly(0.0, 1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0,
+				9.0);
+		// Only segments holding fixes in the range are read
+		assertThat(latitudes(store.stream(Timestamps.toLocalDateTime(T0 + 5_000),
+				Timestamps.toLocalDateTime(T0 + 7_000)))).containsExactly(5.0, 6.0);
+	}
+
+	@Test
+	void segmentsRollWhenTheirDurationHasPassed() throws Exception {
+		LocationHistoryStore store = open(1_000, Duration.ofMillis(50), Duration.ofDays(1), 100);
+		append(store, 0);
+		append(store, 1);
+		assertThat(segmentFiles()).hasSize(1);
+
+		Thread.sleep(100);
+		append(store, 2);
+		assertThat(segmentFiles()).hasSize(2);
+		assertThat(latitudes(store.stream(null, null))).containsExactly(0.0, 1.0, 2.0);
+	}
+
+	@Test
+	void theOldestSegmentsAreDroppedPastTheSegmentLimit() throws IOException {
+		LocationHistoryStore store = open(2, Duration.ofHours(1), Duration.ofDays(1), 2);
+		for (int i = 0; i < 7; i++) {
+			append(store, i);
+		}
+
+		assertThat(segmentFiles()).hasSize(2);
+		assertThat(store.size()).isEqualTo(3);
+		assertThat(latitudes(store.stream(null, null))).containsExactly(4.0, 5.0, 6.0);
+	}
+
+	@Test
+	void segmentsAreDroppedOnceTheirSuccessorIsPastRetention() throws Exception {
+		LocationHistoryStore store = open(2, Duration.ofHours(1), Duration.ofMillis(100), 100);
+		append(store, 0);
+		append(store, 1);
+		// Fills the first segment and opens the second
+		append(store, 2);
+		store.trim();
+		assertThat(segmentFiles()).hasSize(2);
+
+		Thread.sleep(200);
+		store.trim();
+		// The newest segment is kept however old it is
+		assertThat(segmentFiles()).hasSize(1);
+		assertThat(latitudes(store.stream(null, null))).containsExactly(2.0);
+		Thread.sleep(200);
+		store.trim();
+		assertThat(latitudes(store.stream(null, null))).containsExactly(2.0);
+	}
+
+	@Test
+	void aDroppedSegmentStaysMappedUntilItsLastReaderFinishes() throws Exception {
+		LocationHistoryStore store = open(4, Duration.ofHours(1), Duration.ofDays(1), 1);
+		for (int i = 0; i < 4; i++) {
+			append(store, i);
+		}
+		Path first = segmentFiles().get(0);
+		CountDownLatch reading = new CountDownLatch(1);
+		CountDownLatch resume = new CountDownLatch(1);
+		List<Double> read = new CopyOnWriteArrayList<>();
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try {
+			// A reader pauses part way through the segment
+			Future<?> reader = pool.submit(() -> {
+				try (Stream<Location> history = store.stream(null, null)) {
+					history.forEach(location -> {
+						read.add(location.getLatitude());
+						if (read.size() == 2) {
+							reading.countDown();
+							try {
+								resume.await();
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+						}
+					});
+				}
+				return null;
+			});
+			assertThat(reading.await(10, TimeUnit.SECONDS)).isTrue();
+
+			// Rolling past the segment limit drops the segment being read
+			append(store, 4);
+			assertThat(store.size()).isEqualTo(1);
+			assertThat(latitudes(store.stream(null, null))).containsExactly(4.0);
+			assertThat(first).exists();
+
+			resume.countDown();
+			reader.get(10, TimeUnit.SECONDS);
+			assertThat(read).containsExactly(0.0, 1.0, 2.0, 3.0);
+			assertThat(first).doesNotExist();
+			assertThat(segmentFiles()).hasSize(1);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void aLockedDirectoryIsRefusedToASecondInstance() throws IOException {
+		LocationHistoryStore store = open(4, Duration.ofHours(1), Duration.ofDays(1), 10);
+		append(store, 0);
+
+		assertThatThrownBy(() -> new LocationHistoryStore(directory, 4, Duration.ofHours(1), Duration.ofDays(1), 10))
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("in use");
+		// The refused instance left the running one's segments alone
+		assertThat(latitudes(store.stream(null, null))).containsExactly(0.0);
+		assertThat(segmentFiles()).hasSize(1);
+
+		store.close();
+		LocationHistoryStore next = open(4, Duration.ofHours(1), Duration.ofDays(1), 10);
+		append(next, 1);
+		assertThat(latitudes(next.stream(null, null))).containsExactly(1.0);
+	}
+
+	private LocationHistoryStore open(int segmentRecords, Duration segmentDuration, Duration retention,
+									  int maxSegments) {
+		LocationHistoryStore store = new LocationHistoryStore(directory, segmentRecords, segmentDuration, retention,
+				maxSegments);
+		stores.add(store);
+		return store;
+	}
+
+	// Fix i is at latitude i, i seconds after T0
+	private static void append(LocationHistoryStore store, int i) {
+		store.append(T0 + i * 1_000L, i, -76.8, 0, 5);
+	}
+
+	private static List<Double> latitudes(Stream<Location> history) {
+		try (history) {
+			return history.map(Location::getLatitude).toList();
+		}
+	}
+
+	private List<Path> segmentFiles() throws IOException {
+		try (Stream<Path> paths = Files.list(directory)) {
+			return paths.filter(path -> path.getFileName().toString().endsWith(".seg")).sorted().toList();
+		}
+	}
+}
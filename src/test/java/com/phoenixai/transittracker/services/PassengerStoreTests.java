@@ -0,0 +1,63 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PassengerStoreTests {
+
+	private static final long TTL = 1_000;
+	private static final long TICK = 100;
+
+	private final long start = System.currentTimeMillis();
+	private final PassengerStore store = new PassengerStore(Duration.ofMillis(TTL), TICK);
+
+	@Test
+	void idlePassengersExpireAfterTheirTtl() {
+		store.put("P-1", new Location(18.0, -76.8), start);
+		store.put("P-2", new Location(18.1, -76.8), start + 300);
+
+		assertThat(store.expire(start + TTL - TICK)).isEmpty();
+		assertThat(store.expire(start + TTL + 2 * TICK)).containsExactly("P-1");
+		assertThat(store.get("P-1")).isNull();
+		assertThat(store.get("P-2").getLatitude()).isEqualTo(18.1);
+		assertThat(store.expire(start + 300 + TTL + 2 * TICK)).containsExactly("P-2");
+		assertThat(store.size()).isZero();
+	}
+
+	@Test
+	void activePassengersAreFiledAgainInsteadOfExpired() {
+		store.put("P-1", new Location(18.0, -76.8), start);
+		store.put("P-1", new Location(18.2, -76.8), start + 800);
+
+		// The original deadline passes while the passenger is still sending
+		assertThat(store.expire(start + TTL + 2 * TICK)).isEmpty();
+		assertThat(store.get("P-1").getLatitude()).isEqualTo(18.2);
+		store.put("P-1", new Location(18.3, -76.8), start + 1_500);
+		assertThat(store.expire(start + 800 + TTL + 2 * TICK)).isEmpty();
+
+		assertThat(store.expire(start + 1_500 + TTL + 2 * TICK)).containsExactly("P-1");
+		assertThat(store.size()).isZero();
+	}
+
+	@Test
+	void aStaleWheelEntryDoesNotExpireAPassengerAddedAgain() {
+		store.put("P-1", new Location(18.0, -76.8), start);
+		assertThat(store.remove("P-1")).isTrue();
+		assertThat(store.remove("P-1")).isFalse();
+		store.put("P-1", new Location(18.5, -76.8), start + 600);
+
+		// The first entry's deadline passes; it no longer belongs to the passenger
+		assertThat(store.expire(start + TTL + 2 * TICK)).isEmpty();
+		assertThat(store.get("P-1").getLatitude()).isEqualTo(18.5);
+
+		// Removed for good, its entries fire without effect
+		assertThat(store.expire(start + 600 + TTL + 2 * TICK)).containsExactly("P-1");
+		store.put("P-2", new Location(18.0, -76.8), start + 700);
+		store.remove("P-2");
+		assertThat(store.expire(start + 700 + TTL + 2 * TICK)).isEmpty();
+	}
+}
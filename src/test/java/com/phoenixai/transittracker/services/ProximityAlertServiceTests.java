@@ -0,0 +1,142 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import com.phoenixai.transittracker.model.ProximitySubscription;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.offset;
+
+class ProximityAlertServiceTests {
+
+	// About 100 m of latitude
+	private static final double HUNDRED_METERS = 100 / (Location.EARTH_RADIUS_KM * 1000 * Math.PI / 180);
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+	private final RouteService routes = new RouteService(event -> { });
+	private final PassengerStore passengers = new PassengerStore(Duration.ofMinutes(30), 1_000);
+	private final ProximityAlertService alerts = new ProximityAlertService(routes, passengers, events::add, registry,
+			2_000, 3, 500);
+
+	@AfterEach
+	void shutdown() {
+		alerts.shutdown();
+	}
+
+	@Test
+	void subscriptionFiresOnceForABusOnItsRoute() throws Exception {
+		routes.assignBus("BUS-1", "R1");
+		routes.assignBus("BUS-2", "R2");
+		move("P-1", 18.0, -76.8);
+		ProximitySubscription subscription = alerts.subscribe("P-1", "R1", 300);
+		assertThat(waiting()).isEqualTo(1);
+
+		bus("BUS-1", 18.0 + 10 * HUNDRED_METERS, -76.8);
+		// In range, but on another route
+		bus("BUS-2", 18.0, -76.8);
+		bus("BUS-1", 18.0 + 2 * HUNDRED_METERS, -76.8);
+		bus("BUS-1", 18.0, -76.8);
+
+		ProximityAlertEvent event = nextEvent();
+		assertThat(event.getSubscriptionId()).isEqualTo(subscription.getSubscriptionId());
+		assertThat(event.getBusId()).isEqualTo("BUS-1");
+		assertThat(event.getDistanceMeters()).isCloseTo(200, offset(1.0));
+		assertThat(alerts.getSubscriptions("P-1")).singleElement()
+				.satisfies(triggered -> assertThat(triggered.getTriggeredBy()).isEqualTo("BUS-1"));
+		assertThat(waiting()).isZero();
+		assertNoMoreEvents();
+	}
+
+	@Test
+	void subscriptionFollowsThePassenger() throws Exception {
+		routes.assignBus("BUS-1", "R1");
+		move("P-1", 18.0, -76.8);
+		ProximitySubscription subscription = alerts.subscribe("P-1", "R1", 300);
+
+		// Five kilometers north, out of range of where the subscription was made
+		move("P-1", 18.0 + 50 * HUNDRED_METERS, -76.8);
+		bus("BUS-1", 18.0, -76.8);
+		bus("BUS-1", 18.0 + 49 * HUNDRED_METERS, -76.8);
+
+		ProximityAlertEvent event = nextEvent();
+		assertThat(event.getSubscriptionId()).isEqualTo(subscription.getSubscriptionId());
+		assertThat(event.getDistanceMeters()).isCloseTo(100, offset(1.0));
+		assertNoMoreEvents();
+	}
+
+	@Test
+	void subscriptionsAreDroppedWithThePassenger() throws Exception {
+		routes.assignBus("BUS-1", "R1");
+		move("P-1", 18.0, -76.8);
+		alerts.subscribe("P-1", "R1", 300);
+		alerts.subscribe("P-1", "R1", 500);
+		assertThat(waiting()).isEqualTo(2);
+
+		passengers.remove("P-1");
+		alerts.onPassengerRemoved("P-1");
+		assertThat(alerts.getSubscriptions("P-1")).isEmpty();
+		assertThat(waiting()).isZero();
+		bus("BUS-1", 18.0, -76.8);
+		assertNoMoreEvents();
+
+		// A passenger without a location cannot subscribe
+		assertThat(alerts.subscribe("P-1", "R1", 300)).isNull();
+	}
+
+	@Test
+	void subscriptionsAreLimitedPerPassenger() {
+		move("P-1", 18.0, -76.8);
+		for (int i = 0; i < 3; i++) {
+			alerts.subscribe("P-1", "R" + i, 300);
+		}
+		assertThatThrownBy(() -> alerts.subscribe("P-1", "R9", 300)).isInstanceOf(IllegalStateException.class);
+		assertThatThrownBy(() -> alerts.subscribe("P-1", "R9", 2_001)).isInstanceOf(IllegalArgumentException.class);
+
+		// Cancelling frees a place
+		String first = alerts.getSubscriptions("P-1").get(0).getSubscriptionId();
+		assertThat(alerts.cancel("P-1", first)).isTrue();
+		assertThat(alerts.cancel("P-1", first)).isFalse();
+		assertThat(alerts.subscribe("P-1", "R9", 300)).isNotNull();
+		assertThat(waiting()).isEqualTo(3);
+	}
+
+	private void move(String passengerId, double latitude, double longitude) {
+		Location location = new Location(latitude, longitude);
+		passengers.put(passengerId, location, System.currentTimeMillis());
+		alerts.onPassengerLocationUpdated(passengerId, location);
+	}
+
+	private void bus(String busId, double latitude, double longitude) {
+		alerts.onBusLocationUpdated(busId, latitude, longitude, 0, 5, BusPositionStore.NO_TIMESTAMP);
+	}
+
+	private double waiting() {
+		return registry.get("transittracker.proximity.subscriptions").gauge().value();
+	}
+
+	private ProximityAlertEvent nextEvent() throws InterruptedException {
+		Object event = events.poll(10, TimeUnit.SECONDS);
+		assertThat(event).isInstanceOf(ProximityAlertEvent.class);
+		return (ProximityAlertEvent) event;
+	}
+
+	/**
+	 * Events are published in order on one thread, so a marker queued behind them shows none is left
+	 */
+	private void assertNoMoreEvents() throws InterruptedException {
+		routes.assignBus("MARKER", "MARKER");
+		move("P-MARKER", 0, 0);
+		alerts.subscribe("P-MARKER", "MARKER", 100);
+		bus("MARKER", 0, 0);
+		assertThat(nextEvent().getBusId()).isEqualTo("MARKER");
+	}
+}
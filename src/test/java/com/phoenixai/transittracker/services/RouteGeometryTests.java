@@ -0,0 +1,152 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Destination;
+import com.phoenixai.transittracker.model.Location;
+import com.phoenixai.transittracker.model.Origin;
+import com.phoenixai.transittracker.model.Route;
+import com.phoenixai.transittracker.model.RouteProgress;
+import com.phoenixai.transittracker.model.Stop;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class RouteGeometryTests {
+
+	private static final double METERS_PER_DEGREE = Location.EARTH_RADIUS_KM * 1000 * Math.PI / 180;
+	private static final double CELL_SIZE_METERS = 200;
+
+	@Test
+	void snapMatchesBruteForceOnAWindingRoute() {
+		Random random = new Random(13);
+		Route route = randomWalk(random, 18.0, -76.8, 300, 0.004);
+		RouteGeometry geometry = new RouteGeometry(route, CELL_SIZE_METERS);
+
+		for (int query = 0; query < 2_000; query++) {
+			// Mostly fixes near the line, some well off it and some far outside the route's cells
+			double spread = query % 10 == 0 ? 1.0 : query % 3 == 0 ? 0.05 : 0.005;
+			Location stop = route.getAllStopsInOrder().get(random.nextInt(route.getTotalStopCount())).getLocation();
+			assertMatchesBruteForce(geometry, route, stop.getLatitude() + random.nextGaussian() * spread,
+					stop.getLongitude() + random.nextGaussian() * spread);
+		}
+	}
+
+	@Test
+	void snapMatchesBruteForceWithDuplicateStops() {
+		Random random = new Random(17);
+		Route route = randomWalk(random, 18.0, -76.8, 60, 0.003);
+		// Repeat stops in place and revisit earlier ones, giving zero-length and overlapping segments
+		List<Stop> stops = new ArrayList<>(route.getStops());
+		List<Stop> repeated = new ArrayList<>();
+		for (int i = 0; i < stops.size(); i++) {
+			repeated.add(stops.get(i));
+			if (i % 4 == 0) {
+				repeated.add(copy(stops.get(i), "R" + i));
+			}
+			if (i % 9 == 8) {
+				repeated.add(copy(stops.get(i - 8), "B" + i));
+			}
+		}
+		route.setStops(new ArrayList<>(repeated));
+		RouteGeometry geometry = new RouteGeometry(route, CELL_SIZE_METERS);
+
+		for (int query = 0; query < 1_000; query++) {
+			Location stop = route.getAllStopsInOrder().get(random.nextInt(route.getTotalStopCount())).getLocation();
+			assertMatchesBruteForce(geometry, route, stop.getLatitude() + random.nextGaussian() * 0.003,
+					stop.getLongitude() + random.nextGaussian() * 0.003);
+		}
+
+		// A route whose origin and destination coincide has a single point
+		Location terminal = new Location(18.0, -76.8);
+		Route loop = new Route("LOOP", new Origin("O", "Origin", terminal), new Destination("D", "Destination", terminal));
+		RouteProgress progress = new RouteGeometry(loop, CELL_SIZE_METERS).snap(18.001, -76.8, null);
+		assertThat(progress.getDistanceAlongKm()).isZero();
+		assertThat(progress.getOffRouteMeters()).isCloseTo(0.001 * METERS_PER_DEGREE, offset(1e-6));
+	}
+
+	@Test
+	void snapFollowsARouteAcrossTheAntimeridian() {
+		Random random = new Random(19);
+		// Heads east from 179.95 degrees, crossing into negative longitudes
+		Route route = randomWalk(random, -17.0, 179.95, 120, 0.004);
+		assertThat(route.getDestination().getLocation().getLongitude()).isNegative();
+		RouteGeometry geometry = new RouteGeometry(route, CELL_SIZE_METERS);
+
+		for (int query = 0; query < 1_000; query++) {
+			Location stop = route.getAllStopsInOrder().get(random.nextInt(route.getTotalStopCount())).getLocation();
+			assertMatchesBruteForce(geometry, route, stop.getLatitude() + random.nextGaussian() * 0.005,
+					wrap(stop.getLongitude() + random.nextGaussian() * 0.005));
+		}
+		// At most about 53 km of route at 0.004 degrees a step, not most of the way round the world
+		assertThat(geometry.getLengthKm()).isLessThan(100);
+	}
+
+	/**
+	 * Check a snap against the nearest point over every segment, in the same local plane
+	 */
+	private static void assertMatchesBruteForce(RouteGeometry geometry, Route route, double latitude,
+												double longitude) {
+		List<Stop> stops = route.getAllStopsInOrder();
+		Location origin = stops.get(0).getLocation();
+		double meanLatitude = 0;
+		for (Stop stop : stops) {
+			meanLatitude += stop.getLocation().getLatitude() / stops.size();
+		}
+		double metersPerDegreeLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(meanLatitude));
+		double x = wrap(longitude - origin.getLongitude()) * metersPerDegreeLongitude;
+		double y = (latitude - origin.getLatitude()) * METERS_PER_DEGREE;
+
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i + 1 < stops.size(); i++) {
+			Location from = stops.get(i).getLocation();
+			Location to = stops.get(i + 1).getLocation();
+			double x0 = wrap(from.getLongitude() - origin.getLongitude()) * metersPerDegreeLongitude;
+			double y0 = (from.getLatitude() - origin.getLatitude()) * METERS_PER_DEGREE;
+			double dx = wrap(to.getLongitude() - origin.getLongitude()) * metersPerDegreeLongitude - x0;
+			double dy = (to.getLatitude() - origin.getLatitude()) * METERS_PER_DEGREE - y0;
+			double lengthSquared = dx * dx + dy * dy;
+			double t = lengthSquared == 0 ? 0
+					: Math.max(0, Math.min(1, ((x - x0) * dx + (y - y0) * dy) / lengthSquared));
+			best = Math.min(best, Math.hypot(x0 + t * dx - x, y0 + t * dy - y));
+		}
+
+		RouteProgress progress = geometry.snap(latitude, longitude, null);
+		assertThat(progress.getOffRouteMeters()).isCloseTo(best, offset(1e-3));
+		// Segments at the same distance may be chosen either way; the point reported must be on the line
+		Location snapped = progress.getSnappedLocation();
+		Location along = geometry.locationAt(progress.getDistanceAlongKm());
+		assertThat(Location.haversineKm(snapped.getLatitude(), snapped.getLongitude(), along.getLatitude(),
+				along.getLongitude())).isLessThan(1e-6);
+		assertThat(snapped.getLongitude()).isBetween(-180.0, 180.0);
+	}
+
+	/**
+	 * A route wandering generally east from a start point, one stop every step degrees or so
+	 */
+	private static Route randomWalk(Random random, double latitude, double longitude, int stopCount, double step) {
+		List<Stop> stops = new ArrayList<>();
+		double heading = 0;
+		for (int i = 0; i < stopCount; i++) {
+			heading = Math.max(-Math.PI / 2, Math.min(Math.PI / 2, heading + random.nextGaussian() * 0.5));
+			latitude += Math.sin(heading) * step;
+			longitude = wrap(longitude + Math.cos(heading) * step);
+			stops.add(new Stop("S" + i, "Stop " + i, new Location(latitude, longitude)));
+		}
+		Route route = new Route("R", new Origin("O", "Origin", stops.get(0).getLocation()),
+				new Destination("D", "Destination", stops.get(stops.size() - 1).getLocation()));
+		route.setStops(new ArrayList<>(stops.subList(1, stops.size() - 1)));
+		return route;
+	}
+
+	private static Stop copy(Stop stop, String id) {
+		return new Stop(id, id, new Location(stop.getLocation().getLatitude(), stop.getLocation().getLongitude()));
+	}
+
+	private static double wrap(double longitude) {
+		return longitude - 360 * Math.floor((longitude + 180) / 360);
+	}
+}
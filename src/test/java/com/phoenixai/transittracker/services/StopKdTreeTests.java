@@ -0,0 +1,135 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import com.phoenixai.transittracker.model.Stop;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+class StopKdTreeTests {
+
+	// Distances agree to well under a millimeter; chord and haversine are computed differently
+	private static final double TOLERANCE_KM = 1e-6;
+
+	@Test
+	void nearestMatchesBruteForceOnRandomStops() {
+		Random random = new Random(3);
+		List<Stop> stops = new ArrayList<>();
+		for (int i = 0; i < 2_000; i++) {
+			stops.add(stop("S" + i, random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180));
+		}
+		// A dense city, where most queries land
+		for (int i = 0; i < 2_000; i++) {
+			stops.add(stop("C" + i, 18 + random.nextDouble() * 0.2, -76.9 + random.nextDouble() * 0.2));
+		}
+		StopKdTree tree = StopKdTree.build(stops);
+
+		for (int query = 0; query < 500; query++) {
+			boolean city = random.nextBoolean();
+			double latitude = city ? 18 + random.nextDouble() * 0.2 : random.nextDouble() * 180 - 90;
+			double longitude = city ? -76.9 + random.nextDouble() * 0.2 : random.nextDouble() * 360 - 180;
+			assertMatchesBruteForce(tree, stops, latitude, longitude, 1 + random.nextInt(20));
+		}
+	}
+
+	@Test
+	void nearestFindsStopsAcrossTheAntimeridian() {
+		Random random = new Random(5);
+		List<Stop> stops = new ArrayList<>();
+		for (int i = 0; i < 1_000; i++) {
+			// Within a degree either side of 180 degrees, so neighbours often lie on the other side
+			double offset = random.nextDouble() * 2 - 1;
+			stops.add(stop("A" + i, -17 + random.nextDouble() * 2, offset >= 0 ? -180 + offset : 180 + offset));
+		}
+		StopKdTree tree = StopKdTree.build(stops);
+
+		for (int query = 0; query < 300; query++) {
+			double offset = random.nextDouble() * 2 - 1;
+			double longitude = offset >= 0 ? -180 + offset : 180 + offset;
+			assertMatchesBruteForce(tree, stops, -17 + random.nextDouble() * 2, longitude, 1 + random.nextInt(10));
+		}
+
+		// Just west of the antimeridian, the closest stop is just east of it
+		StopKdTree pair = StopKdTree.build(List.of(stop("WEST", 0, 170), stop("EAST", 0, -179.99)));
+		assertThat(pair.nearest(0, 179.99, 1).get(0).getStop().getStopId()).isEqualTo("EAST");
+	}
+
+	@Test
+	void nearestHandlesDuplicateCoordinates() {
+		Random random = new Random(9);
+		List<Stop> stops = new ArrayList<>();
+		// Many stops sharing a handful of positions, as when several platforms are geocoded to one point
+		for (int i = 0; i < 1_500; i++) {
+			int site = random.nextInt(6);
+			stops.add(stop("D" + i, 18 + site * 0.01, -76.8 - site * 0.01));
+		}
+		for (int i = 0; i < 200; i++) {
+			stops.add(stop("R" + i, 18 + random.nextDouble() * 0.06, -76.86 + random.nextDouble() * 0.06));
+		}
+		StopKdTree tree = StopKdTree.build(stops);
+
+		for (int query = 0; query < 300; query++) {
+			assertMatchesBruteForce(tree, stops, 18 + random.nextDouble() * 0.06, -76.86 + random.nextDouble() * 0.06,
+					1 + random.nextInt(50));
+		}
+
+		// Every stop at one point is returned, each once
+		List<Stop> same = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			same.add(stop("P" + i, 18, -76.8));
+		}
+		List<StopKdTree.Neighbor> all = StopKdTree.build(same).nearest(18, -76.8, 100);
+		Set<String> ids = new HashSet<>();
+		for (StopKdTree.Neighbor neighbor : all) {
+			ids.add(neighbor.getStop().getStopId());
+			assertThat(neighbor.getDistanceKm()).isCloseTo(0, offset(TOLERANCE_KM));
+		}
+		assertThat(ids).hasSize(100);
+	}
+
+	@Test
+	void nearestReturnsAtMostTheIndexedStops() {
+		StopKdTree tree = StopKdTree.build(List.of(stop("A", 18, -76.8), stop("B", 18.01, -76.8),
+				new Stop("NOWHERE", "No location", null)));
+
+		assertThat(tree.size()).isEqualTo(2);
+		assertThat(tree.nearest(18, -76.8, 10)).extracting(neighbor -> neighbor.getStop().getStopId())
+				.containsExactly("A", "B");
+		assertThat(tree.nearest(18, -76.8, 0)).isEmpty();
+		assertThat(StopKdTree.build(List.of()).nearest(18, -76.8, 5)).isEmpty();
+	}
+
+	private static void assertMatchesBruteForce(StopKdTree tree, List<Stop> stops, double latitude, double longitude,
+												int k) {
+		List<Double> expected = new ArrayList<>();
+		for (Stop stop : stops) {
+			expected.add(Location.haversineKm(latitude, longitude, stop.getLocation().getLatitude(),
+					stop.getLocation().getLongitude()));
+		}
+		expected.sort(null);
+
+		List<StopKdTree.Neighbor> nearest = tree.nearest(latitude, longitude, k);
+		assertThat(nearest).hasSize(Math.min(k, stops.size()));
+		Set<String> ids = new HashSet<>();
+		for (int i = 0; i < nearest.size(); i++) {
+			StopKdTree.Neighbor neighbor = nearest.get(i);
+			// Ties may come back in any order, so compare distances rather than stops
+			assertThat(neighbor.getDistanceKm()).isCloseTo(expected.get(i), offset(TOLERANCE_KM));
+			assertThat(neighbor.getDistanceKm()).isCloseTo(Location.haversineKm(latitude, longitude,
+					neighbor.getStop().getLocation().getLatitude(), neighbor.getStop().getLocation().getLongitude()),
+					offset(TOLERANCE_KM));
+			assertThat(ids.add(neighbor.getStop().getStopId())).isTrue();
+		}
+	}
+
+	private static Stop stop(String id, double latitude, double longitude) {
+		return new Stop(id, id, new Location(latitude, longitude));
+	}
+}
@@ -0,0 +1,82 @@
+package com.phoenixai.transittracker.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimerWheelTests {
+
+	private static final long TICK = 10;
+	private static final int SLOTS = 8;
+	private static final long REVOLUTION = TICK * SLOTS;
+
+	@Test
+	void valuesFireOnTheFirstAdvancePastTheirTick() {
+		Random random = new Random(24);
+		TimerWheel<Integer> wheel = new TimerWheel<>(TICK, SLOTS, 0);
+		Map<Integer, Long> deadlines = new HashMap<>();
+		// Deadlines several revolutions ahead share slots with nearer ones
+		for (int value = 0; value < 2_000; value++) {
+			long deadline = random.nextInt((int) (6 * REVOLUTION));
+			deadlines.put(value, deadline);
+			wheel.schedule(value, deadline);
+		}
+
+		Map<Integer, Long> firedAt = new HashMap<>();
+		long previous = 0;
+		while (firedAt.size() < deadlines.size()) {
+			long now = previous + 1 + random.nextInt((int) REVOLUTION - 1);
+			for (int value : wheel.advance(now)) {
+				long deadline = deadlines.get(value);
+				// Due once the wheel has passed the deadline's tick, and not already due at the previous advance
+				assertThat(now / TICK).isGreaterThan(deadline / TICK);
+				assertThat(previous / TICK).isLessThanOrEqualTo(deadline / TICK);
+				assertThat(firedAt.put(value, now)).as("fired twice: %s", value).isNull();
+			}
+			previous = now;
+			assertThat(now).isLessThan(20 * REVOLUTION);
+		}
+	}
+
+	@Test
+	void aLongPauseFiresEverythingDueInOneRevolution() {
+		TimerWheel<String> wheel = new TimerWheel<>(TICK, SLOTS, 1_000);
+		List<String> scheduled = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			String value = "V" + i;
+			scheduled.add(value);
+			wheel.schedule(value, 1_000 + i * 7L);
+		}
+		wheel.schedule("LATER", 1_000_000);
+
+		// Far more ticks passed than the wheel has slots
+		assertThat(wheel.advance(500_000)).containsExactlyInAnyOrderElementsOf(scheduled);
+		assertThat(wheel.advance(500_000)).isEmpty();
+
+		// Time carries on from the pause, and overdue values fire on the next advance
+		wheel.schedule("OVERDUE", 400_000);
+		wheel.schedule("SOON", 500_015);
+		assertThat(wheel.advance(500_010)).containsExactly("OVERDUE");
+		assertThat(wheel.advance(500_020)).containsExactly("SOON");
+		assertThat(wheel.advance(999_990)).isEmpty();
+		assertThat(wheel.advance(1_000_010)).containsExactly("LATER");
+	}
+
+	@Test
+	void valuesScheduledTwiceFireTwice() {
+		TimerWheel<String> wheel = new TimerWheel<>(TICK, SLOTS, 0);
+		wheel.schedule("A", 15);
+		wheel.schedule("A", 15);
+		wheel.schedule("A", 35);
+
+		assertThat(wheel.advance(19)).isEmpty();
+		assertThat(wheel.advance(20)).containsExactly("A", "A");
+		assertThat(wheel.advance(40)).containsExactly("A");
+	}
+}
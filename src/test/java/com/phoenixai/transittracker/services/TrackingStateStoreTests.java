@@ -0,0 +1,207 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TrackingStateStoreTests {
+
+	@TempDir
+	Path directory;
+
+	private final List<Instance> instances = new ArrayList<>();
+
+	@AfterEach
+	void closeInstances() {
+		for (Instance instance : instances) {
+			instance.crash();
+		}
+	}
+
+	@Test
+	void recoversSnapshotPlusLaterWalRecords() throws IOException {
+		Instance first = start();
+		first.gps.updateBusLocation("BUS-A", new Location(18.00, -76.80, 0, 5));
+		first.gps.updateBusLocation("BUS-B", new Location(18.01, -76.81, 0, 5));
+		first.gps.updatePassengerLocation("P-1", new Location(18.02, -76.82, 0, 5));
+		first.store.snapshot();
+
+		// After the snapshot: only in the WAL
+		first.gps.updateBusLocation("BUS-A", new Location(18.10, -76.90, 0, 5));
+		first.gps.removeBus("BUS-B");
+		first.gps.updateBusLocation("BUS-C", new Location(18.20, -76.70, 0, 5));
+		first.wal.sync();
+		first.crash();
+
+		assertThat(files("snapshot-")).isNotEmpty();
+		Instance second = start();
+		Map<String, Location> buses = second.gps.getAllBusLocations();
+		assertThat(buses).containsOnlyKeys("BUS-A", "BUS-C");
+		assertThat(buses.get("BUS-A").getLatitude()).isEqualTo(18.10);
+		assertThat(buses.get("BUS-C").getLatitude()).isEqualTo(18.20);
+		assertThat(second.gps.getBusLocationHistory("BUS-A")).extracting(Location::getLatitude)
+				.containsExactly(18.00, 18.10);
+		assertThat(second.gps.getCurrentUserLocation("P-1").getLatitude()).isEqualTo(18.02);
+	}
+
+	@Test
+	void tornTailRecordIsIgnored() throws IOException {
+		Instance first = start();
+		first.gps.updateBusLocation("BUS-A", new Location(18.00, -76.80, 0, 5));
+		first.wal.sync();
+		Path segment = lastSegment();
+		long intact = Files.size(segment);
+		first.gps.updateBusLocation("BUS-A", new Location(18.10, -76.90, 0, 5));
+		first.wal.sync();
+		first.crash();
+
+		// A crash part way through writing the next record's header
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			channel.truncate(intact + 6);
+		}
+
+		Instance second = start();
+		assertThat(second.gps.getBusLocation("BUS-A").getLatitude()).isEqualTo(18.00);
+		// Logging continues in a new segment after the torn one
+		second.gps.updateBusLocation("BUS-B", new Location(18.20, -76.70, 0, 5));
+		second.wal.sync();
+		second.crash();
+		assertThat(start().gps.getAllBusLocations()).containsOnlyKeys("BUS-A", "BUS-B");
+	}
+
+	@Test
+	void recordWithBadChecksumEndsReplay() throws IOException {
+		Instance first = start();
+		first.gps.updateBusLocation("BUS-A", new Location(18.00, -76.80, 0, 5));
+		first.wal.sync();
+		Path segment = lastSegment();
+		long intact = Files.size(segment);
+		first.gps.updateBusLocation("BUS-A", new Location(18.10, -76.90, 0, 5));
+		first.gps.updateBusLocation("BUS-B", new Location(18.20, -76.70, 0, 5));
+		first.wal.sync();
+		first.crash();
+
+		// Flip a payload byte of the first record after the intact ones; it and everything after it are dropped
+		byte[] bytes = Files.readAllBytes(segment);
+		bytes[(int) intact + 8 + 1] ^= 0x40;
+		Files.write(segment, bytes);
+
+		Instance second = start();
+		assertThat(second.gps.getAllBusLocations()).containsOnlyKeys("BUS-A");
+		assertThat(second.gps.getBusLocation("BUS-A").getLatitude()).isEqualTo(18.00);
+	}
+
+	@Test
+	void updatesDuringSnapshotRotationAreKept() throws Exception {
+		Instance first = start();
+		int writers = 3;
+		int buses = 50;
+		Map<String, Double> latest = new ConcurrentHashMap<>();
+		AtomicBoolean running = new AtomicBoolean(true);
+		ExecutorService pool = Executors.newFixedThreadPool(writers);
+		try {
+			List<Future<?>> updates = new ArrayList<>();
+			for (int w = 0; w < writers; w++) {
+				int writer = w;
+				updates.add(pool.submit(() -> {
+					// Each writer owns its own buses, so the last value written per bus is known
+					for (int i = 0; running.get() || i < buses; i++) {
+						String busId = "BUS-" + writer + "-" + (i % buses);
+						double latitude = 17.0 + (i % 10_000) / 10_000.0;
+						first.gps.updateBusLocation(busId, new Location(latitude, -76.8, 0, 5));
+						latest.put(busId, latitude);
+					}
+				}));
+			}
+			// Each snapshot rotates the WAL while the writers keep appending
+			for (int i = 0; i < 10; i++) {
+				first.store.snapshot();
+			}
+			running.set(false);
+			for (Future<?> update : updates) {
+				update.get(1, TimeUnit.MINUTES);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		first.wal.sync();
+		first.crash();
+
+		Map<String, Location> recovered = start().gps.getAllBusLocations();
+		assertThat(recovered).hasSize(writers * buses);
+		for (Map.Entry<String, Double> bus : latest.entrySet()) {
+			assertThat(recovered.get(bus.getKey()).getLatitude()).as(bus.getKey()).isEqualTo(bus.getValue());
+		}
+	}
+
+	private Instance start() {
+		Instance instance = new Instance(directory);
+		instances.add(instance);
+		instance.store.recover();
+		return instance;
+	}
+
+	private Path lastSegment() throws IOException {
+		List<Path> segments = files("wal-");
+		return segments.get(segments.size() - 1);
+	}
+
+	private List<Path> files(String prefix) throws IOException {
+		try (var paths = Files.list(directory)) {
+			return paths.filter(path -> path.getFileName().toString().startsWith(prefix)).sorted().toList();
+		}
+	}
+
+	/**
+	 * One run of the application's persistence, without Spring
+	 */
+	private static final class Instance {
+		final LocationHistoryStore history;
+		final LocationWal wal;
+		final GPSService gps;
+		final TrackingStateStore store;
+		private boolean stopped;
+
+		Instance(Path directory) {
+			SimpleMeterRegistry registry = new SimpleMeterRegistry();
+			history = new LocationHistoryStore(null, 1024, Duration.ofMinutes(10), Duration.ofHours(1), 4);
+			wal = new LocationWal(registry, true, directory, Duration.ofMillis(1));
+			gps = new GPSService(new RestTemplate(), history, new BusPositionStore(new BusIdInterner(), 16, 0),
+					new PassengerStore(Duration.ofMinutes(30), 100), List.of(wal), registry, 0.01, 15, false);
+			store = new TrackingStateStore(gps, wal, registry, Duration.ofHours(1));
+		}
+
+		/**
+		 * Stop without the shutdown snapshot, as a crash would; only what was synced is on disk
+		 */
+		void crash() {
+			if (stopped) {
+				return;
+			}
+			stopped = true;
+			wal.close();
+			history.close();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.phoenixai.transittracker.services;
+
+import com.phoenixai.transittracker.model.Location;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TrajectoryCompressorTests {
+
+	private static final double ERROR_METERS = 10;
+	private static final double ORIGIN_LATITUDE = 18.0;
+	private static final double ORIGIN_LONGITUDE = -76.8;
+	private static final double METERS_PER_DEGREE = Location.EARTH_RADIUS_KM * 1000 * Math.PI / 180;
+	private static final long START = 1_700_000_000_000L;
+
+	@Test
+	void firstFixIsKept() {
+		TrajectoryCompressor compressor = new TrajectoryCompressor(ERROR_METERS);
+
+		assertThat(compressor.offer(ORIGIN_LATITUDE, ORIGIN_LONGITUDE, 0, 5, START))
+				.isEqualTo(TrajectoryCompressor.KEEP);
+		assertThat(compressor.isLastKept()).isTrue();
+	}
+
+	@Test
+	void straightLineAtSteadySpeedKeepsOnlyTheStart() {
+		// 8 m/s north, one fix a second: the second fix is within the bound of the bus at rest,
+		// the third is not and anchors the velocity, after which every fix is where it is predicted
+		List<Integer> kept = keptFixes(new TrajectoryCompressor(ERROR_METERS), 60, t -> new double[] {8.0 * t, 0});
+
+		assertThat(kept).containsExactly(0, 1, 2);
+	}
+
+	@Test
+	void turnKeepsItsCorner() {
+		// North at 8 m/s for 20 s, then east at 8 m/s; fix 20 is the corner
+		TrajectoryCompressor compressor = new TrajectoryCompressor(ERROR_METERS);
+		List<Integer> kept = keptFixes(compressor, 40,
+				t -> t <= 20 ? new double[] {8.0 * t, 0} : new double[] {160, 8.0 * (t - 20)});
+
+		assertThat(kept).containsExactly(0, 1, 2, 20, 21);
+	}
+
+	@Test
+	void stoppedBusKeepsOnlyItsFirstFix() {
+		// GPS jitter of a few meters around one spot
+		double[][] jitter = {{0, 0}, {3, -2}, {-4, 1}, {2, 4}, {-1, -5}, {5, 0}};
+		TrajectoryCompressor compressor = new TrajectoryCompressor(ERROR_METERS);
+		List<Integer> kept = keptFixes(compressor, 300, t -> jitter[(int) (t % jitter.length)]);
+
+		assertThat(kept).containsExactly(0);
+		assertThat(compressor.isLastKept()).isFalse();
+		// The dropped newest fix is still available to show as the current position
+		assertThat(compressor.getLastTime()).isEqualTo(START + 299_000);
+	}
+
+	@Test
+	void fixWithinTheBoundIsDroppedAndBeyondItKept() {
+		TrajectoryCompressor within = restedAtOrigin();
+		assertThat(within.offer(latitude(ERROR_METERS - 0.01), ORIGIN_LONGITUDE, 0, 5, START + 1000)).isZero();
+
+		TrajectoryCompressor beyond = restedAtOrigin();
+		assertThat(beyond.offer(latitude(ERROR_METERS + 0.01), ORIGIN_LONGITUDE, 0, 5, START + 1000))
+				.isEqualTo(TrajectoryCompressor.KEEP);
+	}
+
+	@Test
+	void fixBeyondTheBoundAfterDroppedOnesAlsoKeepsThePrevious() {
+		TrajectoryCompressor compressor = restedAtOrigin();
+		assertThat(compressor.offer(latitude(5), ORIGIN_LONGITUDE, 0, 5, START + 1000)).isZero();
+		assertThat(compressor.getLastLatitude()).isEqualTo(latitude(5));
+
+		assertThat(compressor.offer(latitude(15), ORIGIN_LONGITUDE, 0, 5, START + 2000))
+				.isEqualTo(TrajectoryCompressor.KEEP | TrajectoryCompressor.KEEP_PREVIOUS);
+	}
+
+	@Test
+	void zeroBoundKeepsEveryFix() {
+		List<Integer> kept = keptFixes(new TrajectoryCompressor(0), 10, t -> new double[] {0, 0});
+
+		assertThat(kept).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+	}
+
+	private static TrajectoryCompressor restedAtOrigin() {
+		TrajectoryCompressor compressor = new TrajectoryCompressor(ERROR_METERS);
+		compressor.reset(ORIGIN_LATITUDE, ORIGIN_LONGITUDE, 0, 5, START);
+		return compressor;
+	}
+
+	/**
+	 * Offer one fix a second along a track and list the indices of the fixes kept,
+	 * including those kept afterwards as the previous fix
+	 */
+	private static List<Integer> keptFixes(TrajectoryCompressor compressor, int fixes, Track track) {
+		List<Integer> kept = new ArrayList<>();
+		for (int t = 0; t < fixes; t++) {
+			double[] northEast = track.at(t);
+			int decision = compressor.offer(latitude(northEast[0]), longitude(northEast[1]), 0, 5, START + t * 1000L);
+			if ((decision & TrajectoryCompressor.KEEP_PREVIOUS) != 0) {
+				kept.add(t - 1);
+			}
+			if ((decision & TrajectoryCompressor.KEEP) != 0) {
+				kept.add(t);
+			}
+		}
+		return kept;
+	}
+
+	private static double latitude(double northMeters) {
+		return ORIGIN_LATITUDE + northMeters / METERS_PER_DEGREE;
+	}
+
+	private static double longitude(double eastMeters) {
+		return ORIGIN_LONGITUDE + eastMeters / (METERS_PER_DEGREE * Math.cos(Math.toRadians(ORIGIN_LATITUDE)));
+	}
+
+	/**
+	 * Position in meters north and east of the origin at a number of seconds from the start
+	 */
+	@FunctionalInterface
+	private interface Track {
+		double[] at(long seconds);
+	}
+}